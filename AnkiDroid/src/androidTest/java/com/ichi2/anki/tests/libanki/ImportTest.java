@@ -43,9 +43,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -56,6 +60,7 @@ import androidx.test.rule.GrantPermissionRule;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -292,6 +297,61 @@ public class ImportTest extends InstrumentedTest {
         assertEquals(11, testCol.cardCount());
     }
 
+    @Test
+    @SdkSuppress(minSdkVersion = Build.VERSION_CODES.O)
+    public void testCsvWithAMillionLines() throws IOException {
+        // The file is read and imported by batches, this would run out of memory if it were loaded at once
+        int lines = 1000000;
+        File file = File.createTempFile("million", ".txt");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                for (int line = 0; line < lines; line++) {
+                    writer.write("front" + line + "\tback" + line + "\n");
+                }
+                // a duplicate of a note from the first batch
+                writer.write("front0\tagain\n");
+            }
+            TextImporter i = new TextImporter(testCol, file.getAbsolutePath());
+            i.initMapping();
+            i.run();
+
+            assertEquals(lines, i.getTotal());
+            assertEquals(lines, testCol.noteCount());
+            if (TestEnvironment.isDisplayingDefaultEnglishStrings()) {
+                assertThat(i.getLog(), hasItem("Appeared twice in file: front0"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = Build.VERSION_CODES.O)
+    public void testCsvLogIsLimited() throws IOException {
+        int lines = 5000;
+        File file = File.createTempFile("updated", ".txt");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                for (int line = 0; line < lines; line++) {
+                    writer.write("front" + line + "\tback" + line + "\n");
+                }
+            }
+            TextImporter i = new TextImporter(testCol, file.getAbsolutePath());
+            i.initMapping();
+            i.run();
+            // every note is matched the second time, but only the first matches are logged
+            i.run();
+
+            assertEquals(lines, i.getTotal());
+            assertThat(i.getLog(), hasSize(1002));
+            if (TestEnvironment.isDisplayingDefaultEnglishStrings()) {
+                assertThat(i.getLog(), hasItem("4000 more messages not shown"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
     @Test
     @SdkSuppress(minSdkVersion = Build.VERSION_CODES.O)
     public void testCsv2() throws  IOException, ConfirmModSchemaException {
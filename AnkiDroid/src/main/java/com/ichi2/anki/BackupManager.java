@@ -23,6 +23,7 @@ import com.ichi2.compat.CompatHelper;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.utils.Time;
+import com.ichi2.libanki.utils.ZipCompression;
 import com.ichi2.utils.FileUtil;
 
 import java.io.BufferedOutputStream;
@@ -102,6 +103,13 @@ public class BackupManager {
             Timber.w("backups are disabled");
             return false;
         }
+        if (CollectionHelper.getInstance().colIsOpen()) {
+            Collection col = CollectionHelper.getInstance().getCol(AnkiDroidApp.getInstance());
+            if (new File(colPath).equals(new File(col.getPath()))) {
+                // the file is copied as is, it must contain the decks stored separately
+                col.flushDecksToColTable();
+            }
+        }
         final File colFile = new File(colPath);
         File[] deckBackups = getBackups(colFile);
         int len = deckBackups.length;
@@ -173,6 +181,7 @@ public class BackupManager {
                 try {
                     ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(backupFile)));
                     ZipEntry ze = new ZipEntry(CollectionHelper.COLLECTION_FILENAME);
+                    ZipCompression.setMethod(ze, colFile);
                     zos.putNextEntry(ze);
                     CompatHelper.getCompat().copyFile(colPath, zos);
                     zos.close();
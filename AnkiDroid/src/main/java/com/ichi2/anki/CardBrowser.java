@@ -91,6 +91,7 @@ import com.ichi2.widget.WidgetStatus;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -101,6 +102,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -211,7 +213,8 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private TextView mActionBarTitle;
     private boolean mReloadRequired = false;
     private boolean mInMultiSelectMode = false;
-    private final Set<CardCache> mCheckedCards = Collections.synchronizedSet(new LinkedHashSet<>());
+    /** The ids of the selected cards, so that selecting every card does not create the CardCache of every card */
+    private final Set<Long> mCheckedCardIds = Collections.synchronizedSet(new LinkedHashSet<>());
     private int mLastSelectedPosition;
     @Nullable
     private Menu mActionBarMenu;
@@ -419,11 +422,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
     }
 
     private List<Long> getSelectedCardIds() {
-        List<Long> ids = new ArrayList<>(mCheckedCards.size());
-        for (CardCache cardPosition : mCheckedCards) {
-            ids.add(cardPosition.getId());
+        synchronized (mCheckedCardIds) {
+            return new ArrayList<>(mCheckedCardIds);
         }
-        return ids;
     }
 
     private boolean canPerformCardInfo() {
@@ -986,9 +987,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
             return;
         }
 
-        if (!mCheckedCards.isEmpty()) {
+        if (!mCheckedCardIds.isEmpty()) {
             TaskManager.cancelAllTasks(CollectionTask.CheckCardSelection.class);
-            TaskManager.launchCollectionTask(new CollectionTask.CheckCardSelection(getCards()),
+            TaskManager.launchCollectionTask(new CollectionTask.CheckCardSelection(getSelectedCardIds()),
                     mCheckSelectedCardsHandler);
         }
 
@@ -1001,7 +1002,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
 
     private boolean hasSelectedCards() {
-        return !mCheckedCards.isEmpty();
+        return !mCheckedCardIds.isEmpty();
     }
 
     private boolean hasSelectedAllCards() {
@@ -1192,7 +1193,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         TaskManager.launchCollectionTask(new CollectionTask.DeleteNoteMulti(getSelectedCardIds()),
                                             mDeleteNoteHandler);
 
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         endMultiSelectMode();
         mCardsAdapter.notifyDataSetChanged();
     }
@@ -1249,8 +1250,18 @@ public class CardBrowser extends NavigationDrawerActivity implements
             return getPreviewIntent(index, Utils.toPrimitive(getSelectedCardIds()));
         } else {
             // Preview all cards, starting from the one that is currently selected
-            int startIndex = mCheckedCards.isEmpty() ? 0 : mCheckedCards.iterator().next().getPosition();
-            return getPreviewIntent(startIndex, getAllCardIds());
+            long[] allCardIds = getAllCardIds();
+            int startIndex = 0;
+            if (!mCheckedCardIds.isEmpty()) {
+                long firstCheckedId = mCheckedCardIds.iterator().next();
+                for (int i = 0; i < allCardIds.length; i++) {
+                    if (allCardIds[i] == firstCheckedId) {
+                        startIndex = i;
+                        break;
+                    }
+                }
+            }
+            return getPreviewIntent(startIndex, allCardIds);
         }
     }
 
@@ -1463,7 +1474,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         TaskManager.cancelAllTasks(CollectionTask.RenderBrowserQA.class);
         TaskManager.cancelAllTasks(CollectionTask.CheckCardSelection.class);
         mCards.clear();
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
     }
 
     /** Currently unused - to be used in #7676 */
@@ -1526,11 +1537,21 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private static Map<Long, Integer> getPositionMap(CardCollection<CardCache> list) {
         Map<Long, Integer> positions = new HashMap<>(list.size());
         for (int i = 0; i < list.size(); i++) {
-            positions.put(list.get(i).getId(), i);
+            positions.put(getCardId(list, i), i);
         }
         return positions;
     }
 
+
+    /** The id of the card at position, read without creating its CardCache when the list has not created it yet */
+    private static long getCardId(CardCollection<CardCache> list, int position) {
+        java.util.Collection<CardCache> wrapped = list.unsafeGetWrapped();
+        if (wrapped instanceof CardCacheList) {
+            return ((CardCacheList) wrapped).getId(position);
+        }
+        return list.get(position).getId();
+    }
+
     // Iterates the drop down decks, and selects the one matching the given id
     private boolean selectDeckById(@NonNull Long deckId) {
         for (int dropDownDeckIdx = 0; dropDownDeckIdx < mDropDownDecks.size(); dropDownDeckIdx++) {
@@ -1782,14 +1803,19 @@ public class CardBrowser extends NavigationDrawerActivity implements
             }
         }
 
-        List<CardCache> newMCards = new ArrayList<>(oldMCards.size());
-        int pos = 0;
-        for (CardCache card: oldMCards) {
-            if (!idToRemove.contains(card.getId())) {
-                newMCards.add(new CardCache(card, pos++));
+        java.util.Collection<CardCache> oldWrapped = oldMCards.unsafeGetWrapped();
+        if (oldWrapped instanceof CardCacheList) {
+            mCards.replaceWith(((CardCacheList) oldWrapped).without(idToRemove));
+        } else {
+            List<CardCache> newMCards = new ArrayList<>(oldMCards.size());
+            int pos = 0;
+            for (CardCache card : oldMCards) {
+                if (!idToRemove.contains(card.getId())) {
+                    newMCards.add(new CardCache(card, pos++));
+                }
             }
+            mCards.replaceWith(newMCards);
         }
-        mCards.replaceWith(newMCards);
 
         if (reorderCards) {
             //Suboptimal from a UX perspective, we should reorder
@@ -2002,9 +2028,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
         if (mCards.size() == 0) {
             return CARD_NOT_AVAILABLE;
         }
-        for (CardCache card : mCards) {
-            if (card.getId() == mOldCardId) {
-                return card.mPosition;
+        for (int i = 0; i < mCards.size(); i++) {
+            if (getCardId(mCards, i) == mOldCardId) {
+                return i;
             }
         }
         return CARD_NOT_AVAILABLE;
@@ -2271,7 +2297,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
             // if in multi-select mode, be sure to show the checkboxes
             if(mInMultiSelectMode) {
                 checkBox.setVisibility(View.VISIBLE);
-                checkBox.setChecked(mCheckedCards.contains(card));
+                checkBox.setChecked(mCheckedCardIds.contains(card.getId()));
                 // this prevents checkboxes from showing an animation from selected -> unselected when
                 // checkbox was selected, then selection mode was ended and now restarted
                 checkBox.jumpDrawablesToCurrentState();
@@ -2333,34 +2359,36 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     private void onCheck(int position, View cell) {
         CheckBox checkBox = cell.findViewById(R.id.card_checkbox);
-        CardCache card = getCards().get(position);
+        long cardId = getCardId(mCards, position);
 
         if (checkBox.isChecked()) {
-            mCheckedCards.add(card);
+            mCheckedCardIds.add(cardId);
         } else {
-            mCheckedCards.remove(card);
+            mCheckedCardIds.remove(cardId);
         }
 
        onSelectionChanged();
     }
 
     private void onSelectAll() {
-        mCheckedCards.addAll(mCards.unsafeGetWrapped());
+        for (long cardId : getAllCardIds()) {
+            mCheckedCardIds.add(cardId);
+        }
         onSelectionChanged();
     }
 
     private void onSelectNone() {
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         onSelectionChanged();
     }
 
     private void onSelectionChanged() {
         Timber.d("onSelectionChanged()");
         try {
-            if (!mInMultiSelectMode && !mCheckedCards.isEmpty()) {
+            if (!mInMultiSelectMode && !mCheckedCardIds.isEmpty()) {
                 //If we have selected cards, load multiselect
                 loadMultiSelectMode();
-            } else if (mInMultiSelectMode && mCheckedCards.isEmpty()) {
+            } else if (mInMultiSelectMode && mCheckedCardIds.isEmpty()) {
                 //If we don't have cards, unload multiselect
                 endMultiSelectMode();
             }
@@ -2396,9 +2424,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
             cardIds.add(c.getId());
         }
 
-        for (CardCache props : mCards) {
-            if (cardIds.contains(props.getId())) {
-                props.reload();
+        for (int i = 0; i < mCards.size(); i++) {
+            if (cardIds.contains(getCardId(mCards, i))) {
+                mCards.get(i).reload();
             }
         }
         mCardsAdapter.notifyDataSetChanged();
@@ -2412,7 +2440,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private long[] getAllCardIds() {
         long[] l = new long[mCards.size()];
         for (int i = 0; i < mCards.size(); i++) {
-            l[i] = mCards.get(i).getId();
+            l[i] = getCardId(mCards, i);
         }
         return l;
     }
@@ -2442,6 +2470,10 @@ public class CardBrowser extends NavigationDrawerActivity implements
         }
 
         public void reverse() {
+            if (mWrapped instanceof CardCacheList) {
+                ((CardCacheList) mWrapped).reverse();
+                return;
+            }
             Collections.reverse(mWrapped);
             int position = 0;
             for (int i = 0; i < mWrapped.size(); i++) {
@@ -2469,7 +2501,97 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
 
         public void clear() {
-            mWrapped.clear();
+            // the list found by a search has a fixed size
+            reset();
+        }
+    }
+
+    /**
+     * The cards found by a search, kept as an array of ids. The {@link CardCache} of a card is only created when the card
+     * is read, which is usually when it is shown, so that a search of many cards does not create an object per card.
+     */
+    public static class CardCacheList extends AbstractList<CardCache> implements RandomAccess {
+        private final Collection mCol;
+        private final long[] mIds;
+        /** The CardCache of the cards read, by position */
+        private final CardCache[] mCards;
+
+
+        public CardCacheList(@NonNull Collection col, @NonNull long[] ids) {
+            this(col, ids, new CardCache[ids.length]);
+        }
+
+
+        private CardCacheList(@NonNull Collection col, @NonNull long[] ids, @NonNull CardCache[] cards) {
+            mCol = col;
+            mIds = ids;
+            mCards = cards;
+        }
+
+
+        @Override
+        public synchronized CardCache get(int index) {
+            CardCache card = mCards[index];
+            if (card == null) {
+                card = new CardCache(mIds[index], mCol, index);
+                mCards[index] = card;
+            }
+            return card;
+        }
+
+
+        @Override
+        public synchronized CardCache set(int index, CardCache card) {
+            CardCache previous = mCards[index];
+            card.setPosition(index);
+            mIds[index] = card.getId();
+            mCards[index] = card;
+            return previous;
+        }
+
+
+        @Override
+        public int size() {
+            return mIds.length;
+        }
+
+
+        public long getId(int index) {
+            return mIds[index];
+        }
+
+
+        /** Reverse the order of the cards, without creating the CardCache of the cards not read yet */
+        public synchronized void reverse() {
+            for (int i = 0, j = mIds.length - 1; i < j; i++, j--) {
+                long id = mIds[i];
+                mIds[i] = mIds[j];
+                mIds[j] = id;
+                CardCache card = mCards[i];
+                mCards[i] = mCards[j];
+                mCards[j] = card;
+            }
+            for (int i = 0; i < mCards.length; i++) {
+                if (mCards[i] != null) {
+                    mCards[i].setPosition(i);
+                }
+            }
+        }
+
+
+        /** A new list of the cards whose id is not in removed, keeping their data */
+        public synchronized CardCacheList without(Set<Long> removed) {
+            long[] ids = new long[mIds.length];
+            CardCache[] cards = new CardCache[mIds.length];
+            int size = 0;
+            for (int i = 0; i < mIds.length; i++) {
+                if (!removed.contains(mIds[i])) {
+                    ids[size] = mIds[i];
+                    cards[size] = mCards[i] == null ? null : new CardCache(mCards[i], size);
+                    size++;
+                }
+            }
+            return new CardCacheList(mCol, Arrays.copyOf(ids, size), Arrays.copyOf(cards, size));
         }
     }
 
@@ -2732,7 +2854,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
      */
     private void endMultiSelectMode() {
         Timber.d("endMultiSelectMode()");
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         mInMultiSelectMode = false;
         // If view which was originally selected when entering multi-select is visible then maintain its position
         View view = mCardsListView.getChildAt(mLastSelectedPosition - mCardsListView.getFirstVisiblePosition());
@@ -2749,7 +2871,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting
     public int checkedCardCount() {
-        return mCheckedCards.size();
+        return mCheckedCardIds.size();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
@@ -2802,14 +2924,14 @@ public class CardBrowser extends NavigationDrawerActivity implements
                         String.format(Locale.US, "Attempted to check card at index %d. %d cards available",
                                 position, mCards.size()));
             }
-            mCheckedCards.add(getCards().get(position));
+            mCheckedCardIds.add(getCardId(mCards, position));
         }
         onSelectionChanged();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     boolean hasCheckedCardAtPosition(int i) {
-        return mCheckedCards.contains(getCards().get(i));
+        return mCheckedCardIds.contains(getCardId(mCards, i));
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
@@ -2827,12 +2949,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     public List<Long> getCheckedCardIds() {
-        List<Long> cardIds = new ArrayList<>(mCheckedCards.size());
-        for (CardCache card : mCheckedCards) {
-            long id = card.getId();
-            cardIds.add(id);
-        }
-        return cardIds;
+        return getSelectedCardIds();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE) //should only be called from changeDeck()
@@ -2869,7 +2986,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting
     void replaceSelectionWith(int[] positions) {
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         checkCardsAtPositions(positions);
     }
 }
@@ -35,6 +35,8 @@ import com.ichi2.utils.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
@@ -58,6 +60,9 @@ public class CollectionHelper {
      */
     private boolean mCollectionLocked;
 
+    /** Builds the tables derived from the collection, see {@link #loadCollectionComplete(Collection)} */
+    private static final ExecutorService sDerivedTablesBuilder = Executors.newSingleThreadExecutor();
+
     @Nullable
     public static Long getCollectionSize(Context context) {
         try {
@@ -374,6 +379,17 @@ public class CollectionHelper {
      */
     public static void loadCollectionComplete(Collection col) {
         col.getModels();
+        // Read by the statistics, the estimated times and the tag searches, which read the revlog and the notes until
+        // the tables exist. Building them reads the whole collection, so it is not done in the queue of the
+        // collection tasks, which would wait for it.
+        sDerivedTablesBuilder.execute(() -> {
+            try {
+                col.ensureDerivedTables();
+            } catch (RuntimeException e) {
+                // built again when the collection is next loaded
+                Timber.w(e, "Could not build the derived tables");
+            }
+        });
     }
 
     public static boolean isFutureAnkiDroidVersion(Context context) throws UnknownDatabaseVersionException {
@@ -1620,7 +1620,7 @@ public class DeckPicker extends NavigationDrawerActivity implements
     private MediaCheckListener mediaCheckListener() {
         return new MediaCheckListener(this);
     }
-    private static class MediaCheckListener extends TaskListenerWithContext<DeckPicker, Void, PairWithBoolean<List<List<String>>>>{
+    private static class MediaCheckListener extends TaskListenerWithContext<DeckPicker, Integer, PairWithBoolean<List<List<String>>>>{
         public MediaCheckListener (DeckPicker deckPicker) {
             super(deckPicker);
         }
@@ -1632,6 +1632,14 @@ public class DeckPicker extends NavigationDrawerActivity implements
         }
 
 
+        @Override
+        public void actualOnProgressUpdate(@NonNull DeckPicker deckPicker, Integer notesChecked) {
+            if (deckPicker.mProgressDialog != null && deckPicker.mProgressDialog.isShowing()) {
+                deckPicker.mProgressDialog.setContent(deckPicker.getResources().getQuantityString(R.plurals.check_media_progress, notesChecked, notesChecked));
+            }
+        }
+
+
         @Override
         public void actualOnPostExecute(@NonNull DeckPicker deckPicker, PairWithBoolean<List<List<String>>> result) {
             if (deckPicker.mProgressDialog != null && deckPicker.mProgressDialog.isShowing()) {
@@ -28,13 +28,13 @@ import android.content.UriMatcher;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
 
-import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 
 import com.ichi2.anki.AnkiDroidApp;
@@ -231,6 +231,8 @@ public class CardContentProvider extends ContentProvider {
         if (col == null) {
             throw new IllegalStateException(COL_NULL_ERROR_MSG);
         }
+        // the tables are read directly, without the answers kept by the journal
+        col.getReviewJournal().flush();
         Timber.d(getLogMessage("query", uri));
 
         // Find out what data the user is requesting
@@ -250,9 +252,17 @@ public class CardContentProvider extends ContentProvider {
                 String query = (selection != null) ? selection : "";
                 List<Long> noteIds = col.findNotes(query);
                 if ((noteIds != null) && (!noteIds.isEmpty())) {
-                    String sel = String.format("id in (%s)", TextUtils.join(",", noteIds));
+                    DB.IdTable table = col.getDb().idTable(noteIds);
+                    String sel = "id in " + table.getName();
                     String sql = SQLiteQueryBuilder.buildQueryString(false, "notes", proj, sel, null, null, order, null);
-                    return col.getDb().getDatabase().query(sql);
+                    // the cursor may read the table until the client closes it
+                    return new CursorWrapper(col.getDb().getDatabase().query(sql)) {
+                        @Override
+                        public void close() {
+                            super.close();
+                            table.close();
+                        }
+                    };
                 } else {
                     return null;
                 }
@@ -771,7 +781,8 @@ public class CardContentProvider extends ContentProvider {
     }
 
     /**
-     * This implementation optimizes for when the notes are grouped according to model
+     * This implementation optimizes for when the notes are grouped according to model: each run of consecutive notes
+     * of a same model is added by a single {@link Collection#addNotes(Model, List, List, long)}
      */
     private int bulkInsertNotes(ContentValues[] valuesArr, long deckId) {
         if (valuesArr == null || valuesArr.length == 0) {
@@ -786,11 +797,11 @@ public class CardContentProvider extends ContentProvider {
         }
         col.log(String.format(Locale.US, "bulkInsertNotes: %d items.\n%s", valuesArr.length, getLogMessage("bulkInsert", null)));
 
-        // for caching model information (so we don't have to query for each note)
-        long modelId = NOT_FOUND_NOTE_TYPE;
+        // the run of notes of a same model not yet added
         Model model = null;
+        List<String[]> fields = new ArrayList<>();
+        List<String> tags = new ArrayList<>();
 
-        col.getDecks().flush(); // is it okay to move this outside the for-loop? Is it needed at all?
         SupportSQLiteDatabase sqldb = col.getDb().getDatabase();
         try {
             int result = 0;
@@ -811,35 +822,18 @@ public class CardContentProvider extends ContentProvider {
                 }
                 String[] fldsArray = Utils.splitFields(flds);
 
-                if (model == null || thisModelId != modelId) {
-                    // new modelId so need to recalculate model, modelId and invalidate duplicateChecker (which is based on previous model)
+                if (model == null || thisModelId != model.getLong("id")) {
+                    result += addNotes(col, model, fields, tags, deckId);
                     model = col.getModels().get(thisModelId);
-                    modelId = thisModelId;
                 }
-
-                // Create empty note
-                com.ichi2.libanki.Note newNote = new com.ichi2.libanki.Note(col, model); // for some reason we cannot pass modelId in here
-                // Set fields
                 // Check that correct number of flds specified
-                if (fldsArray.length != newNote.getFields().length) {
+                if (fldsArray.length != model.getJSONArray("flds").length()) {
                     throw new IllegalArgumentException("Incorrect flds argument : " + flds);
                 }
-                for (int idx = 0; idx < fldsArray.length; idx++) {
-                    newNote.setField(idx, fldsArray[idx]);
-                }
-                // Set tags
-                String tags = values.getAsString(FlashCardsContract.Note.TAGS);
-                if (tags != null) {
-                    newNote.setTagsFromStr(tags);
-                }
-                // Add to collection
-                col.addNote(newNote);
-                for (Card card : newNote.cards()) {
-                    card.setDid(deckId);
-                    card.flush();
-                }
-                result++;
+                fields.add(fldsArray);
+                tags.add(values.getAsString(FlashCardsContract.Note.TAGS));
             }
+            result += addNotes(col, model, fields, tags, deckId);
             col.save();
             sqldb.setTransactionSuccessful();
             return result;
@@ -848,6 +842,26 @@ public class CardContentProvider extends ContentProvider {
         }
     }
 
+
+    /**
+     * Add the notes of model whose fields and tags are given, and empty those lists.
+     * @return The number of notes added
+     */
+    private static int addNotes(Collection col, Model model, List<String[]> fields, List<String> tags, long deckId) {
+        if (fields.isEmpty()) {
+            return 0;
+        }
+        int added = 0;
+        for (int cards : col.addNotes(model, fields, tags, deckId)) {
+            if (cards > 0) {
+                added++;
+            }
+        }
+        fields.clear();
+        tags.clear();
+        return added;
+    }
+
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
         if (!hasReadWritePermission() && shouldEnforceQueryOrInsertSecurity()) {
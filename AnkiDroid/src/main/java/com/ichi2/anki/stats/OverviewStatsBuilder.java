@@ -219,7 +219,7 @@ public class OverviewStatsBuilder {
 
     private void appendTodaysStats(StringBuilder stringBuilder) {
         Stats stats = new Stats(mCol, mDeckId);
-        int[] todayStats = stats.calculateTodayStats();
+        int[] todayStats = stats.calculateTodayStats(mType);
         stringBuilder.append(_title(mWebView.getResources().getString(R.string.stats_today)));
         Resources res = mWebView.getResources();
         final int minutes = (int) Math.round(todayStats[THETIME_INDEX] / 60.0);
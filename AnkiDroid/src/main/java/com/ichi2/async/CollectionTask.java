@@ -44,6 +44,7 @@ import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Consts;
 import com.ichi2.libanki.DB;
 import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.Finder;
 import com.ichi2.libanki.Note;
 import com.ichi2.libanki.Storage;
 import com.ichi2.libanki.Utils;
@@ -1027,61 +1028,6 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
         }
     }
 
-    /**
-     * A class allowing to send partial search result to the browser to display while the search ends
-     */
-    public static class PartialSearch implements ProgressSenderAndCancelListener<List<Long>> {
-        private final List<CardBrowser.CardCache> mCards;
-        private final int mColumn1Index, mColumn2Index;
-        private final int mNumCardsToRender;
-        private final ProgressSenderAndCancelListener<List<CardBrowser.CardCache>> mCollectionTask;
-        private final Collection mCol;
-
-        public PartialSearch(List<CardBrowser.CardCache> cards, int columnIndex1, int columnIndex2, int numCardsToRender, ProgressSenderAndCancelListener<List<CardBrowser.CardCache>> collectionTask, Collection col) {
-            mCards = cards;
-            mColumn1Index = columnIndex1;
-            mColumn2Index = columnIndex2;
-            mNumCardsToRender = numCardsToRender;
-            mCollectionTask = collectionTask;
-            mCol = col;
-        }
-
-        @Override
-        public boolean isCancelled() {
-            return mCollectionTask.isCancelled();
-        }
-
-
-        /**
-         * @param cards Card ids to display in the browser. It is assumed that it is as least as long as mCards, and that
-         *             mCards[i].cid = cards[i].  It add the cards in cards after `mPosition` to mCards
-         */
-        public void add(@NonNull List<Long> cards) {
-            while (mCards.size() < cards.size()) {
-                mCards.add(new CardBrowser.CardCache(cards.get(mCards.size()), mCol, mCards.size()));
-            }
-        }
-
-
-        @Override
-        public void doProgress(@NonNull List<Long> value) {
-            add(value);
-            for (CardBrowser.CardCache card : mCards) {
-                if (isCancelled()) {
-                    Timber.d("doInBackgroundSearchCards was cancelled so return");
-                    return;
-                }
-                card.load(false, mColumn1Index, mColumn2Index);
-            }
-            mCollectionTask.doProgress(mCards);
-        }
-
-        public int getNumCardsToRender() {
-            return mNumCardsToRender;
-        }
-    }
-
-
     public static class SearchCards extends Task<List<CardBrowser.CardCache>, List<CardBrowser.CardCache>> {
         private final String query;
         private final boolean order;
@@ -1105,29 +1051,41 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
                 Timber.d("doInBackgroundSearchCards was cancelled so return null");
                 return null;
             }
-            List<CardBrowser.CardCache> searchResult = new ArrayList<>();
-            List<Long> searchResult_ = col.findCards(query, order, new PartialSearch(searchResult, column1Index, column2Index, numCardsToRender, collectionTask, col));
-            Timber.d("The search found %d cards", searchResult_.size());
-            int position = 0;
-            for (Long cid : searchResult_) {
-                CardBrowser.CardCache card = new CardBrowser.CardCache(cid, col, position++);
-                searchResult.add(card);
-            }
-            // Render the first few items
-            for (int i = 0; i < Math.min(numCardsToRender, searchResult.size()); i++) {
-                if (collectionTask.isCancelled()) {
-                    Timber.d("doInBackgroundSearchCards was cancelled so return null");
-                    return null;
+            // The first cards are shown while the others are read, from the same query
+            List<CardBrowser.CardCache> firstCards = new ArrayList<>(0);
+            long[] cids = new Finder(col).findCardIds(query, order, Math.max(numCardsToRender, 1), firstIds -> {
+                for (long cid : firstIds) {
+                    firstCards.add(new CardBrowser.CardCache(cid, col, firstCards.size()));
                 }
-                searchResult.get(i).load(false, column1Index, column2Index);
-            }
+                // Render the first few items
+                Card.Cache.loadCards(col, firstCards);
+                for (CardBrowser.CardCache card : firstCards) {
+                    if (collectionTask.isCancelled()) {
+                        return;
+                    }
+                    card.load(false, column1Index, column2Index);
+                }
+                collectionTask.doProgress(firstCards);
+            }, collectionTask);
             // Finish off the task
             if (collectionTask.isCancelled()) {
                 Timber.d("doInBackgroundSearchCards was cancelled so return null");
                 return null;
-            } else {
-                return searchResult;
             }
+            Timber.d("The search found %d cards", cids.length);
+            CardBrowser.CardCacheList searchResult = new CardBrowser.CardCacheList(col, cids);
+            // Keep the rendered cards
+            for (int i = 0; i < firstCards.size(); i++) {
+                searchResult.set(i, firstCards.get(i));
+            }
+            if (firstCards.isEmpty()) {
+                // The search found fewer cards than the first few items, which are rendered now
+                Card.Cache.loadCards(col, searchResult);
+                for (CardBrowser.CardCache card : searchResult) {
+                    card.load(false, column1Index, column2Index);
+                }
+            }
+            return searchResult;
         }
     }
 
@@ -1153,6 +1111,20 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
             Timber.d("doInBackgroundRenderBrowserQA");
 
             List<Long> invalidCardIds = new ArrayList<>();
+            // Load the cards which are not rendered yet and their notes together, instead of with two queries per card
+            List<CardBrowser.CardCache> toLoad = new ArrayList<>(n);
+            for (int i = Math.max(startPos, 0); i < startPos + n; i++) {
+                try {
+                    CardBrowser.CardCache card = cards.get(i);
+                    if (!card.isLoaded()) {
+                        toLoad.add(card);
+                    }
+                } catch (IndexOutOfBoundsException e) {
+                    // past the end of the collection
+                    break;
+                }
+            }
+            Card.Cache.loadCards(col, toLoad);
             // for each specified card in the browser list
             for (int i = startPos; i < startPos + n; i++) {
                 // Stop if cancelled
@@ -1645,9 +1617,9 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
     /**
      * @return The results list from the check, or false if any errors.
      */
-    public static class CheckMedia extends Task<Void, PairWithBoolean<List<List<String>>>> {
+    public static class CheckMedia extends Task<Integer, PairWithBoolean<List<List<String>>>> {
         @Override
-        protected PairWithBoolean<List<List<String>>> task(Collection col, ProgressSenderAndCancelListener<Void> collectionTask) {
+        protected PairWithBoolean<List<List<String>>> task(Collection col, ProgressSenderAndCancelListener<Integer> collectionTask) {
             Timber.d("doInBackgroundCheckMedia");
             // Ensure that the DB is valid - unknown why, but some users were missing the meta table.
             try {
@@ -1657,8 +1629,13 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
             }
             // A media check on AnkiDroid will also update the media db
             col.getMedia().findChanges(true);
-            // Then do the actual check
-            return new PairWithBoolean<>(true, col.getMedia().check());
+            // Then do the actual check, sending the number of notes checked
+            List<List<String>> result = col.getMedia().check(collectionTask);
+            if (result == null) {
+                Timber.i("Media check was cancelled");
+                return new PairWithBoolean<>(false, null);
+            }
+            return new PairWithBoolean<>(true, result);
         }
     }
 
@@ -1926,23 +1903,23 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
      * @return If there are unselected cards, if there are unmarked cards
      */
     public static class CheckCardSelection extends Task<Void, Pair<Boolean, Boolean>> {
-        private final CardBrowser.CardCollection<CardBrowser.CardCache> checkedCards;
+        private final List<Long> checkedCardIds;
 
 
-        public CheckCardSelection(CardBrowser.CardCollection<CardBrowser.CardCache> checkedCards) {
-            this.checkedCards = checkedCards;
+        public CheckCardSelection(List<Long> checkedCardIds) {
+            this.checkedCardIds = checkedCardIds;
         }
 
 
         protected @Nullable Pair<Boolean, Boolean> task(Collection col, ProgressSenderAndCancelListener<Void> collectionTask) {
             boolean hasUnsuspended = false;
             boolean hasUnmarked = false;
-            for (CardBrowser.CardCache c: checkedCards) {
+            for (long cardId : checkedCardIds) {
                 if (collectionTask.isCancelled()) {
                     Timber.v("doInBackgroundCheckCardSelection: cancelled.");
                     return null;
                 }
-                Card card = c.getCard();
+                Card card = col.getCard(cardId);
                 hasUnsuspended = hasUnsuspended || card.getQueue() != Consts.QUEUE_TYPE_SUSPENDED;
                 hasUnmarked = hasUnmarked || !card.note().hasTag("marked");
                 if (hasUnsuspended && hasUnmarked)
@@ -389,6 +389,8 @@ public class Connection extends BaseAsyncTask<Connection.Payload, Object, Connec
                         publishProgress(R.string.sync_preparing_full_sync_message);
                         Pair<ConnectionResultType, Object[]> ret = fullSyncServer.upload();
                         col.reopen();
+                        // the search index was left out of the uploaded file
+                        col.getSearchIndex().restore();
                         if (ret == null) {
                             return returnGenericError(data);
                         }
@@ -411,6 +413,7 @@ public class Connection extends BaseAsyncTask<Connection.Payload, Object, Connec
                         if (SUCCESS == ret) {
                             data.success = true;
                             col.reopen();
+                            col.getSearchIndex().restore();
                         }
                         if (SUCCESS != ret) {
                             Timber.w("Sync - fullsync - download failed");
@@ -22,6 +22,7 @@ import android.database.sqlite.SQLiteDatabase;
 import com.ichi2.anki.CollectionHelper;
 import com.ichi2.anki.R;
 import com.ichi2.anki.exception.ImportExportException;
+import com.ichi2.libanki.utils.ZipCompression;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
@@ -108,6 +109,8 @@ class AnkiExporter extends Exporter {
      */
 
     public void exportInto(String path, Context context) throws JSONException, IOException, ImportExportException {
+        // the last reviews may not be in the database yet
+        mCol.getReviewJournal().flush();
         // create a new collection at the target
         new File(path).delete();
         Collection dst = Storage.Collection(context, path);
@@ -175,8 +178,7 @@ class AnkiExporter extends Exporter {
         Timber.d("Copy decks");
         java.util.Collection<Long> dids = null;
         if (mDid != null) {
-            dids = new HashSet<>(mSrc.getDecks().children(mDid).values());
-            dids.add(mDid);
+            dids = new HashSet<>(mSrc.getDecks().deckAndChildIds(mDid));
         }
         JSONObject dconfs = new JSONObject();
         for (Deck d : mSrc.getDecks().all()) {
@@ -347,6 +349,11 @@ public final class AnkiPackageExporter extends AnkiExporter {
     private JSONObject exportVerbatim(ZipFile z, Context context) throws IOException {
         // close our deck & write it into the zip file, and reopen
         mCount = mCol.cardCount();
+        // the search index, the tag index and the daily reviews are only kept up to date by this client
+        mCol.getSearchIndex().drop();
+        mCol.getTagIndex().drop();
+        mCol.getReviewRollup().drop();
+        mCol.flushDecksToColTable();
         mCol.close();
         if (!_v2sched) {
             z.write(mCol.getPath(), CollectionHelper.COLLECTION_FILENAME);
@@ -356,6 +363,7 @@ public final class AnkiPackageExporter extends AnkiExporter {
         }
 
         mCol.reopen();
+        mCol.getSearchIndex().restore();
         // copy all media
         if (!mIncludeMedia) {
             return new JSONObject();
@@ -475,8 +483,9 @@ class ZipFile {
 
 
     public void write(String path, String entry) throws IOException {
-        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE);
         ZipArchiveEntry ze = new ZipArchiveEntry(entry);
+        ZipCompression.setMethod(ze, new File(path));
+        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE);
         writeEntry(bis, ze);
     }
 
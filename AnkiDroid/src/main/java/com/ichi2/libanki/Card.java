@@ -38,6 +38,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 
@@ -152,35 +153,84 @@ public class Card implements Cloneable {
     }
 
 
+    /**
+     * A card whose content is the current row of cursor, whose first columns are those of the cards table. Its note is
+     * not loaded.
+     */
+    private Card(@NonNull Collection col, @NonNull Cursor cursor) {
+        mCol = col;
+        mTimerStarted = 0L;
+        _load(cursor);
+    }
+
+
     public void load() {
         try (Cursor cursor = mCol.getDb().query("SELECT * FROM cards WHERE id = ?", mId)) {
             if (!cursor.moveToFirst()) {
                 throw new WrongId(mId, "card");
             }
-            mId = cursor.getLong(0);
-            mNid = cursor.getLong(1);
-            mDid = cursor.getLong(2);
-            mOrd = cursor.getInt(3);
-            mMod = cursor.getLong(4);
-            mUsn = cursor.getInt(5);
-            mType = cursor.getInt(6);
-            mQueue = cursor.getInt(7);
-            mDue = cursor.getInt(8);
-            mIvl = cursor.getInt(9);
-            mFactor = cursor.getInt(10);
-            mReps = cursor.getInt(11);
-            mLapses = cursor.getInt(12);
-            mLeft = cursor.getInt(13);
-            mODue = cursor.getLong(14);
-            mODid = cursor.getLong(15);
-            mFlags = cursor.getInt(16);
-            mData = cursor.getString(17);
+            _load(cursor);
         }
         mQA = null;
         mNote = null;
     }
 
 
+    /**
+     * Load many cards and their notes, using a single query instead of two queries per card.
+     *
+     * @param ids Ids of cards
+     * @return The cards with an id in ids, with their note loaded, by id. Ids of cards not in the collection are absent.
+     */
+    public static @NonNull Map<Long, Card> loadWithNotes(@NonNull Collection col, @NonNull List<Long> ids) {
+        Map<Long, Card> cards = new HashMap<>(ids.size());
+        // Siblings share their note
+        Map<Long, Note> notes = new HashMap<>(ids.size());
+        try (Cursor cursor = col.getDb().query(
+                "SELECT c.*, " + Note.COLUMNS_FOR_LOAD + " FROM cards c, notes n WHERE c.nid = n.id AND c.id IN " + Utils.ids2str(ids))) {
+            int firstNoteColumn = cursor.getColumnCount() - Note.NUMBER_OF_COLUMNS_FOR_LOAD;
+            while (cursor.moveToNext()) {
+                Card card = new Card(col, cursor);
+                Note note = notes.get(card.mNid);
+                if (note == null) {
+                    note = new Note(col, card.mNid, cursor, firstNoteColumn);
+                    notes.put(card.mNid, note);
+                }
+                card.mNote = note;
+                cards.put(card.mId, card);
+            }
+        }
+        return cards;
+    }
+
+
+    /** Set the content of this card from the current row of cursor, whose first columns are those of the cards table */
+    private void _load(@NonNull Cursor cursor) {
+        mId = cursor.getLong(0);
+        mNid = cursor.getLong(1);
+        mDid = cursor.getLong(2);
+        mOrd = cursor.getInt(3);
+        mMod = cursor.getLong(4);
+        mUsn = cursor.getInt(5);
+        mType = cursor.getInt(6);
+        mQueue = cursor.getInt(7);
+        mDue = cursor.getInt(8);
+        mIvl = cursor.getInt(9);
+        mFactor = cursor.getInt(10);
+        mReps = cursor.getInt(11);
+        mLapses = cursor.getInt(12);
+        mLeft = cursor.getInt(13);
+        mODue = cursor.getLong(14);
+        mODid = cursor.getLong(15);
+        mFlags = cursor.getInt(16);
+        mData = cursor.getString(17);
+        long[] pendingState = mCol.getReviewJournal().getPendingState(mId);
+        if (pendingState != null) {
+            setSchedState(pendingState);
+        }
+    }
+
+
 
     public void flush() {
         flush(true);
@@ -218,11 +268,22 @@ public class Card implements Cloneable {
                 mFlags,
                 mData
         );
+        mCol.cardsModified();
         mCol.log(this);
     }
 
 
     public void flushSched() {
+        flushSched(null, mQueue);
+    }
+
+
+    /**
+     * @param journal If not null, the journal keeping the new scheduling state until it is written, instead of the
+     *                database.
+     * @param previousQueue The queue of the card before it was answered, used by the journal
+     */
+    public void flushSched(@Nullable ReviewJournal journal, @Consts.CARD_QUEUE int previousQueue) {
         mMod = getCol().getTime().intTime();
         mUsn = mCol.usn();
         // bug check
@@ -231,6 +292,11 @@ public class Card implements Cloneable {
         //}
         assert (mDue < Long.parseLong("4294967296"));
 
+        if (journal != null) {
+            journal.addCard(this, previousQueue);
+            mCol.log(this);
+            return;
+        }
         ContentValues values = new ContentValues();
         values.put("mod", mMod);
         values.put("usn", mUsn);
@@ -247,10 +313,36 @@ public class Card implements Cloneable {
         values.put("did", mDid);
         // TODO: The update DB call sets mod=true. Verify if this is intended.
         mCol.getDb().update("cards", values, "id = ?", new String[] {Long.toString(mId)});
+        // ignored when the scheduler answers the card, as it counts the change itself
+        mCol.cardsModified();
         mCol.log(this);
     }
 
 
+    /** @return The values written by flushSched, in the order of ReviewJournal.CARD_COLUMNS */
+    @NonNull long[] getSchedState() {
+        return new long[] {mMod, mUsn, mType, mQueue, mDue, mIvl, mFactor, mReps, mLapses, mLeft, mODue, mODid, mDid};
+    }
+
+
+    /** @param state Values in the order of ReviewJournal.CARD_COLUMNS */
+    private void setSchedState(@NonNull long[] state) {
+        mMod = state[0];
+        mUsn = (int) state[1];
+        mType = (int) state[2];
+        mQueue = (int) state[3];
+        mDue = state[4];
+        mIvl = (int) state[5];
+        mFactor = (int) state[6];
+        mReps = (int) state[7];
+        mLapses = (int) state[8];
+        mLeft = (int) state[9];
+        mODue = state[10];
+        mODid = state[11];
+        mDid = state[12];
+    }
+
+
     public String q() {
         return q(false);
     }
@@ -763,6 +855,9 @@ public class Card implements Cloneable {
      * Card card2 = cache.getCard();
      */
     public static class Cache implements Cloneable {
+        /** Maximal number of cards loaded by a single query in loadCards. */
+        private static final int LOAD_CHUNK_SIZE = 500;
+
         @NonNull
         private final Collection mCol;
         private final long mId;
@@ -805,6 +900,36 @@ public class Card implements Cloneable {
             mCard = null;
         }
 
+
+        /**
+         * Load the cards of the caches that are not loaded yet, and their notes, with one query per chunk of cards.
+         * A cache whose card is not in the collection anymore stays unloaded, getCard() throws WrongId as usual.
+         */
+        public static void loadCards(@NonNull Collection col, @NonNull List<? extends Cache> caches) {
+            for (int start = 0; start < caches.size(); start += LOAD_CHUNK_SIZE) {
+                List<? extends Cache> chunk = caches.subList(start, Math.min(caches.size(), start + LOAD_CHUNK_SIZE));
+                List<Long> ids = new ArrayList<>(chunk.size());
+                for (Cache cache : chunk) {
+                    synchronized (cache) {
+                        if (cache.mCard == null) {
+                            ids.add(cache.mId);
+                        }
+                    }
+                }
+                if (ids.isEmpty()) {
+                    continue;
+                }
+                Map<Long, Card> cards = Card.loadWithNotes(col, ids);
+                for (Cache cache : chunk) {
+                    synchronized (cache) {
+                        if (cache.mCard == null) {
+                            cache.mCard = cards.get(cache.mId);
+                        }
+                    }
+                }
+            }
+        }
+
         public long getId() {
             return mId;
         }
@@ -24,6 +24,7 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.util.Pair;
 
 import com.ichi2.anki.AnkiDroidApp;
@@ -32,7 +33,6 @@ import com.ichi2.anki.UIUtils;
 import com.ichi2.anki.analytics.UsageAnalytics;
 import com.ichi2.anki.exception.ConfirmModSchemaException;
 import com.ichi2.async.CancelListener;
-import com.ichi2.async.CollectionTask;
 import com.ichi2.libanki.backend.DroidBackend;
 import com.ichi2.async.ProgressSender;
 import com.ichi2.async.TaskManager;
@@ -43,6 +43,7 @@ import com.ichi2.libanki.hooks.ChessFilter;
 import com.ichi2.libanki.sched.AbstractSched;
 import com.ichi2.libanki.sched.Sched;
 import com.ichi2.libanki.sched.SchedV2;
+import com.ichi2.libanki.stats.RevlogStats;
 import com.ichi2.libanki.template.ParsedNode;
 import com.ichi2.libanki.template.TemplateError;
 import com.ichi2.libanki.utils.Time;
@@ -109,6 +110,14 @@ public class Collection {
     private final Decks mDecks;
     private Models mModels;
     private final Tags mTags;
+    private SearchIndex mSearchIndex;
+    private TagIndex mTagIndex;
+    private ReviewRollup mReviewRollup;
+    private ReviewJournal mReviewJournal;
+    /** Held while the derived tables are built in the background, so that they are not built in a closed collection */
+    private final Object mDerivedTablesLock = new Object();
+    private RevlogStats.Cache mRevlogStatsCache = new RevlogStats.Cache();
+    private final boolean mDueCountIndexEnabled;
 
     private AbstractSched mSched;
 
@@ -137,6 +146,15 @@ public class Collection {
     private static final Pattern fClozePatternA = Pattern.compile("\\{\\{(.*?)cloze:");
     private static final Pattern fClozeTagStart = Pattern.compile("<%cloze:");
 
+    /** Maximal number of formats kept in mClozeFormatCache. */
+    private static final int CLOZE_FORMAT_CACHE_SIZE = 128;
+    /**
+     * Formats after the cloze rewriting done in _renderQA, keyed by model id, model mod, card number and side.
+     * The original format is kept along the rewritten one, so that a template modified but not yet saved is not
+     * rendered with the old format.
+     */
+    private final LruCache<String, Pair<String, String>> mClozeFormatCache = new LruCache<>(CLOZE_FORMAT_CACHE_SIZE);
+
     private static final int fDefaultSchedulerVersion = 1;
     private static final List<Integer> fSupportedSchedulerVersions = Arrays.asList(1, 2);
 
@@ -204,6 +222,13 @@ public class Collection {
         mMedia = new Media(this, server);
         mDecks = new Decks(this);
         mTags = new Tags(this);
+        mSearchIndex = new SearchIndex(this);
+        mTagIndex = new TagIndex(this);
+        mReviewRollup = new ReviewRollup(this);
+        mReviewJournal = new ReviewJournal(this);
+        mDb.setBeforeModification(mReviewJournal::flush);
+        mDueCountIndexEnabled = AnkiDroidApp.getSharedPrefs(AnkiDroidApp.getInstance()).getBoolean("dueCountIndex", false);
+        mReviewJournal.replay();
         load();
         if (mCrt == 0) {
             mCrt = UIUtils.getDayStart(getTime()) / 1000;
@@ -429,6 +454,7 @@ public class Collection {
 
 
     public synchronized void save(String name, long mod) {
+        mReviewJournal.flush();
         // let the managers conditionally flush
         getModels().flush();
         mDecks.flush();
@@ -453,25 +479,52 @@ public class Collection {
 
 
     public synchronized void close(boolean save) {
-        if (mDb != null) {
-            try {
-                SupportSQLiteDatabase db = mDb.getDatabase();
-                if (save) {
-                    mDb.executeInTransaction(this::save);
-                } else {
-                    DB.safeEndInTransaction(db);
+        // waits for a build of the derived tables which already started
+        synchronized (mDerivedTablesLock) {
+            if (mDb != null) {
+                try {
+                    SupportSQLiteDatabase db = mDb.getDatabase();
+                    if (save) {
+                        mDb.executeInTransaction(() -> {
+                            // leave a collection file that other clients can read
+                            mDecks.flushAll();
+                            save();
+                        });
+                    } else {
+                        DB.safeEndInTransaction(db);
+                        // the answers were already given, they are kept even if the rest is not saved
+                        mReviewJournal.flush();
+                    }
+                } catch (RuntimeException e) {
+                    AnkiDroidApp.sendExceptionReport(e, "closeDB");
+                }
+                mReviewJournal.close();
+                if (!mServer) {
+                    mDb.getDatabase().disableWriteAheadLogging();
                 }
-            } catch (RuntimeException e) {
-                AnkiDroidApp.sendExceptionReport(e, "closeDB");
+                mDb.close();
+                mDb = null;
+                mMedia.close();
+                _closeLog();
+                Timber.i("Collection closed");
             }
-            if (!mServer) {
-                mDb.getDatabase().disableWriteAheadLogging();
+        }
+    }
+
+
+    /**
+     * Create the tables derived from the revlog and the notes if they do not exist, see
+     * {@link ReviewRollup#ensureExists()} and {@link TagIndex#ensureExists()}. They read the whole revlog and every
+     * note, so this is run in the background, and their readers read the revlog and the notes until they are ready.
+     * Nothing is built if the collection was closed.
+     */
+    public void ensureDerivedTables() {
+        synchronized (mDerivedTablesLock) {
+            if (mDb == null) {
+                return;
             }
-            mDb.close();
-            mDb = null;
-            mMedia.close();
-            _closeLog();
-            Timber.i("Collection closed");
+            mReviewRollup.ensureExists();
+            mTagIndex.ensureExists();
         }
     }
 
@@ -480,7 +533,17 @@ public class Collection {
         Timber.i("Reopening Database");
         if (mDb == null) {
             mDb = mDroidBackend.openCollectionDatabase(mPath);
+            // the file may have been replaced while closed
+            mSearchIndex = new SearchIndex(this);
+            mTagIndex = new TagIndex(this);
+            mReviewRollup = new ReviewRollup(this);
+            mRevlogStatsCache = new RevlogStats.Cache();
+            mDb.setBeforeModification(mReviewJournal::flush);
+                mReviewJournal.replay();
             mMedia.connect();
+            if (mSched != null) {
+                mSched.invalidateDueCounts();
+            }
             _openLog();
         }
     }
@@ -530,8 +593,26 @@ public class Collection {
     }
 
 
+    /**
+     * Write the decks and configurations stored separately back in the col table, so that a copy of the collection
+     * file made while it is open, as a backup, contains them.
+     */
+    public synchronized void flushDecksToColTable() {
+        mDb.executeInTransaction(mDecks::flushAll);
+    }
+
+
     /** called before a full upload */
-    public void beforeUpload() {
+    public synchronized void beforeUpload() {
+        // the derived tables must not be built again between their drop and the closing
+        synchronized (mDerivedTablesLock) {
+            _beforeUpload();
+        }
+    }
+
+
+    private void _beforeUpload() {
+        flushDecksToColTable();
         String[] tables = new String[] { "notes", "cards", "revlog" };
         for (String t : tables) {
             mDb.execute("UPDATE " + t + " SET usn=0 WHERE usn=-1");
@@ -542,6 +623,9 @@ public class Collection {
         getModels().beforeUpload();
         mTags.beforeUpload();
         mDecks.beforeUpload();
+        mSearchIndex.drop();
+        mTagIndex.drop();
+        mReviewRollup.drop();
         modSchemaNoCheck();
         mLs = mScm;
         Timber.i("Compacting database before full upload");
@@ -596,6 +680,23 @@ public class Collection {
     }
 
 
+    /**
+     * To call after writing cards without going through the scheduler, e.g. after changing their deck or queue, or
+     * adding or removing cards, so that what the scheduler computed from them is recomputed.
+     */
+    public void cardsModified() {
+        if (mSched != null) {
+            mSched.cardsModified();
+        }
+    }
+
+
+    /** Whether the scheduler keeps the due counts in memory, read from the preferences when the collection is opened */
+    public boolean isDueCountIndexEnabled() {
+        return mDueCountIndexEnabled;
+    }
+
+
     /**
      * Deletion logging ********************************************************* **************************************
      */
@@ -676,13 +777,82 @@ public class Collection {
             _newCard(note, template, due);
             ncards += 1;
         }
+        mSched.invalidateDueCounts();
         return ncards;
     }
 
 
+    /**
+     * Add notes of a same note type, with all of their cards in deck did. Each note is added as addNote would, the
+     * difference being that the cards are not moved to the deck of their template. The notes and the cards are
+     * inserted by two compiled statements, and the templates are parsed and the search index updated once for all
+     * notes.
+     *
+     * @param fields The fields of each note, each of them must have as many fields as the note type
+     * @param tags The tags of each note, as a space separated string, or null for no tag. As many elements as fields.
+     * @return For each note, the number of cards added. As in addNote, a note generating no card is not added.
+     */
+    public int[] addNotes(@NonNull Model model, @NonNull List<String[]> fields, @NonNull List<String> tags, long did) {
+        int nfields = model.getJSONArray("flds").length();
+        for (String[] flds : fields) {
+            if (flds.length != nfields) {
+                throw new IllegalArgumentException("Expected " + nfields + " fields, got " + flds.length);
+            }
+        }
+        Deck deck = mDecks.get(did);
+        did = deck.isDyn() ? 1 : deck.getLong("id");
+        List<ParsedNode> nodes = model.isStd() ? model.parsedNodes() : null;
+        int sortIdx = getModels().sortIdx(model);
+        long mid = model.getLong("id");
+        long id = getTime().maxID(mDb);
+        long mod = getTime().intTime();
+        int usn = usn();
+        int[] result = new int[fields.size()];
+        List<Object[]> notes = new ArrayList<>(fields.size());
+        List<Object[]> cards = new ArrayList<>(fields.size());
+        List<Long> nids = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            String[] flds = fields.get(i);
+            ArrayList<Integer> avail = Models.availOrds(model, flds, nodes);
+            if (avail.isEmpty()) {
+                continue;
+            }
+            long nid = id++;
+            // registered note by note, as later notes are canonified according to the tags of the previous ones
+            String noteTags = tags.get(i) == null ? "" : tags.get(i);
+            Set<String> canonified = mTags.canonify(mTags.split(noteTags));
+            mTags.register(canonified);
+            Pair<String, Long> sfldAndCsum = Utils.sfieldAndCsum(flds, sortIdx);
+            notes.add(new Object[] {nid, Utils.guid64(), mid, mod, usn, mTags.join(canonified), Utils.joinFields(flds),
+                    sfldAndCsum.first, sfldAndCsum.second, 0, ""});
+            nids.add(nid);
+            int due = _dueForDid(did, nextID("pos"));
+            for (int ord : avail) {
+                cards.add(new Object[] {id++, nid, did, ord, mod, usn, due});
+            }
+            result[i] = avail.size();
+        }
+        if (notes.isEmpty()) {
+            return result;
+        }
+        mDb.executeInTransaction(() -> {
+            mDb.executeManyNoTransaction("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+            mDb.executeManyNoTransaction("INSERT INTO cards VALUES (?,?,?,?,?,?,0,0,?,0,0,0,0,0,0,0,0,\"\")", cards);
+            try (DB.IdTable snids = mDb.idTable(nids)) {
+                mSearchIndex.update(snids.getName());
+                mTagIndex.update(snids.getName());
+            }
+        });
+        mSched.invalidateDueCounts();
+        return result;
+    }
+
+
     public void remNotes(long[] ids) {
-        ArrayList<Long> list = mDb
-                .queryLongList("SELECT id FROM cards WHERE nid IN " + Utils.ids2str(ids));
+        ArrayList<Long> list;
+        try (DB.IdTable sids = mDb.idTable(ids)) {
+            list = mDb.queryLongList("SELECT id FROM cards WHERE nid IN " + sids.getName());
+        }
         remCards(list);
     }
 
@@ -694,11 +864,14 @@ public class Collection {
         if (ids.size() == 0) {
             return;
         }
-        String strids = Utils.ids2str(ids);
         // we need to log these independently of cards, as one side may have
         // more card templates
         _logRem(ids, Consts.REM_NOTE);
-        mDb.execute("DELETE FROM notes WHERE id IN " + strids);
+        try (DB.IdTable strids = mDb.idTable(ids)) {
+            mDb.execute("DELETE FROM notes WHERE id IN " + strids.getName());
+            mSearchIndex.remove(strids.getName());
+            mTagIndex.remove(strids.getName());
+        }
     }
 
 
@@ -780,12 +953,13 @@ public class Collection {
      */
     public <T extends ProgressSender<Integer> & CancelListener> ArrayList<Long> genCards(long[] nids, @NonNull Model model, @Nullable T task) {
         // build map of (nid,ord) so we don't create dupes
-        String snids = Utils.ids2str(nids);
-        return genCards(snids, model, task);
+        try (DB.IdTable snids = mDb.idTable(nids)) {
+            return genCards(snids.getName(), model, task);
+        }
     }
 
     /**
-     * @param snids All ids of nodes of a note type, separated by comma
+     * @param snids All ids of nodes of a note type, separated by comma, or a table of ids, see {@link DB#idTable(long[])}
      * @param model
      * @param task Task to check for cancellation and update number of card processed
      * @return Cards that should be removed because they should not be generated
@@ -903,6 +1077,7 @@ public class Collection {
         }
         // bulk update
         mDb.executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,0,0,?,0,0,0,0,0,0,0,0,\"\")", data);
+        mSched.invalidateDueCounts();
         return rem;
     }
 
@@ -1016,17 +1191,22 @@ public class Collection {
         if (ids.size() == 0) {
             return;
         }
-        String sids = Utils.ids2str(ids);
-        List<Long> nids = mDb.queryLongList("SELECT nid FROM cards WHERE id IN " + sids);
-        // remove cards
-        _logRem(ids, Consts.REM_CARD);
-        mDb.execute("DELETE FROM cards WHERE id IN " + sids);
+        List<Long> nids;
+        try (DB.IdTable sids = mDb.idTable(ids)) {
+            nids = mDb.queryLongList("SELECT DISTINCT nid FROM cards WHERE id IN " + sids.getName());
+            // remove cards
+            _logRem(ids, Consts.REM_CARD);
+            mDb.execute("DELETE FROM cards WHERE id IN " + sids.getName());
+        }
+        mSched.invalidateDueCounts();
         // then notes
         if (!notes) {
         	return;
         }
-        nids = mDb.queryLongList("SELECT id FROM notes WHERE id IN " + Utils.ids2str(nids)
-                        + " AND id NOT IN (SELECT nid FROM cards)");
+        try (DB.IdTable snids = mDb.idTable(nids)) {
+            nids = mDb.queryLongList("SELECT id FROM notes WHERE id IN " + snids.getName()
+                    + " AND id NOT IN (SELECT nid FROM cards)");
+        }
         _remNotes(nids);
     }
 
@@ -1060,7 +1240,7 @@ public class Collection {
      */
 
     private ArrayList<Object[]> _fieldData(String snids) {
-        ArrayList<Object[]> result = new ArrayList<>(mDb.queryScalar("SELECT count() FROM notes WHERE id IN" + snids));
+        ArrayList<Object[]> result = new ArrayList<>(mDb.queryScalar("SELECT count() FROM notes WHERE id IN " + snids));
         try (Cursor cur = mDb.query("SELECT id, mid, flds FROM notes WHERE id IN " + snids)) {
             while (cur.moveToNext()) {
                 result.add(new Object[] { cur.getLong(0), cur.getLong(1), cur.getString(2) });
@@ -1073,19 +1253,21 @@ public class Collection {
     /** Update field checksums and sort cache, after find&replace, etc.
      * @param nids*/
     public void updateFieldCache(java.util.Collection<Long> nids) {
-        String snids = Utils.ids2str(nids);
-        updateFieldCache(snids);
+        try (DB.IdTable snids = mDb.idTable(nids)) {
+            updateFieldCache(snids.getName());
+        }
     }
 
     /** Update field checksums and sort cache, after find&replace, etc.
      * @param nids*/
     public void updateFieldCache(long[] nids) {
-        String snids = Utils.ids2str(nids);
-        updateFieldCache(snids);
+        try (DB.IdTable snids = mDb.idTable(nids)) {
+            updateFieldCache(snids.getName());
+        }
     }
 
     /** Update field checksums and sort cache, after find&replace, etc.
-     * @param snids comma separated nids*/
+     * @param snids comma separated nids between parenthesis, or a table of nids, see {@link DB#idTable(long[])} */
     public void updateFieldCache(String snids) {
         ArrayList<Object[]> data = _fieldData(snids);
         ArrayList<Object[]> r = new ArrayList<>(data.size());
@@ -1101,6 +1283,7 @@ public class Collection {
         }
         // apply, relying on calling code to bump usn+mod
         mDb.executeMany("UPDATE notes SET sfld=?, csum=? WHERE id=?", r);
+        mSearchIndex.update(snids);
     }
 
 
@@ -1143,17 +1326,14 @@ public class Collection {
         // render q & a
         HashMap<String, String> d = new HashMap<>(2);
         d.put("id", Long.toString(cid));
-        qfmt = TextUtils.isEmpty(qfmt) ? template.getString("qfmt") : qfmt;
-        afmt = TextUtils.isEmpty(afmt) ? template.getString("afmt") : afmt;
+        boolean customQfmt = !TextUtils.isEmpty(qfmt);
+        boolean customAfmt = !TextUtils.isEmpty(afmt);
+        qfmt = customQfmt ? qfmt : template.getString("qfmt");
+        afmt = customAfmt ? afmt : template.getString("afmt");
         for (Pair<String, String> p : new Pair[]{new Pair<>("q", qfmt), new Pair<>("a", afmt)}) {
             String type = p.first;
-            String format = p.second;
-            if ("q".equals(type)) {
-                format = fClozePatternQ.matcher(format).replaceAll(String.format(Locale.US, "{{$1cq-%d:", cardNum));
-                format = fClozeTagStart.matcher(format).replaceAll(String.format(Locale.US, "<%%cq:%d:", cardNum));
-            } else {
-                format = fClozePatternA.matcher(format).replaceAll(String.format(Locale.US, "{{$1ca-%d:", cardNum));
-                format = fClozeTagStart.matcher(format).replaceAll(String.format(Locale.US, "<%%ca:%d:", cardNum));
+            String format = _clozeFormat(model, cardNum, type, p.second, "q".equals(type) ? customQfmt : customAfmt);
+            if (!"q".equals(type)) {
                 // the following line differs from libanki // TODO: why?
                 fields.put("FrontSide", d.get("q")); // fields.put("FrontSide", mMedia.stripAudio(d.get("q")));
             }
@@ -1181,6 +1361,31 @@ public class Collection {
     }
 
 
+    /**
+     * @param format The question or answer format of a template of model
+     * @param type "q" or "a"
+     * @param custom Whether format is not the template's format, i.e. it is a browser format
+     * @return format, where the cloze replacements are restricted to the card number cardNum
+     */
+    private @NonNull String _clozeFormat(@NonNull Model model, int cardNum, @NonNull String type, @NonNull String format, boolean custom) {
+        String key = model.getLong("id") + "-" + model.getLong("mod") + "-" + cardNum + "-" + type + (custom ? "-custom" : "");
+        Pair<String, String> cached = mClozeFormatCache.get(key);
+        if (cached != null && cached.first.equals(format)) {
+            return cached.second;
+        }
+        String rewritten;
+        if ("q".equals(type)) {
+            rewritten = fClozePatternQ.matcher(format).replaceAll(String.format(Locale.US, "{{$1cq-%d:", cardNum));
+            rewritten = fClozeTagStart.matcher(rewritten).replaceAll(String.format(Locale.US, "<%%cq:%d:", cardNum));
+        } else {
+            rewritten = fClozePatternA.matcher(format).replaceAll(String.format(Locale.US, "{{$1ca-%d:", cardNum));
+            rewritten = fClozeTagStart.matcher(rewritten).replaceAll(String.format(Locale.US, "<%%ca:%d:", cardNum));
+        }
+        mClozeFormatCache.put(key, new Pair<>(format, rewritten));
+        return rewritten;
+    }
+
+
     /**
      * Return [cid, nid, mid, did, ord, tags, flds, flags] db query
      */
@@ -1227,11 +1432,7 @@ public class Collection {
     }
 
     public List<Long> findCards(String search, boolean order) {
-        return findCards(search, order, null);
-    }
-
-    public List<Long> findCards(String search, boolean order, CollectionTask.PartialSearch task) {
-        return new Finder(this).findCards(search, order, task);
+        return new Finder(this).findCards(search, order);
     }
 
 
@@ -1487,6 +1688,8 @@ public class Collection {
         executeIntegrityTask.consume(this::restoreMissingDatabaseIndices);
         executeIntegrityTask.consume(this::ensureModelsAreNotEmpty);
         executeIntegrityTask.consume((progressNotifier) -> this.ensureCardsHaveHomeDeck(progressNotifier, result));
+        // some of the fixes write the cards directly
+        mSched.invalidateDueCounts();
         // and finally, optimize (unable to be done inside transaction).
         try {
             optimize(notifyProgress);
@@ -1654,6 +1857,9 @@ public class Collection {
         if (rowCount > 0) {
             problems.add("Fixed " + rowCount + " review history entries with v2 scheduler bug.");
         }
+        notifyProgress.run();
+        // the daily reviews are computed again from the fixed revlog
+        mReviewRollup.rebuild();
         return problems;
     }
 
@@ -1693,11 +1899,15 @@ public class Collection {
 
     private List<String> updateFieldCache(Runnable notifyProgress) {
         Timber.d("updateFieldCache");
+        // the search index is rebuilt from scratch afterwards, no need to update it note by note
+        mSearchIndex.drop();
         // field cache
         for (Model m : getModels().all()) {
             notifyProgress.run();
             updateFieldCache(getModels().nids(m));
         }
+        notifyProgress.run();
+        mSearchIndex.rebuild();
         return Collections.emptyList();
     }
 
@@ -1706,6 +1916,8 @@ public class Collection {
         Timber.d("rebuildTags");
         // tags
         notifyProgress.run();
+        mTagIndex.ensureExists();
+        mTagIndex.prune();
         mTags.registerNotes();
         return Collections.emptyList();
     }
@@ -2000,8 +2212,10 @@ public class Collection {
      */
     public void setUserFlag(int flag, List<Long> cids)  {
         assert (0<= flag && flag <= 7);
-        mDb.execute("update cards set flags = (flags & ~?) | ?, usn=?, mod=? where id in " + Utils.ids2str(cids),
-                    0b111, flag, usn(), getTime().intTime());
+        try (DB.IdTable table = mDb.idTable(cids)) {
+            mDb.execute("update cards set flags = (flags & ~?) | ?, usn=?, mod=? where id in " + table.getName(),
+                        0b111, flag, usn(), getTime().intTime());
+        }
     }
 
     /**
@@ -2013,6 +2227,31 @@ public class Collection {
     }
 
 
+    public SearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
+
+    public TagIndex getTagIndex() {
+        return mTagIndex;
+    }
+
+
+    public ReviewRollup getReviewRollup() {
+        return mReviewRollup;
+    }
+
+
+    public RevlogStats.Cache getRevlogStatsCache() {
+        return mRevlogStatsCache;
+    }
+
+
+    public ReviewJournal getReviewJournal() {
+        return mReviewJournal;
+    }
+
+
     public Decks getDecks() {
         return mDecks;
     }
@@ -31,12 +31,15 @@ import com.ichi2.anki.BuildConfig;
 import com.ichi2.anki.CollectionHelper;
 import com.ichi2.anki.dialogs.DatabaseErrorDialog;
 import com.ichi2.utils.DatabaseChangeDecorator;
+import com.ichi2.utils.SyncStatus;
 
 import net.ankiweb.rsdroid.BackendFactory;
 import net.ankiweb.rsdroid.database.RustSQLiteOpenHelperFactory;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -45,6 +48,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
 import io.requery.android.database.sqlite.RequerySQLiteOpenHelperFactory;
 import timber.log.Timber;
 
@@ -64,6 +68,12 @@ public class DB {
      */
     private final SupportSQLiteDatabase mDatabase;
     private boolean mMod = false;
+    /** Run before each modification made through this object, e.g. to write pending changes first. */
+    private @Nullable Runnable mBeforeModification = null;
+    /** Names of the tables of ids which are not used, see {@link #idTable(long[])} */
+    private final ArrayDeque<String> mFreeIdTables = new ArrayDeque<>();
+    /** Number of tables of ids created on this connection */
+    private int mIdTableCount = 0;
 
     public DB(String ankiFilename) {
         this(ankiFilename, null);
@@ -178,6 +188,20 @@ public class DB {
         return mMod;
     }
 
+
+    public void setBeforeModification(@Nullable Runnable beforeModification) {
+        mBeforeModification = beforeModification;
+    }
+
+
+    private void markModified() {
+        if (mBeforeModification != null) {
+            mBeforeModification.run();
+        }
+        mMod = true;
+    }
+
+
     // Allows to avoid using new Object[]
     public Cursor query(String query, Object... selectionArgs) {
         return mDatabase.query(query, selectionArgs);
@@ -272,7 +296,7 @@ public class DB {
         // mark modified?
         for (String mo : MOD_SQLS) {
             if (s.startsWith(mo)) {
-                mMod = true;
+                markModified();
                 break;
             }
         }
@@ -290,7 +314,7 @@ public class DB {
      * not contain any non-statement-terminating semicolons.
      */
     public void executeScript(String sql) {
-        mMod = true;
+        markModified();
         String[] queries = sql.split(";");
         for(String query : queries) {
             mDatabase.execSQL(query);
@@ -306,19 +330,19 @@ public class DB {
 
     /** update must always be called via DB in order to mark the db as changed */
     public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
-        mMod = true;
+        markModified();
         return getDatabase().update(table, SQLiteDatabase.CONFLICT_NONE, values, whereClause, whereArgs);
     }
 
 
     /** insert must always be called via DB in order to mark the db as changed */
     public long insert(String table, ContentValues values) {
-        mMod = true;
+        markModified();
         return getDatabase().insert(table, SQLiteDatabase.CONFLICT_NONE, values);
     }
 
     public void executeMany(String sql, List<Object[]> list) {
-        mMod = true;
+        markModified();
         if (BuildConfig.DEBUG) {
             if (list.size() <= 1) {
                 Timber.w("Query %s called with a list of at most one element. Usually that's not expected.", sql);
@@ -327,14 +351,151 @@ public class DB {
         executeInTransaction(() -> executeManyNoTransaction(sql, list));
     }
 
-    /** Use this executeMany version with external transaction management */
+    /**
+     * Use this executeMany version with external transaction management
+     *
+     * The statement is compiled once and executed for each element of the list, instead of being parsed again for each
+     * row.
+     */
     public void executeManyNoTransaction(String sql, List<Object[]> list) {
-        mMod = true;
-        for (Object[] o : list) {
-            mDatabase.execSQL(sql, o);
+        markModified();
+        if (list.isEmpty()) {
+            return;
+        }
+        SupportSQLiteStatement statement = mDatabase.compileStatement(sql);
+        try {
+            for (Object[] args : list) {
+                bindArgs(statement, args);
+                statement.execute();
+            }
+        } finally {
+            closeStatement(statement);
         }
     }
 
+
+    /**
+     * Replace the arguments of statement by args, with the same type conversion as execSQL(String, Object[])
+     */
+    public static void bindArgs(@NonNull SupportSQLiteStatement statement, @Nullable Object[] args) {
+        statement.clearBindings();
+        if (args == null) {
+            return;
+        }
+        for (int i = 0; i < args.length; i++) {
+            // bind indexes start at 1
+            int index = i + 1;
+            Object arg = args[i];
+            if (arg == null) {
+                statement.bindNull(index);
+            } else if (arg instanceof Double || arg instanceof Float) {
+                statement.bindDouble(index, ((Number) arg).doubleValue());
+            } else if (arg instanceof Number) {
+                statement.bindLong(index, ((Number) arg).longValue());
+            } else if (arg instanceof Boolean) {
+                statement.bindLong(index, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) arg);
+            } else {
+                statement.bindString(index, arg.toString());
+            }
+        }
+    }
+
+
+    private static void closeStatement(@NonNull SupportSQLiteStatement statement) {
+        try {
+            statement.close();
+        } catch (IOException e) {
+            Timber.w(e, "Failed to close statement");
+        }
+    }
+
+
+    /**
+     * Write ids into a temporary table, so that a statement selects rows with "id IN " + table.getName() instead of
+     * the text of Utils.ids2str. The text of the statement does not depend on the ids: SQLite does not parse a
+     * statement as long as the list of ids, and can reuse the statements which are run for many sets of ids.
+     *
+     * The table only exists on this connection. It must be closed once the statements using it are done; it is then
+     * emptied and used again by a later call.
+     */
+    public @NonNull IdTable idTable(@NonNull long[] ids) {
+        String freeName;
+        synchronized (mFreeIdTables) {
+            freeName = mFreeIdTables.poll();
+            if (freeName == null) {
+                freeName = "temp.ids" + mIdTableCount++;
+            }
+        }
+        String name = freeName;
+        IdTable table = new IdTable(name);
+        try {
+            // the table is not part of the collection, its changes are not changes to sync
+            SyncStatus.ignoreDatabaseModification(() -> executeInTransaction(() -> {
+                // the creation or the emptying of the table may have been rolled back with a transaction
+                mDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + name + " (id integer PRIMARY KEY)");
+                mDatabase.execSQL("DELETE FROM " + name);
+                SupportSQLiteStatement insert = mDatabase.compileStatement("INSERT OR IGNORE INTO " + name + " VALUES (?)");
+                try {
+                    for (long id : ids) {
+                        insert.bindLong(1, id);
+                        insert.execute();
+                    }
+                } finally {
+                    closeStatement(insert);
+                }
+            }));
+        } catch (RuntimeException e) {
+            table.close();
+            throw e;
+        }
+        return table;
+    }
+
+
+    public @NonNull IdTable idTable(@NonNull java.util.Collection<Long> ids) {
+        return idTable(Utils.collection2Array(ids));
+    }
+
+
+    /** A temporary table of ids, see {@link #idTable(long[])} */
+    public final class IdTable implements AutoCloseable {
+        private final String mName;
+        private boolean mClosed = false;
+
+
+        private IdTable(@NonNull String name) {
+            mName = name;
+        }
+
+
+        /** The name of the table, to use in "IN " + getName(), as the result of Utils.ids2str */
+        public @NonNull String getName() {
+            return mName;
+        }
+
+
+        /** Empty the table, and let a later call of {@link #idTable(long[])} use it. */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                SyncStatus.ignoreDatabaseModification(() -> mDatabase.execSQL("DELETE FROM " + mName));
+            } catch (SQLException e) {
+                // it is emptied again before being used
+                Timber.w(e, "Failed to empty %s", mName);
+            }
+            synchronized (mFreeIdTables) {
+                mFreeIdTables.push(mName);
+            }
+        }
+    }
+
+
     /**
      * @return The full path to this database file.
      */
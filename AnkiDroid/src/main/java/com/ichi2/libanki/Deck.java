@@ -19,8 +19,13 @@ package com.ichi2.libanki;
 import com.ichi2.utils.JSONObject;
 
 import androidx.annotation.CheckResult;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class Deck extends JSONObject {
+    /** The parts of the name, computed when the name is first read after a change */
+    private @Nullable DeckName mDeckName;
+
     public Deck(JSONObject json) {
         super(json);
     }
@@ -40,6 +45,19 @@ public class Deck extends JSONObject {
         return deepClonedInto(clone);
     }
 
+    /** The current name of the deck, with its path, normalized form and parent. */
+    public @NonNull DeckName getDeckName() {
+        String name = getString("name");
+        // a single read, as another thread may rename the deck
+        DeckName deckName = mDeckName;
+        if (deckName == null || !deckName.getName().equals(name)) {
+            deckName = new DeckName(name);
+            mDeckName = deckName;
+        }
+        return deckName;
+    }
+
+
     public boolean isDyn() {
         return getInt("dyn") == Consts.DECK_DYN;
     }
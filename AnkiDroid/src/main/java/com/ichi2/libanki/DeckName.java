@@ -0,0 +1,70 @@
+package com.ichi2.libanki;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A deck name with the parts derived from it: its path, its normalized form and the name of its parent.
+ *
+ * Each deck computes it once per name, see {@link Deck#getDeckName()}. It is immutable, so it can be shared between
+ * threads.
+ */
+public final class DeckName {
+    private final String mName;
+    private final String[] mPath;
+    private final String mNormalized;
+    private final @Nullable DeckName mParent;
+
+
+    public DeckName(@NonNull String name) {
+        this(name, Decks.path(name));
+    }
+
+
+    private DeckName(@NonNull String name, @NonNull String[] path) {
+        mName = name;
+        mPath = path;
+        mNormalized = Decks.normalizeName(name);
+        if (path.length < 2) {
+            mParent = null;
+        } else {
+            String[] parentPath = new String[path.length - 1];
+            System.arraycopy(path, 0, parentPath, 0, parentPath.length);
+            mParent = new DeckName(name.substring(0, name.length() - path[path.length - 1].length() - Decks.DECK_SEPARATOR.length()), parentPath);
+        }
+    }
+
+
+    public @NonNull String getName() {
+        return mName;
+    }
+
+
+    /** The components of the name. The array must not be modified. */
+    public @NonNull String[] getPath() {
+        return mPath;
+    }
+
+
+    public @NonNull String getBasename() {
+        return mPath[mPath.length - 1];
+    }
+
+
+    /** The name, with its case and unicode normalization ignored, see {@link Decks#normalizeName(String)} */
+    public @NonNull String getNormalized() {
+        return mNormalized;
+    }
+
+
+    /** The name of the parent, or null for a top level deck */
+    public @Nullable DeckName getParent() {
+        return mParent;
+    }
+
+
+    @Override
+    public @NonNull String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,134 @@
+package com.ichi2.libanki;
+
+import com.ichi2.utils.DeckComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The hierarchy of the decks given by their names, indexed so that the relatives of a deck are found without reading
+ * the names of all decks.
+ *
+ * The decks are numbered in the order of {@link DeckComparator}, which is a pre-order of the tree: the descendants of a
+ * deck are the decks numbered after it, up to the end of its subtree. The parent of a deck is its closest ancestor, by
+ * name, which exists; so a deck whose parent is missing is still a descendant of its grand parent.
+ *
+ * It is not modified: {@link Decks} builds a new one when the names of the decks change.
+ */
+class DeckTree {
+    /** By number, the id of the deck */
+    private final long[] mIds;
+    /** By number, the name of the deck when the tree was built */
+    private final String[] mNames;
+    private final HashMap<Long, Integer> mNumbers;
+    /** By number, the number after the last descendant of the deck */
+    private final int[] mEnds;
+    /** By number, the number of the parent of the deck, -1 for a top level deck */
+    private final int[] mParents;
+
+
+    DeckTree(@NonNull java.util.Collection<Deck> decks) {
+        List<Deck> sorted = new ArrayList<>(decks);
+        Collections.sort(sorted, DeckComparator.instance);
+        int count = sorted.size();
+        mIds = new long[count];
+        mNames = new String[count];
+        mNumbers = new HashMap<>(count);
+        mEnds = new int[count];
+        mParents = new int[count];
+        HashMap<String, Integer> numbersByName = new HashMap<>(count);
+        // the current deck and its ancestors
+        int[] path = new int[count];
+        int depth = 0;
+        for (int i = 0; i < count; i++) {
+            Deck deck = sorted.get(i);
+            DeckName name = deck.getDeckName();
+            mIds[i] = deck.getLong("id");
+            mNames[i] = name.getName();
+            mNumbers.put(mIds[i], i);
+            numbersByName.put(name.getNormalized(), i);
+
+            int parent = -1;
+            for (DeckName ancestor = name.getParent(); ancestor != null && parent == -1; ancestor = ancestor.getParent()) {
+                Integer number = numbersByName.get(ancestor.getNormalized());
+                if (number != null) {
+                    parent = number;
+                }
+            }
+            while (depth > 0 && path[depth - 1] != parent) {
+                mEnds[path[--depth]] = i;
+            }
+            // the parent may be a homonym of an ancestor before the tree is checked
+            mParents[i] = depth == 0 ? -1 : parent;
+            path[depth++] = i;
+        }
+        while (depth > 0) {
+            mEnds[path[--depth]] = count;
+        }
+    }
+
+
+    /** Whether the deck is in the tree with this name */
+    boolean hasName(long did, @NonNull String name) {
+        Integer number = mNumbers.get(did);
+        return number != null && mNames[number].equals(name);
+    }
+
+
+    /** The parent of the deck, or null if it is a top level deck or does not exist */
+    @Nullable Long parent(long did) {
+        Integer number = mNumbers.get(did);
+        if (number == null || mParents[number] == -1) {
+            return null;
+        }
+        return mIds[mParents[number]];
+    }
+
+
+    /** The ancestors of the deck, from the top level one to its parent */
+    @NonNull List<Long> ancestors(long did) {
+        Integer number = mNumbers.get(did);
+        List<Long> ancestors = new ArrayList<>();
+        if (number == null) {
+            return ancestors;
+        }
+        for (int parent = mParents[number]; parent != -1; parent = mParents[parent]) {
+            ancestors.add(mIds[parent]);
+        }
+        Collections.reverse(ancestors);
+        return ancestors;
+    }
+
+
+    /** The direct children of the deck, in the order of the names */
+    @NonNull List<Long> children(long did) {
+        Integer number = mNumbers.get(did);
+        List<Long> children = new ArrayList<>();
+        if (number == null) {
+            return children;
+        }
+        for (int child = number + 1; child < mEnds[number]; child = mEnds[child]) {
+            children.add(mIds[child]);
+        }
+        return children;
+    }
+
+
+    /** The descendants of the deck, in the order of the names */
+    @NonNull List<Long> descendants(long did) {
+        Integer number = mNumbers.get(did);
+        if (number == null) {
+            return new ArrayList<>();
+        }
+        List<Long> descendants = new ArrayList<>(mEnds[number] - number - 1);
+        for (int i = number + 1; i < mEnds[number]; i++) {
+            descendants.add(mIds[i]);
+        }
+        return descendants;
+    }
+}
@@ -22,6 +22,7 @@
 package com.ichi2.libanki;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.text.TextUtils;
 
 import com.ichi2.anki.AnkiDroidApp;
@@ -38,9 +39,9 @@ import com.ichi2.utils.SyncStatus;
 
 import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -74,6 +75,15 @@ public class Decks {
     @SuppressWarnings("WeakerAccess")
     public static final String DECK_SEPARATOR = "::";
 
+    /**
+     * Not in libAnki. Table of the decks and configurations changed since they were last written in the col table,
+     * used when the decks are stored separately. A row whose json is null is a removed deck or configuration.
+     */
+    @VisibleForTesting
+    static final String DECK_ROWS = "deck_rows";
+    private static final int ROW_DECK = 0;
+    private static final int ROW_CONF = 1;
+
     public static final String defaultDeck = ""
             + "{"
                 + "'newToday': [0, 0]," // currentDay, count
@@ -153,7 +163,15 @@ public class Decks {
     private HashMap<Long, DeckConfig> mDconf;
     // Never access mNameMap directly. Uses byName
     private NameMap mNameMap;
+    /** Whether all decks and configurations must be written. */
     private boolean mChanged;
+    /** Decks and configurations changed since the last flush, when mChanged is false. */
+    private final Set<Long> mChangedDecks = new HashSet<>();
+    private final Set<Long> mChangedConfs = new HashSet<>();
+    /** Whether DECK_ROWS may contain rows more recent than the col table. */
+    private boolean mHasRows;
+    /** The hierarchy of the decks, null when it must be built again because names changed. */
+    private @Nullable DeckTree mTree;
 
 
 
@@ -208,11 +226,11 @@ public class Decks {
          * @param g Add a deck. Allow from its name to get quick access to the deck.
          */
         public synchronized void add(Deck g) {
-            String name = g.getString("name");
-            mNameMap.put(name, g);
+            DeckName name = g.getDeckName();
+            mNameMap.put(name.getName(), g);
             // Normalized name is also added because it's required to use it in by name.
             // Non normalized is kept for Parent
-            mNameMap.put(normalizeName(name), g);
+            mNameMap.put(name.getNormalized(), g);
         }
 
 
@@ -261,7 +279,6 @@ public class Decks {
             long longId = Long.parseLong(id);
             mDecks.put(longId, o);
         }
-        mNameMap = NameMap.constructor(mDecks.values());
         JSONObject confarray = new JSONObject(dconf);
         ids = confarray.names();
         mDconf = new HashMap<>(confarray.length());
@@ -270,7 +287,55 @@ public class Decks {
                 mDconf.put(Long.parseLong(id), new DeckConfig(confarray.getJSONObject(id)));
             }
         }
+        mHasRows = loadRows();
+        mNameMap = NameMap.constructor(mDecks.values());
+        mTree = null;
         mChanged = false;
+        mChangedDecks.clear();
+        mChangedConfs.clear();
+    }
+
+
+    /**
+     * Replace the decks and configurations loaded from the col table by their more recent versions in DECK_ROWS.
+     * @return Whether there was any row
+     */
+    private boolean loadRows() {
+        DB db = mCol.getDb();
+        if (db.queryScalar("SELECT count() FROM sqlite_master WHERE type = 'table' AND name = ?", DECK_ROWS) == 0) {
+            return false;
+        }
+        boolean hasRows = false;
+        try (Cursor cur = db.query("SELECT kind, id, json FROM " + DECK_ROWS)) {
+            while (cur.moveToNext()) {
+                hasRows = true;
+                long id = cur.getLong(1);
+                String json = cur.getString(2);
+                if (cur.getInt(0) == ROW_DECK) {
+                    if (json == null) {
+                        mDecks.remove(id);
+                    } else {
+                        mDecks.put(id, new Deck(json));
+                    }
+                } else {
+                    if (json == null) {
+                        mDconf.remove(id);
+                    } else {
+                        mDconf.put(id, new DeckConfig(json));
+                    }
+                }
+            }
+        }
+        return hasRows;
+    }
+
+
+    /**
+     * Whether to only write the decks and configurations which changed, in DECK_ROWS, instead of rewriting all of them in
+     * the col table.
+     */
+    public static boolean storeSeparately() {
+        return AnkiDroidApp.getSharedPrefs(AnkiDroidApp.getInstance()).getBoolean("decksStoredSeparately", false);
     }
 
 
@@ -287,26 +352,73 @@ public class Decks {
             g.put("mod", mCol.getTime().intTime());
             g.put("usn", mCol.usn());
         }
-        mChanged = true;
+        if (g instanceof Deck) {
+            mChangedDecks.add(g.getLong("id"));
+            if (mTree != null && !mTree.hasName(g.getLong("id"), g.getString("name"))) {
+                // the deck was renamed before being saved
+                mTree = null;
+            }
+        } else if (g instanceof DeckConfig) {
+            mChangedConfs.add(g.getLong("id"));
+        } else {
+            mChanged = true;
+        }
     }
 
 
     public void flush() {
+        if (mChanged || !storeSeparately()) {
+            flushAll();
+            return;
+        }
+        if (mChangedDecks.isEmpty() && mChangedConfs.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(mChangedDecks.size() + mChangedConfs.size());
+        for (long did : mChangedDecks) {
+            Deck deck = mDecks.get(did);
+            rows.add(new Object[] {ROW_DECK, did, deck == null ? null : Utils.jsonToString(deck)});
+        }
+        for (long confId : mChangedConfs) {
+            DeckConfig conf = mDconf.get(confId);
+            rows.add(new Object[] {ROW_CONF, confId, conf == null ? null : Utils.jsonToString(conf)});
+        }
+        DB db = mCol.getDb();
+        db.execute("CREATE TABLE IF NOT EXISTS " + DECK_ROWS + " (kind integer not null, id integer not null, json text, primary key (kind, id))");
+        db.executeMany("INSERT OR REPLACE INTO " + DECK_ROWS + " VALUES (?, ?, ?)", rows);
+        mHasRows = true;
+        mChangedDecks.clear();
+        mChangedConfs.clear();
+    }
+
+
+    /**
+     * Write all decks and configurations in the col table, where other clients expect them, if anything changed since
+     * they were last written there.
+     */
+    public void flushAll() {
+        if (!mChanged && !mHasRows && mChangedDecks.isEmpty() && mChangedConfs.isEmpty()) {
+            return;
+        }
         ContentValues values = new ContentValues();
-        if (mChanged) {
-            JSONObject decksarray = new JSONObject();
-            for (Map.Entry<Long, Deck> d : mDecks.entrySet()) {
-                decksarray.put(Long.toString(d.getKey()), d.getValue());
-            }
-            values.put("decks", Utils.jsonToString(decksarray));
-            JSONObject confarray = new JSONObject();
-            for (Map.Entry<Long, DeckConfig> d : mDconf.entrySet()) {
-                confarray.put(Long.toString(d.getKey()), d.getValue());
-            }
-            values.put("dconf", Utils.jsonToString(confarray));
-            mCol.getDb().update("col", values);
-            mChanged = false;
+        JSONObject decksarray = new JSONObject();
+        for (Map.Entry<Long, Deck> d : mDecks.entrySet()) {
+            decksarray.put(Long.toString(d.getKey()), d.getValue());
+        }
+        values.put("decks", Utils.jsonToString(decksarray));
+        JSONObject confarray = new JSONObject();
+        for (Map.Entry<Long, DeckConfig> d : mDconf.entrySet()) {
+            confarray.put(Long.toString(d.getKey()), d.getValue());
         }
+        values.put("dconf", Utils.jsonToString(confarray));
+        mCol.getDb().update("col", values);
+        if (mHasRows) {
+            mCol.getDb().execute("DELETE FROM " + DECK_ROWS);
+            mHasRows = false;
+        }
+        mChanged = false;
+        mChangedDecks.clear();
+        mChangedConfs.clear();
     }
 
 
@@ -370,6 +482,7 @@ public class Decks {
         } while (mDecks.containsKey(id));
         g.put("id", id);
         mDecks.put(id, g);
+        mTree = null;
         save(g);
         maybeAddToActive();
         mNameMap.add(g);
@@ -452,6 +565,7 @@ public class Decks {
         // delete the deck and add a grave
         mDecks.remove(did);
         mNameMap.remove(deck.getString("name"), deck);
+        mTree = null;
         // ensure we have an active deck
         if (active().contains(did)) {
             select(mDecks.keySet().iterator().next());
@@ -582,6 +696,7 @@ public class Decks {
         }
         mNameMap.add(g);
         mDecks.put(g.getLong("id"), g);
+        mTree = null;
         maybeAddToActive();
         // mark registry changed, but don't bump mod time
         save();
@@ -612,11 +727,11 @@ public class Decks {
         }
         // rename children
         String oldName = g.getString("name");
-        for (Deck grp : all()) {
+        for (long did : childIds(g.getLong("id"))) {
+            Deck grp = get(did);
             String grpOldName = grp.getString("name");
             if (grpOldName.startsWith(oldName + "::")) {
-                String grpNewName = grpOldName.replaceFirst(Pattern.quote(oldName + "::"), newName + "::");
-                // In Java, String.replaceFirst consumes a regex so we need to quote the pattern to be safe
+                String grpNewName = newName + "::" + grpOldName.substring(oldName.length() + 2);
                 mNameMap.remove(grpOldName, grp);
                 grp.put("name", grpNewName);
                 mNameMap.add(grp);
@@ -626,6 +741,7 @@ public class Decks {
         mNameMap.remove(oldName, g);
         // adjust name
         g.put("name", newName);
+        mTree = null;
         // ensure we have parents again, as we may have renamed parent->child
         // No ancestor can be filtered after renaming
         newName = _ensureParentsNotFiltered(newName);
@@ -698,12 +814,9 @@ public class Decks {
     }
 
 
-    private static final HashMap<String, String[]> pathCache = new HashMap<>();
+    /** The components of name. For a deck, {@link Deck#getDeckName()} computes them once. */
     public static String[] path(String name) {
-        if (!pathCache.containsKey(name)) {
-            pathCache.put(name, name.split("::", -1));
-        }
-        return pathCache.get(name);
+        return name.split("::", -1);
     }
 
     public static String basename(String name) {
@@ -927,6 +1040,7 @@ public class Decks {
     public void setDeck(long[] cids, long did) {
         mCol.getDb().execute("update cards set did=?,usn=?,mod=? where id in " + Utils.ids2str(cids),
                 did, mCol.usn(), mCol.getTime().intTime());
+        mCol.cardsModified();
     }
 
 
@@ -946,11 +1060,7 @@ public class Decks {
         if (!children) {
             return Utils.list2ObjectArray(mCol.getDb().queryLongList("select id from cards where did=?", did));
         }
-        java.util.Collection<Long> values = children(did).values();
-        List<Long> dids = new ArrayList<>(values.size() + 1);
-        dids.add(did);
-        dids.addAll(values);
-        return Utils.list2ObjectArray(mCol.getDb().queryLongList("select id from cards where did in " + Utils.ids2str(dids)));
+        return Utils.list2ObjectArray(mCol.getDb().queryLongList("select id from cards where did in " + Utils.ids2str(deckAndChildIds(did))));
     }
 
 
@@ -969,6 +1079,7 @@ public class Decks {
         boolean mod = mCol.getDb().getMod();
         SyncStatus.ignoreDatabaseModification(() -> mCol.getDb().execute("update cards set did = 1 where did not in " + Utils.ids2str(allIds())));
         mCol.getDb().setMod(mod);
+        mCol.cardsModified();
     }
 
     private void _checkDeckTree() {
@@ -1094,6 +1205,17 @@ public class Decks {
     }
 
 
+    /** The hierarchy of the decks, built again if names changed since it was last built. */
+    private @NonNull DeckTree tree() {
+        DeckTree tree = mTree;
+        if (tree == null) {
+            tree = new DeckTree(mDecks.values());
+            mTree = tree;
+        }
+        return tree;
+    }
+
+
     /**
      * All children of did as nodes of (key:name, value:id)
      *
@@ -1101,16 +1223,27 @@ public class Decks {
      * need to sort on behalf of select().
      */
     public TreeMap<String, Long> children(long did) {
-        String name = get(did).getString("name");
         TreeMap<String, Long> actv = new TreeMap<>();
-        for (Deck g : all()) {
-            if (g.getString("name").startsWith(name + "::")) {
-                actv.put(g.getString("name"), g.getLong("id"));
-            }
+        for (long id : childIds(did)) {
+            actv.put(get(id).getString("name"), id);
         }
         return actv;
     }
 
+
+    /** The ids of all descendants of did, in the order of their names. */
+    public @NonNull List<Long> childIds(long did) {
+        return tree().descendants(did);
+    }
+
+
+    /** The id of did followed by the ids of all its descendants. */
+    public @NonNull List<Long> deckAndChildIds(long did) {
+        List<Long> dids = tree().descendants(did);
+        dids.add(0, did);
+        return dids;
+    }
+
     public static class Node extends HashMap<Long, Node> {}
 
     private void gather(Node node, List<Long> arr) {
@@ -1129,58 +1262,28 @@ public class Decks {
 
 
     public Node childMap() {
-
+        DeckTree tree = tree();
         Node childMap = new Node();
-
-        // Go through all decks, sorted by name
-        ArrayList<Deck> decks = all();
-
-        Collections.sort(decks, DeckComparator.instance);
-
-        for (Deck deck : decks) {
-            Node node = new Node();
-            childMap.put(deck.getLong("id"), node);
-
-            List<String> parts = Arrays.asList(path(deck.getString("name")));
-            if (parts.size() > 1) {
-                String immediateParent = TextUtils.join("::", parts.subList(0, parts.size() - 1));
-                long pid = byName(immediateParent).getLong("id");
-                childMap.get(pid).put(deck.getLong("id"), node);
+        for (long did : mDecks.keySet()) {
+            childMap.put(did, new Node());
+        }
+        for (Map.Entry<Long, Node> entry : childMap.entrySet()) {
+            Long parent = tree.parent(entry.getKey());
+            if (parent != null) {
+                childMap.get(parent).put(entry.getKey(), entry.getValue());
             }
         }
-
         return childMap;
     }
 
-    /**
-     * @return Names of ancestors of parents of name.
-     */
-    private String[] parentsNames(String name) {
-        String[] parts = path(name);
-        String[] parentsNames = new String[parts.length - 1];
-        // Top level names have no parent, so it returns an empty list.
-        // So the array size is 1 less than the number of parts.
-        String prefix = "";
-        for (int i = 0; i < parts.length - 1; i++) {
-            prefix += parts[i];
-            parentsNames[i] = prefix;
-            prefix += "::";
-        }
-        return parentsNames;
-    }
-
     /**
      * All parents of did.
      */
     public List<Deck> parents(long did) {
-        // get parent and grandparent names
-        String[] parents = parentsNames(get(did).getString("name"));
-        // convert to objects
-        List<Deck> oParents = new ArrayList<>(parents.length);
-        for (int i = 0; i < parents.length; i++) {
-            String parentName = parents[i];
-            Deck deck = mNameMap.get(parentName);
-            oParents.add(i, deck);
+        List<Long> ancestors = tree().ancestors(did);
+        List<Deck> oParents = new ArrayList<>(ancestors.size());
+        for (long ancestor : ancestors) {
+            oParents.add(get(ancestor));
         }
         return oParents;
     }
@@ -1228,12 +1331,9 @@ public class Decks {
      * utils methods
      * **************************************
      */
-    private static final HashMap<String, String> normalized = new HashMap<>();
+    /** The name, with its case and unicode normalization ignored. For a deck, {@link Deck#getDeckName()} computes it once. */
     public static String normalizeName(String name) {
-        if (!normalized.containsKey(name)) {
-            normalized.put(name, Normalizer.normalize(name, Normalizer.Form.NFC).toLowerCase(Locale.ROOT));
-        }
-        return normalized.get(name);
+        return Normalizer.normalize(name, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
     }
 
     public static boolean equalName(String name1, String name2) {
@@ -1251,20 +1351,11 @@ public class Decks {
     }
 
 
-    private static final HashMap<String, String> sParentCache = new HashMap<>();
+    /** The name of the parent of deckName, or null for a top level name. For a deck, {@link Deck#getDeckName()} computes it once. */
     public static String parent(String deckName) {
         // method parent, from sched's method deckDueList in python
-        if (!sParentCache.containsKey(deckName)) {
-            List<String> parts = Arrays.asList(path(deckName));
-            if (parts.size() < 2) {
-                sParentCache.put(deckName, null);
-            } else {
-                parts = parts.subList(0, parts.size() - 1);
-                String parentName = TextUtils.join("::", parts);
-                sParentCache.put(deckName, parentName);
-            }
-        }
-        return sParentCache.get(deckName);
+        DeckName parent = new DeckName(deckName).getParent();
+        return parent == null ? null : parent.getName();
     }
 
     public String getActualDescription() {
@@ -26,9 +26,9 @@ import android.util.Pair;
 
 import com.ichi2.async.CancelListener;
 
-import com.ichi2.async.CollectionTask;
 import com.ichi2.async.ProgressSender;
 import com.ichi2.libanki.Deck;
+import com.ichi2.utils.FunctionalInterfaces.Consumer;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONObject;
 
@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -48,6 +49,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import androidx.annotation.CheckResult;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import timber.log.Timber;
 
 import static com.ichi2.async.CancelListener.isCancelled;
@@ -61,10 +64,14 @@ public class Finder {
     private static final Pattern fMidPattern = Pattern.compile("[^0-9]");
 
     private final Collection mCol;
+    /** Tables of ids used by the query being built, closed once it is run */
+    private final List<DB.IdTable> mIdTables = new ArrayList<>();
 
 
     public Finder(Collection col) {
         mCol = col;
+        // searches may depend on the scheduling of recently answered cards
+        mCol.getReviewJournal().flush();
     }
 
 
@@ -82,22 +89,21 @@ public class Finder {
 
     @CheckResult
     public List<Long> findCards(String query, boolean _order) {
-        return findCards(query, _order, null);
-    }
-
-    @CheckResult
-    public List<Long> findCards(String query, boolean _order, CollectionTask.PartialSearch task) {
-        return _findCards(query, _order, task);
+        return _findCards(query, _order);
     }
 
 
     @CheckResult
     private List<Long> _findCards(String query, Object _order) {
-        return _findCards(query, _order, null);
+        try {
+            return _findCardsWithIdTables(query, _order);
+        } finally {
+            closeIdTables();
+        }
     }
 
-    @CheckResult
-    private List<Long> _findCards(String query, Object _order, CollectionTask.PartialSearch task) {
+
+    private List<Long> _findCardsWithIdTables(String query, Object _order) {
         String[] tokens = _tokenize(query);
         Pair<String, String[]> res1 = _where(tokens);
         String preds = res1.first;
@@ -111,17 +117,9 @@ public class Finder {
         boolean rev = res2.second;
         String sql = _query(preds, order);
         Timber.v("Search query '%s' is compiled as '%s'.", query, sql);
-        boolean sendProgress = task != null;
         try (Cursor cur = mCol.getDb().getDatabase().query(sql, args)) {
             while (cur.moveToNext()) {
-                if (isCancelled(task)) {
-                    return new ArrayList<>(0);
-                }
                 res.add(cur.getLong(0));
-                if (sendProgress && res.size() > task.getNumCardsToRender()) {
-                    task.doProgress(res);
-                    sendProgress = false;
-                }
             }
         } catch (SQLException e) {
             // invalid grouping
@@ -134,7 +132,91 @@ public class Finder {
     }
 
 
+    /**
+     * The ids of the cards matching query, as {@link #findCards(String, boolean)} but without creating an object for
+     * each card. When order is true, the cards are in the order of the browser, and the cards with equal sort keys are
+     * in the order of their ids.
+     * @return The ids, empty if the query is invalid or if the search was cancelled
+     */
+    @CheckResult
+    public @NonNull long[] findCardIds(String query, boolean order, @Nullable CancelListener cancelListener) {
+        return findCardIds(query, order, 0, null, cancelListener);
+    }
+
+
+    /**
+     * As {@link #findCardIds(String, boolean, CancelListener)}, but the first ids are given to firstCards as soon as
+     * they are read, so that they can be shown while the others are read. The cards are found by a single query, so
+     * that a sort which can't use an index is only done once.
+     * @param firstCount The number of ids given to firstCards. It is not called when the search finds fewer cards.
+     */
+    @CheckResult
+    public @NonNull long[] findCardIds(String query, boolean order, int firstCount, @Nullable Consumer<long[]> firstCards,
+                                       @Nullable CancelListener cancelListener) {
+        try {
+            return _findCardIdsWithIdTables(query, order, firstCount, firstCards, cancelListener);
+        } finally {
+            closeIdTables();
+        }
+    }
+
+
+    /**
+     * @param firstCards Called with the first firstCount ids, before the others are read
+     */
+    private @NonNull long[] _findCardIdsWithIdTables(String query, boolean order, int firstCount, @Nullable Consumer<long[]> firstCards,
+                                                     @Nullable CancelListener cancelListener) {
+        String[] tokens = _tokenize(query);
+        Pair<String, String[]> res1 = _where(tokens);
+        String preds = res1.first;
+        String[] args = res1.second;
+        if (preds == null) {
+            return new long[0];
+        }
+        String[] keys = _sortKeysWithId(order);
+        String direction = order && mCol.getConf().getBoolean("sortBackwards") ? " DESC" : "";
+        StringBuilder sort = new StringBuilder(" ORDER BY ");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sort.append(", ");
+            }
+            sort.append(keys[i]).append(direction);
+        }
+        String sql = _query("c.id", preds, sort.toString());
+        Timber.v("Search query '%s' is compiled as '%s'.", query, sql);
+        long[] ids = new long[256];
+        int size = 0;
+        try (Cursor cur = mCol.getDb().getDatabase().query(sql, args)) {
+            while (cur.moveToNext()) {
+                if (isCancelled(cancelListener)) {
+                    return new long[0];
+                }
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size++] = cur.getLong(0);
+                if (firstCards != null && size == firstCount) {
+                    firstCards.consume(Arrays.copyOf(ids, size));
+                }
+            }
+        } catch (SQLException e) {
+            // invalid grouping
+            return new long[0];
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+
     public List<Long> findNotes(String query) {
+        try {
+            return _findNotesWithIdTables(query);
+        } finally {
+            closeIdTables();
+        }
+    }
+
+
+    private List<Long> _findNotesWithIdTables(String query) {
         String[] tokens = _tokenize(query);
         Pair<String, String[]> res1 = _where(tokens);
         String preds = res1.first;
@@ -161,6 +243,24 @@ public class Finder {
     }
 
 
+    /**
+     * @return A condition true for the notes n whose id is in nids, which must only be used by the query being built.
+     */
+    private String _notesIn(java.util.Collection<Long> nids) {
+        DB.IdTable table = mCol.getDb().idTable(nids);
+        mIdTables.add(table);
+        return "n.id in " + table.getName();
+    }
+
+
+    private void closeIdTables() {
+        for (DB.IdTable table : mIdTables) {
+            table.close();
+        }
+        mIdTables.clear();
+    }
+
+
     /**
      * Tokenizing
      * ***********************************************************
@@ -371,12 +471,20 @@ public class Finder {
      * @return A query to return all card ids satifying the predicate and in the given order
      */
     private static String _query(String preds, String order) {
+        return _query("c.id", preds, order);
+    }
+
+
+    /**
+     * @param columns The columns to select, with c a card, n its note
+     */
+    private static String _query(String columns, String preds, String order) {
         // can we skip the note table?
         String sql;
-        if (!preds.contains("n.") && !order.contains("n.")) {
-            sql = "select c.id from cards c where ";
+        if (!preds.contains("n.") && !order.contains("n.") && !columns.contains("n.")) {
+            sql = "select " + columns + " from cards c where ";
         } else {
-            sql = "select c.id from cards c, notes n where c.nid=n.id and ";
+            sql = "select " + columns + " from cards c, notes n where c.nid=n.id and ";
         }
         // combine with preds
         if (!TextUtils.isEmpty(preds)) {
@@ -420,38 +528,57 @@ public class Finder {
         if (!order) {
             return new Pair<>("", false);
         }
+        boolean sortBackwards = mCol.getConf().getBoolean("sortBackwards");
+        return new Pair<>(" ORDER BY " + TextUtils.join(", ", _sortKeys()), sortBackwards);
+    }
+
+
+    /** The expressions sorting the cards, according to the sort type of the browser */
+    private String[] _sortKeys() {
         // use deck default
         String type = mCol.getConf().getString("sortType");
-        String sort = null;
+        String[] sort = null;
         if (type.startsWith("note")) {
             if (type.startsWith("noteCrt")) {
-                sort = "n.id, c.ord";
+                sort = new String[] {"n.id", "c.ord"};
             } else if (type.startsWith("noteMod")) {
-                sort = "n.mod, c.ord";
+                sort = new String[] {"n.mod", "c.ord"};
             } else if (type.startsWith("noteFld")) {
-                sort = "n.sfld COLLATE NOCASE, c.ord";
+                sort = new String[] {"n.sfld COLLATE NOCASE", "c.ord"};
             }
         } else if (type.startsWith("card")) {
             if (type.startsWith("cardMod")) {
-                sort = "c.mod";
+                sort = new String[] {"c.mod"};
             } else if (type.startsWith("cardReps")) {
-                sort = "c.reps";
+                sort = new String[] {"c.reps"};
             } else if (type.startsWith("cardDue")) {
-                sort = "c.type, c.due";
+                sort = new String[] {"c.type", "c.due"};
             } else if (type.startsWith("cardEase")) {
-                sort = "c.type == " + Consts.CARD_TYPE_NEW + ", c.factor";
+                // parenthesized, as = and == have a lower precedence than the comparisons of the pages
+                sort = new String[] {"(c.type == " + Consts.CARD_TYPE_NEW + ")", "c.factor"};
             } else if (type.startsWith("cardLapses")) {
-                sort = "c.lapses";
+                sort = new String[] {"c.lapses"};
             } else if (type.startsWith("cardIvl")) {
-                sort = "c.ivl";
+                sort = new String[] {"c.ivl"};
             }
         }
         if (sort == null) {
             // deck has invalid sort order; revert to noteCrt
-            sort = "n.id, c.ord";
+            sort = new String[] {"n.id", "c.ord"};
         }
-        boolean sortBackwards = mCol.getConf().getBoolean("sortBackwards");
-        return new Pair<>(" ORDER BY " + sort, sortBackwards);
+        return sort;
+    }
+
+
+    /** The sort keys of the browser when order is true, followed by the id of the card, which is unique */
+    private String[] _sortKeysWithId(boolean order) {
+        if (!order) {
+            return new String[] {"c.id"};
+        }
+        String[] sort = _sortKeys();
+        String[] keys = Arrays.copyOf(sort, sort.length + 1);
+        keys[sort.length] = "c.id";
+        return keys;
     }
 
 
@@ -464,15 +591,13 @@ public class Finder {
         if ("none".equals(val)) {
             return "n.tags = \"\"";
         }
-        val = val.replace("*", "%");
-        if (!val.startsWith("%")) {
-            val = "% " + val;
-        }
-        if (!val.endsWith("%") || val.endsWith("\\%")) {
-            val += " %";
+        String pattern = val.replace("*", "%");
+        if (!pattern.isEmpty() && pattern.replace("%", "").isEmpty()) {
+            // as before the index, it also matches the notes without tags
+            return "1";
         }
-        args.add(val);
-        return "n.tags like ? escape '\\'";
+        // the pattern matches a whole tag, e.g. "parent::*" matches the tags of the hierarchy of parent
+        return mCol.getTagIndex().notesWithTag(pattern, args);
     }
 
 
@@ -601,9 +726,15 @@ public class Finder {
 
     private String _findText(String val, List<String> args) {
         val = val.replace("*", "%");
+        String like = "(n.sfld like ? escape '\\' or n.flds like ? escape '\\')";
+        SearchIndex index = mCol.getSearchIndex();
+        if (index.canSearch(val)) {
+            // The index selects candidates, the LIKE keeps the exact meaning of the search
+            like = "(" + index.notesContaining(val, args) + " and " + like + ")";
+        }
         args.add("%" + val + "%");
         args.add("%" + val + "%");
-        return "(n.sfld like ? escape '\\' or n.flds like ? escape '\\')";
+        return like;
     }
 
 
@@ -648,11 +779,7 @@ public class Finder {
         if (did == null) {
             return null;
         }
-        java.util.Collection<Long> children = mCol.getDecks().children(did).values();
-        List<Long> res = new ArrayList<>(children.size() + 1);
-        res.add(did);
-        res.addAll(children);
-        return res;
+        return mCol.getDecks().deckAndChildIds(did);
     }
 
 
@@ -675,21 +802,18 @@ public class Finder {
             // wildcard
             ids = dids(mCol.getDecks().id_dont_create(val));
             if (ids == null) {
-                ids = new ArrayList<>();
+                Set<Long> found = new LinkedHashSet<>();
                 val = val.replace("*", ".*");
                 val = val.replace("+", "\\+");
 
                 for (Deck d : mCol.getDecks().all()) {
                     String deckName = d.getString("name");
                     deckName = Normalizer.normalize(deckName, Normalizer.Form.NFC);
-                    if (deckName.matches("(?i)" + val)) {
-                        for (long id : dids(d.getLong("id"))) {
-                            if (!ids.contains(id)) {
-                                ids.add(id);
-                            }
-                        }
+                    if (!found.contains(d.getLong("id")) && deckName.matches("(?i)" + val)) {
+                        found.addAll(dids(d.getLong("id")));
                     }
                 }
+                ids = new ArrayList<>(found);
             }
         }
         if (ids == null || ids.size() == 0) {
@@ -773,11 +897,19 @@ public class Finder {
             // nothing has that field
             return null;
         }
+        List<String> args = new ArrayList<>(2);
+        String indexCondition = "";
+        SearchIndex index = mCol.getSearchIndex();
+        if (index.canSearch(sqlVal)) {
+            indexCondition = " and " + index.notesContaining(sqlVal, args);
+        }
+        args.add("%" + sqlVal + "%");
         LinkedList<Long> nids = new LinkedList<>();
         try (Cursor cur = mCol.getDb().query(
-                "select id, mid, flds from notes where mid in " +
+                "select id, mid, flds from notes n where mid in " +
                         Utils.ids2str(new LinkedList<>(mods.keySet())) +
-                        " and flds like ? escape '\\'",  "%" + sqlVal + "%")) {
+                        indexCondition +
+                        " and flds like ? escape '\\'",  args.toArray())) {
             /*
              * Here we use the sqlVal expression, that is required for LIKE syntax in sqllite.
              * There is no problem with special characters, because only % and _ are special
@@ -796,7 +928,7 @@ public class Finder {
         if (nids.isEmpty()) {
             return "0";
         }
-        return "n.id in " + Utils.ids2str(nids);
+        return _notesIn(nids);
     }
 
 
@@ -907,10 +1039,10 @@ public class Finder {
         Pattern regex = Pattern.compile(src);
 
         ArrayList<Object[]> d = new ArrayList<>(nids.size());
-        String snids = Utils.ids2str(nids);
         Map<Long, java.util.Collection<Long>> midToNid = new HashMap<>(col.getModels().count());
-        try (Cursor cur = col.getDb().query(
-                "select id, mid, flds from notes where id in " + snids)) {
+        try (DB.IdTable snids = col.getDb().idTable(nids);
+             Cursor cur = col.getDb().query(
+                "select id, mid, flds from notes where id in " + snids.getName())) {
             while (cur.moveToNext()) {
                 long mid = cur.getLong(1);
                 String flds = cur.getString(2);
@@ -1004,8 +1136,9 @@ public class Finder {
         Map<String, List<Long>> vals = new HashMap<>(nids.size());
         List<Pair<String, List<Long>>> dupes = new ArrayList<>(nids.size());
         Map<Long, Integer> fields = new HashMap<>();
-        try (Cursor cur = col.getDb().query(
-                "select id, mid, flds from notes where id in " + Utils.ids2str(col.findNotes(search)))) {
+        try (DB.IdTable snids = col.getDb().idTable(nids);
+             Cursor cur = col.getDb().query(
+                "select id, mid, flds from notes where id in " + snids.getName())) {
             while (cur.moveToNext()) {
                 long nid = cur.getLong(0);
                 long mid = cur.getLong(1);
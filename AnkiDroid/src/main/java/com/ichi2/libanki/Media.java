@@ -25,8 +25,11 @@ import android.text.TextUtils;
 import android.util.Pair;
 
 import com.ichi2.anki.AnkiDroidApp;
+import com.ichi2.async.CancelListener;
+import com.ichi2.async.ProgressSender;
 import com.ichi2.libanki.exception.EmptyMediaException;
 import com.ichi2.libanki.template.TemplateFilters;
+import com.ichi2.libanki.utils.ZipCompression;
 import com.ichi2.utils.Assert;
 
 import com.ichi2.utils.ExceptionUtil;
@@ -53,6 +56,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -60,8 +69,11 @@ import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
+import static com.ichi2.async.CancelListener.isCancelled;
 import static java.lang.Math.min;
 
 /**
@@ -116,6 +128,11 @@ public class Media {
 
     public static final List<Pattern> mRegexps =  Arrays.asList(fSoundRegexps, fImgRegExpQ, fImgRegExpU);
 
+    /** Number of files to hash above which a scan uses several threads */
+    private static final int PARALLEL_CHECKSUMS = 16;
+    /** Number of notes whose references are gathered by each task of check() */
+    private static final int CHECK_BATCH = 1000;
+
     private final Collection mCol;
     private final String mDir;
     private DB mDb;
@@ -241,8 +258,10 @@ public class Media {
         if (ofile == null || ofile.length() == 0) {
             throw new EmptyMediaException();
         }
+        boolean upToDate = _changed() == null;
         String fname = writeData(ofile);
         markFileAdd(fname);
+        _keepUpToDate(upToDate);
         return fname;
     }
 
@@ -323,18 +342,10 @@ public class Media {
             // handle latex
             s =  LaTeX.mungeQA(s, mCol, model);
             // extract filenames
-            Matcher m;
-            for (Pattern p : mRegexps) {
-                // NOTE: python uses the named group 'fname'. Java doesn't have named groups, so we have to determine
-                // the index based on which pattern we are using
-                int fnameIdx = p.equals(fSoundRegexps) ? 2 : p.equals(fImgRegExpU) ? 2 : 3;
-                m = p.matcher(s);
-                while (m.find()) {
-                    String fname = m.group(fnameIdx);
-                    boolean isLocal = !fRemotePattern.matcher(fname.toLowerCase(Locale.getDefault())).find();
-                    if (isLocal || includeRemote) {
-                        l.add(fname);
-                    }
+            for (String fname : _filesInHtml(s)) {
+                boolean isLocal = !fRemotePattern.matcher(fname.toLowerCase(Locale.getDefault())).find();
+                if (isLocal || includeRemote) {
+                    l.add(fname);
                 }
             }
         }
@@ -342,6 +353,106 @@ public class Media {
     }
 
 
+    /**
+     * Find the file names which {@link #mRegexps} would find in html, in the same order: the sounds, then the images
+     * with a quoted src, then those with an unquoted src. The string is scanned once, instead of once by regexp.
+     */
+    @VisibleForTesting
+    static List<String> _filesInHtml(String html) {
+        List<String> sounds = new ArrayList<>();
+        List<String> quoted = new ArrayList<>();
+        List<String> unquoted = new ArrayList<>();
+        int length = html.length();
+        // A match of a regexp is searched again from its end, so sounds may contain images and the other way around
+        int nextSound = 0;
+        int nextImg = 0;
+        for (int i = 0; i < length; i++) {
+            char c = html.charAt(i);
+            if (c == '[' && i >= nextSound && html.regionMatches(true, i, "[sound:", 0, 7)) {
+                int end = html.indexOf(']', i + 7);
+                if (end < 0) {
+                    nextSound = length;
+                } else if (end > i + 7) {
+                    sounds.add(html.substring(i + 7, end));
+                    nextSound = end + 1;
+                }
+            } else if (c == '<' && i >= nextImg && html.regionMatches(true, i, "<img", 0, 4)) {
+                int end = html.indexOf('>', i + 4);
+                if (end < 0) {
+                    nextImg = length;
+                    continue;
+                }
+                String fname = _quotedSrc(html, i + 4, end);
+                if (fname != null) {
+                    quoted.add(fname);
+                }
+                fname = _unquotedSrc(html, i + 4, end);
+                if (fname != null) {
+                    unquoted.add(fname);
+                }
+                nextImg = end + 1;
+            }
+        }
+        sounds.addAll(quoted);
+        sounds.addAll(unquoted);
+        return sounds;
+    }
+
+
+    /**
+     * The file name of an <img> whose attributes are html[start, end[, as in group 3 of fImgRegExpQ: the last
+     * " src=" followed by a quote which is closed before the end.
+     */
+    private static @Nullable String _quotedSrc(String html, int start, int end) {
+        for (int src = _lastSrc(html, start, end - 5); src >= 0; src = _lastSrc(html, start, src - 1)) {
+            int value = src + 5;
+            if (value < end) {
+                char quote = html.charAt(value);
+                if (quote == '"' || quote == '\'') {
+                    int close = html.indexOf(quote, value + 2);
+                    if (close >= 0 && close < end) {
+                        return html.substring(value + 1, close);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * The file name of an <img> whose attributes are html[start, end[, as in group 2 of fImgRegExpU: from the last
+     * " src=" followed by neither a quote nor a space, up to the next space.
+     */
+    private static @Nullable String _unquotedSrc(String html, int start, int end) {
+        for (int src = _lastSrc(html, start, end - 5); src >= 0; src = _lastSrc(html, start, src - 1)) {
+            int value = src + 5;
+            if (value < end) {
+                char first = html.charAt(value);
+                if (first != '"' && first != '\'' && first != ' ') {
+                    int stop = value;
+                    while (stop < end && html.charAt(stop) != ' ') {
+                        stop++;
+                    }
+                    return html.substring(value, stop);
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /** @return The greatest index of a " src=" in html, between start and from included, or -1 */
+    private static int _lastSrc(String html, int start, int from) {
+        for (int i = from; i >= start; i--) {
+            if (html.regionMatches(true, i, " src=", 0, 5)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
     private List<String> _expandClozes(String string) {
         Set<String> ords = new TreeSet<>();
         @SuppressWarnings("RegExpRedundantEscape") // In Android, } should be escaped
@@ -350,11 +461,11 @@ public class Media {
             ords.add(m.group(1));
         }
         ArrayList<String> strings = new ArrayList<>(ords.size() + 1);
-        String clozeReg = TemplateFilters.clozeReg;
-        
+        Pattern anyCloze = TemplateFilters.clozePattern(".+?");
+
         for (String ord : ords) {
             StringBuffer buf = new StringBuffer();
-            m = Pattern.compile(String.format(Locale.US, clozeReg, ord)).matcher(string);
+            m = TemplateFilters.clozePattern(ord).matcher(string);
             while (m.find()) {
                 if (!TextUtils.isEmpty(m.group(4))) {
                     m.appendReplacement(buf, "[$4]");
@@ -363,10 +474,10 @@ public class Media {
                 }
             }
             m.appendTail(buf);
-            String s = buf.toString().replaceAll(String.format(Locale.US, clozeReg, ".+?"), "$2");
+            String s = anyCloze.matcher(buf).replaceAll("$2");
             strings.add(s);
         }
-        strings.add(string.replaceAll(String.format(Locale.US, clozeReg, ".+?"), "$2"));
+        strings.add(anyCloze.matcher(string).replaceAll("$2"));
         return strings;
     }
 
@@ -430,31 +541,26 @@ public class Media {
      * @return A list containing three lists of files (missingFiles, unusedFiles, invalidFiles)
      */
     public List<List<String>> check() {
-        return check(null);
+        return check(null, null);
     }
 
 
-    private List<List<String>> check(File[] local) {
+    /**
+     * Same as {@link #check()}, sending the number of notes whose references were gathered as progress.
+     *
+     * @return null if task was cancelled
+     */
+    public <T extends ProgressSender<Integer> & CancelListener> @Nullable List<List<String>> check(@Nullable T task) {
+        return check(null, task);
+    }
+
+
+    private <T extends ProgressSender<Integer> & CancelListener> List<List<String>> check(File[] local, @Nullable T task) {
         File mdir = new File(dir());
         // gather all media references in NFC form
-        Set<String> allRefs = new HashSet<>();
-        try (Cursor cur = mCol.getDb().query("select id, mid, flds from notes")) {
-            while (cur.moveToNext()) {
-                long nid = cur.getLong(0);
-                long mid = cur.getLong(1);
-                String flds = cur.getString(2);
-                List<String> noteRefs = filesInStr(mid, flds);
-                // check the refs are in NFC
-                for (String f : noteRefs) {
-                    // if they're not, we'll need to fix them first
-                    if (!f.equals(Utils.nfcNormalized(f))) {
-                        _normalizeNoteRefs(nid);
-                        noteRefs = filesInStr(mid, flds);
-                        break;
-                    }
-                }
-                allRefs.addAll(noteRefs);
-            }
+        Set<String> allRefs = _allRefs(task);
+        if (allRefs == null) {
+            return null;
         }
         // loop through media folder
         List<String> unused = new ArrayList<>();
@@ -502,7 +608,7 @@ public class Media {
         // if we renamed any files to nfc format, we must rerun the check
         // to make sure the renamed files are not marked as unused
         if (renamedFiles) {
-            return check(local);
+            return check(local, task);
         }
         List<String> nohave = new ArrayList<>();
         for (String x : allRefs) {
@@ -524,6 +630,92 @@ public class Media {
     }
 
 
+    /**
+     * Gather the media references of all the notes, in NFC form. The notes are split in batches of consecutive ids,
+     * whose references are found by a pool of one thread per core.
+     *
+     * @return null if task was cancelled
+     */
+    private <T extends ProgressSender<Integer> & CancelListener> @Nullable Set<String> _allRefs(@Nullable T task) {
+        List<Long> nids = mCol.getDb().queryLongList("select id from notes order by id");
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            CompletionService<NoteRefs> batches = new ExecutorCompletionService<>(pool);
+            int batchCount = 0;
+            for (int start = 0; start < nids.size(); start += CHECK_BATCH) {
+                long first = nids.get(start);
+                long last = nids.get(Math.min(nids.size(), start + CHECK_BATCH) - 1);
+                batches.submit(() -> isCancelled(task) ? null : _refsOfNotes(first, last));
+                batchCount++;
+            }
+            Set<String> allRefs = new HashSet<>();
+            List<Long> unnormalized = new ArrayList<>();
+            int done = 0;
+            for (int i = 0; i < batchCount; i++) {
+                NoteRefs batch = batches.take().get();
+                if (batch == null || isCancelled(task)) {
+                    return null;
+                }
+                allRefs.addAll(batch.mRefs);
+                unnormalized.addAll(batch.mUnnormalized);
+                done += batch.mNoteCount;
+                if (task != null) {
+                    task.doProgress(done);
+                }
+            }
+            // fix the notes whose refs are not in NFC, and get their refs again
+            for (long nid : unnormalized) {
+                _normalizeNoteRefs(nid);
+                Note note = mCol.getNote(nid);
+                allRefs.addAll(filesInStr(note.getMid(), note.joinedFields()));
+            }
+            return allRefs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /** References of the notes whose id is between first and last, as found by a thread of {@link #_allRefs} */
+    private NoteRefs _refsOfNotes(long first, long last) {
+        NoteRefs result = new NoteRefs();
+        try (Cursor cur = mCol.getDb().query("select id, mid, flds from notes where id between ? and ?", first, last)) {
+            while (cur.moveToNext()) {
+                long nid = cur.getLong(0);
+                List<String> noteRefs = filesInStr(cur.getLong(1), cur.getString(2));
+                result.mNoteCount++;
+                // check the refs are in NFC
+                boolean normalized = true;
+                for (String f : noteRefs) {
+                    if (!f.equals(Utils.nfcNormalized(f))) {
+                        normalized = false;
+                        break;
+                    }
+                }
+                if (normalized) {
+                    result.mRefs.addAll(noteRefs);
+                } else {
+                    // notes can only be changed by the thread of the collection
+                    result.mUnnormalized.add(nid);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private static class NoteRefs {
+        private final Set<String> mRefs = new HashSet<>();
+        private final List<Long> mUnnormalized = new ArrayList<>();
+        private int mNoteCount = 0;
+    }
+
+
     private void _normalizeNoteRefs(long nid) {
         Note note = mCol.getNote(nid);
         String[] flds = note.getFields();
@@ -676,40 +868,66 @@ public class Media {
     }
 
 
-    private void _logChanges()  {
-        Pair<List<String>, List<String>> result = _changes();
-        List<String> added = result.first;
-        List<String> removed = result.second;
-        ArrayList<Object[]> media = new ArrayList<>(added.size() + removed.size());
-        for (String f : added) {
-            String path = new File(dir(), f).getAbsolutePath();
-            long mt = _mtime(path);
-            media.add(new Object[] { f, _checksum(path), mt, 1 });
+    /**
+     * After a change to the media folder recorded in the media db, let the next findChanges() know that the db is still
+     * up to date with the folder, if it was before the change.
+     *
+     * @param upToDate Whether {@link #_changed()} was null before the change
+     */
+    private void _keepUpToDate(boolean upToDate) {
+        if (upToDate) {
+            _setDirMod();
         }
-        for (String f : removed) {
+    }
+
+
+    /**
+     * Record the mtime of the media folder, so that the next findChanges() only scans it if it changed. A file added
+     * later in the same second would not change the mtime, so an mtime of the current second is recorded one second
+     * earlier, and the folder is scanned again next time.
+     */
+    private void _setDirMod() {
+        long mtime = _mtime(dir());
+        if (mtime >= mCol.getTime().intTime()) {
+            mtime -= 1;
+        }
+        mDb.execute("update meta set dirMod = ?", mtime);
+    }
+
+
+    private void _logChanges()  {
+        Pair<List<Object[]>, List<String>> result = _changes();
+        List<Object[]> media = result.first;
+        for (String f : result.second) {
             media.add(new Object[] { f, null, 0, 1});
         }
         // update media db
         mDb.executeMany("insert or replace into media values (?,?,?,?)", media);
-        mDb.execute("update meta set dirMod = ?", _mtime(dir()));
+        _setDirMod();
         mDb.commit();
     }
 
 
-    private Pair<List<String>, List<String>> _changes() {
+    /**
+     * @return The rows to write in the media db for the files added or modified, and the names of the removed files.
+     *         Files whose mtime changed but not their content are returned with their new mtime and unchanged dirty
+     *         flag, so that they are not hashed again by the next scan.
+     */
+    private Pair<List<Object[]>, List<String>> _changes() {
         Map<String, Object[]> cache = new HashMap<>(mDb.queryScalar("SELECT count() FROM media WHERE csum IS NOT NULL"));
-        try (Cursor cur = mDb.query("select fname, csum, mtime from media where csum is not null")) {
+        try (Cursor cur = mDb.query("select fname, csum, mtime, dirty from media where csum is not null")) {
             while (cur.moveToNext()) {
                 String name = cur.getString(0);
                 String csum = cur.getString(1);
                 long mod = cur.getLong(2);
-                cache.put(name, new Object[] { csum, mod, false });
+                int dirty = cur.getInt(3);
+                cache.put(name, new Object[] { csum, mod, false, dirty });
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        List<String> added = new ArrayList<>();
-        List<String> removed = new ArrayList<>();
+        // files which are new or whose mtime changed, to be hashed
+        List<File> changed = new ArrayList<>();
         // loop through on-disk files
         for (File f : new File(dir()).listFiles()) {
             // ignore folders and thumbs.db
@@ -741,25 +959,35 @@ public class Media {
                 File nf = new File(dir(), normf);
                 if (nf.exists()) {
                     f.delete();
-                } else {
-                    f.renameTo(nf);
+                    // the file with the right name is in the listing too
+                    continue;
+                } else if (f.renameTo(nf)) {
+                    f = nf;
+                    fname = normf;
                 }
             }
-            // newly added?
-            if (!cache.containsKey(fname)) {
-                added.add(fname);
-            } else {
-                // modified since last time?
-                if (_mtime(f.getAbsolutePath()) != (Long) cache.get(fname)[1]) {
-                    // and has different checksum?
-                    if (!_checksum(f.getAbsolutePath()).equals(cache.get(fname)[0])) {
-                        added.add(fname);
-                    }
-                }
+            Object[] cached = cache.get(fname);
+            // newly added, or modified since last time?
+            if (cached == null || f.lastModified() / 1000 != (Long) cached[1]) {
+                changed.add(f);
+            }
+            if (cached != null) {
                 // mark as used
-                cache.get(fname)[2] = true;
+                cached[2] = true;
+            }
+        }
+        String[] csums = _checksums(changed);
+        List<Object[]> added = new ArrayList<>(changed.size());
+        for (int i = 0; i < csums.length; i++) {
+            File f = changed.get(i);
+            Object[] cached = cache.get(f.getName());
+            if (cached == null || !csums[i].equals(cached[0])) {
+                added.add(new Object[] { f.getName(), csums[i], f.lastModified() / 1000, 1 });
+            } else {
+                added.add(new Object[] { f.getName(), csums[i], f.lastModified() / 1000, cached[3] });
             }
         }
+        List<String> removed = new ArrayList<>();
         // look for any entries in the cache that no longer exist on disk
         for (Map.Entry<String, Object[]> entry : cache.entrySet()) {
             if (!((Boolean) entry.getValue()[2])) {
@@ -770,6 +998,36 @@ public class Media {
     }
 
 
+    /** @return The checksums of files, in the same order. Many files are hashed by several threads. */
+    private String[] _checksums(List<File> files) {
+        String[] csums = new String[files.size()];
+        if (files.size() < PARALLEL_CHECKSUMS) {
+            for (int i = 0; i < csums.length; i++) {
+                csums[i] = _checksum(files.get(i).getAbsolutePath());
+            }
+            return csums;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<String>> futures = new ArrayList<>(files.size());
+            for (File f : files) {
+                futures.add(pool.submit(() -> _checksum(f.getAbsolutePath())));
+            }
+            for (int i = 0; i < csums.length; i++) {
+                csums[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return csums;
+    }
+
+
     /**
      * Syncing related
      * ***********************************************************
@@ -800,18 +1058,22 @@ public class Media {
 
 
     public void markClean(List<String> fnames) {
+        List<Object[]> args = new ArrayList<>(fnames.size());
         for (String fname : fnames) {
-            mDb.execute("update media set dirty=0 where fname=?", fname);
+            args.add(new Object[] {fname});
         }
+        mDb.executeInTransaction(() -> mDb.executeManyNoTransaction("update media set dirty=0 where fname=?", args));
     }
 
 
     public void syncDelete(String fname) {
+        boolean upToDate = _changed() == null;
         File f = new File(dir(), fname);
         if (f.exists()) {
             f.delete();
         }
         mDb.execute("delete from media where fname=?", fname);
+        _keepUpToDate(upToDate);
     }
 
 
@@ -885,7 +1147,9 @@ public class Media {
                         mCol.log("+media zip " + fname);
                         File file = new File(dir(), fname);
                         BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file), 2048);
-                        z.putNextEntry(new ZipEntry(Integer.toString(c)));
+                        ZipEntry entry = new ZipEntry(Integer.toString(c));
+                        ZipCompression.setMethod(entry, file);
+                        z.putNextEntry(entry);
                         int count = 0;
                         while ((count = bis.read(buffer, 0, 2048)) != -1) {
                             z.write(buffer, 0, count);
@@ -932,6 +1196,7 @@ public class Media {
         try {
             // get meta info first
             JSONObject meta = new JSONObject(Utils.convertStreamToString(z.getInputStream(z.getEntry("_meta"))));
+            boolean upToDate = _changed() == null;
             // then loop through all files
             int cnt = 0;
             ArrayList<? extends ZipEntry> zipEntries = Collections.list(z.entries());
@@ -947,10 +1212,10 @@ public class Media {
                 name = Utils.nfcNormalized(name);
                 // save file
                 String destPath = (dir() + File.separator) + name;
+                String csum;
                 try (InputStream zipInputStream = z.getInputStream(i)) {
-                    Utils.writeToFile(zipInputStream, destPath);
+                    csum = Utils.writeToFileWithChecksum(zipInputStream, destPath);
                 }
-                String csum = Utils.fileChecksum(destPath);
                 // update db
                 media.add(new Object[] {name, csum, _mtime(destPath), 0});
                 cnt += 1;
@@ -958,6 +1223,7 @@ public class Media {
             if (media.size() > 0) {
                 mDb.executeMany("insert or replace into media values (?,?,?,?)", media);
             }
+            _keepUpToDate(upToDate);
             return cnt;
         } finally {
             z.close();
@@ -1001,10 +1267,24 @@ public class Media {
     }
 
 
+    /**
+     * Write data to the file fname of the media directory, in NFC form, and mark its addition as
+     * {@link #markFileAdd(String)}, without making the next findChanges() scan the directory.
+     * Does not close the provided stream.
+     */
+    public void writeFileAndMarkAdd(InputStream data, String fname) throws IOException {
+        boolean upToDate = _changed() == null;
+        Utils.writeToFile(data, new File(dir(), Utils.nfcNormalized(fname)).getAbsolutePath());
+        markFileAdd(fname);
+        _keepUpToDate(upToDate);
+    }
+
+
     /**
      * Remove a file from the media directory if it exists and mark it as removed in the media database.
      */
     public void removeFile(String fname) {
+        boolean upToDate = _changed() == null;
         File f = new File(dir(), fname);
         if (f.exists()) {
             f.delete();
@@ -1012,6 +1292,7 @@ public class Media {
         Timber.d("Marking media file removal in media db: %s", fname);
         mDb.execute("insert or replace into media values (?,?,?,?)",
                fname, null, 0, 1);
+        _keepUpToDate(upToDate);
     }
 
 
@@ -647,6 +647,7 @@ public class Models {
             return;
         }
         ArrayList<Object[]> r = new ArrayList<>();
+        List<Long> nids = new ArrayList<>();
 
         try (Cursor cur = mCol.getDb()
                 .query("select id, flds from notes where mid = ?", m.getLong("id"))) {
@@ -654,9 +655,11 @@ public class Models {
                 r.add(new Object[] {
                         Utils.joinFields(fn.transform(Utils.splitFields(cur.getString(1)))),
                         mCol.getTime().intTime(), mCol.usn(), cur.getLong(0)});
+                nids.add(cur.getLong(0));
             }
         }
         mCol.getDb().executeMany("update notes set flds=?,mod=?,usn=? where id = ?", r);
+        mCol.getSearchIndex().update(Utils.ids2str(nids));
     }
 
 
@@ -32,6 +32,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import timber.log.Timber;
 
 
@@ -53,6 +55,12 @@ public class Note implements Cloneable {
     private int mUsn;
     private long mMod;
     private boolean mNewlyAdded;
+    /** The sort field in the database when the note was loaded or flushed, null if it must be read from the database. */
+    private @Nullable String mSFld;
+
+    /** Columns of notes n read to load a note, followed by the sort field. */
+    static final String COLUMNS_FOR_LOAD = "n.guid, n.mid, n.mod, n.usn, n.tags, n.flds, n.flags, n.data, n.sfld";
+    static final int NUMBER_OF_COLUMNS_FOR_LOAD = 9;
 
     
     public Note(Collection col, Long id) {
@@ -87,27 +95,44 @@ public class Note implements Cloneable {
     }
 
 
+    /**
+     * A note whose content is read from the current row of cursor, where the columns COLUMNS_FOR_LOAD start at index
+     * column.
+     */
+    Note(@NonNull Collection col, long id, @NonNull Cursor cursor, int column) {
+        mCol = col;
+        mId = id;
+        _load(cursor, column);
+    }
+
+
     public void load() {
         Timber.d("load()");
         try (Cursor cursor = mCol.getDb()
-                .query("SELECT guid, mid, mod, usn, tags, flds, flags, data FROM notes WHERE id = ?", mId)) {
+                .query("SELECT " + COLUMNS_FOR_LOAD + " FROM notes n WHERE id = ?", mId)) {
             if (!cursor.moveToFirst()) {
                 throw new WrongId(mId, "note");
             }
-            mGuId = cursor.getString(0);
-            mMid = cursor.getLong(1);
-            mMod = cursor.getLong(2);
-            mUsn = cursor.getInt(3);
-            mTags = mCol.getTags().split(cursor.getString(4));
-            mFields = Utils.splitFields(cursor.getString(5));
-            mFlags = cursor.getInt(6);
-            mData = cursor.getString(7);
-            mModel = mCol.getModels().get(mMid);
-            mFMap = Models.fieldMap(mModel);
-            mScm = mCol.getScm();
+            _load(cursor, 0);
         }
     }
 
+
+    private void _load(@NonNull Cursor cursor, int column) {
+        mGuId = cursor.getString(column);
+        mMid = cursor.getLong(column + 1);
+        mMod = cursor.getLong(column + 2);
+        mUsn = cursor.getInt(column + 3);
+        mTags = mCol.getTags().split(cursor.getString(column + 4));
+        mFields = Utils.splitFields(cursor.getString(column + 5));
+        mFlags = cursor.getInt(column + 6);
+        mData = cursor.getString(column + 7);
+        mSFld = cursor.getString(column + 8);
+        mModel = mCol.getModels().get(mMid);
+        mFMap = Models.fieldMap(mModel);
+        mScm = mCol.getScm();
+    }
+
     public void reloadModel() {
         mModel = mCol.getModels().get(mMid);
     }
@@ -143,6 +168,9 @@ public class Note implements Cloneable {
         mMod = mod != null ? mod : mCol.getTime().intTime();
         mCol.getDb().execute("insert or replace into notes values (?,?,?,?,?,?,?,?,?,?,?)",
                 mId, mGuId, mMid, mMod, mUsn, tags, fields, sfld, csum, mFlags, mData);
+        mSFld = sfld;
+        mCol.getSearchIndex().update(mId);
+        mCol.getTagIndex().update(mId);
         mCol.getTags().register(mTags);
         _postFlush();
     }
@@ -362,6 +390,9 @@ public class Note implements Cloneable {
 
 
     public String getSFld() {
+        if (mSFld != null) {
+            return mSFld;
+        }
         return mCol.getDb().queryString("SELECT sfld FROM notes WHERE id = ?", mId);
     }
 
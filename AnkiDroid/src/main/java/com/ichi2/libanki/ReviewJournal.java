@@ -0,0 +1,354 @@
+package com.ichi2.libanki;
+
+import android.database.sqlite.SQLiteConstraintException;
+
+import com.ichi2.anki.AnkiDroidApp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.SyncFailedException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Optional write-behind buffer for the changes made by answering cards: the new scheduling state of the cards and
+ * their revlog rows.
+ *
+ * Answering a card normally costs two writes to the database, each in its own transaction. Instead, the changes are
+ * kept in memory and written in a single transaction every {@link #FLUSH_EVERY} answers, when the collection is saved
+ * or closed, and whenever something else is written to the database, so that no write happens in a different order
+ * than without the journal. Reads which may depend on pending changes must call {@link #flush()} first; cards loaded
+ * from the database already get their pending state.
+ *
+ * Each change is also appended to a file next to the collection, and synced to the storage, so that answers are not
+ * lost if the process is killed or the device stops before the next flush. The revlog row of an answer is written with
+ * the state of its card, which follows it, so that each answer is synced once. The file is emptied by each flush, and
+ * replayed when the collection is opened.
+ *
+ * The journal may be used from any thread. Its lock is always taken after the database, never before, so that
+ * flushing it from a write of another thread can't deadlock.
+ */
+public class ReviewJournal {
+    /** Columns of the cards table kept by the journal, in the order of {@link Card#getSchedState()} */
+    static final String[] CARD_COLUMNS = {"mod", "usn", "type", "queue", "due", "ivl", "factor", "reps", "lapses", "left", "odue", "odid", "did"};
+    /** Number of answers kept before they are written to the database. */
+    @VisibleForTesting
+    static final int FLUSH_EVERY = 50;
+    private static final String SUFFIX = ".reviews";
+    private static final String CARD = "c";
+    private static final String REVLOG = "r";
+    private static final int REVLOG_COLUMNS = 9;
+
+    private static final String UPDATE_CARD;
+    static {
+        StringBuilder sql = new StringBuilder("UPDATE cards SET ");
+        for (int i = 0; i < CARD_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(CARD_COLUMNS[i]).append(" = ?");
+        }
+        UPDATE_CARD = sql.append(" WHERE id = ?").toString();
+    }
+
+    private final Collection mCol;
+    private final File mFile;
+    /** Pending state of the answered cards, by card id */
+    private final Map<Long, long[]> mCards = new HashMap<>();
+    private final Set<Long> mNids = new HashSet<>();
+    /** Queues of the pending cards, before and after their answers. Queries on other queues don't need a flush. */
+    private final Set<Integer> mQueues = new HashSet<>();
+    /** Pending revlog rows, in the order of the answers */
+    private final List<Object[]> mRevlog = new ArrayList<>();
+    private int mAnswers = 0;
+    /** Greatest id of the revlog rows, 0 if it must be read from the database. */
+    private long mLastRevlogId = 0;
+    private @Nullable FileOutputStream mOutput;
+    private @Nullable Writer mWriter;
+
+
+    public ReviewJournal(@NonNull Collection col) {
+        mCol = col;
+        mFile = new File(col.getPath() + SUFFIX);
+    }
+
+
+    public static boolean isEnabled() {
+        return AnkiDroidApp.getSharedPrefs(AnkiDroidApp.getInstance()).getBoolean("reviewJournal", false);
+    }
+
+
+    public synchronized boolean isEmpty() {
+        return mCards.isEmpty() && mRevlog.isEmpty();
+    }
+
+
+    /**
+     * Keep the scheduling state of card, instead of updating its row.
+     * @param previousQueue The queue of the card before it was answered
+     */
+    public void addCard(@NonNull Card card, @Consts.CARD_QUEUE int previousQueue) {
+        long[] state = card.getSchedState();
+        StringBuilder line = new StringBuilder(CARD).append('\t').append(card.getId());
+        for (long value : state) {
+            line.append('\t').append(value);
+        }
+        boolean full;
+        synchronized (this) {
+            mCards.put(card.getId(), state);
+            mNids.add(card.getNid());
+            mQueues.add(previousQueue);
+            mQueues.add(card.getQueue());
+            append(line, true);
+            full = ++mAnswers >= FLUSH_EVERY;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+
+    /** Keep a revlog row, instead of inserting it. Its id is the current time, made unique. */
+    public void addRevlog(long cid, int usn, @Consts.BUTTON_TYPE int ease, int ivl, int lastIvl, int factor, int timeTaken, @Consts.REVLOG_TYPE int type) {
+        // read before taking the lock, see the class comment
+        long lastInDatabase = hasLastRevlogId() ? 0 : mCol.getDb().queryLongScalar("SELECT ifnull(max(id), 0) FROM revlog");
+        synchronized (this) {
+            mLastRevlogId = Math.max(mCol.getTime().intTimeMS(), Math.max(mLastRevlogId, lastInDatabase) + 1);
+            Object[] row = new Object[] {mLastRevlogId, cid, usn, ease, ivl, lastIvl, factor, timeTaken, type};
+            mRevlog.add(row);
+            StringBuilder line = new StringBuilder(REVLOG);
+            for (Object value : row) {
+                line.append('\t').append(value);
+            }
+            // synced with the state of the card, which is added next by the answer
+            append(line, false);
+        }
+    }
+
+
+    private synchronized boolean hasLastRevlogId() {
+        return mLastRevlogId != 0;
+    }
+
+
+    /** @return The pending scheduling state of the card cid, in the order of CARD_COLUMNS, or null if there is none. */
+    synchronized @Nullable long[] getPendingState(long cid) {
+        return mCards.get(cid);
+    }
+
+
+    /** Flush if the journal has a pending state for a card of the note nid. */
+    public void flushNote(long nid) {
+        boolean pending;
+        synchronized (this) {
+            pending = mNids.contains(nid);
+        }
+        if (pending) {
+            flush();
+        }
+    }
+
+
+    /** Flush if the journal has a pending card which is, or was before its answer, in one of the queues. */
+    public void flushQueues(@NonNull @Consts.CARD_QUEUE int... queues) {
+        boolean pending = false;
+        synchronized (this) {
+            for (int queue : queues) {
+                pending |= mQueues.contains(queue);
+            }
+        }
+        if (pending) {
+            flush();
+        }
+    }
+
+
+    /** Write the pending changes to the database, in a single transaction. */
+    public void flush() {
+        // the lock is already held when the writes of the flush itself ask for a flush
+        if (Thread.holdsLock(this) || isEmpty()) {
+            return;
+        }
+        DB db = mCol.getDb();
+        db.getDatabase().beginTransaction();
+        synchronized (this) {
+            try {
+                if (!isEmpty()) {
+                    Timber.d("Writing %d answers from the review journal", mAnswers);
+                    _insertRevlog(mRevlog);
+                    _updateCards(mCards);
+                }
+                db.getDatabase().setTransactionSuccessful();
+            } finally {
+                DB.safeEndInTransaction(db);
+            }
+            // not cleared if the transaction failed, the file is then replayed at next opening
+            clear();
+        }
+        // the scheduler counted the answers before their cards were written, and a flush made by a write of the
+        // scheduler must not be counted as part of its own change
+        mCol.getSched().invalidateDueCounts();
+    }
+
+
+    /** Stop appending to the file. Changes not flushed stay in the file and are replayed at next opening. */
+    public synchronized void close() {
+        closeWriter();
+        if (isEmpty()) {
+            mFile.delete();
+        }
+        mCards.clear();
+        mNids.clear();
+        mQueues.clear();
+        mRevlog.clear();
+        mAnswers = 0;
+    }
+
+
+    /** Write the changes left in the file by a process which was killed before it could flush them. */
+    public void replay() {
+        if (!mFile.exists()) {
+            return;
+        }
+        Map<Long, long[]> cards = new HashMap<>();
+        List<Object[]> revlog = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split("\t");
+                try {
+                    if (CARD.equals(values[0]) && values.length == CARD_COLUMNS.length + 2) {
+                        long[] state = new long[CARD_COLUMNS.length];
+                        for (int i = 0; i < state.length; i++) {
+                            state[i] = Long.parseLong(values[i + 2]);
+                        }
+                        cards.put(Long.parseLong(values[1]), state);
+                    } else if (REVLOG.equals(values[0]) && values.length == REVLOG_COLUMNS + 1) {
+                        Object[] row = new Object[REVLOG_COLUMNS];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = Long.parseLong(values[i + 1]);
+                        }
+                        revlog.add(row);
+                    } else {
+                        // the last line may have been partially written
+                        Timber.w("Ignoring line of the review journal: %s", line);
+                    }
+                } catch (NumberFormatException e) {
+                    Timber.w(e, "Ignoring line of the review journal: %s", line);
+                }
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Could not read the review journal");
+            return;
+        }
+        Timber.i("Replaying %d answers from the review journal", cards.size());
+        mCol.getDb().executeInTransaction(() -> {
+            _insertRevlog(revlog);
+            _updateCards(cards);
+        });
+        mFile.delete();
+    }
+
+
+    private void _insertRevlog(@NonNull List<Object[]> revlog) {
+        DB db = mCol.getDb();
+        for (Object[] row : revlog) {
+            try {
+                db.execute("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", row);
+            } catch (SQLiteConstraintException e) {
+                // A row with this id was inserted since the id was chosen. Or, when replaying, this is the same row,
+                // which was flushed before the file could be emptied.
+                if (db.queryScalar("SELECT count() FROM revlog WHERE id = ? AND cid = ?", row[0], row[1]) != 0) {
+                    continue;
+                }
+                row[0] = db.queryLongScalar("SELECT max(id) FROM revlog") + 1;
+                db.execute("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", row);
+            }
+            mCol.getReviewRollup().add(row);
+        }
+    }
+
+
+    private void _updateCards(@NonNull Map<Long, long[]> cards) {
+        DB db = mCol.getDb();
+        for (Map.Entry<Long, long[]> card : cards.entrySet()) {
+            long[] state = card.getValue();
+            Object[] args = new Object[state.length + 1];
+            for (int i = 0; i < state.length; i++) {
+                args[i] = state[i];
+            }
+            args[state.length] = card.getKey();
+            db.execute(UPDATE_CARD, args);
+        }
+    }
+
+
+    /**
+     * @param sync Whether to write the line, and those appended before it, to the storage. Otherwise the line is only
+     *             buffered.
+     */
+    private void append(@NonNull CharSequence line, boolean sync) {
+        try {
+            if (mWriter == null) {
+                mOutput = new FileOutputStream(mFile, true);
+                mWriter = new BufferedWriter(new OutputStreamWriter(mOutput, StandardCharsets.UTF_8));
+            }
+            mWriter.append(line).append('\n');
+            if (!sync) {
+                return;
+            }
+            mWriter.flush();
+            // Survives the device stopping too, not only the process being killed
+            mOutput.getFD().sync();
+        } catch (SyncFailedException e) {
+            // The line is still written, only the protection against the device stopping is lost
+            Timber.w(e, "Could not sync the review journal");
+        } catch (IOException e) {
+            // The change is still in memory, only the protection against the process being killed is lost
+            Timber.w(e, "Could not write to the review journal");
+        }
+    }
+
+
+    private void clear() {
+        mCards.clear();
+        mNids.clear();
+        mQueues.clear();
+        mRevlog.clear();
+        mAnswers = 0;
+        // Other clients may have inserted revlog rows by the time of the next answer
+        mLastRevlogId = 0;
+        closeWriter();
+        mFile.delete();
+    }
+
+
+    private void closeWriter() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                Timber.w(e, "Could not close the review journal");
+            }
+            mWriter = null;
+            mOutput = null;
+        }
+    }
+}
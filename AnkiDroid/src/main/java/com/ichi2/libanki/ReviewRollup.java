@@ -0,0 +1,277 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import com.ichi2.libanki.sched.AbstractSched;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+import static com.ichi2.libanki.stats.Stats.SECONDS_PER_DAY;
+
+/**
+ * Number and time of the reviews of each day, so that the statistics and the estimated time of the study of the
+ * remaining cards do not have to read every row of the revlog.
+ *
+ * A row aggregates the reviews of the same day, hour, type, ease and maturity (last interval of at least 21 days). A
+ * day is identified by the day cutoff at its end, and contains the reviews whose second is after the previous cutoff
+ * and not after this one; the hour, from 0 to 23, is counted the same way from the start of the day. These are the days
+ * and hours of the statistics, so the rows give the same results as the revlog, except for reviews made during the
+ * second of a limit. There is no deck: the statistics of some decks select the reviews by the current deck of their
+ * cards, so they read the revlog.
+ *
+ * The days only match the days of the scheduler while the day cutoff is at the same time of the day, in UTC. When
+ * it changes, e.g. with daylight saving time, the table is dropped.
+ *
+ * The table is created from the revlog in the background after the collection is loaded, and by Check Database; until
+ * then, the readers read the revlog instead, see {@link #isReady()}. It is updated by every change of the revlog, and is
+ * dropped before the collection file is sent to another client, which would not keep it up to date. It is built in a
+ * single transaction, and only read once it is committed.
+ */
+public class ReviewRollup {
+    public static final String TABLE = "revlog_daily";
+    /** Number of days of a change of the revlog above which computing the table again is faster than updating it */
+    private static final int MAX_REFRESHED_DAYS = 100;
+
+    private final Collection mCol;
+    /** Whether the table exists, null if not checked yet. */
+    private volatile @Nullable Boolean mExists;
+    /** A day cutoff whose days are the ones of the rows, null if not checked yet. */
+    private volatile @Nullable Long mAlignedCutoff;
+    /** Whether the table is being built, and may not be committed yet. */
+    private volatile boolean mBuilding = false;
+
+
+    public ReviewRollup(@NonNull Collection col) {
+        mCol = col;
+    }
+
+
+    private boolean exists() {
+        if (mExists == null) {
+            mExists = mCol.getDb().queryScalar("SELECT count() FROM sqlite_master WHERE type = 'table' AND name = ?", TABLE) > 0;
+        }
+        return mExists;
+    }
+
+
+    /** The current day cutoff, or 0 if the scheduler is not loaded yet. */
+    private long dayCutoff() {
+        AbstractSched sched = mCol.getSched();
+        return sched == null ? 0 : sched.getDayCutoff();
+    }
+
+
+    /** Whether the days of the rows end at the same time of the day as the day ending at dayCutoff. */
+    private boolean isAligned(long dayCutoff) {
+        if (mAlignedCutoff != null && (dayCutoff - mAlignedCutoff) % SECONDS_PER_DAY == 0) {
+            return true;
+        }
+        try (Cursor cur = mCol.getDb().query("SELECT day FROM " + TABLE + " LIMIT 1")) {
+            if (cur.moveToFirst() && (dayCutoff - cur.getLong(0)) % SECONDS_PER_DAY != 0) {
+                return false;
+            }
+        }
+        mAlignedCutoff = dayCutoff;
+        return true;
+    }
+
+
+    /**
+     * Whether the table can be updated. When it exists but its days are not the current ones, it is dropped, and will
+     * be computed again when needed.
+     */
+    private boolean isUpdatable(long dayCutoff) {
+        if (!exists()) {
+            return false;
+        }
+        if (dayCutoff == 0 || !isAligned(dayCutoff)) {
+            drop();
+            return false;
+        }
+        return true;
+    }
+
+
+    /** The day cutoff at the end of the day of the review id. */
+    private static long dayEnd(long id, long dayCutoff) {
+        long seconds = id / 1000 - dayCutoff;
+        long days = seconds <= 0 ? -(-seconds / SECONDS_PER_DAY) : (seconds + SECONDS_PER_DAY - 1) / SECONDS_PER_DAY;
+        return dayCutoff + days * SECONDS_PER_DAY;
+    }
+
+
+    /**
+     * Whether the table can be read: it exists and its days are the current ones. Computing it reads the whole revlog,
+     * so readers on the UI path read the revlog instead when it is not ready.
+     */
+    public boolean isReady() {
+        long dayCutoff = dayCutoff();
+        return dayCutoff != 0 && !mBuilding && exists() && isAligned(dayCutoff);
+    }
+
+
+    /**
+     * Create the table from the revlog if it does not exist, or if its days are not the current ones. It reads the
+     * whole revlog, so it must only be called in the background.
+     */
+    public void ensureExists() {
+        long dayCutoff = dayCutoff();
+        if (!exists() || !isAligned(dayCutoff)) {
+            rebuild();
+        }
+    }
+
+
+    /**
+     * Count a review which was just inserted in the revlog.
+     * @param row The values of the revlog row: id, cid, usn, ease, ivl, lastIvl, factor, time, type
+     */
+    public void add(@NonNull Object[] row) {
+        long dayCutoff = dayCutoff();
+        if (!isUpdatable(dayCutoff)) {
+            return;
+        }
+        long id = ((Number) row[0]).longValue();
+        long day = dayEnd(id, dayCutoff);
+        int mature = ((Number) row[5]).intValue() >= 21 ? 1 : 0;
+        long hour = 23 - (day - id / 1000) / 3600;
+        Object[] key = {day, row[8], row[3], mature, hour};
+        DB db = mCol.getDb();
+        db.execute("INSERT OR IGNORE INTO " + TABLE + " VALUES (?,?,?,?,?,0,0)", key);
+        db.execute("UPDATE " + TABLE + " SET cnt = cnt + 1, time = time + ? "
+                + "WHERE day = ? AND type = ? AND ease = ? AND mature = ? AND hour = ?",
+                row[7], key[0], key[1], key[2], key[3], key[4]);
+    }
+
+
+    /**
+     * Count again the reviews of the days of some revlog rows, after they were inserted or deleted.
+     * @param rows Revlog rows, whose first value is the id
+     */
+    public void refresh(@NonNull List<Object[]> rows) {
+        long[] ids = new long[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ((Number) rows.get(i)[0]).longValue();
+        }
+        refresh(ids);
+    }
+
+
+    /** Count again the reviews of the days of the revlog ids, after they were inserted or deleted. */
+    public void refresh(@NonNull long... ids) {
+        long dayCutoff = dayCutoff();
+        if (!isUpdatable(dayCutoff)) {
+            return;
+        }
+        Set<Long> days = new TreeSet<>();
+        for (long id : ids) {
+            days.add(dayEnd(id, dayCutoff));
+        }
+        if (days.size() > MAX_REFRESHED_DAYS) {
+            drop();
+            return;
+        }
+        DB db = mCol.getDb();
+        for (long day : days) {
+            db.execute("DELETE FROM " + TABLE + " WHERE day = ?", day);
+            db.execute("INSERT INTO " + TABLE + " " + aggregate(dayCutoff, "r.id >= " + (day - SECONDS_PER_DAY + 1) * 1000
+                    + " AND r.id < " + (day + 1) * 1000));
+        }
+    }
+
+
+    /** A query aggregating the revlog rows r matching the condition, as rows of the table. */
+    private static @NonNull String aggregate(long dayCutoff, @NonNull String condition) {
+        return "SELECT day, type, ease, mature, 23 - (day - id / 1000) / 3600 AS hour, count(), sum(time) FROM ("
+                + "SELECT r.id, r.type, r.ease, r.lastIvl >= 21 AS mature, r.time, "
+                + dayCutoff + " + " + SECONDS_PER_DAY + " * (CASE WHEN r.id / 1000 <= " + dayCutoff
+                + " THEN -((" + dayCutoff + " - r.id / 1000) / " + SECONDS_PER_DAY + ")"
+                + " ELSE (r.id / 1000 - " + dayCutoff + " + " + (SECONDS_PER_DAY - 1) + ") / " + SECONDS_PER_DAY + " END) AS day "
+                + "FROM revlog r WHERE " + condition + ") "
+                + "GROUP BY day, type, ease, mature, hour";
+    }
+
+
+    /**
+     * The success rates and average times, in ms, of the reviews of the days after dayCutoff, used to estimate the time
+     * of the remaining reviews, alternately rate and time: for the revlog types learn, review and early review, and
+     * relearn. A value is 0 if there is no review of its types. They are read from the revlog if the table is not ready.
+     */
+    public @NonNull double[] answerRates(long dayCutoff) {
+        boolean ready = isReady();
+        double[] rates = new double[6];
+        // the types are the ones of the revlog, the estimator matches them to queues by their number
+        String[] types = {"type = " + Consts.CARD_TYPE_NEW, "type IN (" + Consts.CARD_TYPE_LRN + ", " + Consts.CARD_TYPE_RELEARNING + ")",
+                "type = " + Consts.CARD_TYPE_REV};
+        StringBuilder query = new StringBuilder("SELECT ");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            if (ready) {
+                query.append("sum(CASE WHEN ").append(types[i]).append(" AND ease > 1 THEN cnt ELSE 0 END) * 1.0 / sum(CASE WHEN ").append(types[i]).append(" THEN cnt END), ")
+                        .append("sum(CASE WHEN ").append(types[i]).append(" THEN time END) * 1.0 / sum(CASE WHEN ").append(types[i]).append(" THEN cnt END)");
+            } else {
+                query.append("avg(CASE WHEN ").append(types[i]).append(" THEN CASE WHEN ease > 1 THEN 1.0 ELSE 0.0 END END), ")
+                        .append("avg(CASE WHEN ").append(types[i]).append(" THEN time END)");
+            }
+        }
+        if (ready) {
+            query.append(" FROM ").append(TABLE).append(" WHERE day > ?");
+        } else {
+            query.append(" FROM revlog WHERE id > ?");
+        }
+        try (Cursor cur = mCol.getDb().query(query.toString(), ready ? dayCutoff : dayCutoff * 1000)) {
+            if (cur.moveToFirst()) {
+                for (int i = 0; i < rates.length; i++) {
+                    rates[i] = cur.getDouble(i);
+                }
+            }
+        }
+        return rates;
+    }
+
+
+    public void drop() {
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + TABLE);
+        mExists = false;
+        mAlignedCutoff = null;
+    }
+
+
+    /**
+     * Drop the table, and create it again from the whole revlog.
+     *
+     * Its content is derived from the revlog, so it is written without marking the collection as modified.
+     */
+    public void rebuild() {
+        long dayCutoff = dayCutoff();
+        if (dayCutoff == 0) {
+            drop();
+            return;
+        }
+        DB db = mCol.getDb();
+        mBuilding = true;
+        try {
+            db.executeInTransaction(() -> {
+                drop();
+                Timber.d("Computing the daily reviews");
+                db.getDatabase().execSQL("CREATE TABLE " + TABLE + " (day integer NOT NULL, "
+                        + "type integer NOT NULL, ease integer NOT NULL, mature integer NOT NULL, hour integer NOT NULL, "
+                        + "cnt integer NOT NULL, time integer NOT NULL, PRIMARY KEY (day, type, ease, mature, hour)) WITHOUT ROWID");
+                db.getDatabase().execSQL("INSERT INTO " + TABLE + " " + aggregate(dayCutoff, "1"));
+                // the other threads can only write the revlog once the transaction is committed
+                mAlignedCutoff = dayCutoff;
+                mExists = true;
+            });
+        } finally {
+            mBuilding = false;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.ichi2.libanki;
+
+import android.database.SQLException;
+
+import com.ichi2.anki.AnkiDroidApp;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Optional full text index of the notes, used by the Finder to avoid scanning every note for text searches.
+ *
+ * The index is a FTS5 table using the trigram tokenizer, whose rowids are note ids. The indexed text of a note is its
+ * fields followed by its sort field, so a note matched by `LIKE '%text%'` on flds or sfld also matches the same LIKE on
+ * the index. Since the index also folds the case of non ASCII characters, it may match more notes: it is only used to
+ * select candidates, the Finder still applies its own condition to them.
+ *
+ * The table is complete whenever it exists. It is created by Check database when the option is enabled. It is dropped
+ * before the collection file is sent to another client, which would not keep it up to date, and created again once the
+ * file is sent.
+ */
+public class SearchIndex {
+    public static final String TABLE = "notes_fts";
+    /** Shortest text for which the trigram index can select notes. */
+    private static final int MIN_LENGTH = 3;
+
+    private final Collection mCol;
+    /** Whether the table exists, null if not checked yet. */
+    private @Nullable Boolean mExists;
+    /** The option, read when the collection is opened and by {@link #rebuild()} */
+    private boolean mEnabled;
+
+
+    public SearchIndex(@NonNull Collection col) {
+        mCol = col;
+        mEnabled = isEnabledInPreferences();
+    }
+
+
+    private static boolean isEnabledInPreferences() {
+        return AnkiDroidApp.getSharedPrefs(AnkiDroidApp.getInstance()).getBoolean("searchIndex", false);
+    }
+
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+
+    private boolean exists() {
+        if (mExists == null) {
+            mExists = mCol.getDb().queryScalar("SELECT count() FROM sqlite_master WHERE type = 'table' AND name = ?", TABLE) > 0;
+        }
+        return mExists;
+    }
+
+
+    /**
+     * @param text A text searched in notes, where % and _ are wildcards as in LIKE
+     * @return Whether the index can be used to find the notes containing text
+     */
+    public boolean canSearch(@NonNull String text) {
+        return text.length() >= MIN_LENGTH
+                && text.indexOf('%') == -1 && text.indexOf('_') == -1 && text.indexOf('\\') == -1
+                && mEnabled && exists();
+    }
+
+
+    /**
+     * @return A SQL condition on n.id, true for (at least) the notes containing text. It must only be used if
+     * canSearch(text).
+     */
+    public @NonNull String notesContaining(@NonNull String text, @NonNull List<String> args) {
+        args.add("%" + text + "%");
+        return "n.id in (select rowid from " + TABLE + " where flds like ?)";
+    }
+
+
+    /**
+     * Index the current content of the notes.
+     * @param snids Comma separated note ids, between parenthesis
+     */
+    public void update(@NonNull String snids) {
+        if (!exists()) {
+            return;
+        }
+        remove(snids);
+        mCol.getDb().execute("INSERT INTO " + TABLE + " (rowid, flds) SELECT id, flds || char(31) || sfld FROM notes WHERE id IN " + snids);
+    }
+
+
+    /**
+     * Index the current content of a note.
+     */
+    public void update(long nid) {
+        update("(" + nid + ")");
+    }
+
+
+    /**
+     * Remove notes from the index.
+     * @param snids Comma separated note ids, between parenthesis
+     */
+    public void remove(@NonNull String snids) {
+        if (!exists()) {
+            return;
+        }
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE rowid IN " + snids);
+    }
+
+
+    public void drop() {
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + TABLE);
+        mExists = false;
+    }
+
+
+    /**
+     * Create the index from all notes if it is enabled and was dropped, e.g. after the collection file was sent.
+     */
+    public void restore() {
+        if (mEnabled && !exists()) {
+            rebuild();
+        }
+    }
+
+
+    /**
+     * Drop the index, and create it again from all notes if it is enabled. The option is read again, so that Check
+     * database applies its last value.
+     * @return Whether the index exists at the end. It may not if this SQLite does not support FTS5 or trigrams.
+     */
+    public boolean rebuild() {
+        drop();
+        mEnabled = isEnabledInPreferences();
+        if (!mEnabled) {
+            return false;
+        }
+        try {
+            mCol.getDb().execute("CREATE VIRTUAL TABLE " + TABLE + " USING fts5(flds, tokenize = 'trigram')");
+        } catch (SQLException e) {
+            Timber.w(e, "Full text search is not supported");
+            return false;
+        }
+        mExists = true;
+        mCol.getDb().execute("INSERT INTO " + TABLE + " (rowid, flds) SELECT id, flds || char(31) || sfld FROM notes");
+        return true;
+    }
+}
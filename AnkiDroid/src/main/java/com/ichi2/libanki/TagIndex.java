@@ -0,0 +1,200 @@
+package com.ichi2.libanki;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Index of the tags of the notes, so that searching and listing tags does not have to read and split the tags of
+ * every note.
+ *
+ * A dictionary gives an id to each tag, exactly as written in the notes, and a second table contains a row (tag id,
+ * note id) for each tag of each note. The dictionary is not cleaned when a tag is no longer used, so the tags are
+ * listed from the rows of the notes, and Check Database removes the unused names.
+ *
+ * The tables are created from the notes in the background after the collection is loaded, and the tags are read from
+ * the notes until then. They are then updated by every change of the tags of the notes, and are dropped before the
+ * collection file is sent to another client, which would not keep them up to date.
+ *
+ * The tables are built in a single transaction, so that the notes changed by other threads meanwhile are indexed once
+ * it is committed, and they are only read once it is.
+ */
+public class TagIndex {
+    public static final String TAGS_TABLE = "tag_names";
+    public static final String NOTES_TABLE = "note_tags";
+    /** The characters separating tags, other than space, as in {@link Tags#split(String)} */
+    private static final String SEPARATORS = "\t\n\u000B\f\r\u3000";
+
+    private final Collection mCol;
+    /** Whether the tables exist, null if not checked yet. */
+    private volatile @Nullable Boolean mExists;
+    /** Whether the tables are being built, and may not be committed yet. */
+    private volatile boolean mBuilding = false;
+
+
+    public TagIndex(@NonNull Collection col) {
+        mCol = col;
+    }
+
+
+    private boolean exists() {
+        if (mExists == null) {
+            mExists = mCol.getDb().queryScalar("SELECT count() FROM sqlite_master WHERE type = 'table' AND name = ?", NOTES_TABLE) > 0;
+        }
+        return mExists;
+    }
+
+
+    /** Whether the tables exist and are built. Until then, the tags are read from the notes, which is slower. */
+    public boolean isReady() {
+        return !mBuilding && exists();
+    }
+
+
+    /** Create the tables from the notes if they do not exist. It reads every note, so it is not run by the searches. */
+    public void ensureExists() {
+        if (!exists()) {
+            rebuild();
+        }
+    }
+
+
+    /**
+     * A common table expression note_tag (nid, tag, rest) splitting the tags of the notes matching condition. The rows
+     * whose tag is empty must be ignored.
+     */
+    private static @NonNull String splitTags(@NonNull String condition) {
+        String tags = "tags";
+        for (char separator : SEPARATORS.toCharArray()) {
+            tags = "replace(" + tags + ", char(" + (int) separator + "), ' ')";
+        }
+        return "WITH RECURSIVE note_tag (nid, tag, rest) AS (SELECT id, '', " + tags + " || ' ' FROM notes WHERE " + condition
+                + " UNION ALL SELECT nid, substr(rest, 1, instr(rest, ' ') - 1), substr(rest, instr(rest, ' ') + 1) "
+                + "FROM note_tag WHERE rest <> '') ";
+    }
+
+
+    /** Add the tags of the notes matching condition, which must not be in the index yet. */
+    private void insert(@NonNull String condition) {
+        DB db = mCol.getDb();
+        db.execute(splitTags(condition) + "INSERT OR IGNORE INTO " + TAGS_TABLE + " (name) SELECT DISTINCT tag FROM note_tag WHERE tag <> ''");
+        db.execute(splitTags(condition) + "INSERT OR IGNORE INTO " + NOTES_TABLE + " (tid, nid) "
+                + "SELECT t.id, n.nid FROM note_tag n JOIN " + TAGS_TABLE + " t ON t.name = n.tag WHERE n.tag <> ''");
+    }
+
+
+    /**
+     * Index the current tags of the notes.
+     * @param snids Comma separated note ids, between parenthesis
+     */
+    public void update(@NonNull String snids) {
+        if (!exists()) {
+            return;
+        }
+        remove(snids);
+        insert("id IN " + snids);
+    }
+
+
+    /**
+     * Index the current tags of a note.
+     */
+    public void update(long nid) {
+        update("(" + nid + ")");
+    }
+
+
+    /**
+     * Remove notes from the index.
+     * @param snids Comma separated note ids, between parenthesis
+     */
+    public void remove(@NonNull String snids) {
+        if (!exists()) {
+            return;
+        }
+        mCol.getDb().execute("DELETE FROM " + NOTES_TABLE + " WHERE nid IN " + snids);
+    }
+
+
+    /**
+     * @param pattern A pattern of LIKE, with \ as escape character, matching whole tags
+     * @return A SQL condition on n.id, true for the notes having a tag matching the pattern.
+     */
+    public @NonNull String notesWithTag(@NonNull String pattern, @NonNull List<String> args) {
+        args.add(pattern);
+        if (!isReady()) {
+            return "n.id IN (" + splitTags("1") + "SELECT nid FROM note_tag WHERE tag <> '' AND tag LIKE ? ESCAPE '\\')";
+        }
+        return "n.id IN (SELECT nid FROM " + NOTES_TABLE + " WHERE tid IN (SELECT id FROM " + TAGS_TABLE
+                + " WHERE name LIKE ? ESCAPE '\\'))";
+    }
+
+
+    /** The tags of at least one note, by name. */
+    public @NonNull List<String> all() {
+        if (!isReady()) {
+            return mCol.getDb().queryStringList(splitTags("1") + "SELECT DISTINCT tag FROM note_tag WHERE tag <> '' ORDER BY tag");
+        }
+        return mCol.getDb().queryStringList("SELECT name FROM " + TAGS_TABLE + " t "
+                + "WHERE EXISTS (SELECT 1 FROM " + NOTES_TABLE + " WHERE tid = t.id) ORDER BY name");
+    }
+
+
+    /**
+     * The tags of the notes of the cards of some decks.
+     * @param sdids Comma separated deck ids, between parenthesis
+     */
+    public @NonNull List<String> inDecks(@NonNull String sdids) {
+        if (!isReady()) {
+            return mCol.getDb().queryStringList(splitTags("id IN (SELECT nid FROM cards WHERE did IN " + sdids + ")")
+                    + "SELECT DISTINCT tag FROM note_tag WHERE tag <> ''");
+        }
+        return mCol.getDb().queryStringList("SELECT DISTINCT t.name FROM cards c JOIN " + NOTES_TABLE + " n ON n.nid = c.nid "
+                + "JOIN " + TAGS_TABLE + " t ON t.id = n.tid WHERE c.did IN " + sdids);
+    }
+
+
+    /** Remove the names of the tags which no note has anymore. */
+    public void prune() {
+        if (!exists()) {
+            return;
+        }
+        mCol.getDb().execute("DELETE FROM " + TAGS_TABLE + " WHERE NOT EXISTS (SELECT 1 FROM " + NOTES_TABLE
+                + " WHERE tid = " + TAGS_TABLE + ".id)");
+    }
+
+
+    public void drop() {
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + NOTES_TABLE);
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + TAGS_TABLE);
+        mExists = false;
+    }
+
+
+    /**
+     * Drop the tables, and create them again from all notes.
+     *
+     * Their content is derived from the notes, so they are written without marking the collection as modified.
+     */
+    public void rebuild() {
+        DB db = mCol.getDb();
+        mBuilding = true;
+        try {
+            db.executeInTransaction(() -> {
+                drop();
+                Timber.d("Indexing the tags of the notes");
+                db.getDatabase().execSQL("CREATE TABLE " + TAGS_TABLE + " (id integer PRIMARY KEY, name text NOT NULL UNIQUE)");
+                db.getDatabase().execSQL("CREATE TABLE " + NOTES_TABLE + " (tid integer NOT NULL, nid integer NOT NULL, "
+                        + "PRIMARY KEY (tid, nid)) WITHOUT ROWID");
+                db.getDatabase().execSQL("CREATE INDEX ix_" + NOTES_TABLE + "_nid ON " + NOTES_TABLE + " (nid)");
+                insert("1");
+                // the other threads can only write the notes once the transaction is committed
+                mExists = true;
+            });
+        } finally {
+            mBuilding = false;
+        }
+    }
+}
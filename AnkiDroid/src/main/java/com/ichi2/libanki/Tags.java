@@ -131,21 +131,19 @@ public class Tags {
     /** Add any missing tags from notes to the tags list. */
     public void registerNotes(java.util.Collection<Long> nids) {
         // when called with a null argument, the old list is cleared first.
-        String lim;
-        if (nids != null) {
-            lim = " WHERE id IN " + Utils.ids2str(nids);
-        } else {
-            lim = "";
+        if (nids == null) {
             mTags.clear();
             mChanged = true;
+            register(mCol.getTagIndex().all());
+            return;
         }
-        List<String> tags = new ArrayList<>(mCol.noteCount());
-        try (Cursor cursor = mCol.getDb().query("SELECT DISTINCT tags FROM notes" + lim)) {
+        HashSet<String> tagSet = new HashSet<>();
+        try (DB.IdTable snids = mCol.getDb().idTable(nids);
+             Cursor cursor = mCol.getDb().query("SELECT DISTINCT tags FROM notes WHERE id IN " + snids.getName())) {
             while (cursor.moveToNext()) {
-                tags.add(cursor.getString(0));
+                tagSet.addAll(split(cursor.getString(0)));
             }
         }
-        HashSet<String> tagSet = new HashSet<>(split(TextUtils.join(" ", tags)));
         register(tagSet);
     }
 
@@ -171,19 +169,13 @@ public class Tags {
     * @return a list of the tags
     */
     public ArrayList<String> byDeck(long did, boolean children) {
-        List<String> tags;
+        String sdids;
         if (children) {
-            java.util.Collection<Long> values = mCol.getDecks().children(did).values();
-            ArrayList<Long> dids = new ArrayList<>(values.size());
-            dids.add(did);
-            dids.addAll(values);
-            tags = mCol.getDb().queryStringList("SELECT DISTINCT n.tags FROM cards c, notes n WHERE c.nid = n.id AND c.did IN " + Utils.ids2str(dids));
+            sdids = Utils.ids2str(mCol.getDecks().deckAndChildIds(did));
         } else {
-            tags = mCol.getDb().queryStringList("SELECT DISTINCT n.tags FROM cards c, notes n WHERE c.nid = n.id AND c.did = ?", did);
+            sdids = "(" + did + ")";
         }
-        // Cast to set to remove duplicates
-        // Use methods used to get all tags to parse tags here as well.
-        return new ArrayList<>(new HashSet<>(split(TextUtils.join(" ", tags))));
+        return new ArrayList<>(mCol.getTagIndex().inDecks(sdids));
     }
 
 
@@ -236,10 +228,11 @@ public class Tags {
             t = t.replace("*", "%");
             lim.append(l).append("like '% ").append(t).append(" %'");
         }
-        ArrayList<Object[]> res = new ArrayList<>(mCol.getDb().queryScalar("select count() from notes where id in "+ Utils.ids2str(ids) + " and (" + lim + ")"));
-        try (Cursor cur = mCol
+        ArrayList<Object[]> res = new ArrayList<>();
+        try (DB.IdTable sids = mCol.getDb().idTable(ids);
+             Cursor cur = mCol
                 .getDb()
-                .query("select id, tags from notes where id in " + Utils.ids2str(ids) +
+                .query("select id, tags from notes where id in " + sids.getName() +
                         " and (" + lim + ")")) {
             if (add) {
                 while (cur.moveToNext()) {
@@ -254,6 +247,9 @@ public class Tags {
         }
         // update tags
         mCol.getDb().executeMany("update notes set tags=:t,mod=:n,usn=:u where id = :id", res);
+        try (DB.IdTable sids = mCol.getDb().idTable(ids)) {
+            mCol.getTagIndex().update(sids.getName());
+        }
     }
 
 
@@ -48,11 +48,14 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.Normalizer;
@@ -638,6 +641,36 @@ public class Utils {
         } catch (IOException e) {
             Timber.e(e, "Utils.fileChecksum: IO exception.");
         }
+        return sha1ToString(digest);
+    }
+
+
+    /**
+     * Write source to the file destination, computing the SHA1 checksum of the content as it is written, so that the
+     * file does not need to be read again by {@link #fileChecksum(String)}.
+     * Does not close the provided stream.
+     *
+     * @return The same checksum as {@link #fileChecksum(String)} of the written file.
+     */
+    public static String writeToFileWithChecksum(InputStream source, String destination) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[32 * 1024];
+        try (OutputStream out = new DigestOutputStream(new FileOutputStream(destination), md)) {
+            int numRead;
+            while ((numRead = source.read(buffer)) != -1) {
+                out.write(buffer, 0, numRead);
+            }
+        }
+        return sha1ToString(md.digest());
+    }
+
+
+    private static String sha1ToString(byte[] digest) {
         BigInteger biginteger = new BigInteger(1, digest);
         String result = biginteger.toString(16);
         // pad with zeros to length of 40 - SHA1 is 160bit long
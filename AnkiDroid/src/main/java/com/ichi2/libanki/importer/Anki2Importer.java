@@ -313,6 +313,9 @@ public class Anki2Importer extends Importer {
                 if (dirty.size() >= thresExecDirty) {
                     totalDirtyCount  += dirty.size();
                     mDst.updateFieldCache(dirty);
+                    try (DB.IdTable snids = mDst.getDb().idTable(dirty)) {
+                        mDst.getTagIndex().update(snids.getName());
+                    }
                     mDst.getTags().registerNotes(dirty);
                     dirty.clear();
                     Timber.d("dirty notes: %d", totalDirtyCount);
@@ -355,6 +358,9 @@ public class Anki2Importer extends Importer {
         }
 
         mDst.updateFieldCache(dirty);
+        try (DB.IdTable snids = mDst.getDb().idTable(dirty)) {
+            mDst.getTagIndex().update(snids.getName());
+        }
         mDst.getTags().registerNotes(dirty);
     }
 
@@ -668,6 +674,7 @@ public class Anki2Importer extends Importer {
             mDst.getDb().getDatabase().setTransactionSuccessful();
         } finally {
             DB.safeEndInTransaction(mDst.getDb());
+            mDst.cardsModified();
         }
     }
 
@@ -677,6 +684,7 @@ public class Anki2Importer extends Importer {
 
     private void insertRevlog(List<Object[]> revlog) {
         mDst.getDb().executeManyNoTransaction("insert or ignore into revlog values (?,?,?,?,?,?,?,?,?)", revlog);
+        mDst.getReviewRollup().refresh(revlog);
     }
 
 
@@ -738,10 +746,8 @@ public class Anki2Importer extends Importer {
 
     private void _writeDstMedia(String fname, BufferedInputStream data) {
         try {
-            String path = new File(mDst.getMedia().dir(), Utils.nfcNormalized(fname)).getAbsolutePath();
-            Utils.writeToFile(data, path);
             // Mark file addition to media db (see note in Media.java)
-            mDst.getMedia().markFileAdd(fname);
+            mDst.getMedia().writeFileAndMarkAdd(data, fname);
         } catch (IOException e) {
 
             // the user likely used subdirectories
@@ -8,6 +8,7 @@ import com.ichi2.anki.AnkiDroidApp;
 import com.ichi2.anki.R;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.DB;
 import com.ichi2.libanki.DeckConfig;
 import com.ichi2.libanki.Model;
 import com.ichi2.libanki.Models;
@@ -22,8 +23,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -43,6 +46,13 @@ import static com.ichi2.libanki.importer.NoteImporter.ImportMode.UPDATE_MODE;
 // Aside from 9f676dbe0b2ad9b87a3bf89d7735b4253abd440e, which allows empty notes.
 public class NoteImporter extends Importer {
 
+    /** Number of notes written to the collection in each transaction. */
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    /** Temporary table of the first fields imported, to find the duplicates in the imported file. */
+    private static final String FIRSTS_TABLE = "import_firsts";
+    /** Maximal number of messages about single rows in the log, so that the log of a large file stays small. */
+    private static final int MAX_ROW_MESSAGES = 1000;
+
     private boolean mNeedMapper = true;
     private boolean mNeedDelimiter = false;
     private boolean mAllowHTML = false;
@@ -68,6 +78,9 @@ public class NoteImporter extends Importer {
     private boolean mEmptyNotes;
     private int mUpdateCount;
     private List<ParsedNode> mTemplateParsed;
+    /** Number of messages about single rows logged, and omitted once there were too many, during the current run. */
+    private int mRowMessages;
+    private int mOmittedRowMessages;
 
 
     public NoteImporter(Collection col, String file) {
@@ -84,12 +97,29 @@ public class NoteImporter extends Importer {
     public void run() {
         Assert.that(mMapping != null);
         Assert.that(!mMapping.isEmpty());
-        List<ForeignNote> c = foreignNotes();
-        importNotes(c);
+        mRowMessages = 0;
+        mOmittedRowMessages = 0;
+        Iterator<ForeignNote> c = foreignNotesIterator();
+        try {
+            importNotes(c);
+        } finally {
+            close();
+        }
     }
 
 
 
+    /** Adds a message about a single row to log, unless too many of them were already logged. */
+    protected void logRow(@NonNull List<String> log, @NonNull String message) {
+        if (mRowMessages < MAX_ROW_MESSAGES) {
+            mRowMessages++;
+            log.add(message);
+        } else {
+            mOmittedRowMessages++;
+        }
+    }
+
+
     /** The number of fields.*/
     protected int fields() {
         return 0;
@@ -123,6 +153,13 @@ public class NoteImporter extends Importer {
         return new ArrayList<>();
     }
 
+
+    /** The notes to import. Importers which can read their file as a stream should override it. */
+    @NonNull
+    protected Iterator<ForeignNote> foreignNotesIterator() {
+        return foreignNotes().iterator();
+    }
+
     /** Open file and ensure it's in the right format. */
     protected void open() {
         // intentionally empty
@@ -137,6 +174,18 @@ public class NoteImporter extends Importer {
 
     /** Convert each card into a note, apply attributes and add to col. */
     public void importNotes(List<ForeignNote> notes) {
+        importNotes(notes.iterator());
+    }
+
+
+    /**
+     * Convert each card into a note, apply attributes and add to col.
+     *
+     * The notes are read and written by batches of IMPORT_BATCH_SIZE, each batch in its own transaction, so that the
+     * memory used does not depend on the number of notes. The first fields already imported are kept in a temporary
+     * table for the same reason.
+     */
+    public void importNotes(Iterator<ForeignNote> notes) {
         Assert.that(mappingOk());
         // note whether tags are mapped
         mTagsMapped = false;
@@ -160,92 +209,146 @@ public class NoteImporter extends Importer {
             }
         }
 
-        HashSet<String> firsts = new HashSet<>(notes.size());
         int fld0index = mMapping.indexOf(mModel.getJSONArray("flds").getJSONObject(0).getString("name"));
         mFMap = Models.fieldMap(mModel);
         mNextId = mCol.getTime().timestampID(mCol.getDb(), "notes");
-        // loop through the notes
-        List<Object[]> updates = new ArrayList<>(notes.size());
-        List<String> updateLog = new ArrayList<>(notes.size());
+        List<String> updateLog = new ArrayList<>();
         // PORT: Translations moved closer to their sources
-        List<Object[]> _new = new ArrayList<>();
-        _ids = new ArrayList<>();
         mEmptyNotes = false;
+        mUpdateCount = 0;
+        int addCount = 0;
         int dupeCount = 0;
-        List<String> dupes = new ArrayList<>(notes.size());
-        for (ForeignNote n : notes) {
-            for (int c = 0; c < n.mFields.size(); c++) {
-                if (!this.mAllowHTML) {
-                    n.mFields.set(c, HtmlUtils.escape(n.mFields.get(c)));
+        int total = 0;
+        boolean emptyCardsFound = false;
+        // ids of the notes of the collection already reported as duplicated
+        Set<Long> dupes = new HashSet<>();
+        long startTime = mCol.getTime().intTimeMS();
+        DB db = mCol.getDb();
+        db.execute("create temp table if not exists " + FIRSTS_TABLE + " (csum integer not null, fld text not null)");
+        db.execute("create index if not exists " + FIRSTS_TABLE + "_csum on " + FIRSTS_TABLE + " (csum)");
+        try {
+            List<ForeignNote> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            while (notes.hasNext()) {
+                batch.clear();
+                while (notes.hasNext() && batch.size() < IMPORT_BATCH_SIZE) {
+                    batch.add(notes.next());
                 }
-                n.mFields.set(c, n.mFields.get(c).trim());
-                if (!this.mAllowHTML) {
-                    n.mFields.set(c, n.mFields.get(c).replace("\n", "<br>"));
+                List<Long> batchCsums = new ArrayList<>(batch.size());
+                for (ForeignNote n : batch) {
+                    for (int c = 0; c < n.mFields.size(); c++) {
+                        if (!this.mAllowHTML) {
+                            n.mFields.set(c, HtmlUtils.escape(n.mFields.get(c)));
+                        }
+                        n.mFields.set(c, n.mFields.get(c).trim());
+                        if (!this.mAllowHTML) {
+                            n.mFields.set(c, n.mFields.get(c).replace("\n", "<br>"));
+                        }
+                    }
+                    batchCsums.add(fieldChecksum(n.mFields.get(fld0index)));
                 }
-            }
-            String fld0 = n.mFields.get(fld0index);
-            long csum = fieldChecksum(fld0);
-            // first field must exist
-            if (fld0 == null || fld0.length() == 0) {
-                getLog().add(getString(R.string.note_importer_error_empty_first_field, TextUtils.join(" ", n.mFields)));
-                continue;
-            }
-            // earlier in import?
-            if (firsts.contains(fld0) && mImportMode != ADD_MODE) {
-                // duplicates in source file; log and ignore
-                getLog().add(getString(R.string.note_importer_error_appeared_twice, fld0));
-                continue;
-            }
-            firsts.add(fld0);
-            // already exists?
-            boolean found = false;
-            if (csums.containsKey(csum)) {
-                // csum is not a guarantee; have to check
-                for (Long id : csums.get(csum)) {
-                    String flds = mCol.getDb().queryString("select flds from notes where id = ?", id);
-                    String[] sflds = splitFields(flds);
-                    if (fld0.equals(sflds[0])) {
-                        // duplicate
-                        found = true;
-                        if (mImportMode == UPDATE_MODE) {
-                            Object[] data = updateData(n, id, sflds);
-                            if (data != null && data.length > 0) {
-                                updates.add(data);
-                                updateLog.add(getString(R.string.note_importer_error_first_field_matched, fld0));
-                                dupeCount += 1;
+                // first fields of previous batches which may appear in this batch
+                HashSet<String> firsts = new HashSet<>();
+                if (mImportMode != ADD_MODE) {
+                    try (DB.IdTable csums = db.idTable(batchCsums);
+                         Cursor c = db.query("select fld from " + FIRSTS_TABLE + " where csum in " + csums.getName())) {
+                        while (c.moveToNext()) {
+                            firsts.add(c.getString(0));
+                        }
+                    }
+                }
+                List<Object[]> newFirsts = new ArrayList<>(batch.size());
+                List<Object[]> updates = new ArrayList<>(batch.size());
+                List<Object[]> _new = new ArrayList<>(batch.size());
+                _ids = new ArrayList<>(batch.size());
+                // loop through the notes
+                for (int i = 0; i < batch.size(); i++) {
+                    ForeignNote n = batch.get(i);
+                    String fld0 = n.mFields.get(fld0index);
+                    long csum = batchCsums.get(i);
+                    // first field must exist
+                    if (fld0 == null || fld0.length() == 0) {
+                        logRow(getLog(), getString(R.string.note_importer_error_empty_first_field, TextUtils.join(" ", n.mFields)));
+                        continue;
+                    }
+                    // earlier in import?
+                    if (firsts.contains(fld0) && mImportMode != ADD_MODE) {
+                        // duplicates in source file; log and ignore
+                        logRow(getLog(), getString(R.string.note_importer_error_appeared_twice, fld0));
+                        continue;
+                    }
+                    if (firsts.add(fld0)) {
+                        newFirsts.add(new Object[] {csum, fld0});
+                    }
+                    // already exists?
+                    boolean found = false;
+                    boolean dupeLogged = false;
+                    if (csums.containsKey(csum)) {
+                        // csum is not a guarantee; have to check
+                        for (Long id : csums.get(csum)) {
+                            String flds = db.queryString("select flds from notes where id = ?", id);
+                            String[] sflds = splitFields(flds);
+                            if (fld0.equals(sflds[0])) {
+                                // duplicate
                                 found = true;
+                                if (mImportMode == UPDATE_MODE) {
+                                    Object[] data = updateData(n, id, sflds);
+                                    if (data != null && data.length > 0) {
+                                        updates.add(data);
+                                        logRow(updateLog, getString(R.string.note_importer_error_first_field_matched, fld0));
+                                        dupeCount += 1;
+                                        found = true;
+                                    }
+                                } else if (mImportMode == IGNORE_MODE) {
+                                    dupeCount += 1;
+                                } else if (mImportMode == ADD_MODE) {
+                                    // allow duplicates in this case
+                                    // only show message once, no matter how many
+                                    // duplicates are in the collection already
+                                    if (dupes.add(id) && !dupeLogged) {
+                                        logRow(updateLog, getString(R.string.note_importer_error_added_duplicate_first_field, fld0));
+                                    }
+                                    dupeLogged = true;
+                                    found = false;
+                                }
                             }
-                        } else if (mImportMode == IGNORE_MODE) {
-                            dupeCount += 1;
-                        } else if (mImportMode == ADD_MODE) {
-                            // allow duplicates in this case
-                            if (!dupes.contains(fld0)) {
-                                // only show message once, no matter how many
-                                // duplicates are in the collection already
-                                updateLog.add(getString(R.string.note_importer_error_added_duplicate_first_field, fld0));
-                                dupes.add(fld0);
-                            }
-                            found = false;
+                        }
+                    }
+                    // newly add
+                    if (!found) {
+                        Object[] data = newData(n);
+                        if (data != null && data.length > 0) {
+                            _new.add(data);
                         }
                     }
                 }
-            }
-            // newly add
-            if (!found) {
-                Object[] data = newData(n);
-                if (data != null && data.length > 0) {
-                    _new.add(data);
-                    // note that we've seen this note once already
-                    firsts.add(fld0);
+                db.getDatabase().beginTransaction();
+                try {
+                    addNew(_new);
+                    addUpdates(updates);
+                    if (mImportMode != ADD_MODE) {
+                        db.executeMany("insert into " + FIRSTS_TABLE + " values (?, ?)", newFirsts);
+                    }
+                    // make sure to update sflds, etc
+                    mCol.updateFieldCache(_ids);
+                    try (DB.IdTable snids = db.idTable(_ids)) {
+                        mCol.getTagIndex().update(snids.getName());
+                    }
+                    // generate cards
+                    if (!mCol.genCards(_ids, mModel).isEmpty()) {
+                        emptyCardsFound = true;
+                    }
+                    db.getDatabase().setTransactionSuccessful();
+                } finally {
+                    DB.safeEndInTransaction(db);
                 }
+                addCount += _new.size();
+                total += _ids.size();
+                publishProgress(total, startTime);
             }
+        } finally {
+            db.execute("drop table if exists " + FIRSTS_TABLE);
         }
-        addNew(_new);
-        addUpdates(updates);
-        // make sure to update sflds, etc
-        mCol.updateFieldCache(_ids);
-        // generate cards
-        if (!mCol.genCards(_ids, mModel).isEmpty()) {
+        if (emptyCardsFound) {
             this.getLog().add(0, getString(R.string.note_importer_empty_cards_found));
         }
 
@@ -258,7 +361,7 @@ public class NoteImporter extends Importer {
         if (conf.getJSONObject("new").getInt("order") == NEW_CARDS_RANDOM) {
             mCol.getSched().randomizeCards(did);
         }
-        String part1 = getQuantityString(R.plurals.note_importer_notes_added, _new.size());
+        String part1 = getQuantityString(R.plurals.note_importer_notes_added, addCount);
         String part2 = getQuantityString(R.plurals.note_importer_notes_updated, mUpdateCount);
         int unchanged;
         if (mImportMode == UPDATE_MODE) {
@@ -274,7 +377,19 @@ public class NoteImporter extends Importer {
         if (mEmptyNotes) {
             mLog.add(getString(R.string.note_importer_error_empty_notes));
         }
-        mTotal = _ids.size();
+        if (mOmittedRowMessages > 0) {
+            mLog.add(getQuantityString(R.plurals.note_importer_messages_omitted, mOmittedRowMessages));
+        }
+        mTotal = total;
+    }
+
+
+    private void publishProgress(int notesDone, long startTime) {
+        if (mProgress == null) {
+            return;
+        }
+        long elapsedMs = Math.max(1, mCol.getTime().intTimeMS() - startTime);
+        mProgress.publishProgress(getQuantityString(R.plurals.note_importer_progress, notesDone, (int) (notesDone * 1000L / elapsedMs)));
     }
 
     @Nullable
@@ -350,7 +465,7 @@ public class NoteImporter extends Importer {
             );
         }
         int changes2 = mCol.getDb().queryScalar("select total_changes()");
-        mUpdateCount = changes2 - changes;
+        mUpdateCount += changes2 - changes;
     }
 
 
@@ -416,6 +531,14 @@ public class NoteImporter extends Importer {
     }
 
 
+    private String getQuantityString(@PluralsRes int res, int quantity, @NonNull Object... formatArgs) {
+        Object[] args = new Object[formatArgs.length + 1];
+        args[0] = quantity;
+        System.arraycopy(formatArgs, 0, args, 1, formatArgs.length);
+        return AnkiDroidApp.getAppResources().getQuantityString(res, quantity, args);
+    }
+
+
     @NonNull
     protected String getString(@StringRes int res) {
         return AnkiDroidApp.getAppResources().getString(res);
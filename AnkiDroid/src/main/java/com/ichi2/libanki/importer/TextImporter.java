@@ -20,12 +20,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import timber.log.Timber;
 
@@ -45,6 +47,10 @@ public class TextImporter extends NoteImporter {
 
     private boolean mFirstLineWasTags;
 
+    /** The lines read by the current foreignNotesIterator, null if there is none */
+    @Nullable
+    private Stream<String> mDataStream;
+
 
     public TextImporter(Collection col, String file) {
         super(col, file);
@@ -57,47 +63,48 @@ public class TextImporter extends NoteImporter {
     @NonNull
     @Override
     protected List<ForeignNote> foreignNotes() {
+        List<ForeignNote> notes = new ArrayList<>();
+        Iterator<ForeignNote> iterator = foreignNotesIterator();
+        try {
+            while (iterator.hasNext()) {
+                notes.add(iterator.next());
+            }
+        } finally {
+            close();
+        }
+        return notes;
+    }
+
+
+    /** The notes of the file, read one line at a time when they are requested. The file is read until close(). */
+    @NonNull
+    @Override
+    protected Iterator<ForeignNote> foreignNotesIterator() {
         open();
-        // process all lines
-        List<String> log = new ArrayList<>(); //Number of element is reader's size
-        List<ForeignNote> notes = new ArrayList<>(); //Number of element is reader's size
-        int lineNum = 0;
-        int ignored = 0;
+        mLog = new ArrayList<>();
         // Note: This differs from libAnki as we don't have csv.reader
-        Iterator<String> data = getDataStream().iterator();
+        close();
+        mDataStream = getDataStream();
+        Iterator<String> data = mDataStream.iterator();
         CsvReader reader;
         if (delimiter != '\0') {
             reader = CsvReader.fromDelimiter(data, delimiter);
         } else {
             reader = CsvReader.fromDialect(data, dialect);
         }
-        try {
-            for (List<String> row : reader) {
-                if (row == null) {
-                    continue;
-                }
-                List<String> rowAsString = new ArrayList<>(row);
-                if (rowAsString.size() != numFields) {
-                    if (rowAsString.size() > 0) {
-                        String formatted = getString(R.string.csv_importer_error_invalid_field_count,
-                                TextUtils.join(" ", rowAsString),
-                                rowAsString.size(),
-                                numFields);
-                        log.add(formatted);
-                        ignored += 1;
+        return new ForeignNoteIterator(reader.iterator());
+    }
 
-                    }
-                    continue;
-                }
-                ForeignNote note = noteFromFields(rowAsString);
-                notes.add(note);
-            }
-        } catch (CsvException e) {
-            log.add(getString(R.string.csv_importer_error_exception, e));
+
+    @Override
+    protected void close() {
+        if (mDataStream != null) {
+            mDataStream.close();
+            mDataStream = null;
+        }
+        if (fileobj != null) {
+            fileobj.close();
         }
-        mLog = log;
-        fileobj.close();
-        return notes;
     }
 
     /** Number of fields. */
@@ -245,12 +252,79 @@ public class TextImporter extends NoteImporter {
 
 
     private Optional<String> getFirstFileLine() {
-        return getDataStream().findFirst();
+        try (Stream<String> data = getDataStream()) {
+            return data.findFirst();
+        }
     }
 
 
     private String getLinesFromFile(int numberOfLines) {
-        return TextUtils.join("\n", getDataStream().limit(numberOfLines).collect(Collectors.toList()));
+        try (Stream<String> data = getDataStream()) {
+            return TextUtils.join("\n", data.limit(numberOfLines).collect(Collectors.toList()));
+        }
+    }
+
+
+    /** Converts the rows of the file into notes, skipping and logging the invalid rows. */
+    private class ForeignNoteIterator implements Iterator<ForeignNote> {
+        private final Iterator<List<String>> mRows;
+        /** The next note to return, null if it is not read yet */
+        @Nullable
+        private ForeignNote mNext;
+        private boolean mDone = false;
+
+
+        public ForeignNoteIterator(@NonNull Iterator<List<String>> rows) {
+            mRows = rows;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            if (mNext == null && !mDone) {
+                readNext();
+            }
+            return mNext != null;
+        }
+
+
+        @Override
+        public ForeignNote next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ForeignNote note = mNext;
+            mNext = null;
+            return note;
+        }
+
+
+        private void readNext() {
+            try {
+                while (mRows.hasNext()) {
+                    List<String> row = mRows.next();
+                    if (row == null) {
+                        continue;
+                    }
+                    List<String> rowAsString = new ArrayList<>(row);
+                    if (rowAsString.size() != numFields) {
+                        if (rowAsString.size() > 0) {
+                            String formatted = getString(R.string.csv_importer_error_invalid_field_count,
+                                    TextUtils.join(" ", rowAsString),
+                                    rowAsString.size(),
+                                    numFields);
+                            logRow(mLog, formatted);
+                        }
+                        continue;
+                    }
+                    mNext = noteFromFields(rowAsString);
+                    return;
+                }
+            } catch (CsvException e) {
+                mLog.add(getString(R.string.csv_importer_error_exception, e));
+            }
+            mDone = true;
+        }
     }
 
 
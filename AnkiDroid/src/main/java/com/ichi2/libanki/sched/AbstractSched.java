@@ -69,6 +69,18 @@ public abstract class AbstractSched {
     /** Ensure that reset will be called before returning any card or count. */
     public abstract void deferReset();
 
+    /**
+     * Signal that cards were changed without going through the scheduler, so that due counts it keeps in memory must
+     * be recomputed from the database.
+     */
+    public abstract void invalidateDueCounts();
+
+    /**
+     * Called by {@link Collection#cardsModified()} after cards were written. The due counts kept in memory must be
+     * recomputed, unless the scheduler itself wrote the cards and counted the change.
+     */
+    public abstract void cardsModified();
+
     /**
      * Same as deferReset(). When `reset` is done, it then simulates that `getCard` returned undoneCard. I.e. it will
      * assume this card is currently in the reviewer and so should not be added in queue and should not be
@@ -0,0 +1,223 @@
+package com.ichi2.libanki.sched;
+
+import android.database.Cursor;
+import android.util.LongSparseArray;
+
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.DB;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Number of new, day learning and review cards due today in each deck, kept in memory.
+ *
+ * The index is built with a single grouped query the first time it is needed on a given day. The scheduler then keeps
+ * it up to date when it changes cards itself (answering, burying, suspending...), by removing the contribution of the
+ * changed cards before the change and adding it back afterwards. The code changing cards in any other way declares it
+ * by calling {@link #cardsModified()}, through {@link com.ichi2.libanki.Collection#cardsModified()}, and the index is
+ * then rebuilt on next use.
+ *
+ * Sub-day learning cards are not indexed, since whether they are due depends on the current time rather than on the
+ * day.
+ */
+class DueCountIndex {
+    public static final int NEW = 0;
+    public static final int DAY_LRN = 1;
+    public static final int REV = 2;
+
+    private static final int NOT_BUILT = -1;
+
+    private final LongSparseArray<int[]> mCounts = new LongSparseArray<>();
+    /** The day the counts are correct for, NOT_BUILT if they must be recomputed. */
+    private int mToday = NOT_BUILT;
+    /** Number of nested calls to update. Only the outermost one changes the counts. */
+    private int mUpdateDepth = 0;
+    /** The thread running update, null if none */
+    private @Nullable Thread mUpdatingThread = null;
+    /** Incremented each time the counts are built or invalidated, so that an update can detect it. */
+    private int mGeneration = 0;
+
+
+    public synchronized boolean isBuiltFor(int today) {
+        return mToday == today;
+    }
+
+
+    public synchronized void invalidate() {
+        mToday = NOT_BUILT;
+        mGeneration++;
+        mCounts.clear();
+    }
+
+
+    /**
+     * Declares that cards were written. The changes made by {@link #update(DB, String, Runnable)} are already counted,
+     * any other change invalidates the index.
+     */
+    public synchronized void cardsModified() {
+        if (mUpdatingThread != Thread.currentThread()) {
+            invalidate();
+        }
+    }
+
+
+    /** Compute the index from scratch for the day `today`. */
+    public synchronized void build(@NonNull DB db, int today) {
+        mCounts.clear();
+        try (Cursor cur = db.query(
+                "SELECT did, queue, count() FROM cards WHERE queue = " + Consts.QUEUE_TYPE_NEW
+                        + " OR (queue IN (" + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + ", " + Consts.QUEUE_TYPE_REV + ") AND due <= ?)"
+                        + " GROUP BY did, queue",
+                today)) {
+            while (cur.moveToNext()) {
+                int idx = indexForQueue(cur.getInt(1));
+                countsFor(cur.getLong(0))[idx] = cur.getInt(2);
+            }
+        }
+        mToday = today;
+        mGeneration++;
+        Timber.d("Built due count index for %d decks", mCounts.size());
+    }
+
+
+    /**
+     * @param idx One of NEW, DAY_LRN or REV
+     * @return The number of cards due today in deck did in this queue. Subdecks are not counted.
+     */
+    public synchronized int count(long did, int idx) {
+        int[] counts = mCounts.get(did);
+        return counts == null ? 0 : counts[idx];
+    }
+
+
+    /**
+     * @return A copy of the counts, by deck id. Each array contains the counts at positions NEW, DAY_LRN and REV.
+     */
+    public synchronized @NonNull LongSparseArray<int[]> copyCounts() {
+        LongSparseArray<int[]> copy = new LongSparseArray<>(mCounts.size());
+        for (int i = 0; i < mCounts.size(); i++) {
+            copy.append(mCounts.keyAt(i), mCounts.valueAt(i).clone());
+        }
+        return copy;
+    }
+
+
+    /**
+     * Run `change`, and update the index to take into account that the cards selected by `where` may have been
+     * modified by it.
+     *
+     * The lock is not held while change runs, as it writes to the database. If another thread changes cards meanwhile,
+     * or if the index is built again, the index is invalidated instead of being updated.
+     *
+     * @param where A SQL condition on cards. It must select the same cards before and after the change, so it should
+     *              only depend on the ids or the note ids of the cards.
+     */
+    public void update(@NonNull DB db, @NonNull String where, @NonNull Runnable change) {
+        boolean counted;
+        int generation = 0;
+        synchronized (this) {
+            if (mUpdateDepth > 0 && mUpdatingThread == Thread.currentThread()) {
+                // nested in an update of this thread, which counts the cards it changes
+                counted = false;
+            } else if (mToday == NOT_BUILT || mUpdateDepth > 0) {
+                // not built, or another thread is updating: the counts are invalidated by the writes of the change
+                counted = false;
+                invalidate();
+            } else {
+                counted = true;
+                mUpdatingThread = Thread.currentThread();
+                addCards(db, where, -1);
+                generation = mGeneration;
+            }
+            if (mUpdatingThread == Thread.currentThread()) {
+                mUpdateDepth++;
+            }
+        }
+        if (!counted) {
+            try {
+                change.run();
+            } finally {
+                synchronized (this) {
+                    if (mUpdatingThread == Thread.currentThread()) {
+                        mUpdateDepth--;
+                    }
+                }
+            }
+            return;
+        }
+        try {
+            change.run();
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    addCards(db, where, 1);
+                } else {
+                    invalidate();
+                }
+            }
+        } catch (RuntimeException e) {
+            // We can't know which part of the change was applied
+            invalidate();
+            throw e;
+        } finally {
+            synchronized (this) {
+                mUpdateDepth--;
+                mUpdatingThread = null;
+            }
+        }
+    }
+
+
+    private synchronized void addCards(@NonNull DB db, @NonNull String where, int sign) {
+        if (mToday == NOT_BUILT) {
+            return;
+        }
+        try (Cursor cur = db.query("SELECT did, queue, due FROM cards WHERE " + where)) {
+            while (cur.moveToNext()) {
+                int queue = cur.getInt(1);
+                if (!isDueToday(queue, cur.getLong(2))) {
+                    continue;
+                }
+                countsFor(cur.getLong(0))[indexForQueue(queue)] += sign;
+            }
+        }
+    }
+
+
+    private boolean isDueToday(int queue, long due) {
+        switch (queue) {
+            case Consts.QUEUE_TYPE_NEW:
+                return true;
+            case Consts.QUEUE_TYPE_DAY_LEARN_RELEARN:
+            case Consts.QUEUE_TYPE_REV:
+                return due <= mToday;
+            default:
+                return false;
+        }
+    }
+
+
+    private static int indexForQueue(int queue) {
+        switch (queue) {
+            case Consts.QUEUE_TYPE_NEW:
+                return NEW;
+            case Consts.QUEUE_TYPE_DAY_LEARN_RELEARN:
+                return DAY_LRN;
+            case Consts.QUEUE_TYPE_REV:
+                return REV;
+            default:
+                throw new IllegalArgumentException("Queue " + queue + " is not indexed");
+        }
+    }
+
+
+    private @NonNull int[] countsFor(long did) {
+        int[] counts = mCounts.get(did);
+        if (counts == null) {
+            counts = new int[3];
+            mCounts.put(did, counts);
+        }
+        return counts;
+    }
+}
@@ -27,10 +27,11 @@ import com.ichi2.async.CancelListener;
 import com.ichi2.libanki.Card;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Consts;
-import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.DB;
 import com.ichi2.libanki.Note;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.Deck;
+import com.ichi2.libanki.DeckName;
 import com.ichi2.libanki.DeckConfig;
 
 import com.ichi2.utils.Assert;
@@ -83,11 +84,17 @@ public class Sched extends SchedV2 {
         super(col);
     }
 
+    @Override
+    protected boolean _supportsDueCountIndex() {
+        return false;
+    }
+
     @Override
     public void answerCard(@NonNull Card card, @Consts.BUTTON_TYPE int ease) {
         mCol.log();
         mCol.markReview(card);
         discardCurrentCard();
+        @Consts.CARD_QUEUE int previousQueue = card.getQueue();
         _burySiblings(card);
         card.incrReps();
         // former is for logging new cards, latter also covers filt. decks
@@ -126,7 +133,7 @@ public class Sched extends SchedV2 {
         _updateStats(card, "time", card.timeTaken());
         card.setMod(getTime().intTime());
         card.setUsn(mCol.usn());
-        card.flushSched();
+        card.flushSched(_reviewJournal(), previousQueue);
     }
 
 
@@ -213,6 +220,7 @@ public class Sched extends SchedV2 {
      */
     @Override
     public @Nullable List<DeckDueTreeNode> deckDueList(@Nullable CancelListener cancelListener) {
+        _flushReviewJournal();
         _checkDay();
         mCol.getDecks().checkIntegrity();
         ArrayList<Deck> decks = mCol.getDecks().allSorted();
@@ -222,13 +230,13 @@ public class Sched extends SchedV2 {
             if (isCancelled(cancelListener)) {
                 return null;
             }
-            String deckName = deck.getString("name");
-            String p = Decks.parent(deckName);
+            DeckName deckName = deck.getDeckName();
+            DeckName p = deckName.getParent();
             // new
             int nlim = _deckNewLimitSingle(deck, false);
             int rlim = _deckRevLimitSingle(deck, false);
-            if (!TextUtils.isEmpty(p)) {
-                Integer[] parentLims = lims.get(Decks.normalizeName(p));
+            if (p != null && !TextUtils.isEmpty(p.getName())) {
+                Integer[] parentLims = lims.get(p.getNormalized());
                 // 'temporary for diagnosis of bug #6383'
                 Assert.that(parentLims != null, "Deck %s is supposed to have parent %s. It has not be found.", deckName, p);
                 nlim = Math.min(nlim, parentLims[0]);
@@ -241,9 +249,9 @@ public class Sched extends SchedV2 {
             // reviews
             int rev = _revForDeck(deck.getLong("id"), rlim);
             // save to list
-            deckNodes.add(new DeckDueTreeNode(mCol, deck.getString("name"), deck.getLong("id"), rev, lrn, _new));
+            deckNodes.add(new DeckDueTreeNode(mCol, deckName.getName(), deck.getLong("id"), rev, lrn, _new));
             // add deck as a parent
-            lims.put(Decks.normalizeName(deck.getString("name")), new Integer[]{nlim, rlim});
+            lims.put(deckName.getNormalized(), new Integer[]{nlim, rlim});
         }
         return deckNodes;
     }
@@ -359,6 +367,7 @@ public class Sched extends SchedV2 {
         if (!mLrnQueue.isEmpty()) {
             return true;
         }
+        _flushReviewJournalForQueues(Consts.QUEUE_TYPE_LRN);
         mLrnQueue.clear();
         /* Difference with upstream:
          * Current card can't come in the queue.
@@ -569,14 +578,19 @@ public class Sched extends SchedV2 {
     }
 
     /** Remove cards from the learning queues. */
-    private void removeLrn(@NonNull long[] ids) {
-        String extra;
+    private void removeLrn(@Nullable long[] ids) {
         if (ids != null && ids.length > 0) {
-            extra = " AND id IN " + Utils.ids2str(ids);
+            try (DB.IdTable table = mCol.getDb().idTable(ids)) {
+                _removeLrn(" AND id IN " + table.getName());
+            }
         } else {
             // benchmarks indicate it's about 10x faster to search all decks with the index than scan the table
-            extra = " AND did IN " + Utils.ids2str(mCol.getDecks().allIds());
+            _removeLrn(" AND did IN " + Utils.ids2str(mCol.getDecks().allIds()));
         }
+    }
+
+    /** @param extra The condition on the cards to remove, after AND */
+    private void _removeLrn(@NonNull String extra) {
         // review cards in relearning
         mCol.getDb().execute(
                 "update cards set due = odue, queue = " + Consts.QUEUE_TYPE_REV + ", mod = ?" +
@@ -688,6 +702,7 @@ public class Sched extends SchedV2 {
             long did = mRevDids.getFirst();
             int lim = Math.min(mQueueLimit, _deckRevLimit(did, false));
             if (lim != 0) {
+                _flushReviewJournal();
                 mRevQueue.clear();
                 // fill the queue with the current did
                 String idName = (allowSibling) ? "id": "nid";
@@ -1205,10 +1220,12 @@ public class Sched extends SchedV2 {
         mCol.log(ids);
         remFromDyn(ids);
         removeLrn(ids);
-        mCol.getDb().execute(
-                "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + ", mod = ?, usn = ? WHERE id IN "
-                        + Utils.ids2str(ids),
-                getTime().intTime(), mCol.usn());
+        try (DB.IdTable table = mCol.getDb().idTable(ids)) {
+            mCol.getDb().execute(
+                    "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + ", mod = ?, usn = ? WHERE id IN "
+                            + table.getName(),
+                    getTime().intTime(), mCol.usn());
+        }
     }
 
     protected @NonNull String queueIsBuriedSnippet() {
@@ -1233,8 +1250,10 @@ public class Sched extends SchedV2 {
         mCol.log(cids);
         remFromDyn(cids);
         removeLrn(cids);
-        mCol.getDb().execute("update cards set " + queueIsBuriedSnippet() + ",mod=?,usn=? where id in " + Utils.ids2str(cids),
-                getTime().intTime(), mCol.usn());
+        try (DB.IdTable table = mCol.getDb().idTable(cids)) {
+            mCol.getDb().execute("update cards set " + queueIsBuriedSnippet() + ",mod=?,usn=? where id in " + table.getName(),
+                    getTime().intTime(), mCol.usn());
+        }
     }
 
 
@@ -1247,15 +1266,13 @@ public class Sched extends SchedV2 {
      */
     @Override
     public boolean haveBuried(long did) {
-        List<Long> all = new ArrayList<>(mCol.getDecks().children(did).values());
-        all.add(did);
+        List<Long> all = mCol.getDecks().deckAndChildIds(did);
         return haveBuried(all);
     }
 
     @Override
     public void unburyCardsForDeck(long did) {
-        List<Long> all = new ArrayList<>(mCol.getDecks().children(did).values());
-        all.add(did);
+        List<Long> all = mCol.getDecks().deckAndChildIds(did);
         unburyCardsForDeck(all);
     }
 
@@ -1297,30 +1314,13 @@ public class Sched extends SchedV2 {
         double relrnTime;
 
         if (reload || mEtaCache[0] == -1) {
-            try (Cursor cur = mCol
-                        .getDb()
-                        .query("select "
-                                + "avg(case when type = " + Consts.CARD_TYPE_NEW + " then case when ease > 1 then 1.0 else 0.0 end else null end) as newRate, avg(case when type = " + Consts.CARD_TYPE_NEW + " then time else null end) as newTime, "
-                                + "avg(case when type in (" + Consts.CARD_TYPE_LRN + ", " + Consts.CARD_TYPE_RELEARNING+ ") then case when ease > 1 then 1.0 else 0.0 end else null end) as revRate, avg(case when type in (" + Consts.CARD_TYPE_LRN + ", " + Consts.CARD_TYPE_RELEARNING + ") then time else null end) as revTime, "
-                                + "avg(case when type = " + Consts.CARD_TYPE_REV + " then case when ease > 1 then 1.0 else 0.0 end else null end) as relrnRate, avg(case when type = " + Consts.CARD_TYPE_REV + " then time else null end) as relrnTime "
-                                + "from revlog where id > "
-                                + ((mCol.getSched().getDayCutoff() - (10 * SECONDS_PER_DAY)) * 1000))) {
-                if (!cur.moveToFirst()) {
-                    return -1;
-                }
-
-                newRate = cur.getDouble(0);
-                newTime = cur.getDouble(1);
-                revRate = cur.getDouble(2);
-                revTime = cur.getDouble(3);
-                relrnRate = cur.getDouble(4);
-                relrnTime = cur.getDouble(5);
-
-                if (!cur.isClosed()) {
-                    cur.close();
-                }
-
-            }
+            double[] rates = mCol.getReviewRollup().answerRates(mCol.getSched().getDayCutoff() - (10 * SECONDS_PER_DAY));
+            newRate = rates[0];
+            newTime = rates[1];
+            revRate = rates[2];
+            revTime = rates[3];
+            relrnRate = rates[4];
+            relrnTime = rates[5];
 
             // If the collection has no revlog data to work with, assume a 20 second average rep for that type
             newTime = newTime == 0 ? 20000 : newTime;
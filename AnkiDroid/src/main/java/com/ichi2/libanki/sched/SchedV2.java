@@ -23,12 +23,12 @@ import android.app.Activity;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.database.sqlite.SQLiteConstraintException;
 import android.graphics.Typeface;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.LongSparseArray;
 import android.util.Pair;
 
 import com.ichi2.anki.R;
@@ -38,10 +38,12 @@ import com.ichi2.async.TaskManager;
 import com.ichi2.libanki.Card;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Consts;
-import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.DB;
 import com.ichi2.libanki.Note;
+import com.ichi2.libanki.ReviewJournal;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.Deck;
+import com.ichi2.libanki.DeckName;
 import com.ichi2.libanki.DeckConfig;
 
 import com.ichi2.libanki.backend.exception.BackendNotSupportedException;
@@ -57,14 +59,18 @@ import net.ankiweb.rsdroid.RustCleanup;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -122,6 +128,11 @@ public class SchedV2 extends AbstractSched {
     private @NonNull LinkedList<Long> mNewDids = new LinkedList<>();
     protected @NonNull LinkedList<Long> mLrnDids = new LinkedList<>();
 
+    /** Due cards of each deck, if the user enabled the in-memory index. Null otherwise. */
+    private @Nullable DueCountIndex mDueCountIndex;
+    /** Whether the changes made by answering cards are kept in the review journal, if the user enabled it. */
+    private boolean mUseReviewJournal;
+
     // Not in libanki
     protected @Nullable WeakReference<Activity> mContextReference;
 
@@ -162,6 +173,8 @@ public class SchedV2 extends AbstractSched {
         mHaveCounts = false;
         mLrnCutoff = 0;
         _updateCutoff();
+        setUseDueCountIndex(_supportsDueCountIndex() && col.isDueCountIndexEnabled());
+        setUseReviewJournal(ReviewJournal.isEnabled());
     }
 
 
@@ -237,6 +250,7 @@ public class SchedV2 extends AbstractSched {
 
     /** @param checkCutoff whether we should check cutoff before resetting*/
     private void resetCounts(@Nullable CancelListener cancelListener, boolean checkCutoff) {
+        _flushReviewJournal();
         if (checkCutoff) {
             _updateCutoff();
         }
@@ -288,14 +302,18 @@ public class SchedV2 extends AbstractSched {
         mCol.log();
         discardCurrentCard();
         mCol.markReview(card);
-        _burySiblings(card);
+        @Consts.CARD_QUEUE int previousQueue = card.getQueue();
+        // siblings may be buried, so the whole note is reindexed
+        _updateDueCountIndex("nid = " + card.getNid(), () -> {
+            _burySiblings(card);
 
-        _answerCard(card, ease);
+            _answerCard(card, ease);
 
-        _updateStats(card, "time", card.timeTaken());
-        card.setMod(getTime().intTime());
-        card.setUsn(mCol.usn());
-        card.flushSched();
+            _updateStats(card, "time", card.timeTaken());
+            card.setMod(getTime().intTime());
+            card.setUsn(mCol.usn());
+            card.flushSched(_reviewJournal(), previousQueue);
+        });
     }
 
 
@@ -445,7 +463,7 @@ public class SchedV2 extends AbstractSched {
         Deck cur = mCol.getDecks().current();
         List<Deck> decks = mCol.getDecks().parents(cur.getLong("id"));
         decks.add(cur);
-        for (long did : mCol.getDecks().children(cur.getLong("id")).values()) {
+        for (long did : mCol.getDecks().childIds(cur.getLong("id"))) {
             decks.add(mCol.getDecks().get(did));
         }
         for (Deck g : decks) {
@@ -524,43 +542,140 @@ public class SchedV2 extends AbstractSched {
 
     // Overridden
     public @Nullable List<DeckDueTreeNode> deckDueList(@Nullable CancelListener collectionTask) {
+        _flushReviewJournal();
         _checkDay();
         mCol.getDecks().checkIntegrity();
         ArrayList<Deck> decks = mCol.getDecks().allSorted();
         HashMap<String, Integer[]> lims = new HashMap<>(decks.size());
         ArrayList<DeckDueTreeNode> deckNodes = new ArrayList<>(decks.size());
-        Decks.Node childMap = mCol.getDecks().childMap();
+        HashMap<Long, int[]> countsByDeck = _countsByDeck();
         for (Deck deck : decks) {
             if (isCancelled(collectionTask)) {
                 return null;
             }
-            String deckName = deck.getString("name");
-            String p = Decks.parent(deckName);
+            DeckName deckName = deck.getDeckName();
+            long did = deck.getLong("id");
+            DeckName p = deckName.getParent();
             // new
             int nlim = _deckNewLimitSingle(deck, false);
             Integer plim = null;
-            if (!TextUtils.isEmpty(p)) {
-                Integer[] parentLims = lims.get(Decks.normalizeName(p));
+            if (p != null && !TextUtils.isEmpty(p.getName())) {
+                Integer[] parentLims = lims.get(p.getNormalized());
                 // 'temporary for diagnosis of bug #6383'
                 Assert.that(parentLims != null, "Deck %s is supposed to have parent %s. It has not be found.", deckName, p);
                 nlim = Math.min(nlim, parentLims[0]);
                 // reviews
                 plim = parentLims[1];
             }
-            int _new = _newForDeck(deck.getLong("id"), nlim);
+            int[] deckCounts = _countsForDeck(countsByDeck, did);
+            int _new = Math.min(deckCounts[COUNT_IDX_NEW], Math.min(nlim, mReportLimit));
             // learning
-            int lrn = _lrnForDeck(deck.getLong("id"));
+            int lrn = Math.min(deckCounts[COUNT_IDX_LRN], mReportLimit) + Math.min(deckCounts[COUNT_IDX_DAY_LRN], mReportLimit);
             // reviews
             int rlim = _deckRevLimitSingle(deck, plim, false);
-            int rev = _revForDeck(deck.getLong("id"), rlim, childMap);
+            int rev = _revForDeck(did, rlim, countsByDeck);
             // save to list
-            deckNodes.add(new DeckDueTreeNode(mCol, deck.getString("name"), deck.getLong("id"), rev, lrn, _new));
+            deckNodes.add(new DeckDueTreeNode(mCol, deckName.getName(), did, rev, lrn, _new));
             // add deck as a parent
-            lims.put(Decks.normalizeName(deck.getString("name")), new Integer[]{nlim, rlim});
+            lims.put(deckName.getNormalized(), new Integer[]{nlim, rlim});
         }
         return deckNodes;
     }
 
+
+    /** Positions in the arrays returned by {@link #_countsByDeck()} */
+    private static final int COUNT_IDX_NEW = 0;
+    private static final int COUNT_IDX_LRN = 1;
+    private static final int COUNT_IDX_DAY_LRN = 2;
+    private static final int COUNT_IDX_REV = 3;
+    private static final int[] EMPTY_DECK_COUNTS = new int[4];
+
+    /**
+     * Number of due cards of each queue for every deck containing some, ignoring limits and subdecks.
+     *
+     * A single grouped query replaces the new, learning and review queries that were run for each deck. It is
+     * answered from ix_cards_sched, which contains all of did, queue and due.
+     * @return Map from did to the counts in positions COUNT_IDX_NEW, COUNT_IDX_LRN, COUNT_IDX_DAY_LRN and COUNT_IDX_REV
+     */
+    private @NonNull HashMap<Long, int[]> _countsByDeck() {
+        DueCountIndex index = _dueCountIndex();
+        if (index != null) {
+            return _countsByDeck(index);
+        }
+        HashMap<Long, int[]> countsByDeck = new HashMap<>(mCol.getDecks().count());
+        long lrnCutoff = getTime().intTime() + mCol.getConf().getInt("collapseTime");
+        try (Cursor cur = mCol.getDb().query(
+                "SELECT did, queue, count() FROM cards WHERE queue = " + Consts.QUEUE_TYPE_NEW
+                        + " OR (queue = " + Consts.QUEUE_TYPE_LRN + " AND due < ?)"
+                        + " OR (queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ?)"
+                        + " OR (queue = " + Consts.QUEUE_TYPE_REV + " AND due <= ?)"
+                        + " GROUP BY did, queue",
+                lrnCutoff, mToday, mToday)) {
+            while (cur.moveToNext()) {
+                long did = cur.getLong(0);
+                int[] counts = countsByDeck.get(did);
+                if (counts == null) {
+                    counts = new int[4];
+                    countsByDeck.put(did, counts);
+                }
+                switch (cur.getInt(1)) {
+                    case Consts.QUEUE_TYPE_NEW:
+                        counts[COUNT_IDX_NEW] = cur.getInt(2);
+                        break;
+                    case Consts.QUEUE_TYPE_LRN:
+                        counts[COUNT_IDX_LRN] = cur.getInt(2);
+                        break;
+                    case Consts.QUEUE_TYPE_DAY_LEARN_RELEARN:
+                        counts[COUNT_IDX_DAY_LRN] = cur.getInt(2);
+                        break;
+                    case Consts.QUEUE_TYPE_REV:
+                        counts[COUNT_IDX_REV] = cur.getInt(2);
+                        break;
+                }
+            }
+        }
+        return countsByDeck;
+    }
+
+
+    /**
+     * Same as {@link #_countsByDeck()}, with the new, day learning and review counts taken from the index. Only the
+     * sub-day learning cards, which the index does not count, are queried.
+     */
+    private @NonNull HashMap<Long, int[]> _countsByDeck(@NonNull DueCountIndex index) {
+        HashMap<Long, int[]> countsByDeck = new HashMap<>(mCol.getDecks().count());
+        LongSparseArray<int[]> indexedCounts = index.copyCounts();
+        for (int i = 0; i < indexedCounts.size(); i++) {
+            int[] indexed = indexedCounts.valueAt(i);
+            int[] counts = new int[4];
+            counts[COUNT_IDX_NEW] = indexed[DueCountIndex.NEW];
+            counts[COUNT_IDX_DAY_LRN] = indexed[DueCountIndex.DAY_LRN];
+            counts[COUNT_IDX_REV] = indexed[DueCountIndex.REV];
+            countsByDeck.put(indexedCounts.keyAt(i), counts);
+        }
+        long lrnCutoff = getTime().intTime() + mCol.getConf().getInt("collapseTime");
+        try (Cursor cur = mCol.getDb().query(
+                "SELECT did, count() FROM cards WHERE queue = " + Consts.QUEUE_TYPE_LRN + " AND due < ? GROUP BY did",
+                lrnCutoff)) {
+            while (cur.moveToNext()) {
+                long did = cur.getLong(0);
+                int[] counts = countsByDeck.get(did);
+                if (counts == null) {
+                    counts = new int[4];
+                    countsByDeck.put(did, counts);
+                }
+                counts[COUNT_IDX_LRN] = cur.getInt(1);
+            }
+        }
+        return countsByDeck;
+    }
+
+
+    private static @NonNull int[] _countsForDeck(@NonNull HashMap<Long, int[]> countsByDeck, long did) {
+        int[] counts = countsByDeck.get(did);
+        return counts == null ? EMPTY_DECK_COUNTS : counts;
+    }
+
     /** Similar to deck due tree, but ignore the number of cards.
 
      It may takes a lot of time to compute the number of card, it
@@ -789,6 +904,14 @@ public class SchedV2 extends AbstractSched {
     // Used as an argument for _walkingCount() in _resetNewCount() above
     @SuppressWarnings("unused")
     protected int _cntFnNew(long did, int lim) {
+        DueCountIndex index = _dueCountIndex();
+        if (index != null) {
+            int cnt = index.count(did, DueCountIndex.NEW);
+            if (_currentCardIsInQueueInDeck(Consts.QUEUE_TYPE_NEW, did)) {
+                cnt--;
+            }
+            return _limitIndexedCount(cnt, lim);
+        }
         return mCol.getDb().queryScalar(
                 "SELECT count() FROM (SELECT 1 FROM cards WHERE did = ? AND queue = " + Consts.QUEUE_TYPE_NEW + " AND id != ? LIMIT ?)",
                 did, currentCardId(), lim);
@@ -796,6 +919,7 @@ public class SchedV2 extends AbstractSched {
 
 
     private void _resetNew() {
+        _flushReviewJournal();
         _resetNewCount();
         _resetNewQueue();
     }
@@ -852,6 +976,7 @@ public class SchedV2 extends AbstractSched {
             long did = mNewDids.getFirst();
             int lim = Math.min(mQueueLimit, _deckNewLimit(did, true));
             if (lim != 0) {
+                _flushReviewJournal();
                 mNewQueue.clear();
                 String idName = (allowSibling) ? "id": "nid";
                 long id = (allowSibling) ? currentCardId(): currentCardNid();
@@ -1044,9 +1169,14 @@ public class SchedV2 extends AbstractSched {
                 + " AND queue = " + Consts.QUEUE_TYPE_LRN + " AND id != ? AND due < ?", currentCardId(), mLrnCutoff);
         if (isCancelled(cancelListener)) return;
         // day
-        mLrnCount += mCol.getDb().queryScalar(
-                "SELECT count() FROM cards WHERE did IN " + _deckLimit() + " AND queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ? AND id != ?",
-                mToday, currentCardId());
+        DueCountIndex index = _dueCountIndex();
+        if (index != null) {
+            mLrnCount += _activeDecksIndexedCount(index, DueCountIndex.DAY_LRN, Consts.QUEUE_TYPE_DAY_LEARN_RELEARN);
+        } else {
+            mLrnCount += mCol.getDb().queryScalar(
+                    "SELECT count() FROM cards WHERE did IN " + _deckLimit() + " AND queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ? AND id != ?",
+                    mToday, currentCardId());
+        }
         if (isCancelled(cancelListener)) return;
         // previews
         mLrnCount += mCol.getDb().queryScalar(
@@ -1056,6 +1186,7 @@ public class SchedV2 extends AbstractSched {
 
     // Overriden: _updateLrnCutoff not called in V1
     protected void _resetLrn() {
+        _flushReviewJournal();
         _resetLrnCount();
         _resetLrnQueue();
     }
@@ -1076,6 +1207,7 @@ public class SchedV2 extends AbstractSched {
         if (!mLrnQueue.isEmpty()) {
             return true;
         }
+        _flushReviewJournalForQueues(Consts.QUEUE_TYPE_LRN, Consts.QUEUE_TYPE_PREVIEW);
         long cutoff = getTime().intTime() + mCol.getConf().getLong("collapseTime");
         mLrnQueue.clear();
         /* Difference with upstream: Current card can't come in the queue.
@@ -1140,6 +1272,7 @@ public class SchedV2 extends AbstractSched {
         if (!mLrnDayQueue.isEmpty()) {
             return true;
         }
+        _flushReviewJournalForQueues(Consts.QUEUE_TYPE_DAY_LEARN_RELEARN);
         while (!mLrnDids.isEmpty()) {
             long did = mLrnDids.getFirst();
             // fill the queue with the current did
@@ -1448,14 +1581,21 @@ public class SchedV2 extends AbstractSched {
 
     @Override
     public int logCount() {
+        _flushReviewJournal();
         return mCol.getDb().queryScalar("SELECT count() FROM revlog");
     }
 
 
     protected void log(long id, int usn, @Consts.BUTTON_TYPE int ease, int ivl, int lastIvl, int factor, int timeTaken, @Consts.REVLOG_TYPE int type) {
+        ReviewJournal journal = _reviewJournal();
+        if (journal != null) {
+            journal.addRevlog(id, usn, ease, ivl, lastIvl, factor, timeTaken, type);
+            return;
+        }
+        Object[] row = {getTime().intTimeMS(), id, usn, ease, ivl, lastIvl, factor, timeTaken, type};
         try {
-            mCol.getDb().execute("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)",
-                    getTime().intTimeMS(), id, usn, ease, ivl, lastIvl, factor, timeTaken, type);
+            mCol.getDb().execute("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", row);
+            mCol.getReviewRollup().add(row);
         } catch (SQLiteConstraintException e) {
             try {
                 Thread.sleep(10);
@@ -1467,25 +1607,6 @@ public class SchedV2 extends AbstractSched {
     }
 
 
-    // Overriden: uses left/1000 in V1
-    private int _lrnForDeck(long did) {
-        try {
-            int cnt = mCol.getDb().queryScalar(
-                    "SELECT count() FROM (SELECT null FROM cards WHERE did = ?"
-                            + " AND queue = " + Consts.QUEUE_TYPE_LRN + " AND due < ?"
-                            + " LIMIT ?)",
-                    did, (getTime().intTime() + mCol.getConf().getInt("collapseTime")), mReportLimit);
-            return cnt + mCol.getDb().queryScalar(
-                    "SELECT count() FROM (SELECT null FROM cards WHERE did = ?"
-                            + " AND queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ?"
-                            + " LIMIT ?)",
-                    did, mToday, mReportLimit);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-
     /*
       Reviews ****************************************************************** *****************************
      */
@@ -1560,12 +1681,20 @@ public class SchedV2 extends AbstractSched {
     }
 
 
-    protected int _revForDeck(long did, int lim, @NonNull Decks.Node childMap) {
-        List<Long> dids = mCol.getDecks().childDids(did, childMap);
-        dids.add(0, did);
+    /**
+     * Number of review cards due in did and its descendants, limited to lim.
+     * @param countsByDeck The result of {@link #_countsByDeck()}
+     */
+    protected int _revForDeck(long did, int lim, @NonNull HashMap<Long, int[]> countsByDeck) {
         lim = Math.min(lim, mReportLimit);
-        return mCol.getDb().queryScalar("SELECT count() FROM (SELECT 1 FROM cards WHERE did in " + Utils.ids2str(dids) + " AND queue = " + Consts.QUEUE_TYPE_REV + " AND due <= ? LIMIT ?)",
-                                        mToday, lim);
+        int cnt = _countsForDeck(countsByDeck, did)[COUNT_IDX_REV];
+        for (long child : mCol.getDecks().childIds(did)) {
+            if (cnt >= lim) {
+                break;
+            }
+            cnt += _countsForDeck(countsByDeck, child)[COUNT_IDX_REV];
+        }
+        return Math.min(cnt, lim);
     }
 
     // Overriden: V1 uses _walkingCount
@@ -1575,6 +1704,11 @@ public class SchedV2 extends AbstractSched {
     protected void _resetRevCount(@Nullable CancelListener cancelListener) {
         int lim = _currentRevLimit(true);
         if (isCancelled(cancelListener)) return;
+        DueCountIndex index = _dueCountIndex();
+        if (index != null) {
+            mRevCount = _limitIndexedCount(_activeDecksIndexedCount(index, DueCountIndex.REV, Consts.QUEUE_TYPE_REV), lim);
+            return;
+        }
         mRevCount = mCol.getDb().queryScalar("SELECT count() FROM (SELECT id FROM cards WHERE did in " + _deckLimit() + " AND queue = " + Consts.QUEUE_TYPE_REV + " AND due <= ? AND id != ? LIMIT ?)",
                                              mToday, currentCardId(), lim);
     }
@@ -1582,6 +1716,7 @@ public class SchedV2 extends AbstractSched {
 
     // Overridden: V1 remove clear
     protected void _resetRev() {
+        _flushReviewJournal();
         _resetRevCount();
         _resetRevQueue();
     }
@@ -1605,6 +1740,7 @@ public class SchedV2 extends AbstractSched {
         }
         int lim = Math.min(mQueueLimit, _currentRevLimit(true));
         if (lim != 0) {
+            _flushReviewJournal();
             mRevQueue.clear();
             // fill the queue with the current did
             String idName = (allowSibling) ? "id": "nid";
@@ -1950,15 +2086,24 @@ public class SchedV2 extends AbstractSched {
                 "update cards set did = odid, " + _restoreQueueWhenEmptyingSnippet() +
                 ", due = (case when odue>0 then odue else due end), odue = 0, odid = 0, usn = ? where " + lim,
                 mCol.usn());
+        cardsModified();
     }
 
 
     public void remFromDyn(long[] cids) {
-        emptyDyn(0, "id IN " + Utils.ids2str(cids) + " AND odid");
+        try (DB.IdTable scids = mCol.getDb().idTable(cids)) {
+            remFromDyn(scids.getName());
+        }
     }
 
     public void remFromDyn(List<Long> cids) {
-        emptyDyn(0, "id IN " + Utils.ids2str(cids) + " AND odid");
+        try (DB.IdTable scids = mCol.getDb().idTable(cids)) {
+            remFromDyn(scids.getName());
+        }
+    }
+
+    private void remFromDyn(@NonNull String scids) {
+        _updateDueCountIndex("id IN " + scids, () -> emptyDyn(0, "id IN " + scids + " AND odid"));
     }
 
 
@@ -2024,9 +2169,10 @@ public class SchedV2 extends AbstractSched {
             queue = ", queue = " + Consts.QUEUE_TYPE_REV + "";
         }
 
-        mCol.getDb().executeMany(
+        String finalQueue = queue;
+        _updateDueCountIndex("id IN " + Utils.ids2str(ids), () -> mCol.getDb().executeMany(
                 "UPDATE cards SET odid = did, " +
-                        "odue = due, did = ?, due = (case when due <= 0 then due else ? end), usn = ? " + queue + " WHERE id = ?", data);
+                        "odue = due, did = ?, due = (case when due <= 0 then due else ? end), usn = ? " + finalQueue + " WHERE id = ?", data));
     }
 
 
@@ -2555,10 +2701,12 @@ public class SchedV2 extends AbstractSched {
      */
     public void suspendCards(@NonNull long[] ids) {
         mCol.log(ids);
-        mCol.getDb().execute(
-                "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + ", mod = ?, usn = ? WHERE id IN "
-                        + Utils.ids2str(ids),
-                getTime().intTime(), mCol.usn());
+        try (DB.IdTable table = mCol.getDb().idTable(ids)) {
+            String sids = table.getName();
+            _updateDueCountIndex("id IN " + sids, () -> mCol.getDb().execute(
+                    "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + ", mod = ?, usn = ? WHERE id IN " + sids,
+                    getTime().intTime(), mCol.usn()));
+        }
     }
 
 
@@ -2567,10 +2715,13 @@ public class SchedV2 extends AbstractSched {
      */
     public void unsuspendCards(@NonNull long[] ids) {
         mCol.log(ids);
-        mCol.getDb().execute(
-                "UPDATE cards SET " + _restoreQueueSnippet() + ", mod = ?, usn = ?"
-                        + " WHERE queue = " + Consts.QUEUE_TYPE_SUSPENDED + " AND id IN " + Utils.ids2str(ids),
-                getTime().intTime(), mCol.usn());
+        try (DB.IdTable table = mCol.getDb().idTable(ids)) {
+            String sids = table.getName();
+            _updateDueCountIndex("id IN " + sids, () -> mCol.getDb().execute(
+                    "UPDATE cards SET " + _restoreQueueSnippet() + ", mod = ?, usn = ?"
+                            + " WHERE queue = " + Consts.QUEUE_TYPE_SUSPENDED + " AND id IN " + sids,
+                    getTime().intTime(), mCol.usn()));
+        }
     }
 
     // Overriden. manual is false by default in V1
@@ -2584,8 +2735,11 @@ public class SchedV2 extends AbstractSched {
     public void buryCards(@NonNull long[] cids, boolean manual) {
         int queue = manual ? Consts.QUEUE_TYPE_MANUALLY_BURIED : Consts.QUEUE_TYPE_SIBLING_BURIED;
         mCol.log(cids);
-        mCol.getDb().execute("update cards set queue=?,mod=?,usn=? where id in " + Utils.ids2str(cids),
-                queue, getTime().intTime(), mCol.usn());
+        try (DB.IdTable table = mCol.getDb().idTable(cids)) {
+            String scids = table.getName();
+            _updateDueCountIndex("id IN " + scids, () -> mCol.getDb().execute("update cards set queue=?,mod=?,usn=? where id in " + scids,
+                    queue, getTime().intTime(), mCol.usn()));
+        }
     }
 
 
@@ -2596,6 +2750,7 @@ public class SchedV2 extends AbstractSched {
     public void unburyCards() {
         mCol.log(mCol.getDb().queryLongList("select id from cards where " + queueIsBuriedSnippet()));
         mCol.getDb().execute("update cards set " + _restoreQueueSnippet() + " where " + queueIsBuriedSnippet());
+        cardsModified();
     }
 
 
@@ -2630,6 +2785,7 @@ public class SchedV2 extends AbstractSched {
         mCol.log(mCol.getDb().queryLongList("select id from cards where " + queue + " and did in " + sids));
         mCol.getDb().execute("update cards set mod=?,usn=?, " + _restoreQueueSnippet() + " where " + queue + " and did in " + sids,
                 getTime().intTime(), mCol.usn());
+        cardsModified();
     }
 
 
@@ -2649,6 +2805,8 @@ public class SchedV2 extends AbstractSched {
      */
 
     protected void _burySiblings(@NonNull Card card) {
+        // a sibling answered recently may still be in the journal
+        mCol.getReviewJournal().flushNote(card.getNid());
         ArrayList<Long> toBury = new ArrayList<>();
         JSONObject nconf = _newConf(card);
         boolean buryNew = nconf.optBoolean("bury", true);
@@ -2691,9 +2849,14 @@ public class SchedV2 extends AbstractSched {
 
     /** Put cards at the end of the new queue. */
     public void forgetCards(@NonNull List<Long> ids) {
-        remFromDyn(ids);
-        mCol.getDb().execute("update cards set type=" + Consts.CARD_TYPE_NEW + ",queue=" + Consts.QUEUE_TYPE_NEW + ",ivl=0,due=0,odue=0,factor="+Consts.STARTING_FACTOR +
-                " where id in " + Utils.ids2str(ids));
+        try (DB.IdTable table = mCol.getDb().idTable(ids)) {
+            String sids = table.getName();
+            _updateDueCountIndex("id IN " + sids, () -> {
+                remFromDyn(sids);
+                mCol.getDb().execute("update cards set type=" + Consts.CARD_TYPE_NEW + ",queue=" + Consts.QUEUE_TYPE_NEW + ",ivl=0,due=0,odue=0,factor="+Consts.STARTING_FACTOR +
+                        " where id in " + sids);
+            });
+        }
         int pmax = mCol.getDb().queryScalar("SELECT max(due) FROM cards WHERE type=" + Consts.CARD_TYPE_NEW + "");
         // takes care of mod + usn
         sortCards(ids, pmax + 1);
@@ -2717,10 +2880,15 @@ public class SchedV2 extends AbstractSched {
             int r = rnd.nextInt(imax - imin + 1) + imin;
             d.add(new Object[] { Math.max(1, r), r + t, mCol.usn(), mod, RESCHEDULE_FACTOR, id });
         }
-        remFromDyn(ids);
-        mCol.getDb().executeMany(
-                "update cards set type=" + Consts.CARD_TYPE_REV + ",queue=" + Consts.QUEUE_TYPE_REV + ",ivl=?,due=?,odue=0, " +
-                        "usn=?,mod=?,factor=? where id=?", d);
+        try (DB.IdTable table = mCol.getDb().idTable(ids)) {
+            String sids = table.getName();
+            _updateDueCountIndex("id IN " + sids, () -> {
+                remFromDyn(sids);
+                mCol.getDb().executeMany(
+                        "update cards set type=" + Consts.CARD_TYPE_REV + ",queue=" + Consts.QUEUE_TYPE_REV + ",ivl=?,due=?,odue=0, " +
+                                "usn=?,mod=?,factor=? where id=?", d);
+            });
+        }
         mCol.log(ids);
     }
 
@@ -2729,9 +2897,12 @@ public class SchedV2 extends AbstractSched {
      * Completely reset cards for export.
      */
     public void resetCards(@NonNull Long[] ids) {
-        List<Long> nonNew = mCol.getDb().queryLongList(
-                "select id from cards where id in " + Utils.ids2str(ids) + " and (queue != " + Consts.QUEUE_TYPE_NEW + " or type != " + Consts.CARD_TYPE_NEW + ")");
-        mCol.getDb().execute("update cards set reps=0, lapses=0 where id in " + Utils.ids2str(nonNew));
+        List<Long> nonNew;
+        try (DB.IdTable table = mCol.getDb().idTable(Arrays.asList(ids))) {
+            String nonNewCondition = "id in " + table.getName() + " and (queue != " + Consts.QUEUE_TYPE_NEW + " or type != " + Consts.CARD_TYPE_NEW + ")";
+            nonNew = mCol.getDb().queryLongList("select id from cards where " + nonNewCondition);
+            mCol.getDb().execute("update cards set reps=0, lapses=0 where " + nonNewCondition);
+        }
         forgetCards(nonNew);
         //noinspection RedundantCast
         mCol.log((Object[]) ids); // Cast useful to indicate to indicate how to interpret varargs
@@ -2749,15 +2920,30 @@ public class SchedV2 extends AbstractSched {
 
 
     public void sortCards(@NonNull List<Long> cids, int start, int step, boolean shuffle, boolean shift) {
-        String scids = Utils.ids2str(cids);
+        try (DB.IdTable table = mCol.getDb().idTable(cids)) {
+            _sortCards(cids, table.getName(), start, step, shuffle, shift);
+        }
+    }
+
+
+    /** @param scids The table of the ids of cids */
+    private void _sortCards(@NonNull List<Long> cids, @NonNull String scids, int start, int step, boolean shuffle, boolean shift) {
         long now = getTime().intTime();
-        ArrayList<Long> nids = new ArrayList<>(cids.size());
+        Map<Long, Long> nidByCid = new HashMap<>(cids.size());
+        try (Cursor cur = mCol.getDb().query("SELECT id, nid FROM cards WHERE id IN " + scids)) {
+            while (cur.moveToNext()) {
+                nidByCid.put(cur.getLong(0), cur.getLong(1));
+            }
+        }
+        // the notes in the order of their first card in cids
+        Set<Long> orderedNids = new LinkedHashSet<>(nidByCid.size());
         for (long id : cids) {
-            long nid = mCol.getDb().queryLongScalar("SELECT nid FROM cards WHERE id = ?", id);
-            if (!nids.contains(nid)) {
-                nids.add(nid);
+            Long nid = nidByCid.get(id);
+            if (nid != null) {
+                orderedNids.add(nid);
             }
         }
+        ArrayList<Long> nids = new ArrayList<>(orderedNids);
         if (nids.isEmpty()) {
             // no new cards
             return;
@@ -2888,6 +3074,8 @@ public class SchedV2 extends AbstractSched {
     // up or down
     private void _remapLearningAnswers(@NonNull String sql) {
         mCol.getDb().execute("update revlog set " + sql + " and type in (" + Consts.REVLOG_LRN + ", " + Consts.REVLOG_RELRN + ")");
+        // the eases of every day changed
+        mCol.getReviewRollup().drop();
     }
 
     public void moveToV1() {
@@ -2914,14 +3102,12 @@ public class SchedV2 extends AbstractSched {
      */
     // Overriden: In sched v1, a single type of burying exist
     public boolean haveBuried(long did) {
-        List<Long> all = new ArrayList<>(mCol.getDecks().children(did).values());
-        all.add(did);
+        List<Long> all = mCol.getDecks().deckAndChildIds(did);
         return haveBuriedSiblings(all) || haveManuallyBuried(all);
     }
 
     public void unburyCardsForDeck(long did) {
-        List<Long> all = new ArrayList<>(mCol.getDecks().children(did).values());
-        all.add(did);
+        List<Long> all = mCol.getDecks().deckAndChildIds(did);
         unburyCardsForDeck(ALL, all);
     }
 
@@ -3003,31 +3189,13 @@ public class SchedV2 extends AbstractSched {
         double relrnTime;
 
         if (reload || mEtaCache[0] == -1) {
-            try (Cursor cur = mCol
-                        .getDb()
-                        .query("select "
-                                + "avg(case when type = " + Consts.CARD_TYPE_NEW + " then case when ease > 1 then 1.0 else 0.0 end else null end) as newRate, avg(case when type = " + Consts.CARD_TYPE_NEW + " then time else null end) as newTime, "
-                                + "avg(case when type in (" + Consts.CARD_TYPE_LRN + ", " + Consts.CARD_TYPE_RELEARNING + ") then case when ease > 1 then 1.0 else 0.0 end else null end) as revRate, avg(case when type in (" + Consts.CARD_TYPE_LRN + ", " + Consts.CARD_TYPE_RELEARNING + ") then time else null end) as revTime, "
-                                + "avg(case when type = " + Consts.CARD_TYPE_REV + " then case when ease > 1 then 1.0 else 0.0 end else null end) as relrnRate, avg(case when type = " + Consts.CARD_TYPE_REV + " then time else null end) as relrnTime "
-                                + "from revlog where id > "
-                                + "?",
-                               (mCol.getSched().getDayCutoff() - (10 * SECONDS_PER_DAY)) * 1000)) {
-                if (!cur.moveToFirst()) {
-                    return -1;
-                }
-
-                newRate = cur.getDouble(0);
-                newTime = cur.getDouble(1);
-                revRate = cur.getDouble(2);
-                revTime = cur.getDouble(3);
-                relrnRate = cur.getDouble(4);
-                relrnTime = cur.getDouble(5);
-
-                if (!cur.isClosed()) {
-                    cur.close();
-                }
-
-            }
+            double[] rates = mCol.getReviewRollup().answerRates(mCol.getSched().getDayCutoff() - (10 * SECONDS_PER_DAY));
+            newRate = rates[0];
+            newTime = rates[1];
+            revRate = rates[2];
+            revTime = rates[3];
+            relrnRate = rates[4];
+            relrnTime = rates[5];
 
             // If the collection has no revlog data to work with, assume a 20 second average rep for that type
             newTime = newTime == 0 ? 20000 : newTime;
@@ -3156,17 +3324,21 @@ public class SchedV2 extends AbstractSched {
             oldCardData.note().flush();
         }
         Timber.i("Undo Review of card %d, leech: %b", oldCardData.getId(), wasLeech);
-        // write old data
-        oldCardData.flush(false);
-        DeckConfig conf = _cardConf(oldCardData);
-        boolean previewing = conf.isDyn() && ! conf.getBoolean("resched");
-        if (! previewing) {
-            // and delete revlog entry
-            long last = mCol.getDb().queryLongScalar("SELECT id FROM revlog WHERE cid = ? ORDER BY id DESC LIMIT 1", oldCardData.getId());
-            mCol.getDb().execute("DELETE FROM revlog WHERE id = " + last);
-        }
-        // restore any siblings
-        mCol.getDb().execute("update cards set queue=type,mod=?,usn=? where queue=" + Consts.QUEUE_TYPE_SIBLING_BURIED + " and nid=?", getTime().intTime(), mCol.usn(), oldCardData.getNid());
+        _flushReviewJournal();
+        _updateDueCountIndex("nid = " + oldCardData.getNid(), () -> {
+            // write old data
+            oldCardData.flush(false);
+            DeckConfig conf = _cardConf(oldCardData);
+            boolean previewing = conf.isDyn() && ! conf.getBoolean("resched");
+            if (! previewing) {
+                // and delete revlog entry
+                long last = mCol.getDb().queryLongScalar("SELECT id FROM revlog WHERE cid = ? ORDER BY id DESC LIMIT 1", oldCardData.getId());
+                mCol.getDb().execute("DELETE FROM revlog WHERE id = " + last);
+                mCol.getReviewRollup().refresh(last);
+            }
+            // restore any siblings
+            mCol.getDb().execute("update cards set queue=type,mod=?,usn=? where queue=" + Consts.QUEUE_TYPE_SIBLING_BURIED + " and nid=?", getTime().intTime(), mCol.usn(), oldCardData.getNid());
+        });
         // and finally, update daily count
         @Consts.CARD_QUEUE int n = (oldCardData.getQueue() == Consts.QUEUE_TYPE_DAY_LEARN_RELEARN || oldCardData.getQueue() == Consts.QUEUE_TYPE_PREVIEW) ? Consts.QUEUE_TYPE_LRN : oldCardData.getQueue();
         String type = (new String[]{"new", "lrn", "rev"})[n];
@@ -3211,6 +3383,130 @@ public class SchedV2 extends AbstractSched {
         mNewQueue.remove(card.getId());
     }
 
+    /** Whether the current card is in this queue and directly in deck did, not in a subdeck. */
+    private boolean _currentCardIsInQueueInDeck(@Consts.CARD_QUEUE int queue, long did) {
+        Card currentCard = mCurrentCard;
+        return currentCard != null && currentCard.getQueue() == queue && currentCard.getDid() == did;
+    }
+
+
+    /*
+      Due count index **********************************************************
+     */
+
+    /** Overridden: V1 counts learning cards differently and does not maintain the index. */
+    protected boolean _supportsDueCountIndex() {
+        return true;
+    }
+
+
+    /**
+     * Whether due counts should be read from an in-memory index maintained by the scheduler, instead of being
+     * recomputed from the database on each reset.
+     */
+    public void setUseDueCountIndex(boolean useIndex) {
+        mDueCountIndex = useIndex ? new DueCountIndex() : null;
+    }
+
+
+    /**
+     * @param useJournal Whether the changes made by answering cards are kept in the collection's review journal
+     *                   instead of being written immediately. The due count index takes precedence, as it must be
+     *                   updated from the database after each answer.
+     */
+    public void setUseReviewJournal(boolean useJournal) {
+        mUseReviewJournal = useJournal;
+    }
+
+
+    /** @return The journal keeping the changes of the cards being answered, or null if they are written immediately. */
+    protected @Nullable ReviewJournal _reviewJournal() {
+        if (!mUseReviewJournal || mDueCountIndex != null) {
+            return null;
+        }
+        return mCol.getReviewJournal();
+    }
+
+
+    /** Write the answers kept in the journal, before reading cards or revlog which may have been changed by them. */
+    protected void _flushReviewJournal() {
+        mCol.getReviewJournal().flush();
+    }
+
+
+    /** Write the answers kept in the journal, before reading cards of the queues which may have been changed by them. */
+    protected void _flushReviewJournalForQueues(@Consts.CARD_QUEUE int... queues) {
+        mCol.getReviewJournal().flushQueues(queues);
+    }
+
+
+    @Override
+    public void invalidateDueCounts() {
+        DueCountIndex index = mDueCountIndex;
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+
+
+    @Override
+    public void cardsModified() {
+        DueCountIndex index = mDueCountIndex;
+        if (index != null) {
+            index.cardsModified();
+        }
+    }
+
+
+    /** @return The due count index, built for today, or null if it is disabled. */
+    private @Nullable DueCountIndex _dueCountIndex() {
+        DueCountIndex index = mDueCountIndex;
+        if (index == null) {
+            return null;
+        }
+        if (!index.isBuiltFor(mToday)) {
+            index.build(mCol.getDb(), mToday);
+        }
+        return index;
+    }
+
+
+    /**
+     * Apply change, a modification of the cards selected by where, keeping the due count index up to date.
+     * @param where A SQL condition on cards, depending only on their id or note id
+     */
+    private void _updateDueCountIndex(@NonNull String where, @NonNull Runnable change) {
+        DueCountIndex index = mDueCountIndex;
+        if (index == null) {
+            change.run();
+        } else {
+            index.update(mCol.getDb(), where, change);
+        }
+    }
+
+
+    /** Number of cards of the index in the active decks, not counting the current card. */
+    private int _activeDecksIndexedCount(@NonNull DueCountIndex index, int idx, @Consts.CARD_QUEUE int queue) {
+        int cnt = 0;
+        for (long did : mCol.getDecks().active()) {
+            cnt += index.count(did, idx);
+            if (_currentCardIsInQueueInDeck(queue, did)) {
+                cnt--;
+            }
+        }
+        return cnt;
+    }
+
+
+    /** Same result as "LIMIT lim" in the count queries the index replaces: a negative limit means no limit. */
+    private static int _limitIndexedCount(int cnt, int lim) {
+        if (lim < 0) {
+            return cnt;
+        }
+        return Math.min(cnt, lim);
+    }
+
+
     protected boolean currentCardIsInQueueWithDeck(@Consts.CARD_QUEUE int queue, long did) {
         // mCurrentCard may be set to null when the reviewer gets closed. So we copy it to be sure to avoid NullPointerException
         Card currentCard = mCurrentCard;
@@ -39,8 +39,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import timber.log.Timber;
 
@@ -53,7 +56,7 @@ import static com.ichi2.libanki.stats.Stats.SECONDS_PER_DAY;
  * Stats->+AdvancedStatistics: runFilter
  * AdvancedStatistics->+ReviewSimulator: simNreviews
  * loop dids
- *   loop nIterations
+ *   loop nIterations (in parallel)
  *       loop cards
  *           ReviewSimulator->+Review: newCard
  *           Review->+NewCardSimulator: simulateNewCard
@@ -84,7 +87,7 @@ import static com.ichi2.libanki.stats.Stats.SECONDS_PER_DAY;
  * [Review|prob:double;tElapsed:int]
  * [SimulationResult|nReviews［CARD_TYPE］［t］;nInState［CARD_TYPE］［t］]
  * [ReviewOutcome|prob:double]
- * [ReviewSimulator]uses -.->[CardIterator]
+ * [ReviewSimulator]uses -.->[DeckCards]
  * [ReviewSimulator]uses -.->[DeckFactory]
  * [ReviewSimulator]creates -.->[SimulationResult]
  * [ReviewSimulator]creates -.->[Review]
@@ -143,6 +146,23 @@ public class AdvancedStatistics {
     private final DeckFactory Decks = new DeckFactory();
     private Settings Settings;
 
+    /**
+     * Seed of the random draws of the simulations. For a given seed, the forecast does not depend on the number of
+     * threads running the simulations.
+     */
+    private final long seed;
+
+
+    public AdvancedStatistics() {
+        this(new Random().nextLong());
+    }
+
+
+    @VisibleForTesting
+    AdvancedStatistics(long seed) {
+        this.seed = seed;
+    }
+
     /**
      * Determine forecast statistics based on a computation or simulation of future reviews.
      * Returns all information required by stats.java to plot the 'forecast' chart based on these statistics.
@@ -549,16 +569,21 @@ public class AdvancedStatistics {
 
     }
 
-    private static class CardIterator {
-
-        private final Cursor cur;
+    /**
+     * The cards of a deck to simulate, loaded once in arrays so that each iteration of the simulation can read them
+     * without querying the database.
+     */
+    private static class DeckCards {
 
-        private final int today;
         private final Deck deck;
 
-        public CardIterator(DB db, int today, Deck deck) {
+        private final long[] ids;
+        private final int[] ivls;
+        private final int[] factors;
+        private final int[] dues;
+
+        public DeckCards(DB db, int today, Deck deck) {
 
-            this.today = today;
             this.deck = deck;
 
             long did = deck.getDid();
@@ -569,28 +594,34 @@ public class AdvancedStatistics {
                     "AND queue != " + Consts.QUEUE_TYPE_SUSPENDED + " " +   // ignore suspended cards
                     "order by id;";
             Timber.d("Forecast query: %s", query);
-            cur = db.query(query);
-
+            try (Cursor cur = db.query(query)) {
+                int n = cur.getCount();
+                ids = new long[n];
+                ivls = new int[n];
+                factors = new int[n];
+                dues = new int[n];
+                for (int i = 0; cur.moveToNext(); i++) {
+                    ids[i] = cur.getLong(0);
+                    ivls[i] = cur.getInt(5) == 0 ? 0 : cur.getInt(2);                      //reps = 0 ? 0 : card interval
+                    factors[i] = cur.getInt(3) > 0 ? cur.getInt(3) : deck.getInitialFactor(); //factor
+                    dues[i] = Math.max(cur.getInt(1) - today, 0);                          //due
+                }
+            }
         }
 
-        public boolean moveToNext() {
-            return cur.moveToNext();
+        public int size() {
+            return ids.length;
         }
 
-        public void current(Card card) {
-            card.setAll(cur.getLong(0),                                             //Id
-                    cur.getInt(5) == 0 ? 0 : cur.getInt(2),  		                //reps = 0 ? 0 : card interval
-                    cur.getInt(3) > 0 ? cur.getInt(3) :  deck.getInitialFactor(),   //factor
-                    Math.max(cur.getInt(1) - today, 0),                             //due
+        public void get(int i, Card card) {
+            card.setAll(ids[i],
+                    ivls[i],
+                    factors[i],
+                    dues[i],
                     1,                                                              //correct
                     -1                                                              //lastreview
                     );
         }
-
-        public void close() {
-            if (cur != null && !cur.isClosed())
-                cur.close();
-        }
     }
 
     /**
@@ -609,8 +640,8 @@ public class AdvancedStatistics {
         private final Random random;
 
         private final DB db;
-        private double[][] probabilities;
-        private double[][] probabilitiesCumulative;
+        private final double[][] probabilities;
+        private final double[][] probabilitiesCumulative;
 
         //# Prior that half of new cards are answered correctly
         private final int[] priorNew = {5, 0, 5, 0};		//half of new cards are answered correctly
@@ -655,6 +686,8 @@ public class AdvancedStatistics {
             this.db = db;
 
             singleReviewOutcome = new ReviewOutcome(null, 0);
+            this.probabilities = new double[3][];
+            this.probabilitiesCumulative = new double[3][];
 
             long t0 = time.intTimeMS();
             calculateCumProbabilitiesForNewEasePerCurrentEase();
@@ -673,6 +706,18 @@ public class AdvancedStatistics {
             random = new Random();
         }
 
+        /**
+         * A classifier with the same probability distributions as `classifier`, drawing outcomes from `random`.
+         * Each thread of a simulation needs its own, since a classifier re-uses its review outcome.
+         */
+        public EaseClassifier(EaseClassifier classifier, Random random) {
+            this.db = classifier.db;
+            this.probabilities = classifier.probabilities;
+            this.probabilitiesCumulative = classifier.probabilitiesCumulative;
+            this.singleReviewOutcome = new ReviewOutcome(null, 0);
+            this.random = random;
+        }
+
         private double[] cumsum(double[] p) {
 
             double[] q = new double[4];
@@ -686,9 +731,6 @@ public class AdvancedStatistics {
         }
 
         private void calculateCumProbabilitiesForNewEasePerCurrentEase() {
-            this.probabilities = new double[3][];
-            this.probabilitiesCumulative = new double[3][];
-
             this.probabilities[CARD_TYPE_NEW] = calculateProbabilitiesForNewEaseForCurrentEase(queryNew, priorNew);
             this.probabilities[CARD_TYPE_YOUNG] = calculateProbabilitiesForNewEaseForCurrentEase(queryYoung, priorYoung);
             this.probabilities[CARD_TYPE_MATURE] = calculateProbabilitiesForNewEaseForCurrentEase(queryMature, priorMature);
@@ -880,6 +922,10 @@ public class AdvancedStatistics {
      * A simulation of a single card means simulating future card reviews starting from now until the end of the simulation window as specified by nTimeBins and timeBinLength.
      *
      * A review of a single card is run by the specified classifier.
+     *
+     * The iterations of the simulation of a deck are independent, so they are run in parallel. Each one draws its review
+     * outcomes from its own random generator, seeded from the seed of the statistics, the deck and the number of the
+     * iteration, and the results are always merged in the same order.
      */
     private class ReviewSimulator {
 
@@ -892,8 +938,6 @@ public class AdvancedStatistics {
 
         private final int tMax;
 
-        private final NewCardSimulator newCardSimulator = new NewCardSimulator();
-
         public ReviewSimulator(DB db, EaseClassifier classifier, int nTimeBins, int timeBinLength) {
             this.db = db;
             this.classifier = classifier;
@@ -910,20 +954,68 @@ public class AdvancedStatistics {
 
             long[] dids = ArrayUtils.stringToLongArray(didsStr);
             int nIterations = Settings.getSimulateNIterations();
-            double nIterationsInv = 1.0 / nIterations;
 
-            for(long did : dids) {
-                for(int iteration = 0; iteration < nIterations; iteration++) {
-                    newCardSimulator.reset(todayStats.getNLearned(did));
-                    simulationResultAggregated.add(simNreviews(today, Decks.createDeck(did, decks)), nIterationsInv);
+            ForkJoinPool pool = new ForkJoinPool();
+            try {
+                for (long did : dids) {
+                    DeckCards cards = new DeckCards(db, today, Decks.createDeck(did, decks));
+                    SimulationResult deckResult = pool.invoke(new SimulationTask(today, cards, todayStats.getNLearned(did), 0, nIterations));
+                    ArrayUtils.formatMatrix("nReviews", deckResult.getNReviews(), "%04d ");
+                    ArrayUtils.formatMatrix("nInState", deckResult.getNInState(), "%04d ");
+                    simulationResultAggregated.merge(deckResult);
                 }
+            } finally {
+                pool.shutdown();
             }
 
             return simulationResultAggregated;
 
         }
 
-        private SimulationResult simNreviews(int today, Deck deck) {
+        /**
+         * Runs the iterations from `from` (inclusive) to `to` (exclusive) of the simulation of a deck, and returns the
+         * average of their results weighted by 1 / nIterations.
+         */
+        private class SimulationTask extends RecursiveTask<SimulationResult> {
+
+            private final int today;
+            private final DeckCards cards;
+            private final int nLearnedToday;
+            private final int from;
+            private final int to;
+
+            public SimulationTask(int today, DeckCards cards, int nLearnedToday, int from, int to) {
+                this.today = today;
+                this.cards = cards;
+                this.nLearnedToday = nLearnedToday;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected SimulationResult compute() {
+                if (to - from > 1) {
+                    int mid = (from + to) >>> 1;
+                    SimulationTask left = new SimulationTask(today, cards, nLearnedToday, from, mid);
+                    left.fork();
+                    SimulationResult rightResult = new SimulationTask(today, cards, nLearnedToday, mid, to).compute();
+                    SimulationResult result = left.join();
+                    result.merge(rightResult);
+                    return result;
+                }
+
+                SimulationResult result = new SimulationResult(nTimeBins, timeBinLength, SimulationResult.DOUBLE_TO_INT_MODE_ROUND);
+                if (from < to) {
+                    NewCardSimulator newCardSimulator = new NewCardSimulator();
+                    newCardSimulator.reset(nLearnedToday);
+                    Random random = new Random(seed ^ (cards.deck.getDid() * 31 + from) * 0x9E3779B97F4A7C15L);
+                    result.add(simNreviews(today, cards, new EaseClassifier(classifier, random), newCardSimulator), 1.0 / Settings.getSimulateNIterations());
+                }
+                return result;
+            }
+        }
+
+        private SimulationResult simNreviews(int today, DeckCards cards, EaseClassifier classifier, NewCardSimulator newCardSimulator) {
 
             SimulationResult simulationResult;
 
@@ -961,39 +1053,26 @@ public class AdvancedStatistics {
             //3. Do any combination of these (controlled by computeNDays and computeMaxError)
 
             Card card = new Card(0, 0, 0, 0, 0, 0);
-            CardIterator cardIterator = null;
-            Review review = new Review(deck, simulationResult, classifier, reviews, reviewList);
+            Review review = new Review(cards.deck, simulationResult, classifier, reviews, reviewList);
 
-            try {
-                cardIterator = new CardIterator(db, today, deck);
+            for (int cardN = 0; cardN < cards.size(); cardN++) {
 
-                //int cardN = 0;
+                cards.get(cardN, card);
 
-                while (cardIterator.moveToNext()) {
+                review.newCard(card, newCardSimulator);
 
-                    cardIterator.current(card);
+                if (review.getT() < tMax)
+                    reviews.push(review);
 
-                    review.newCard(card, newCardSimulator);
+                //Timber.d("Card started: %d", cardN);
 
-                    if (review.getT() < tMax)
-                        reviews.push(review);
-
-                    //Timber.d("Card started: %d", cardN);
-
-                    while (!reviews.isEmpty()) {
-                        reviews.pop().simulateReview();
-                    }
+                while (!reviews.isEmpty()) {
+                    reviews.pop().simulateReview();
+                }
 
-                    //Timber.d("Card done: %d", cardN++);
+                //Timber.d("Card done: %d", cardN);
 
-                }
             }
-            finally {
-                if(cardIterator != null)
-                    cardIterator.close();
-            }
-            ArrayUtils.formatMatrix("nReviews", simulationResult.getNReviews(), "%04d ");
-            ArrayUtils.formatMatrix("nInState", simulationResult.getNInState(), "%04d ");
 
             return simulationResult;
         }
@@ -1275,9 +1354,26 @@ public class AdvancedStatistics {
             return nDays;
         }
 
+        /**
+         * Adds the statistics of another simulation result, without rounding them first.
+         * Use to gather statistics over decks or over groups of iterations.
+         * @param res2Add Statistics to be added to the current statistics.
+         */
+        public void merge(SimulationResult res2Add) {
+            for(int i = 0; i < nReviews.length; i++)
+                for(int j = 0; j < nReviews[i].length; j++)
+                    this.nReviews[i][j] += res2Add.nReviews[i][j];
+
+            //As in add, nReviewsPerDay is not needed for aggregated results.
+
+            for(int i = 0; i < nInState.length; i++)
+                for(int j = 0; j < nInState[i].length; j++)
+                    this.nInState[i][j] += res2Add.nInState[i][j];
+        }
+
         /**
          * Adds the statistics generated by another simulation to the current statistics.
-         * Use to gather statistics over decks.
+         * Use to gather statistics over iterations.
          * @param res2Add Statistics to be added to the current statistics.
          */
         public void add(SimulationResult res2Add, double prob) {
@@ -1289,8 +1385,8 @@ public class AdvancedStatistics {
                 for(int j = 0; j < nReviews[i].length; j++)
                     this.nReviews[i][j] += nReviews[i][j] * prob;
 
-            //This method is only used to aggregate over decks
-            //We do not update nReviewsPerDay since it is not needed for the SimulationResult aggregated over decks.
+            //This method is only used to aggregate over iterations
+            //We do not update nReviewsPerDay since it is not needed for the SimulationResult aggregated over iterations.
 
             for(int i = 0; i < nInState.length; i++)
                 for(int j = 0; j < nInState[i].length; j++)
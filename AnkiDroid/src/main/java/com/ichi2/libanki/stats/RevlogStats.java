@@ -0,0 +1,447 @@
+/****************************************************************************************
+ *                                                                                      *
+ * This program is free software; you can redistribute it and/or modify it under        *
+ * the terms of the GNU General Public License as published by the Free Software        *
+ * Foundation; either version 3 of the License, or (at your option) any later           *
+ * version.                                                                             *
+ *                                                                                      *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License along with         *
+ * this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+ ****************************************************************************************/
+
+package com.ichi2.libanki.stats;
+
+import android.database.Cursor;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.ReviewRollup;
+import com.ichi2.libanki.stats.Stats.AxisType;
+import com.ichi2.libanki.utils.Time;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+import static com.ichi2.libanki.stats.Stats.SECONDS_PER_DAY;
+
+/**
+ * Aggregates of the reviews of some decks over the period of an axis type, from which {@link Stats} draws all of its
+ * revlog based charts. They are computed by a single scan of the revlog, or of the daily reviews for all decks once
+ * they are computed, instead of one query by chart, and the last ones of each axis type are kept by the collection
+ * until the next review, the next day or a change of the collection.
+ *
+ * Each result is the same as the one of the query it replaces, including the limit of its period. For all decks, the
+ * reviews made during the second of a limit may be counted on the other side of it, see {@link ReviewRollup}.
+ */
+public class RevlogStats {
+    /** Ids of the possible groups of the hourly breakdown, as computed by the query it replaces: from 0 to 46 */
+    private static final int HOUR_GROUPS = 47;
+    private static final int WEEKDAYS = 7;
+    /** Columns of the review count and time charts: learn, young, mature, relearn, cram */
+    private static final int DONE_TYPES = 5;
+    /** Types of the answer buttons chart: learn, young, mature */
+    private static final int ANSWER_TYPES = 3;
+    private static final int EASES = 4;
+
+    /** The last aggregates of each axis type of a collection. */
+    public static class Cache {
+        private final Map<AxisType, RevlogStats> mStats = new EnumMap<>(AxisType.class);
+
+
+        @VisibleForTesting
+        synchronized void clear() {
+            mStats.clear();
+        }
+    }
+
+    // What the aggregates depend on
+    private final long mMod;
+    private final String mDeckFilter;
+    private final long mDayCutoff;
+    private final long mLastRevlogId;
+    /** Whether the fourth answer of learning cards is shown as the third, as in the v1 scheduler */
+    private final boolean mV1;
+
+    // Start of the periods of the charts, the reviews of a period are after its id
+    private final long mPeriodStart;
+    private final long mWeeklyStart;
+    private final long mTodayStart;
+    /** Time from which the hourly breakdown counts the hours, in seconds */
+    private final long mCut;
+    /** Shift of the time of the reviews of the weekly breakdown, in seconds */
+    private final long mWeekShift;
+
+    /** Day, relative to today, of the index 0 of the daily aggregates */
+    private final int mFirstDay;
+    /** By day, whether there is a review, whatever its type and ease */
+    private final boolean[] mReviewed;
+    /** By day and column, the number of reviews and their time, in ms, of the review count and time charts */
+    private final int[] mDoneCount;
+    private final long[] mDoneTime;
+    /** By day, the number of answers (reviews with an ease) of the period and their time, in ms */
+    private final int[] mAnsweredCount;
+    private final long[] mAnsweredTime;
+    /** Answers of the period, by type and ease */
+    private final int[] mAnswers = new int[ANSWER_TYPES * EASES];
+    /** Answers of learn, young and mature cards of the breakdowns, and how many were correct */
+    private final int[] mHourCount = new int[HOUR_GROUPS];
+    private final int[] mHourCorrect = new int[HOUR_GROUPS];
+    private final int[] mWeekdayCount = new int[WEEKDAYS];
+    private final int[] mWeekdayCorrect = new int[WEEKDAYS];
+    /** The values returned by {@link Stats#calculateTodayStats()} */
+    private final int[] mToday = new int[9];
+
+
+    /**
+     * The aggregates of the reviews of some decks over the period of type.
+     *
+     * @param deckFilter Condition on the revlog selecting the reviews of the decks, or the empty string for all reviews
+     */
+    static @NonNull RevlogStats get(@NonNull Collection col, @NonNull String deckFilter, @NonNull AxisType type) {
+        long dayCutoff = col.getSched().getDayCutoff();
+        long lastRevlogId = col.getDb().queryLongScalar("SELECT max(id) FROM revlog");
+        Cache cache = col.getRevlogStatsCache();
+        synchronized (cache) {
+            RevlogStats stats = cache.mStats.get(type);
+            if (stats == null || !stats.isUpToDate(col, deckFilter, dayCutoff, lastRevlogId)) {
+                stats = new RevlogStats(col, deckFilter, type, dayCutoff, lastRevlogId);
+                cache.mStats.put(type, stats);
+            }
+            return stats;
+        }
+    }
+
+
+    private boolean isUpToDate(@NonNull Collection col, @NonNull String deckFilter, long dayCutoff, long lastRevlogId) {
+        return mMod == col.getMod() && mDeckFilter.equals(deckFilter) && mDayCutoff == dayCutoff
+                && mLastRevlogId == lastRevlogId;
+    }
+
+
+    private RevlogStats(@NonNull Collection col, @NonNull String deckFilter, @NonNull AxisType type, long dayCutoff, long lastRevlogId) {
+        mMod = col.getMod();
+        mDeckFilter = deckFilter;
+        mDayCutoff = dayCutoff;
+        mLastRevlogId = lastRevlogId;
+        mV1 = col.schedVer() == 1;
+
+        // Periods of each chart, each starts after the returned id
+        long donePeriod = type == AxisType.TYPE_LIFE ? -1 : (Stats.getNum(type) + 1) * Stats.getChunk(type);
+        mPeriodStart = idOfDaysAgo(type.days);
+        mWeeklyStart = idOfDaysAgo(type.days > 0 ? Math.round(type.days / 7) * 7 : -1);
+        mTodayStart = idOfDaysAgo(1);
+        int rolloverHour;
+        if (mV1) {
+            rolloverHour = col.crtGregorianCalendar().get(Calendar.HOUR_OF_DAY);
+        } else {
+            rolloverHour = col.getConf().optInt("rollover", 4);
+        }
+        mCut = dayCutoff - rolloverHour * 3600L;
+        mWeekShift = Time.gregorianCalendar(dayCutoff * 1000).get(Calendar.HOUR_OF_DAY) * 3600L;
+
+        if (lastRevlogId == 0) {
+            // no review
+            mFirstDay = 0;
+        } else if (donePeriod > 0) {
+            mFirstDay = (int) -donePeriod;
+        } else {
+            mFirstDay = day(col.getDb().queryLongScalar("SELECT min(id) FROM revlog"));
+        }
+        int days = Math.max(0, day(lastRevlogId)) - mFirstDay + 1;
+        mReviewed = new boolean[days];
+        mDoneCount = new int[days * DONE_TYPES];
+        mDoneTime = new long[days * DONE_TYPES];
+        mAnsweredCount = new int[days];
+        mAnsweredTime = new long[days];
+        if (lastRevlogId == 0) {
+            return;
+        }
+
+        if (deckFilter.isEmpty() && col.getReviewRollup().isReady()) {
+            addDays(col, donePeriod);
+        } else {
+            addReviews(col, deckFilter, donePeriod);
+        }
+        // the query summed the time in ms, then divided it
+        mToday[1] /= 1000;
+    }
+
+
+    /** Add the reviews of the revlog matching the deck filter, over the last donePeriod days or all days if negative */
+    private void addReviews(@NonNull Collection col, @NonNull String deckFilter, long donePeriod) {
+        String query = "SELECT id, type, ease, lastIvl, time FROM revlog";
+        if (donePeriod > 0) {
+            query += " WHERE id > " + idOfDaysAgo(donePeriod) + (deckFilter.isEmpty() ? "" : " AND " + deckFilter);
+        } else if (!deckFilter.isEmpty()) {
+            query += " WHERE " + deckFilter;
+        }
+        Timber.d("Revlog stats query: %s", query);
+        try (Cursor cur = col.getDb().query(query)) {
+            while (cur.moveToNext()) {
+                long id = cur.getLong(0);
+                long idSeconds = id / 1000;
+                int hour = 23 - ((int) ((mCut - idSeconds) / 3600.0) % 24);
+                add(id, hour, weekday(idSeconds), cur.getInt(1), cur.getInt(2), cur.getInt(3) >= 21, 1, cur.getInt(4));
+            }
+        }
+    }
+
+
+    /**
+     * Add the reviews of all decks from the daily reviews, over the last donePeriod days or all days if negative. The
+     * reviews of an hour of a day are all added at the time of its end, which is in the same days and hours as them.
+     */
+    private void addDays(@NonNull Collection col, long donePeriod) {
+        String query = "SELECT day, hour, type, ease, mature, sum(cnt), sum(time) FROM " + ReviewRollup.TABLE;
+        if (donePeriod > 0) {
+            query += " WHERE day > " + (mDayCutoff - donePeriod * SECONDS_PER_DAY);
+        }
+        query += " GROUP BY day, hour, type, ease, mature";
+        try (Cursor cur = col.getDb().query(query)) {
+            while (cur.moveToNext()) {
+                long end = cur.getLong(0) - (23 - cur.getInt(1)) * 3600L;
+                // the hours before the cut are truncated downward, and the ones after upward
+                long hours = (mCut - end) / 3600;
+                int hour = 23 - (int) ((hours < 0 ? hours + 1 : hours) % 24);
+                // all the reviews of the hour but the ones of its last second are in the weekday of the second before
+                add(end * 1000, hour, weekday(end - 1), cur.getInt(2), cur.getInt(3), cur.getInt(4) != 0, cur.getInt(5), cur.getLong(6));
+            }
+        }
+    }
+
+
+    /**
+     * Add count reviews, with the same type, ease and maturity, which were made at the time id or in the same days and
+     * hours.
+     *
+     * @param hour Group of the hourly breakdown of the reviews
+     * @param weekday Day of the week of the reviews, for the weekly breakdown
+     * @param time Total time of the reviews, in ms
+     */
+    private void add(long id, int hour, int weekday, int revType, int ease, boolean mature, int count, long time) {
+        int dayIndex = day(id) - mFirstDay;
+        if (dayIndex < 0 || dayIndex >= mReviewed.length) {
+            // added since the range was computed
+            return;
+        }
+        int correct = ease != 1 ? count : 0;
+
+        mReviewed[dayIndex] = true;
+        int doneType = doneType(revType, mature);
+        if (doneType >= 0) {
+            mDoneCount[dayIndex * DONE_TYPES + doneType] += count;
+            mDoneTime[dayIndex * DONE_TYPES + doneType] += time;
+        }
+        if (ease > 0 && id > mPeriodStart) {
+            mAnsweredCount[dayIndex] += count;
+            mAnsweredTime[dayIndex] += time;
+            if (ease <= EASES) {
+                mAnswers[answerType(revType, mature) * EASES + ease - 1] += count;
+            }
+        }
+        if (revType == Consts.REVLOG_LRN || revType == Consts.REVLOG_REV || revType == Consts.REVLOG_RELRN) {
+            if (id > mPeriodStart) {
+                mHourCount[hour] += count;
+                mHourCorrect[hour] += correct;
+            }
+            if (id > mWeeklyStart) {
+                mWeekdayCount[weekday] += count;
+                mWeekdayCorrect[weekday] += correct;
+            }
+        }
+        if (ease > 0 && id > mTodayStart) {
+            mToday[0] += count;
+            mToday[1] += time;
+            mToday[2] += count - correct;
+            if (revType >= Consts.REVLOG_LRN && revType <= Consts.REVLOG_CRAM) {
+                mToday[3 + revType] += count;
+            }
+            if (mature) {
+                mToday[7] += count;
+                mToday[8] += correct;
+            }
+        }
+    }
+
+
+    /** Day of the week of the weekly breakdown of a review made at idSeconds, from Sunday */
+    private int weekday(long idSeconds) {
+        long seconds = idSeconds - mWeekShift;
+        long epochDay = seconds / SECONDS_PER_DAY - (seconds % SECONDS_PER_DAY < 0 ? 1 : 0);
+        // 1970-01-01 was a Thursday
+        return (int) ((epochDay + 4) % WEEKDAYS + WEEKDAYS) % WEEKDAYS;
+    }
+
+
+    /** Day of the review id, relative to today, as the queries compute it. */
+    private int day(long id) {
+        return (int) ((id / 1000 - mDayCutoff) / SECONDS_PER_DAY);
+    }
+
+
+    /** The id after which reviews are in the last days, or -1 for all reviews if days is not positive */
+    private long idOfDaysAgo(long days) {
+        if (days <= 0) {
+            return -1;
+        }
+        return (mDayCutoff - days * SECONDS_PER_DAY) * 1000;
+    }
+
+
+    /** Column of the review count and time charts: learn, young, mature, relearn, cram, or -1 for none */
+    private static int doneType(int revType, boolean mature) {
+        switch (revType) {
+            case Consts.REVLOG_LRN:
+                return 0;
+            case Consts.REVLOG_REV:
+                return mature ? 2 : 1;
+            case Consts.REVLOG_RELRN:
+                return 3;
+            case Consts.REVLOG_CRAM:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+
+    /** Type of the answer buttons chart: learn, young or mature */
+    private static int answerType(int revType, boolean mature) {
+        if (revType == Consts.REVLOG_LRN || revType == Consts.REVLOG_RELRN) {
+            return 0;
+        }
+        return mature ? 2 : 1;
+    }
+
+
+    /** See {@link Stats#calculateTodayStats()} */
+    @NonNull int[] today() {
+        return mToday.clone();
+    }
+
+
+    /**
+     * By group of chunk days, ordered by group: the group, the cram, learn, relearn, young and mature reviews, counted
+     * or timed.
+     *
+     * @param timeUnit 0 to count the reviews, or the number of seconds of the unit of their time
+     */
+    @NonNull ArrayList<double[]> done(int chunk, double timeUnit) {
+        ArrayList<double[]> list = new ArrayList<>();
+        double[] group = null;
+        for (int i = 0; i < mReviewed.length; i++) {
+            if (!mReviewed[i]) {
+                continue;
+            }
+            int g = (mFirstDay + i) / chunk;
+            if (group == null || group[0] != g) {
+                group = new double[] {g, 0, 0, 0, 0, 0};
+                list.add(group);
+            }
+            // cram, learn, relearn, young, mature
+            int[] columns = {4, 0, 3, 1, 2};
+            for (int c = 0; c < columns.length; c++) {
+                int index = i * DONE_TYPES + columns[c];
+                group[c + 1] += timeUnit == 0 ? mDoneCount[index] : mDoneTime[index] / 1000.0 / timeUnit;
+            }
+        }
+        return list;
+    }
+
+
+    /** The number of answers of the period */
+    int answered() {
+        int answered = 0;
+        for (int count : mAnsweredCount) {
+            answered += count;
+        }
+        return answered;
+    }
+
+
+    /** The number of days of the period with an answer */
+    int daysStudied() {
+        int days = 0;
+        for (int count : mAnsweredCount) {
+            days += count > 0 ? 1 : 0;
+        }
+        return days;
+    }
+
+
+    /** The first day of the period with an answer, relative to today, or 0 if there is none */
+    int firstDayStudied() {
+        for (int i = 0; i < mAnsweredCount.length; i++) {
+            if (mAnsweredCount[i] > 0) {
+                return mFirstDay + i;
+            }
+        }
+        return 0;
+    }
+
+
+    /** The time of the answers of the period, in minutes */
+    double minutesStudied() {
+        double minutes = 0;
+        for (long time : mAnsweredTime) {
+            minutes += time / 1000.0 / 60.0;
+        }
+        return minutes;
+    }
+
+
+    /**
+     * The answers of the period, ordered by type and ease: the type (learn, young or mature), the ease and the number
+     * of answers.
+     */
+    @NonNull ArrayList<double[]> eases() {
+        ArrayList<double[]> list = new ArrayList<>(ANSWER_TYPES * EASES);
+        for (int type = 0; type < ANSWER_TYPES; type++) {
+            for (int ease = 1; ease <= EASES; ease++) {
+                int count = mAnswers[type * EASES + ease - 1];
+                if (count > 0) {
+                    int shownEase = mV1 && type == 0 && ease == 4 ? 3 : ease;
+                    list.add(new double[] {type, shownEase, count});
+                }
+            }
+        }
+        return list;
+    }
+
+
+    /**
+     * By hour group with more than 30 reviews, ordered by hour: the hour, as computed by the query it replaces, the
+     * percentage of correct answers and the number of answers.
+     */
+    @NonNull ArrayList<double[]> hours() {
+        ArrayList<double[]> list = new ArrayList<>(24);
+        for (int hour = 0; hour < HOUR_GROUPS; hour++) {
+            if (mHourCount[hour] > 30) {
+                list.add(new double[] {hour, mHourCorrect[hour] / (double) mHourCount[hour] * 100, mHourCount[hour]});
+            }
+        }
+        return list;
+    }
+
+
+    /** By day of the week with a review, from Sunday: the day, the percentage of correct answers and the number of answers */
+    @NonNull ArrayList<double[]> weekdays() {
+        ArrayList<double[]> list = new ArrayList<>(WEEKDAYS);
+        for (int weekday = 0; weekday < WEEKDAYS; weekday++) {
+            if (mWeekdayCount[weekday] > 0) {
+                list.add(new double[] {weekday, mWeekdayCorrect[weekday] / (double) mWeekdayCount[weekday] * 100, mWeekdayCount[weekday]});
+            }
+        }
+        return list;
+    }
+}
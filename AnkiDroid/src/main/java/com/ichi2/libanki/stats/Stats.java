@@ -31,14 +31,11 @@ import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Consts;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.Deck;
-import com.ichi2.libanki.utils.Time;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Vector;
 
 import timber.log.Timber;
 
@@ -98,6 +95,8 @@ public class Stats {
         mCol = col;
         mWholeCollection = (did == ALL_DECKS_ID);
         mDeckId = did;
+        // the last reviews may not be in the database yet
+        mCol.getReviewJournal().flush();
     }
 
     public double[][] getSeriesList() {
@@ -126,68 +125,16 @@ public class Stats {
      * Today's statistics
      */
     public int[] calculateTodayStats(){
-        String lim = _getDeckFilter();
-        if (lim.length() > 0) {
-            lim = " and " + lim;
-        }
-
-        String query = "select count(), sum(time)/1000, "+
-                "sum(case when ease = 1 then 1 else 0 end), "+ /* failed */
-                "sum(case when type = " + Consts.CARD_TYPE_NEW + " then 1 else 0 end), "+ /* learning */
-                "sum(case when type = " + Consts.CARD_TYPE_LRN + " then 1 else 0 end), "+ /* review */
-                "sum(case when type = " + Consts.CARD_TYPE_REV + " then 1 else 0 end), "+ /* relearn */
-                "sum(case when type = " + Consts.CARD_TYPE_RELEARNING + " then 1 else 0 end) "+ /* filter */
-                "from revlog "+
-                "where ease > 0 "+  // Anki Desktop logs a '0' ease for manual reschedules, ignore them https://github.com/ankidroid/Anki-Android/issues/8008
-                "and id > " + ((mCol.getSched().getDayCutoff()-SECONDS_PER_DAY)*1000) + " " +  lim;
-        Timber.d("todays statistics query: %s", query);
-
-        int cards, thetime, failed, lrn, rev, relrn, filt;
-        try (Cursor cur = mCol.getDb()
-                    .query(query)) {
-
-            cur.moveToFirst();
-            cards = cur.getInt(0);
-            thetime = cur.getInt(1);
-            failed = cur.getInt(2);
-            lrn = cur.getInt(3);
-            rev = cur.getInt(4);
-            relrn = cur.getInt(5);
-            filt = cur.getInt(6);
-
-
-
-        }
-        query = "select count(), sum(case when ease = 1 then 0 else 1 end) from revlog " +
-                "where ease > 0 "+ // Anki Desktop logs a '0' ease for manual reschedules, ignore them https://github.com/ankidroid/Anki-Android/issues/8008
-                "and lastIvl >= 21 and id > " + ((mCol.getSched().getDayCutoff()-SECONDS_PER_DAY)*1000) + " " +  lim;
-        Timber.d("todays statistics query 2: %s", query);
-
-        int mcnt, msum;
-        try (Cursor cur = mCol.getDb()
-                    .query(query)) {
-
-            cur.moveToFirst();
-            mcnt = cur.getInt(0);
-            msum = cur.getInt(1);
-        }
-
-        return new int[]{cards, thetime, failed, lrn, rev, relrn, filt, mcnt, msum};
+        return calculateTodayStats(AxisType.TYPE_MONTH);
     }
 
-    private String getRevlogTimeFilter(AxisType timespan, boolean inverse) {
-        if (timespan == AxisType.TYPE_LIFE) {
-            return "";
-        }
-        else {
-            String operator;
-            if (inverse) {
-                operator = "<= ";
-            } else {
-                operator = "> ";
-            }
-            return "id "+ operator + ((mCol.getSched().getDayCutoff() - (timespan.days * SECONDS_PER_DAY)) * 1000);
-        }
+
+    /**
+     * Today's statistics, from the reviews of the period of type, so that they don't need another scan of the revlog
+     */
+    public int[] calculateTodayStats(AxisType type) {
+        // count, time, failed, learning, review, relearn, filter, mature count, mature correct
+        return revlog(type).today();
     }
 
     public Pair<Integer, Double> getNewCards(AxisType timespan) {
@@ -264,48 +211,14 @@ public class Stats {
     }
 
 
-    private String getRevlogFilter(AxisType timespan,boolean inverseTimeSpan){
-        ArrayList<String> lims = new ArrayList<>(2);
-        String dayFilter = getRevlogTimeFilter(timespan, inverseTimeSpan);
-        if (!TextUtils.isEmpty(dayFilter)) {
-            lims.add(dayFilter);
-        }
-        String lim = _getDeckFilter().replaceAll("[\\[\\]]", "");
-        if (lim.length() > 0){
-            lims.add(lim);
-        }
-
-        // Anki Desktop logs a '0' ease for manual reschedules, ignore them https://github.com/ankidroid/Anki-Android/issues/8008
-        lims.add("ease > 0");
-
-        lim = "WHERE ";
-        lim += TextUtils.join(" AND ", lims.toArray());
-
-        return lim;
-    }
-
     public void calculateOverviewStatistics(AxisType timespan, OverviewStatsBuilder.OverviewStats oStats) {
         oStats.allDays = timespan.days;
-        String lim = getRevlogFilter(timespan,false);
-        try (Cursor cur = mCol.getDb().query(
-                    "SELECT COUNT(*) as num_reviews, sum(case when type = " + Consts.CARD_TYPE_NEW + " then 1 else 0 end) as new_cards FROM revlog " + lim)) {
-            while (cur.moveToNext()) {
-                oStats.totalReviews = cur.getInt(0);
-            }
-        }
-
-        String cntquery = "SELECT  COUNT(*) numDays, MIN(day) firstDay, SUM(time_per_day) sum_time  from (" +
-                " SELECT (cast((id/1000 - " + mCol.getSched().getDayCutoff() + ") / "+SECONDS_PER_DAY+" AS INT)) AS day,  sum(time/1000.0/60.0) AS time_per_day"
-                + " FROM revlog " + lim + " GROUP BY day ORDER BY day)";
-        Timber.d("Count cntquery: %s", cntquery);
-        try (Cursor cur = mCol.getDb().query(cntquery)) {
-            while (cur.moveToNext()) {
-                oStats.daysStudied = cur.getInt(0);
-                oStats.totalTime = cur.getDouble(2);
-                if (timespan == AxisType.TYPE_LIFE) {
-                    oStats.allDays = Math.abs(cur.getInt(1)) + 1; // +1 for today
-                }
-            }
+        RevlogStats revlog = revlog(timespan);
+        oStats.totalReviews = revlog.answered();
+        oStats.daysStudied = revlog.daysStudied();
+        oStats.totalTime = revlog.minutesStudied();
+        if (timespan == AxisType.TYPE_LIFE) {
+            oStats.allDays = Math.abs(revlog.firstDayStudied()) + 1; // +1 for today
         }
 
         try (Cursor cur = mCol.getDb().query(
@@ -563,61 +476,20 @@ public class Stats {
                 chunk = 30;
                 break;
         }
-        ArrayList<String> lims = new ArrayList<>(2);
-        if (num != -1) {
-            lims.add("id > " + ((mCol.getSched().getDayCutoff() - ((num + 1) * chunk * SECONDS_PER_DAY)) * 1000));
-        }
-        String lim = _getDeckFilter().replaceAll("[\\[\\]]", "");
-        if (lim.length() > 0) {
-            lims.add(lim);
-        }
-        if (lims.size() > 0) {
-            lim = "WHERE ";
-            while (lims.size() > 1) {
-                lim += lims.remove(0) + " AND ";
-            }
-            lim += lims.remove(0);
-        } else {
-            lim = "";
-        }
-        String ti;
-        String tf;
+        double timeUnit;
         if (charType == ChartType.REVIEW_TIME) {
-            ti = "time/1000.0";
             if (mType == AxisType.TYPE_MONTH) {
-                tf = "/60.0"; // minutes
+                timeUnit = 60.0; // minutes
                 mAxisTitles = new int[] { type.ordinal(), R.string.stats_minutes, R.string.stats_cumulative_time_minutes };
             } else {
-                tf = "/3600.0"; // hours
+                timeUnit = 3600.0; // hours
                 mAxisTitles = new int[] { type.ordinal(), R.string.stats_hours, R.string.stats_cumulative_time_hours };
             }
         } else {
-            ti = "1";
-            tf = "";
-        }
-        ArrayList<double[]> list = new ArrayList<>();
-        String query = "SELECT (cast((id/1000 - " + mCol.getSched().getDayCutoff() + ") / "+SECONDS_PER_DAY+" AS INT))/"
-                + chunk + " AS day, " + "sum(CASE WHEN type = " + Consts.CARD_TYPE_NEW + " THEN " + ti + " ELSE 0 END)"
-                + tf
-                + ", " // lrn
-                + "sum(CASE WHEN type = " + Consts.CARD_TYPE_LRN + " AND lastIvl < 21 THEN " + ti + " ELSE 0 END)" + tf
-                + ", " // yng
-                + "sum(CASE WHEN type = " + Consts.CARD_TYPE_LRN + " AND lastIvl >= 21 THEN " + ti + " ELSE 0 END)" + tf
-                + ", " // mtr
-                + "sum(CASE WHEN type = 2 THEN " + ti + " ELSE 0 END)" + tf + ", " // lapse
-                + "sum(CASE WHEN type = " + Consts.CARD_TYPE_RELEARNING + " THEN " + ti + " ELSE 0 END)" + tf // cram
-                + " FROM revlog " + lim + " GROUP BY day ORDER BY day";
-
-        Timber.d("ReviewCount query: %s", query);
-
-        try (Cursor cur = mCol
-                    .getDb()
-                    .query(query)) {
-            while (cur.moveToNext()) {
-                list.add(new double[] { cur.getDouble(0), cur.getDouble(5), cur.getDouble(1), cur.getDouble(4),
-                        cur.getDouble(2), cur.getDouble(3)});
-            }
+            timeUnit = 0;
         }
+        // day, cram, learn, relearn, young, mature
+        ArrayList<double[]> list = revlog(type).done(chunk, timeUnit);
 
 
         // small adjustment for a proper chartbuilding with achartengine
@@ -713,7 +585,7 @@ public class Stats {
     }
 
 
-    private int getChunk(AxisType axisType) {
+    static int getChunk(AxisType axisType) {
         switch (axisType) {
             case TYPE_MONTH: return 1;
             case TYPE_YEAR: return 7;
@@ -722,7 +594,7 @@ public class Stats {
         }
     }
 
-    private int getNum(AxisType axisType) {
+    static int getNum(AxisType axisType) {
         switch (axisType) {
             case TYPE_MONTH: return 31;
             case TYPE_YEAR: return 52;
@@ -860,40 +732,8 @@ public class Stats {
         mValueLabels = new int[] { R.string.stats_percentage_correct, R.string.stats_answers};
         mColors = new int[] { R.attr.stats_counts, R.attr.stats_hours};
         mType = type;
-        String lim = _getDeckFilter().replaceAll("[\\[\\]]", "");
-
-        if (lim.length() > 0) {
-            lim = " and " + lim;
-        }
-        int rolloverHour;
-        if (mCol.schedVer() == 1) {
-            Calendar sd = mCol.crtGregorianCalendar();
-            rolloverHour = sd.get(Calendar.HOUR_OF_DAY);
-        } else {
-            rolloverHour = mCol.getConf().optInt("rollover", 4);
-        }
-        int pd = _periodDays();
-        if (pd > 0) {
-            lim += " and id > " + ((mCol.getSched().getDayCutoff() -  (SECONDS_PER_DAY * pd)) * 1000);
-        }
-        long cutoff = mCol.getSched().getDayCutoff();
-        long cut = cutoff - rolloverHour * 3600;
-
-        ArrayList<double[]> list = new ArrayList<>(24); // number of hours
-        String query = "select " +
-                "23 - ((cast((" + cut + " - id/1000) / 3600.0 as int)) % 24) as hour, " +
-                "sum(case when ease = 1 then 0 else 1 end) / " +
-                "cast(count() as float) * 100, " +
-                "count() " +
-                "from revlog where type in (" + Consts.CARD_TYPE_NEW + "," + Consts.CARD_TYPE_LRN + "," + Consts.CARD_TYPE_REV + ") " + lim +" " +
-                "group by hour having count() > 30 order by hour";
-        Timber.d("%d : %d breakdown query: %s", rolloverHour, cutoff, query);
-        try (Cursor cur = mCol.getDb()
-                    .query(query)) {
-            while (cur.moveToNext()) {
-                list.add(new double[] { cur.getDouble(0), cur.getDouble(1), cur.getDouble(2) });
-            }
-        }
+        // hour, percentage of correct answers, answers
+        ArrayList<double[]> list = revlog(type).hours();
 
         //TODO adjust for breakdown, for now only copied from intervals
         //small adjustment for a proper chartbuilding with achartengine
@@ -984,38 +824,8 @@ public class Stats {
         mValueLabels = new int[] { R.string.stats_percentage_correct, R.string.stats_answers};
         mColors = new int[] { R.attr.stats_counts, R.attr.stats_hours};
         mType = type;
-        String lim = _getDeckFilter().replaceAll("[\\[\\]]", "");
-
-        if (lim.length() > 0) {
-            lim = " and " + lim;
-        }
-
-        Calendar sd = Time.gregorianCalendar(mCol.getSched().getDayCutoff() * 1000);
-
-        int pd = _periodDays();
-        if (pd > 0) {
-            pd = Math.round( pd / 7 ) * 7;
-            lim += " and id > " + ((mCol.getSched().getDayCutoff() - (SECONDS_PER_DAY * pd)) * 1000);
-        }
-
-        long cutoff = mCol.getSched().getDayCutoff();
-        ArrayList<double[]> list = new ArrayList<>(7); // one by day of the week
-        String query = "SELECT strftime('%w',datetime( cast(id/ 1000  -" + sd.get(Calendar.HOUR_OF_DAY) * 3600 +
-                " as int), 'unixepoch')) as wd, " +
-                "sum(case when ease = 1 then 0 else 1 end) / " +
-                "cast(count() as float) * 100, " +
-                "count() " +
-                "from revlog " +
-                "where type in (" + Consts.CARD_TYPE_NEW + "," + Consts.CARD_TYPE_LRN + "," + Consts.CARD_TYPE_REV + ") " + lim +" " +
-                "group by wd " +
-                "order by wd";
-        Timber.d(sd.get(Calendar.HOUR_OF_DAY) + " : " +cutoff + " weekly breakdown query: %s", query);
-        try (Cursor cur = mCol.getDb()
-                    .query(query)) {
-            while (cur.moveToNext()) {
-                list.add(new double[] { cur.getDouble(0), cur.getDouble(1), cur.getDouble(2) });
-            }
-        }
+        // day of the week, percentage of correct answers, answers
+        ArrayList<double[]> list = revlog(type).weekdays();
 
         //TODO adjust for breakdown, for now only copied from intervals
         // small adjustment for a proper chartbuilding with achartengine
@@ -1138,58 +948,8 @@ public class Stats {
 
 
     private ArrayList<double[]> eases(AxisType type) {
-        String lim = _getDeckFilter().replaceAll("[\\[\\]]", "");
-
-        Vector<String> lims = new Vector<>();
-        int days;
-
-        if (lim.length() > 0) {
-            lims.add(lim);
-        }
-
-        if (type == AxisType.TYPE_MONTH) {
-            days = 30;
-        } else if (type == AxisType.TYPE_YEAR) {
-            days = 365;
-        } else {
-            days = -1;
-        }
-
-        if (days > 0) {
-            lims.add("id > " + ((mCol.getSched().getDayCutoff() - (days * SECONDS_PER_DAY)) * 1000));
-        }
-
-        // Anki Desktop logs a '0' ease for manual reschedules, ignore them https://github.com/ankidroid/Anki-Android/issues/8008
-        lims.add("ease > 0");
-
-        lim = "where " + lims.get(0);
-        for (int i = 1; i < lims.size(); i++) {
-            lim += " and " + lims.get(i);
-        }
-
-        String ease4repl;
-        if (mCol.schedVer() == 1) {
-            ease4repl = "3";
-        } else {
-            ease4repl = "ease";
-        }
-        ArrayList<double[]> list = new ArrayList<>(3 * 4); // 3 thetypes * 4 eases
-        String query = "select (case " +
-                "                when type in (" + Consts.CARD_TYPE_NEW + "," + Consts.CARD_TYPE_REV + ") then 0 " +
-                "        when lastIvl < 21 then 1 " +
-                "        else 2 end) as thetype, " +
-                "        (case when type in (" + Consts.CARD_TYPE_NEW + "," + Consts.CARD_TYPE_REV + ") and ease = 4 then " + ease4repl +" else ease end), count() from revlog " + lim + " " +
-                "        group by thetype, ease " +
-                "        order by thetype, ease";
-        Timber.d("AnswerButtons query: %s", query);
-
-        try (Cursor cur = mCol.getDb()
-                    .query(query)) {
-            while (cur.moveToNext()) {
-                list.add(new double[]{cur.getDouble(0), cur.getDouble(1), cur.getDouble(2)});
-            }
-        }
-        return list;
+        // type, ease, answers
+        return revlog(type).eases();
     }
 
 
@@ -1272,11 +1032,7 @@ public class Stats {
             return Utils.ids2str(ids);
         } else {
             // The given deck id and its children
-            java.util.Collection<Long> values = col.getDecks().children(deckId).values();
-            ArrayList<Long> ids = new ArrayList<>(values.size());
-            ids.add(deckId);
-            ids.addAll(values);
-            return Utils.ids2str(ids);
+            return Utils.ids2str(col.getDecks().deckAndChildIds(deckId));
         }
     }
 
@@ -1289,6 +1045,12 @@ public class Stats {
     }
 
 
+    /** The aggregates of the reviews of the decks over the period of type, shared by all of the charts */
+    private RevlogStats revlog(AxisType type) {
+        return RevlogStats.get(mCol, _getDeckFilter().replaceAll("[\\[\\]]", ""), type);
+    }
+
+
     public static double[][] createCumulative(double[][] nonCumulative) {
         double[][] cumulativeValues = new double[2][nonCumulative[0].length];
         cumulativeValues[0][0] = nonCumulative[0][0];
@@ -1322,11 +1084,6 @@ public class Stats {
         return cumulativeValues;
     }
 
-    private int _periodDays() {
-        return _periodDays(mType);
-    }
-
-
     private int _periodDays(AxisType type) {
         switch (type) {
             case TYPE_MONTH:
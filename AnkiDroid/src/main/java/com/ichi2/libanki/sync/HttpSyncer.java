@@ -59,6 +59,7 @@ import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.SSLException;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
@@ -156,7 +157,7 @@ public class HttpSyncer {
 
     /** Note: Return value must be closed */
     public Response req(String method) throws UnknownHttpResponseException {
-        return req(method, null);
+        return req(method, (InputStream) null);
     }
 
     /** Note: Return value must be closed */
@@ -171,12 +172,39 @@ public class HttpSyncer {
 
     /** Note: Return value must be closed */
     public Response req(String method, InputStream fobj, int comp) throws UnknownHttpResponseException {
-        return req(method, fobj, comp, null);
+        Payload payload = fobj == null ? null : out -> copy(fobj, out);
+        return req(method, payload, comp);
     }
 
+    /**
+     * Send a payload written directly into the compressed request, instead of being built in memory first.
+     * Note: Return value must be closed
+     */
+    public Response req(String method, @NonNull Payload payload) throws UnknownHttpResponseException {
+        return req(method, payload, 6);
+    }
+
+
+    /** Content of a request, written by the caller. */
+    public interface Payload {
+        /** Write the content to out, without closing it. */
+        void writeTo(@NonNull OutputStream out) throws IOException;
+    }
+
+
+    private static void copy(@NonNull InputStream fobj, @NonNull OutputStream out) throws IOException {
+        int len;
+        BufferedInputStream bfobj = new BufferedInputStream(fobj);
+        byte[] chunk = new byte[65536];
+        while ((len = bfobj.read(chunk)) >= 0) {
+            out.write(chunk, 0, len);
+        }
+    }
+
+
     /** Note: Return value must be closed */
     @SuppressWarnings("CharsetObjectCanBeUsed")
-    private Response req(String method, InputStream fobj, int comp, JSONObject registerData) throws UnknownHttpResponseException {
+    private Response req(String method, @Nullable Payload payload, int comp) throws UnknownHttpResponseException {
         File tmpFileBuffer = null;
         try {
             String bdry = "--" + BOUNDARY;
@@ -193,27 +221,20 @@ public class HttpSyncer {
             BufferedOutputStream bos = new BufferedOutputStream(fos);
             GZIPOutputStream tgt;
             // payload as raw data or json
-            if (fobj != null) {
+            if (payload != null) {
                 // header
                 buf.write(bdry + "\r\n");
                 buf.write("Content-Disposition: form-data; name=\"data\"; filename=\"data\"\r\nContent-Type: application/octet-stream\r\n\r\n");
                 buf.close();
                 bos.write(buf.toString().getBytes("UTF-8"));
-                // write file into buffer, optionally compressing
-                int len;
-                BufferedInputStream bfobj = new BufferedInputStream(fobj);
-                byte[] chunk = new byte[65536];
+                // write payload into buffer, optionally compressing
                 if (comp != 0) {
                     tgt = new GZIPOutputStream(bos);
-                    while ((len = bfobj.read(chunk)) >= 0) {
-                        tgt.write(chunk, 0, len);
-                    }
+                    payload.writeTo(tgt);
                     tgt.close();
                     bos = new BufferedOutputStream(new FileOutputStream(tmpFileBuffer, true));
                 } else {
-                    while ((len = bfobj.read(chunk)) >= 0) {
-                        bos.write(chunk, 0, len);
-                    }
+                    payload.writeTo(bos);
                 }
                 bos.write(("\r\n" + bdry + "--\r\n").getBytes("UTF-8"));
             } else {
@@ -35,9 +35,12 @@ import com.ichi2.utils.JSONObject;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipFile;
 
 import timber.log.Timber;
@@ -121,6 +124,7 @@ public class MediaSyncer {
                 }
 
                 List<String> need = new ArrayList<>(data.length());
+                List<String> clean = new ArrayList<>(data.length());
                 lastUsn = data.getJSONArray(data.length()-1).getInt(1);
                 for (int i = 0; i < data.length(); i++) {
                     // Allow cancellation (note: media sync has no finish command, so just throw)
@@ -155,8 +159,8 @@ public class MediaSyncer {
                         } else {
                             mCol.log("have same already");
                         }
-                        mCol.getMedia().markClean(Collections.singletonList(fname));
-                        
+                        clean.add(fname);
+
                     } else if (!TextUtils.isEmpty(lsum)) {
                         // deleted remotely
                         if (ldirty == 0) {
@@ -169,9 +173,10 @@ public class MediaSyncer {
                     } else {
                         // deleted both sides
                         mCol.log("both sides deleted");
-                        mCol.getMedia().markClean(Collections.singletonList(fname));
+                        clean.add(fname);
                     }
                 }
+                mCol.getMedia().markClean(clean);
                 _downloadFiles(need);
 
                 mCol.log("update last usn to " + lastUsn);
@@ -236,30 +241,92 @@ public class MediaSyncer {
     }
 
 
+    /**
+     * Download the files by zips of at most {@link Consts#SYNC_ZIP_COUNT} files. The server may send fewer files than
+     * asked, so the next zip can only be asked once the previous one is received; it is then downloaded while the
+     * previous one is extracted.
+     */
     private void _downloadFiles(List<String> fnames) {
         mCol.log(fnames.size() + " files to fetch");
-        while (fnames.size() > 0) {
-            try {
-                List<String> top = fnames.subList(0, Math.min(fnames.size(), Consts.SYNC_ZIP_COUNT));
-                mCol.log("fetch " + top);
-                ZipFile zipData = mServer.downloadFiles(top);
+        if (fnames.isEmpty()) {
+            return;
+        }
+        ExecutorService downloader = Executors.newSingleThreadExecutor();
+        Future<ZipFile> next = null;
+        try {
+            next = _downloadZip(downloader, fnames, 0);
+            int fetched = 0;
+            while (next != null) {
+                ZipFile zipData = next.get();
+                // all the entries but _meta are files
+                fetched += zipData.size() - 1;
+                next = fetched < fnames.size() ? _downloadZip(downloader, fnames, fetched) : null;
                 int cnt = mCol.getMedia().addFilesFromZip(zipData);
                 mDownloadCount += cnt;
                 mCol.log("received " + cnt + " files");
-                // NOTE: The python version uses slices which return an empty list when indexed beyond what
-                // the list contains. Since we can't slice out an empty sublist in Java, we must check
-                // if we've reached the end and clear the fnames list manually.
-                if (cnt == fnames.size()) {
-                    fnames.clear();
-                } else {
-                    fnames = fnames.subList(cnt, fnames.size());
-                }
                 mCon.publishProgress(String.format(
                         AnkiDroidApp.getAppResources().getString(R.string.sync_media_downloaded_count), mDownloadCount));
-            } catch (IOException | UnknownHttpResponseException e) {
-                Timber.e(e, "Error downloading media files");
-                throw new RuntimeException(e);
             }
+        } catch (IOException e) {
+            Timber.e(e, "Error downloading media files");
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Timber.e(e, "Error downloading media files");
+            // rethrow what the download threw, e.g. the user aborting the sync
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            if (next != null && !next.cancel(true)) {
+                // the next zip was already downloaded, but will not be extracted
+                _discardZip(next);
+            }
+            downloader.shutdown();
+        }
+    }
+
+
+    /** Start downloading the zip of the files of fnames from index from. */
+    private Future<ZipFile> _downloadZip(ExecutorService downloader, List<String> fnames, int from) {
+        List<String> top = new ArrayList<>(fnames.subList(from, Math.min(fnames.size(), from + Consts.SYNC_ZIP_COUNT)));
+        mCol.log("fetch " + top);
+        return downloader.submit(() -> {
+            ZipFile zip = mServer.downloadFiles(top);
+            if (Thread.currentThread().isInterrupted()) {
+                // cancelled while downloading, no one will get the zip
+                _discardZip(zip);
+            }
+            return zip;
+        });
+    }
+
+
+    /** Close the zip of a finished download, if there is one, and delete its file. */
+    private static void _discardZip(Future<ZipFile> download) {
+        try {
+            _discardZip(download.get());
+        } catch (ExecutionException e) {
+            // nothing was downloaded
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static void _discardZip(ZipFile zip) {
+        try {
+            zip.close();
+        } catch (IOException e) {
+            Timber.w(e, "Could not close the downloaded media zip");
         }
+        new File(zip.getName()).delete();
     }
 }
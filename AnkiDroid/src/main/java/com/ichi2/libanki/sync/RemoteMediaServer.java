@@ -115,17 +115,25 @@ public class RemoteMediaServer extends HttpSyncer {
      */
     public ZipFile downloadFiles(List<String> top) throws UnknownHttpResponseException {
         Response resp = null;
+        File zip = null;
+        ZipFile zipFile = null;
         try {
             resp = super.req("downloadFiles",
                     HttpSyncer.getInputStream(Utils.jsonToString(new JSONObject().put("files", new JSONArray(top)))));
-            String zipPath = mCol.getPath().replaceFirst("collection\\.anki2$", "tmpSyncFromServer.zip");
+            // the next zip may be downloaded while the previous one is extracted, so each needs its own file
+            zip = File.createTempFile("tmpSyncFromServer", ".zip", new File(mCol.getPath()).getParentFile());
             // retrieve contents and save to file on disk:
-            super.writeToFile(resp.body().byteStream(), zipPath);
-            return new ZipFile(new File(zipPath), ZipFile.OPEN_READ | ZipFile.OPEN_DELETE);
+            super.writeToFile(resp.body().byteStream(), zip.getAbsolutePath());
+            zipFile = new ZipFile(zip, ZipFile.OPEN_READ | ZipFile.OPEN_DELETE);
+            return zipFile;
         } catch (IOException | NullPointerException e) {
             Timber.e(e, "Failed to download requested media files");
             throw new RuntimeException(e);
         } finally {
+            // a partial zip is not deleted by anything else, as its name is unique
+            if (zipFile == null && zip != null && !zip.delete()) {
+                Timber.w("Could not delete the partial media zip %s", zip);
+            }
             if (resp != null && resp.body() != null) {
                 resp.body().close();
             }
@@ -17,6 +17,8 @@
 
 package com.ichi2.libanki.sync;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.ichi2.anki.exception.UnknownHttpResponseException;
 import com.ichi2.async.Connection;
 import com.ichi2.libanki.Consts;
@@ -26,10 +28,14 @@ import com.ichi2.utils.VersionUtils;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Locale;
 
+import androidx.annotation.NonNull;
 import okhttp3.Response;
 
 @SuppressWarnings({"PMD.AvoidThrowingRawExceptionTypes","PMD.MethodNamingConventions"})
@@ -76,14 +82,34 @@ public class RemoteServer extends HttpSyncer {
     }
 
 
-    public JSONObject chunk() throws UnknownHttpResponseException {
-        JSONObject co = new JSONObject();
-        return parseDict(_run("chunk", co));
+    /**
+     * Download the next chunk of the server and merge it into the client's collection as it is read.
+     * @return Whether it was the last chunk
+     */
+    public boolean chunk(@NonNull Syncer client) throws UnknownHttpResponseException, IOException {
+        try (Response ret = super.req("chunk", HttpSyncer.getInputStream(Utils.jsonToString(new JSONObject())));
+             JsonReader reader = new JsonReader(ret.body().charStream())) {
+            return client.applyChunk(reader);
+        }
     }
 
 
-    public void applyChunk(JSONObject sech) throws UnknownHttpResponseException {
-        _run("applyChunk", sech);
+    /**
+     * Send the next chunk of the client, written directly into the request.
+     * @return Whether it was the last chunk
+     */
+    public boolean applyChunk(@NonNull Syncer client) throws UnknownHttpResponseException {
+        boolean[] done = {false};
+        try (Response ignored = super.req("applyChunk", out -> {
+            // not closed, as it would close the request
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            writer.beginObject().name("chunk");
+            done[0] = client.chunk(writer);
+            writer.endObject();
+            writer.flush();
+        })) {
+            return done[0];
+        }
     }
 
     public JSONObject sanityCheck2(JSONObject client) throws UnknownHttpResponseException {
@@ -18,10 +18,11 @@
 package com.ichi2.libanki.sync;
 
 import android.database.Cursor;
-import android.database.SQLException;
 import android.util.Pair;
 
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.ichi2.anki.AnkiDroidApp;
 import com.ichi2.anki.R;
 import com.ichi2.anki.analytics.UsageAnalytics;
@@ -68,6 +69,8 @@ public class Syncer {
 
     /** The libAnki value of `sched.mReportLimit` */
     private static final int SYNC_SCHEDULER_REPORT_LIMIT = 1000;
+    /** Number of received rows merged together. */
+    private static final int MERGE_BATCH_SIZE = 100;
 
     private final Collection mCol;
     private final RemoteServer mRemoteServer;
@@ -237,12 +240,8 @@ public class Syncer {
                 publishProgress(con, R.string.sync_download_chunk);
                 while (true) {
                     throwExceptionIfCancelled(con);
-                    Timber.i("Sync: downloading chunked data");
-                    JSONObject chunk = mRemoteServer.chunk();
-                    mCol.log("server chunk", chunk);
-                    Timber.i("Sync: applying chunked data");
-                    applyChunk(chunk);
-                    if (chunk.getBoolean("done")) {
+                    Timber.i("Sync: downloading and applying chunked data");
+                    if (mRemoteServer.chunk(this)) {
                         break;
                     }
                 }
@@ -250,14 +249,8 @@ public class Syncer {
                 publishProgress(con, R.string.sync_upload_chunk);
                 while (true) {
                     throwExceptionIfCancelled(con);
-                    Timber.i("Sync: collecting chunked data");
-                    JSONObject chunk = chunk();
-                    mCol.log("client chunk", chunk);
-                    JSONObject sech = new JSONObject();
-                    sech.put("chunk", chunk);
-                    Timber.i("Sync: sending chunked data");
-                    mRemoteServer.applyChunk(sech);
-                    if (chunk.getBoolean("done")) {
+                    Timber.i("Sync: collecting and sending chunked data");
+                    if (mRemoteServer.applyChunk(this)) {
                         break;
                     }
                 }
@@ -561,40 +554,45 @@ public class Syncer {
     }
 
 
-    public JSONObject chunk() {
-        JSONObject buf = new JSONObject();
-        buf.put("done", false);
+    /**
+     * Write the next chunk of revlog, cards and notes to send, as a JSON object whose "done" member tells whether it is
+     * the last one. Rows are written as they are read from the database, so that the chunk is never in memory.
+     *
+     * @return Whether this is the last chunk
+     */
+    public boolean chunk(@NonNull JsonWriter writer) throws IOException {
+        writer.beginObject();
         int lim = 250;
-        List<Integer> colTypes = null;
         while (!mTablesLeft.isEmpty() && lim > 0) {
             String curTable = mTablesLeft.getFirst();
             if (mCursor == null) {
                 mCursor = cursorForTable(curTable);
             }
-            colTypes = columnTypesForQuery(curTable);
-            JSONArray rows = new JSONArray();
+            List<Integer> colTypes = columnTypesForQuery(curTable);
+            writer.name(curTable).beginArray();
             int count = mCursor.getColumnCount();
             int fetched = 0;
             while (mCursor.moveToNext()) {
-                JSONArray r = new JSONArray();
+                writer.beginArray();
                 for (int i = 0; i < count; i++) {
                     switch (colTypes.get(i)) {
                     case TYPE_STRING:
-                        r.put(mCursor.getString(i));
+                        writer.value(mCursor.getString(i));
                         break;
                     case TYPE_FLOAT:
-                        r.put(mCursor.getDouble(i));
+                        writer.value(mCursor.getDouble(i));
                         break;
                     case TYPE_INTEGER:
-                        r.put(mCursor.getLong(i));
+                        writer.value(mCursor.getLong(i));
                         break;
                     }
                 }
-                rows.put(r);
+                writer.endArray();
                 if (++fetched == lim) {
                     break;
                 }
             }
+            writer.endArray();
             if (fetched != lim) {
                 // table is empty
                 mTablesLeft.removeFirst();
@@ -605,26 +603,107 @@ public class Syncer {
                     mCol.getDb().execute("UPDATE " + curTable + " SET usn=? WHERE usn=-1", mMaxUsn);
                 }
             }
-            buf.put(curTable, rows);
             lim -= fetched;
         }
-        if (mTablesLeft.isEmpty()) {
-            buf.put("done", true);
+        boolean done = mTablesLeft.isEmpty();
+        writer.name("done").value(done);
+        writer.endObject();
+        return done;
+    }
+
+
+    /**
+     * Apply a chunk written by the other side's {@link #chunk(JsonWriter)}. Rows are merged by batches as they are read,
+     * so that the chunk is never in memory.
+     *
+     * @return Whether this was the last chunk
+     */
+    public boolean applyChunk(@NonNull JsonReader reader) throws IOException {
+        boolean done = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "done":
+                    done = reader.nextBoolean();
+                    break;
+                case "revlog":
+                case "cards":
+                case "notes":
+                    mergeRows(reader, name);
+                    break;
+                default:
+                    reader.skipValue();
+            }
         }
-        return buf;
+        reader.endObject();
+        return done;
     }
 
 
-    public void applyChunk(JSONObject chunk) {
-        if (chunk.has("revlog")) {
-            mergeRevlog(chunk.getJSONArray("revlog"));
+    private void mergeRows(@NonNull JsonReader reader, @NonNull String table) throws IOException {
+        List<Object[]> rows = new ArrayList<>(MERGE_BATCH_SIZE);
+        int merged = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            rows.add(readRow(reader));
+            if (rows.size() == MERGE_BATCH_SIZE) {
+                mergeRows(rows, table);
+                merged += rows.size();
+                rows.clear();
+            }
+        }
+        reader.endArray();
+        if (!rows.isEmpty()) {
+            mergeRows(rows, table);
+            merged += rows.size();
         }
-        if (chunk.has("cards")) {
-            mergeCards(chunk.getJSONArray("cards"));
+        mCol.log(table, merged);
+    }
+
+
+    private void mergeRows(@NonNull List<Object[]> rows, @NonNull String table) {
+        switch (table) {
+            case "revlog":
+                mergeRevlog(rows);
+                break;
+            case "cards":
+                mergeCards(rows);
+                break;
+            case "notes":
+                mergeNotes(rows);
+                break;
         }
-        if (chunk.has("notes")) {
-            mergeNotes(chunk.getJSONArray("notes"));
+    }
+
+
+    /** @return The values of a row, as Long, Double, String or null, in the types bound by DB.executeMany */
+    private static @NonNull Object[] readRow(@NonNull JsonReader reader) throws IOException {
+        List<Object> row = new ArrayList<>(18);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    row.add(null);
+                    break;
+                case NUMBER:
+                    String number = reader.nextString();
+                    try {
+                        row.add(Long.parseLong(number));
+                    } catch (NumberFormatException e) {
+                        row.add(Double.parseDouble(number));
+                    }
+                    break;
+                case BOOLEAN:
+                    row.add(reader.nextBoolean() ? 1L : 0L);
+                    break;
+                default:
+                    row.add(reader.nextString());
+            }
         }
+        reader.endArray();
+        return row.toArray();
     }
 
 
@@ -842,61 +921,60 @@ public class Syncer {
      * Cards/notes/revlog ********************************************************************
      */
 
-    private void mergeRevlog(JSONArray logs) {
-        for (JSONArray log: logs.jsonArrayIterable()) {
-            try {
-                mCol.getDb().execute("INSERT OR IGNORE INTO revlog VALUES (?,?,?,?,?,?,?,?,?)",
-                        Utils.jsonArray2Objects(log));
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
+    private void mergeRevlog(List<Object[]> rows) {
+        mCol.getDb().executeMany("INSERT OR IGNORE INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", rows);
+        mCol.getReviewRollup().refresh(rows);
     }
 
 
-    private ArrayList<Object[]> newerRows(JSONArray data, String table, int modIdx) {
-        long[] ids = new long[data.length()];
-        for (int i = 0; i < data.length(); i++) {
-            ids[i] = data.getJSONArray(i).getLong(0);
+    private ArrayList<Object[]> newerRows(List<Object[]> data, String table, int modIdx) {
+        long[] ids = new long[data.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ((Number) data.get(i)[0]).longValue();
         }
         Pair<String, Object[]> limAndArg = usnLim();
-        Map<Long, Long> lmods = new HashMap<>(mCol
-                    .getDb()
-                    .queryScalar(
-                            "SELECT count() FROM " + table + " WHERE id IN " + Utils.ids2str(ids) + " AND "
-                                    +  limAndArg.first, limAndArg.second));
-        try (Cursor cur = mCol
+        Map<Long, Long> lmods = new HashMap<>(data.size());
+        try (DB.IdTable sids = mCol.getDb().idTable(ids);
+             Cursor cur = mCol
                     .getDb()
                     .query(
-                            "SELECT id, mod FROM " + table + " WHERE id IN " + Utils.ids2str(ids) + " AND "
+                            "SELECT id, mod FROM " + table + " WHERE id IN " + sids.getName() + " AND "
                                     +  limAndArg.first, limAndArg.second)) {
             while (cur.moveToNext()) {
                 lmods.put(cur.getLong(0), cur.getLong(1));
             }
         }
-        ArrayList<Object[]> update = new ArrayList<>(data.length());
-        for (JSONArray r: data.jsonArrayIterable()) {
-            if (!lmods.containsKey(r.getLong(0)) || lmods.get(r.getLong(0)) < r.getLong(modIdx)) {
-                update.add(Utils.jsonArray2Objects(r));
+        ArrayList<Object[]> update = new ArrayList<>(data.size());
+        for (Object[] r : data) {
+            Long lmod = lmods.get(((Number) r[0]).longValue());
+            if (lmod == null || lmod < ((Number) r[modIdx]).longValue()) {
+                update.add(r);
             }
         }
-        mCol.log(table, data);
         return update;
     }
 
 
-    private void mergeCards(JSONArray cards) {
-        for (Object[] r : newerRows(cards, "cards", 4)) {
-            mCol.getDb().execute("INSERT OR REPLACE INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", r);
-        }
+    private void mergeCards(List<Object[]> cards) {
+        mCol.getDb().executeMany("INSERT OR REPLACE INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)",
+                newerRows(cards, "cards", 4));
+        mCol.getSched().invalidateDueCounts();
     }
 
 
-    private void mergeNotes(JSONArray notes) {
-        for (Object[] n : newerRows(notes, "notes", 4)) {
-            mCol.getDb().execute("INSERT OR REPLACE INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", n);
-            mCol.updateFieldCache(new long[]{((Number) n[0]).longValue()});
+    private void mergeNotes(List<Object[]> notes) {
+        ArrayList<Object[]> rows = newerRows(notes, "notes", 4);
+        if (rows.isEmpty()) {
+            return;
+        }
+        mCol.getDb().executeMany("INSERT OR REPLACE INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", rows);
+        long[] nids = new long[rows.size()];
+        for (int i = 0; i < nids.length; i++) {
+            nids[i] = ((Number) rows.get(i)[0]).longValue();
+        }
+        mCol.updateFieldCache(nids);
+        try (DB.IdTable snids = mCol.getDb().idTable(nids)) {
+            mCol.getTagIndex().update(snids.getName());
         }
     }
 
@@ -2,6 +2,7 @@ package com.ichi2.libanki.template;
 
 import android.content.Context;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.util.Pair;
 
 import com.ichi2.anki.R;
@@ -15,7 +16,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -49,10 +49,25 @@ public abstract class ParsedNode {
     public abstract void render_into(Map<String, String> fields, Set<String> nonempty_fields, StringBuilder builder) throws TemplateError;
 
 
+    /** Maximal number of templates whose tree is kept in memory. */
+    private static final int PARSE_INNER_CACHE_SIZE = 256;
+
     /**
-     * Associate to each template its node, or the error it generates
+     * Associate to each template its node, or the error it generates.
+     * The least recently used templates are forgotten first. LruCache is thread safe, templates are rendered from the
+     * UI thread as well as from background tasks.
      */
-    private static WeakHashMap<String, Pair<ParsedNode, TemplateError>> parse_inner_cache = new WeakHashMap<>();
+    private static final LruCache<String, Pair<ParsedNode, TemplateError>> parse_inner_cache = new LruCache<String, Pair<ParsedNode, TemplateError>>(PARSE_INNER_CACHE_SIZE) {
+        @Override
+        protected Pair<ParsedNode, TemplateError> create(@NonNull String template) {
+            try {
+                ParsedNode node = parse_inner(new Tokenizer(template));
+                return new Pair<>(node, null);
+            } catch (TemplateError er) {
+                return new Pair<>(null, er);
+            }
+        }
+    };
 
     /**
      * @param template A question or answer template
@@ -60,16 +75,6 @@ public abstract class ParsedNode {
      * @throws TemplateError if the template is not valid
      */
     public static @NonNull ParsedNode parse_inner(@NonNull String template) throws TemplateError{
-        if (!parse_inner_cache.containsKey(template)) {
-            Pair<ParsedNode, TemplateError> res;
-            try {
-                ParsedNode node = parse_inner(new Tokenizer(template));
-                res = new Pair<>(node, null);
-            } catch (TemplateError er) {
-                res = new Pair<>(null, er);
-            }
-            parse_inner_cache.put(template, res);
-        }
         Pair<ParsedNode, TemplateError> res = parse_inner_cache.get(template);
         if (res.first != null) {
             return res.first;
@@ -77,6 +82,16 @@ public abstract class ParsedNode {
         throw res.second;
     }
 
+    /** @return The number of times a template tree was found in the cache. */
+    public static int getParseCacheHitCount() {
+        return parse_inner_cache.hitCount();
+    }
+
+    /** @return The number of times a template had to be parsed. */
+    public static int getParseCacheMissCount() {
+        return parse_inner_cache.missCount();
+    }
+
     /**
      * @param tokens An iterator returning a list of token obtained from a template
      * @return A tree representing the template
@@ -9,6 +9,7 @@ import com.ichi2.libanki.Utils;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,6 +25,14 @@ public class TemplateFilters {
     public static final String CLOZE_DELETION_REPLACEMENT = "[...]";
     private static final Pattern fHookFieldMod = Pattern.compile("^(.*?)(?:\\((.*)\\))?$");
     public static final String clozeReg = "(?si)\\{\\{(c)%s::(.*?)(::(.*?))?\\}\\}";
+    private static final Pattern fAnyClozePattern = Pattern.compile(String.format(Locale.US, clozeReg, "\\d+"));
+
+    /**
+     * clozeReg and the regex of removeFormattingFromMathjax compiled for each ordinal already used. There are only a
+     * few distinct ordinals in a collection, and compiling those regexes was the main cost of rendering cloze fields.
+     */
+    private static final ConcurrentHashMap<String, Pattern> fClozePatterns = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Pattern> fMathJaxClozePatterns = new ConcurrentHashMap<>();
 
 
     /**
@@ -121,13 +130,28 @@ public class TemplateFilters {
     }
 
 
+    /**
+     * @param ord A cloze ordinal, or a regex matching the ordinals
+     * @return clozeReg for this ordinal
+     */
+    public static @NonNull Pattern clozePattern(@NonNull String ord) {
+        Pattern pattern = fClozePatterns.get(ord);
+        if (pattern == null) {
+            pattern = Pattern.compile(String.format(Locale.US, clozeReg, ord));
+            fClozePatterns.putIfAbsent(ord, pattern);
+        }
+        return pattern;
+    }
+
+
     private static @NonNull String clozeText(@NonNull String txt, @NonNull String ord, char type) {
-        if (!Pattern.compile(String.format(Locale.US, clozeReg, ord)).matcher(txt).find()) {
+        Pattern clozePattern = clozePattern(ord);
+        if (!clozePattern.matcher(txt).find()) {
             return "";
         }
 
         txt = removeFormattingFromMathjax(txt, ord);
-        Matcher m = Pattern.compile(String.format(Locale.US, clozeReg, ord)).matcher(txt);
+        Matcher m = clozePattern.matcher(txt);
 
         StringBuffer repl = new StringBuffer();
         while (m.find()) {
@@ -144,14 +168,14 @@ public class TemplateFilters {
             }
 
             if ("c".equals(m.group(1))) {
-                buf = String.format("<span class=cloze>%s</span>", buf);
+                buf = "<span class=cloze>" + buf + "</span>";
             }
 
             m.appendReplacement(repl, Matcher.quoteReplacement(buf));
         }
         txt = m.appendTail(repl).toString();
         // and display other clozes normally
-        return txt.replaceAll(String.format(Locale.US, clozeReg, "\\d+"), "$2");
+        return fAnyClozePattern.matcher(txt).replaceAll("$2");
     }
 
     /**
@@ -165,7 +189,10 @@ public class TemplateFilters {
      * Cloze in a <span>".
      */
     public static @NonNull String removeFormattingFromMathjax(@NonNull String txt, @NonNull String ord) {
-        String creg = clozeReg.replace("(?si)", "");
+        if (txt.indexOf('\\') == -1) {
+            // No MathJax opening, so nothing to mark
+            return txt;
+        }
         // Scan the string left to right.
         // After a MathJax opening - \( or \[ - flip in_mathjax to True.
         // After a MathJax closing - \) or \] - flip in_mathjax to False.
@@ -174,18 +201,9 @@ public class TemplateFilters {
         //
         // TODO: Report mismatching opens/closes - e.g. '\(\]'
         // TODO: Report errors in this method better than printing to stdout.
-        // flags in middle of expression deprecated
         boolean in_mathjax = false;
 
-        // The following regex matches one of 3 things, noted below:
-        String regex = "(?si)" +
-                "(\\\\[(\\[])|" +  // group 1, MathJax opening
-                "(\\\\[])])|" +  // group 2, MathJax close
-                "(" +              // group 3, Cloze deletion number `ord`
-                String.format(Locale.US, creg, ord) +
-                ")";
-
-        Matcher m = Pattern.compile(regex).matcher(txt);
+        Matcher m = mathJaxClozePattern(ord).matcher(txt);
 
         StringBuffer repl = new StringBuffer();
         while (m.find()) {
@@ -218,4 +236,25 @@ public class TemplateFilters {
         return m.appendTail(repl).toString();
     }
 
+
+    /**
+     * @return The regex used by removeFormattingFromMathjax for this ordinal
+     */
+    private static @NonNull Pattern mathJaxClozePattern(@NonNull String ord) {
+        Pattern pattern = fMathJaxClozePatterns.get(ord);
+        if (pattern == null) {
+            // flags in middle of expression deprecated
+            String creg = clozeReg.replace("(?si)", "");
+            // The following regex matches one of 3 things, noted below:
+            String regex = "(?si)" +
+                    "(\\\\[(\\[])|" +  // group 1, MathJax opening
+                    "(\\\\[])])|" +  // group 2, MathJax close
+                    "(" +              // group 3, Cloze deletion number `ord`
+                    String.format(Locale.US, creg, ord) +
+                    ")";
+            pattern = Pattern.compile(regex);
+            fMathJaxClozePatterns.putIfAbsent(ord, pattern);
+        }
+        return pattern;
+    }
 }
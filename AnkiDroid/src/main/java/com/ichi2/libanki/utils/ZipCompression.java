@@ -0,0 +1,100 @@
+package com.ichi2.libanki.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Choice of the compression of the files added to a zip, shared by media sync, package export and backups.
+ *
+ * Most media bytes are images, sounds and videos, whose formats are already compressed: deflating them again costs
+ * a lot of CPU for almost no gain. They are stored instead; text-like files are still deflated.
+ */
+public class ZipCompression {
+    /** Extensions of formats which are compressed already */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "ogg", "oga", "opus", "m4a", "aac", "flac", "spx",
+            "mp4", "m4v", "webm", "mkv", "mov", "avi", "3gp",
+            "zip", "gz", "7z", "apkg", "colpkg", "woff", "woff2"));
+    /** Number of bytes read to estimate whether a file is compressed */
+    private static final int PROBE_SIZE = 4096;
+    /** Entropy, in bits per byte, above which a probe is considered compressed */
+    private static final double COMPRESSED_ENTROPY = 7.5;
+
+
+    /**
+     * Set the method of entry, which will contain file: STORED if the file is compressed already, with the size and
+     * the CRC that such entries require, and DEFLATED otherwise.
+     */
+    public static void setMethod(@NonNull ZipEntry entry, @NonNull File file) throws IOException {
+        if (!isCompressed(file)) {
+            entry.setMethod(ZipEntry.DEFLATED);
+            return;
+        }
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[32 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        }
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(file.length());
+        entry.setCompressedSize(file.length());
+        entry.setCrc(crc.getValue());
+    }
+
+
+    /** Whether deflating file would be a waste of time, according to its extension or to the entropy of its start. */
+    @VisibleForTesting
+    static boolean isCompressed(@NonNull File file) throws IOException {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        if (file.length() < PROBE_SIZE) {
+            // not worth a probe, deflating it is fast anyway
+            return false;
+        }
+        byte[] probe = new byte[PROBE_SIZE];
+        int length = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            int count;
+            while (length < probe.length && (count = in.read(probe, length, probe.length - length)) != -1) {
+                length += count;
+            }
+        }
+        return entropy(probe, length) > COMPRESSED_ENTROPY;
+    }
+
+
+    /** Shannon entropy of the first length bytes of data, in bits per byte */
+    private static double entropy(byte[] data, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+}
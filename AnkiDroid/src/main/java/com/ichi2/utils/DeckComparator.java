@@ -1,5 +1,6 @@
 package com.ichi2.utils;
 
+import com.ichi2.libanki.Deck;
 import com.ichi2.utils.DeckNameComparator;
 import com.ichi2.utils.JSONObject;
 
@@ -10,6 +11,10 @@ public class DeckComparator implements Comparator<JSONObject> {
 
     @Override
     public int compare(JSONObject lhs, JSONObject rhs) {
+        if (lhs instanceof Deck && rhs instanceof Deck) {
+            // the decks keep their split names
+            return DeckNameComparator.comparePaths(((Deck) lhs).getDeckName().getPath(), ((Deck) rhs).getDeckName().getPath());
+        }
         return DeckNameComparator.instance.compare(lhs.getString("name"), rhs.getString("name"));
     }
 }
@@ -9,8 +9,12 @@ public class DeckNameComparator implements Comparator<String> {
 
     @Override
     public int compare(String lhs, String rhs) {
-        String[] o1 = Decks.path(lhs);
-        String[] o2 = Decks.path(rhs);
+        return comparePaths(Decks.path(lhs), Decks.path(rhs));
+    }
+
+
+    /** Compare two names by their components, see {@link Decks#path(String)} */
+    public static int comparePaths(String[] o1, String[] o2) {
         for (int i = 0; i < Math.min(o1.length, o2.length); i++) {
             int result = o1[i].compareToIgnoreCase(o2[i]);
             if (result != 0) {
@@ -17,7 +17,12 @@
 package com.ichi2.anki;
 
 import com.ichi2.async.CollectionTask;
+import com.ichi2.compat.CompatHelper;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Deck;
+import com.ichi2.libanki.Storage;
 import com.ichi2.testutils.AnkiAssert;
+import com.ichi2.utils.JSONObject;
 
 import org.junit.Ignore;
 import org.junit.Test;
@@ -25,6 +30,9 @@ import org.junit.runner.RunWith;
 import org.robolectric.shadows.ShadowStatFs;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
@@ -50,6 +58,51 @@ public class BackupManagerIntegrationTest extends RobolectricTest {
     }
 
 
+    @Test
+    public void restoredBackupContainsDecksStoredSeparately() throws Exception {
+        AnkiDroidApp.getSharedPrefs(getTargetContext()).edit().putBoolean("decksStoredSeparately", true).apply();
+        Collection col = getCol();
+        long did = col.getDecks().id("backed up");
+        col.save();
+        Deck deck = col.getDecks().get(did);
+        deck.put("desc", "changed");
+        col.getDecks().save(deck);
+        col.save();
+        assertThat(col.getDb().queryScalar("SELECT count() FROM deck_rows"), is(1));
+
+        File restored = restoreBackup(createBackup());
+
+        Collection restoredCol = Storage.Collection(getTargetContext(), restored.getAbsolutePath());
+        try {
+            // other clients only read the col table
+            JSONObject decks = new JSONObject(restoredCol.getDb().queryString("SELECT decks FROM col"));
+            assertThat(decks.getJSONObject(Long.toString(did)).getString("desc"), is("changed"));
+            assertThat(restoredCol.getDecks().get(did).getString("desc"), is("changed"));
+        } finally {
+            restoredCol.close();
+        }
+    }
+
+
+    /** Extracts the collection of a backup, once the backup thread finished writing it. */
+    private File restoreBackup(String backupPath) throws Exception {
+        File restored = new File(new File(getCol().getPath()).getParentFile(), "restored.anki2");
+        long time = System.currentTimeMillis();
+        while (true) {
+            try (ZipFile zip = new ZipFile(backupPath)) {
+                ZipEntry entry = zip.getEntry(CollectionHelper.COLLECTION_FILENAME);
+                CompatHelper.getCompat().copyFile(zip.getInputStream(entry), restored.getAbsolutePath());
+                return restored;
+            } catch (IOException e) {
+                // the backup is not complete yet
+                if (System.currentTimeMillis() - time > 1000) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+
     private String createBackup() {
         int blockCount = 100000;
         ShadowStatFs.registerStats(new File(getCol().getPath()).getParentFile().getPath(), blockCount, blockCount, blockCount);
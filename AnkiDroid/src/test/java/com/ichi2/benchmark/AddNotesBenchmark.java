@@ -0,0 +1,74 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Model;
+import com.ichi2.libanki.Note;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Time to add a note with a card in a given deck, as the content provider does for the notes that other apps send in
+ * bulk: the benchmark.cards notes are added to an empty collection.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AddNotesBenchmark extends LibAnkiBenchmark {
+    private final List<String[]> mFields = new ArrayList<>();
+    private final List<String> mTags = new ArrayList<>();
+    private Model mModel;
+    private long mDid;
+
+
+    @Before
+    public void generateNotes() {
+        mModel = getCol().getModels().byName("Basic");
+        mDid = addDeck("Bulk");
+        for (int i = 0; i < getCardCount(); i++) {
+            mFields.add(new String[] {String.format(Locale.US, "front %d", i), "back"});
+            mTags.add(String.format(Locale.US, "tag%d common", i % 100));
+        }
+    }
+
+
+    private void removeNotes() {
+        getCol().getDb().execute("DELETE FROM cards");
+        getCol().getDb().execute("DELETE FROM notes");
+    }
+
+
+    /** One addNote by note, followed by moving its cards to the deck, as the content provider used to */
+    @Test
+    public void addNote() throws Exception {
+        Collection col = getCol();
+        measure("addNote", new HashMap<>(), getCardCount(), this::removeNotes, () -> col.getDb().executeInTransaction(() -> {
+            for (int i = 0; i < mFields.size(); i++) {
+                Note note = col.newNote(mModel);
+                note.setField(0, mFields.get(i)[0]);
+                note.setField(1, mFields.get(i)[1]);
+                note.setTagsFromStr(mTags.get(i));
+                col.addNote(note);
+                for (Card card : note.cards()) {
+                    card.setDid(mDid);
+                    card.flush();
+                }
+            }
+        }));
+    }
+
+
+    @Test
+    public void addNotes() throws Exception {
+        Collection col = getCol();
+        measure("addNotes", new HashMap<>(), getCardCount(), this::removeNotes, () -> col.getDb().executeInTransaction(() ->
+                col.addNotes(mModel, mFields, mTags, mDid)));
+    }
+}
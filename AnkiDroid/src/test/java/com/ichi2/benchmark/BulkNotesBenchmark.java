@@ -0,0 +1,71 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DB;
+import com.ichi2.libanki.Finder;
+import com.ichi2.libanki.Utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Time of operations given the ids of all the notes of the collection, e.g. 100000 ids with -Pbenchmark.cards=100000.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkNotesBenchmark extends LibAnkiBenchmark {
+    private List<Long> mNids;
+
+
+    @Before
+    public void generateCollection() {
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+        mNids = getCol().getDb().queryLongList("SELECT id FROM notes");
+    }
+
+
+    /** Select the notes by their ids, written in the statement or in a table of ids. */
+    @Test
+    public void selectByIds() throws Exception {
+        DB db = getCol().getDb();
+        Map<String, String> params = new HashMap<>();
+        params.put("ids", "inline");
+        measure("selectByIds", params, 1, null, () -> db.queryScalar("SELECT count() FROM notes WHERE id IN " + Utils.ids2str(mNids)));
+
+        params = new HashMap<>();
+        params.put("ids", "table");
+        measure("selectByIds", params, 1, null, () -> {
+            try (DB.IdTable table = db.idTable(mNids)) {
+                db.queryScalar("SELECT count() FROM notes WHERE id IN " + table.getName());
+            }
+        });
+    }
+
+
+    @Test
+    public void findReplace() throws Exception {
+        Collection col = getCol();
+        measure("findReplace", new HashMap<>(), 1,
+                () -> Finder.findReplace(col, mNids, "term", "word", false, null, false),
+                () -> Finder.findReplace(col, mNids, "word", "term", false, null, false));
+    }
+
+
+    @Test
+    public void remNotes() throws Exception {
+        Collection col = getCol();
+        long[][] nids = new long[1][];
+        measure("remNotes", new HashMap<>(), 1, () -> {
+            if (col.noteCount() == 0) {
+                new CollectionGenerator(col).addBasicNotes(getCardCount());
+            }
+            nids[0] = Utils.collection2Array(col.getDb().queryLongList("SELECT id FROM notes"));
+        }, () -> col.remNotes(nids[0]));
+    }
+}
@@ -0,0 +1,185 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.DB;
+import com.ichi2.libanki.Model;
+import com.ichi2.libanki.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fills a collection with generated notes, cards and reviews.
+ *
+ * The rows are inserted directly in the database, so that a collection of a million cards can be generated in a
+ * reasonable time. The content only depends on the number of cards, so that runs can be compared.
+ */
+public class CollectionGenerator {
+
+    /** Number of distinct words in the fields, so that searching a word matches a small fraction of the notes. */
+    private static final int WORD_COUNT = 5000;
+    private static final int TAG_COUNT = 50;
+    private static final int CHUNK_SIZE = 10000;
+    public static final String ROOT_DECK = "Benchmark";
+
+    private final Collection mCol;
+    private final DB mDb;
+    private final Random mRandom = new Random(42);
+    private final long mNow;
+    private final int mToday;
+
+    private long mNextNid;
+    private long mNextCid;
+    private long mNextRevlogId;
+    private int mNextNewPosition = 0;
+
+    private final List<Object[]> mNotes = new ArrayList<>(CHUNK_SIZE);
+    private final List<Object[]> mCards = new ArrayList<>(CHUNK_SIZE);
+    private final List<Object[]> mRevlog = new ArrayList<>(CHUNK_SIZE);
+
+
+    public CollectionGenerator(@NonNull Collection col) {
+        mCol = col;
+        mDb = col.getDb();
+        mNow = col.getTime().intTime();
+        mToday = col.getSched().getToday();
+        mNextNid = col.getTime().timestampID(mDb, "notes");
+        mNextCid = col.getTime().timestampID(mDb, "cards");
+        mNextRevlogId = col.getTime().timestampID(mDb, "revlog");
+    }
+
+
+    /** @return Some words, taken among WORD_COUNT distinct ones. */
+    public static @NonNull String words(@NonNull Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append("word").append(random.nextInt(WORD_COUNT));
+        }
+        return sb.toString();
+    }
+
+
+    /** The number of decks of {@link #addBasicNotes(int)}: one per thousand cards, at most 100. */
+    public static int defaultDeckCount(int cardCount) {
+        return Math.max(1, Math.min(100, cardCount / 1000));
+    }
+
+
+    /**
+     * Add notes of the Basic model, with one card each, in a tree of decks under ROOT_DECK. Their cards are new,
+     * learning, suspended or review cards, and the non new cards have been reviewed once in the last year.
+     */
+    public void addBasicNotes(int cardCount) {
+        addBasicNotes(cardCount, defaultDeckCount(cardCount));
+    }
+
+
+    /**
+     * Add notes as {@link #addBasicNotes(int)}, in deckCount decks. The decks are the subdecks of deckCount / 10
+     * decks under ROOT_DECK, ten each.
+     */
+    public void addBasicNotes(int cardCount, int deckCount) {
+        Model model = mCol.getModels().byName("Basic");
+        long[] dids = createDecks(deckCount);
+        long revlogStep = Math.max(1, 365L * 86400 * 1000 / cardCount);
+        for (int i = 0; i < cardCount; i++) {
+            long nid = addNote(model, String.format(Locale.US, "%s %d", words(mRandom, 3), i), words(mRandom, 10));
+            long did = dids[mRandom.nextInt(dids.length)];
+            addRandomCard(nid, did, 0);
+            mNextRevlogId -= revlogStep;
+            flushIfNeeded();
+        }
+        flush();
+    }
+
+
+    /**
+     * Add notes of the Cloze model with three clozes each, one of them in MathJax, in the default deck. Each note has a
+     * new card per cloze.
+     */
+    public void addClozeNotes(int noteCount) {
+        Model model = mCol.getModels().byName("Cloze");
+        for (int i = 0; i < noteCount; i++) {
+            String text = String.format(Locale.US, "%s {{c1::%s}} %s {{c2::%s::hint}} \\(x^2 + {{c3::%s}}\\) %d",
+                    words(mRandom, 5), words(mRandom, 2), words(mRandom, 5), words(mRandom, 1), words(mRandom, 1), i);
+            long nid = addNote(model, text, words(mRandom, 5));
+            for (int ord = 0; ord < 3; ord++) {
+                addCard(nid, Consts.DEFAULT_DECK_ID, ord, Consts.CARD_TYPE_NEW, Consts.QUEUE_TYPE_NEW, mNextNewPosition++, 0, 0, 0);
+            }
+            flushIfNeeded();
+        }
+        flush();
+    }
+
+
+    private @NonNull long[] createDecks(int count) {
+        long[] dids = new long[count];
+        for (int i = 0; i < count; i++) {
+            dids[i] = mCol.getDecks().id_safe(String.format(Locale.US, "%s::Deck %d::Subdeck %d", ROOT_DECK, i / 10, i % 10));
+        }
+        return dids;
+    }
+
+
+    private long addNote(@NonNull Model model, @NonNull String... fields) {
+        long nid = mNextNid++;
+        String tags = String.format(Locale.US, " tag%d ", mRandom.nextInt(TAG_COUNT));
+        mNotes.add(new Object[] {nid, Utils.guid64(), model.getLong("id"), mNow, -1, tags, Utils.joinFields(fields),
+                fields[0], Utils.fieldChecksum(fields[0]), 0, ""});
+        return nid;
+    }
+
+
+    private void addRandomCard(long nid, long did, int ord) {
+        int kind = mRandom.nextInt(100);
+        if (kind < 40) {
+            addCard(nid, did, ord, Consts.CARD_TYPE_NEW, Consts.QUEUE_TYPE_NEW, mNextNewPosition++, 0, 0, 0);
+            return;
+        }
+        long cid;
+        if (kind < 45) {
+            cid = addCard(nid, did, ord, Consts.CARD_TYPE_LRN, Consts.QUEUE_TYPE_LRN, mNow - mRandom.nextInt(1200), 0, 0, 1);
+        } else if (kind < 50) {
+            cid = addCard(nid, did, ord, Consts.CARD_TYPE_RELEARNING, Consts.QUEUE_TYPE_DAY_LEARN_RELEARN, mToday - mRandom.nextInt(3), 1, 2000, 2);
+        } else if (kind < 55) {
+            cid = addCard(nid, did, ord, Consts.CARD_TYPE_REV, Consts.QUEUE_TYPE_SUSPENDED, mToday + mRandom.nextInt(100), 1 + mRandom.nextInt(200), 2500, 3);
+        } else {
+            cid = addCard(nid, did, ord, Consts.CARD_TYPE_REV, Consts.QUEUE_TYPE_REV, mToday + mRandom.nextInt(60) - 20, 1 + mRandom.nextInt(200), 1300 + mRandom.nextInt(1500), 1 + mRandom.nextInt(20));
+        }
+        mRevlog.add(new Object[] {mNextRevlogId, cid, -1, 1 + mRandom.nextInt(4), 1 + mRandom.nextInt(100), mRandom.nextInt(50), 2500, 1000 + mRandom.nextInt(20000), Consts.REVLOG_REV});
+    }
+
+
+    private long addCard(long nid, long did, int ord, int type, int queue, long due, int ivl, int factor, int reps) {
+        long cid = mNextCid++;
+        mCards.add(new Object[] {cid, nid, did, ord, mNow, -1, type, queue, due, ivl, factor, reps, 0, queue == Consts.QUEUE_TYPE_NEW ? 0 : 1001, 0, 0, 0, ""});
+        return cid;
+    }
+
+
+    private void flushIfNeeded() {
+        if (mCards.size() >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+
+    private void flush() {
+        mDb.executeInTransaction(() -> {
+            mDb.executeManyNoTransaction("insert into notes values (?,?,?,?,?,?,?,?,?,?,?)", mNotes);
+            mDb.executeManyNoTransaction("insert into cards values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", mCards);
+            mDb.executeManyNoTransaction("insert into revlog values (?,?,?,?,?,?,?,?,?)", mRevlog);
+        });
+        mNotes.clear();
+        mCards.clear();
+        mRevlog.clear();
+    }
+}
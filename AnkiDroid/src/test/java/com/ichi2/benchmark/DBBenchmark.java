@@ -0,0 +1,64 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.DB;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class DBBenchmark extends LibAnkiBenchmark {
+
+    /** Number of cards inserted by insertCards, independently of benchmark.cards. */
+    private static final int INSERTED_CARDS = 200000;
+    private static final String INSERT_CARD = "INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+
+    /** Insert as many rows as the collection has cards, in a table shaped like cards. */
+    @Test
+    public void executeMany() throws Exception {
+        DB db = getCol().getDb();
+        db.execute("CREATE TABLE bench (id INTEGER PRIMARY KEY, nid INTEGER, did INTEGER, due INTEGER, data TEXT)");
+        List<Object[]> rows = new ArrayList<>(getCardCount());
+        for (int i = 0; i < getCardCount(); i++) {
+            rows.add(new Object[] {i, i / 2, 1L, i % 100, ""});
+        }
+        measure("executeMany", new HashMap<>(), rows.size(), () -> db.execute("DELETE FROM bench"),
+                () -> db.executeMany("INSERT INTO bench VALUES (?,?,?,?,?)", rows));
+    }
+
+
+    /**
+     * Insert 200000 new cards in the cards table, with its indexes: with a statement compiled once, as executeMany does,
+     * and with a statement parsed again for each card, as executeMany used to do.
+     */
+    @Test
+    public void insertCards() throws Exception {
+        DB db = getCol().getDb();
+        List<Object[]> cards = new ArrayList<>(INSERTED_CARDS);
+        for (int i = 0; i < INSERTED_CARDS; i++) {
+            cards.add(new Object[] {1000000L + i, 1000000L + i / 2, 1L, i % 2, 0, -1, Consts.CARD_TYPE_NEW,
+                    Consts.QUEUE_TYPE_NEW, i, 0, 0, 0, 0, 0, 0, 0, 0, ""});
+        }
+        Map<String, String> params = new HashMap<>();
+        params.put("statement", "compiled");
+        measure("insertCards", params, cards.size(), () -> db.execute("DELETE FROM cards"),
+                () -> db.executeMany(INSERT_CARD, cards));
+
+        params = new HashMap<>();
+        params.put("statement", "execSQL");
+        measure("insertCards", params, cards.size(), () -> db.execute("DELETE FROM cards"),
+                () -> db.executeInTransaction(() -> {
+                    for (Object[] card : cards) {
+                        db.getDatabase().execSQL(INSERT_CARD, card);
+                    }
+                }));
+    }
+}
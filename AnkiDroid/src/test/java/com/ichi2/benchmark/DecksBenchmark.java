@@ -0,0 +1,58 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Decks;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Time to find the subdecks of every deck of a collection of 3000 decks, as the deck list, the searches and the
+ * statistics do: 30 top level decks, with 10 children of 10 children each.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecksBenchmark extends LibAnkiBenchmark {
+    private final List<Long> mDids = new ArrayList<>();
+
+
+    @Before
+    public void generateDecks() {
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 10; j++) {
+                for (int k = 0; k < 10; k++) {
+                    addDeck(String.format(Locale.US, "deck %d::child %d::grandchild %d", i, j, k));
+                }
+            }
+        }
+        mDids.addAll(getCol().getDecks().allIds());
+    }
+
+
+    @Test
+    public void deckAndChildIds() throws Exception {
+        Decks decks = getCol().getDecks();
+        measure("deckAndChildIds", new HashMap<>(), mDids.size(), null, () -> {
+            for (long did : mDids) {
+                decks.deckAndChildIds(did);
+            }
+        });
+    }
+
+
+    @Test
+    public void parents() throws Exception {
+        Decks decks = getCol().getDecks();
+        measure("parents", new HashMap<>(), mDids.size(), null, () -> {
+            for (long did : mDids) {
+                decks.parents(did);
+            }
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.anki.AnkiDroidApp;
+import com.ichi2.libanki.Finder;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class FinderBenchmark extends LibAnkiBenchmark {
+
+    /** Searches commonly done in the browser. */
+    private static final String[] QUERIES = {
+            "",
+            "deck:current",
+            "\"deck:" + CollectionGenerator.ROOT_DECK + "::Deck 0\"",
+            "is:due",
+            "is:new",
+            "tag:tag7",
+            "prop:ivl>10",
+            "rated:7",
+            "word123",
+            "front:word42*",
+    };
+
+
+    @Before
+    public void generateCollection() {
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+    }
+
+
+    @Test
+    public void findCards() throws Exception {
+        findCards(false);
+    }
+
+
+    @Test
+    public void findCardsWithSearchIndex() throws Exception {
+        AnkiDroidApp.getSharedPrefs(getTargetContext()).edit().putBoolean("searchIndex", true).apply();
+        getCol().getSearchIndex().rebuild();
+        findCards(true);
+    }
+
+
+    /** The searches of the browser, which read the ids of all cards. */
+    @Test
+    public void findCardIds() throws Exception {
+        for (String query : QUERIES) {
+            Map<String, String> params = new HashMap<>();
+            params.put("query", query);
+            measure("findCardIds", params, 1, null, () -> new Finder(getCol()).findCardIds(query, true, null));
+        }
+    }
+
+
+    private void findCards(boolean searchIndex) throws Exception {
+        for (String query : QUERIES) {
+            Map<String, String> params = new HashMap<>();
+            params.put("query", query);
+            params.put("searchIndex", Boolean.toString(searchIndex));
+            measure("findCards", params, 1, null, () -> getCol().findCards(query, true));
+        }
+    }
+}
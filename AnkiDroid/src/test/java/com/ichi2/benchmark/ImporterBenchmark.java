@@ -0,0 +1,81 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.AnkiPackageExporter;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Storage;
+import com.ichi2.libanki.importer.Anki2Importer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class ImporterBenchmark extends LibAnkiBenchmark {
+
+    private File mDir;
+    private Collection mDestination;
+
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    @After
+    public void closeDestination() {
+        if (mDestination != null) {
+            mDestination.close();
+        }
+    }
+
+
+    /** Import a generated collection into an empty one. */
+    @Test
+    public void importCollection() throws Exception {
+        mDir = Files.createTempDirectory("AnkiDroid-ImporterBenchmark").toFile();
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+        String source = exportCollection();
+        int[] iteration = {0};
+        measure("importCollection", new HashMap<>(), 1, () -> {
+            if (mDestination != null) {
+                mDestination.close();
+            }
+            File destination = new File(mDir, "destination" + iteration[0]++ + ".anki2");
+            mDestination = Storage.Collection(getTargetContext(), destination.getAbsolutePath());
+        }, () -> new Anki2Importer(mDestination, source).run());
+    }
+
+
+    /** @return The path of a copy of the collection, with its scheduling information */
+    private @NonNull String exportCollection() throws Exception {
+        AnkiPackageExporter exporter = new AnkiPackageExporter(getCol());
+        exporter.setIncludeSched(true);
+        exporter.setIncludeMedia(false);
+        File apkg = new File(mDir, "source.apkg");
+        exporter.exportInto(apkg.getAbsolutePath(), getTargetContext());
+        File source = new File(mDir, "source.anki2");
+        try (ZipFile zip = new ZipFile(apkg)) {
+            ZipEntry entry = zip.getEntry("collection.anki2");
+            if (entry == null) {
+                throw new IOException("No collection in " + apkg);
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                Files.copy(in, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return source.getAbsolutePath();
+    }
+}
@@ -0,0 +1,203 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.utils.JSONArray;
+import com.ichi2.utils.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Base class of the benchmarks of libanki.
+ *
+ * Benchmarks are Robolectric tests, since libanki needs the Android database classes, so they run on any JVM. They are
+ * excluded from the unit tests, and are run with:
+ * <pre>./gradlew :AnkiDroid:testDebugUnitTest -Pbenchmark [-Pbenchmark.cards=100000] [-Pbenchmark.decks=2000]</pre>
+ *
+ * Each operation is run a few times to warm up, then measured. The results are written to
+ * AnkiDroid/build/benchmark/&lt;class&gt;.json in the JSON format of JMH, so that two runs can be compared with the
+ * tools made for JMH.
+ */
+public abstract class LibAnkiBenchmark extends RobolectricTest {
+
+    /**
+     * Quantile of the normal distribution for 99.9%. JMH uses Student's t distribution for its score errors, the normal
+     * one is close enough to compare runs.
+     */
+    private static final double CONFIDENCE_QUANTILE = 3.291;
+
+    /** Something to measure. */
+    protected interface Operation {
+        void run() throws Exception;
+    }
+
+
+    /** Number of cards of the generated collections. */
+    protected int getCardCount() {
+        return Integer.getInteger("benchmark.cards", 10000);
+    }
+
+
+    /**
+     * Number of decks of the generated collections whose benchmarks depend on the deck tree, by default the one of
+     * {@link CollectionGenerator#defaultDeckCount(int)}.
+     */
+    protected int getDeckCount() {
+        return Integer.getInteger("benchmark.decks", CollectionGenerator.defaultDeckCount(getCardCount()));
+    }
+
+
+    private static int getWarmupIterations() {
+        return Integer.getInteger("benchmark.warmups", 3);
+    }
+
+
+    private static int getMeasurementIterations() {
+        return Integer.getInteger("benchmark.iterations", 5);
+    }
+
+
+    protected void measure(@NonNull String name, int opsPerIteration, @NonNull Operation operation) throws Exception {
+        measure(name, new HashMap<>(), opsPerIteration, null, operation);
+    }
+
+
+    /**
+     * Measure the average time of an operation, and add it to the results of this class.
+     *
+     * @param params Parameters of this measure, in addition to the number of cards
+     * @param opsPerIteration Number of operations done by each run of operation
+     * @param setUp Run before each run of operation, and not measured. May be null.
+     */
+    protected void measure(@NonNull String name, @NonNull Map<String, String> params, int opsPerIteration,
+                           @Nullable Operation setUp, @NonNull Operation operation) throws Exception {
+        for (int i = 0; i < getWarmupIterations(); i++) {
+            runOnce(setUp, operation);
+        }
+        double[] scores = new double[getMeasurementIterations()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = runOnce(setUp, operation) / 1000.0 / opsPerIteration;
+        }
+        params.put("cards", Integer.toString(getCardCount()));
+        JSONObject result = toJmhResult(getClass().getName() + "." + name, params, "avgt", "us/op", getWarmupIterations(), scores);
+        Timber.i("%s: %s us/op", name, result.getJSONObject("primaryMetric").get("score"));
+        appendResult(result);
+    }
+
+
+    /**
+     * Measure the peak of the heap used by an operation, in addition to what was used before it started, and add it
+     * to the results of this class. The peaks of the heap pools are added, so the result is an upper bound.
+     *
+     * @param setUp Run before each run of operation, and not measured. May be null.
+     */
+    protected void measurePeakHeap(@NonNull String name, @NonNull Map<String, String> params,
+                                   @Nullable Operation setUp, @NonNull Operation operation) throws Exception {
+        double[] scores = new double[getMeasurementIterations()];
+        for (int i = 0; i < scores.length; i++) {
+            if (setUp != null) {
+                setUp.run();
+            }
+            System.gc();
+            long before = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    before += pool.getUsage().getUsed();
+                    pool.resetPeakUsage();
+                }
+            }
+            operation.run();
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            scores[i] = (peak - before) / 1024.0 / 1024.0;
+        }
+        params.put("cards", Integer.toString(getCardCount()));
+        JSONObject result = toJmhResult(getClass().getName() + "." + name, params, "ss", "MB", 0, scores);
+        Timber.i("%s: %s MB", name, result.getJSONObject("primaryMetric").get("score"));
+        appendResult(result);
+    }
+
+
+    /** @return The time taken by operation, in nanoseconds. */
+    private static long runOnce(@Nullable Operation setUp, @NonNull Operation operation) throws Exception {
+        if (setUp != null) {
+            setUp.run();
+        }
+        long start = System.nanoTime();
+        operation.run();
+        return System.nanoTime() - start;
+    }
+
+
+    private static @NonNull JSONObject toJmhResult(@NonNull String benchmark, @NonNull Map<String, String> params,
+                                                   @NonNull String mode, @NonNull String unit, int warmupIterations, double[] scores) {
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = scores.length > 1 ? CONFIDENCE_QUANTILE * Math.sqrt(variance / (scores.length - 1) / scores.length) : 0;
+
+        JSONArray rawData = new JSONArray();
+        for (double score : scores) {
+            rawData.put(score);
+        }
+        JSONArray confidence = new JSONArray();
+        confidence.put(mean - error);
+        confidence.put(mean + error);
+
+        JSONObject primaryMetric = new JSONObject();
+        primaryMetric.put("score", mean);
+        primaryMetric.put("scoreError", error);
+        primaryMetric.put("scoreConfidence", confidence);
+        primaryMetric.put("scoreUnit", unit);
+        JSONArray rawDataPerFork = new JSONArray();
+        rawDataPerFork.put(rawData);
+        primaryMetric.put("rawData", rawDataPerFork);
+
+        JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark);
+        result.put("mode", mode);
+        result.put("threads", 1);
+        result.put("forks", 1);
+        result.put("warmupIterations", warmupIterations);
+        result.put("measurementIterations", scores.length);
+        result.put("params", new JSONObject(params));
+        result.put("primaryMetric", primaryMetric);
+        return result;
+    }
+
+
+    private void appendResult(@NonNull JSONObject result) throws IOException {
+        File dir = new File(System.getProperty("benchmark.output", "build/benchmark"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File file = new File(dir, String.format(Locale.US, "%s.json", getClass().getSimpleName()));
+        JSONArray results = file.exists()
+                ? new JSONArray(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8))
+                : new JSONArray();
+        results.put(result);
+        Files.write(file.toPath(), results.toString(4).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,64 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Media;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaBenchmark extends LibAnkiBenchmark {
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    /** Number of files in the media folder, one for 10 cards. */
+    private int getMediaCount() {
+        return Math.max(1, getCardCount() / 10);
+    }
+
+
+    /** Scan a media folder whose files are all known already. */
+    @Test
+    public void findChanges() throws Exception {
+        Media media = getCol().getMedia();
+        for (int i = 0; i < getMediaCount(); i++) {
+            File file = new File(media.dir(), String.format(Locale.US, "image%d.png", i));
+            Files.write(file.toPath(), file.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        media.findChanges(true);
+        measure("findChanges", 1, () -> media.findChanges(true));
+    }
+
+
+    /** Scan a media folder whose files are all unknown, as when the media db is rebuilt. */
+    @Test
+    public void findChangesOfNewFiles() throws Exception {
+        Media media = getCol().getMedia();
+        for (int i = 0; i < getMediaCount(); i++) {
+            File file = new File(media.dir(), String.format(Locale.US, "image%d.png", i));
+            Files.write(file.toPath(), file.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        measure("findChangesOfNewFiles", new HashMap<>(), 1, media::forceResync, () -> media.findChanges(true));
+    }
+
+
+    /** Gather the media references of all the notes, and compare them with the folder. */
+    @Test
+    public void check() throws Exception {
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+        Media media = getCol().getMedia();
+        media.findChanges(true);
+        measure("check", getCardCount(), media::check);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ichi2.benchmark;
+
+import android.util.Pair;
+
+import com.ichi2.async.Connection;
+import com.ichi2.libanki.Media;
+import com.ichi2.libanki.sync.LocalMediaServer;
+import com.ichi2.libanki.sync.MediaSyncer;
+import com.ichi2.libanki.sync.Syncer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static com.ichi2.libanki.sync.Syncer.ConnectionResultType.OK;
+import static org.mockito.Mockito.mock;
+
+/** Time to download each file of a media sync from a {@link LocalMediaServer}, as on a first sync. */
+@RunWith(AndroidJUnit4.class)
+public class MediaSyncBenchmark extends LibAnkiBenchmark {
+    private static final int FILES = 20000;
+
+    private File mServerDir;
+
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    @Before
+    public void generateFiles() throws Exception {
+        mServerDir = Files.createTempDirectory("AnkiDroid-MediaSyncBenchmark").toFile();
+        for (int i = 0; i < FILES; i++) {
+            String name = String.format(Locale.US, "image%d.png", i);
+            Files.write(new File(mServerDir, name).toPath(), name.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+
+    @Test
+    public void download() throws Exception {
+        Media media = getCol().getMedia();
+        LocalMediaServer server = new LocalMediaServer(getCol(), mServerDir);
+        measure("download", new HashMap<>(), FILES, () -> {
+            media.forceResync();
+            for (File file : new File(media.dir()).listFiles()) {
+                file.delete();
+            }
+        }, () -> {
+            Pair<Syncer.ConnectionResultType, String> result = new MediaSyncer(getCol(), server, mock(Connection.class)).sync();
+            if (result.first != OK) {
+                throw new IllegalStateException("Media sync failed: " + result.first);
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.ichi2.benchmark;
+
+import android.database.Cursor;
+
+import com.ichi2.libanki.Model;
+import com.ichi2.libanki.Utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class RenderBenchmark extends LibAnkiBenchmark {
+
+    /** Number of cards rendered in each iteration. */
+    private static final int RENDERED = 1000;
+
+
+    @Test
+    public void renderBasicCards() throws Exception {
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+        renderCards("renderBasicCards");
+    }
+
+
+    /** Cloze notes with MathJax, whose rendering depends on the cloze regular expressions. */
+    @Test
+    public void renderClozeCards() throws Exception {
+        new CollectionGenerator(getCol()).addClozeNotes(getCardCount() / 3);
+        renderCards("renderClozeCards");
+    }
+
+
+    private void renderCards(@NonNull String name) throws Exception {
+        List<Object[]> cards = loadCards();
+        measure(name, cards.size(), () -> {
+            for (Object[] c : cards) {
+                getCol()._renderQA((long) c[0], (Model) c[1], (long) c[2], (int) c[3], (String) c[4], (String[]) c[5], (int) c[6]);
+            }
+        });
+    }
+
+
+    /** @return The arguments of _renderQA for the first RENDERED cards */
+    private @NonNull List<Object[]> loadCards() {
+        List<Object[]> cards = new ArrayList<>(RENDERED);
+        try (Cursor cur = getCol().getDb().query("SELECT c.id, n.mid, c.did, c.ord, n.tags, n.flds, c.flags FROM cards c, notes n WHERE c.nid = n.id LIMIT ?", RENDERED)) {
+            while (cur.moveToNext()) {
+                Model model = getCol().getModels().get(cur.getLong(1));
+                cards.add(new Object[] {cur.getLong(0), model, cur.getLong(2), cur.getInt(3), cur.getString(4),
+                        Utils.splitFields(cur.getString(5)), cur.getInt(6)});
+            }
+        }
+        return cards;
+    }
+}
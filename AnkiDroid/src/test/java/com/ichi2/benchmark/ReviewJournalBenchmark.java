@@ -0,0 +1,77 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.DeckConfig;
+import com.ichi2.libanki.sched.SchedV2;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class ReviewJournalBenchmark extends LibAnkiBenchmark {
+
+    /** Number of cards reviewed in each iteration. */
+    private static final int REVIEWS = 100;
+
+    private SchedV2 mSched;
+
+
+    /** Each answer is committed to the collection file unless it is kept in the journal. */
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    @Before
+    public void generateCollection() throws Exception {
+        mSched = upgradeToSchedV2();
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+        // Don't let the limits end the reviews during the benchmark
+        DeckConfig conf = getCol().getDecks().getConf(1);
+        conf.getJSONObject("new").put("perDay", 9999);
+        conf.getJSONObject("rev").put("perDay", 9999);
+        getCol().getDecks().save(conf);
+        getCol().getDecks().select(getCol().getDecks().id_safe(CollectionGenerator.ROOT_DECK));
+        getCol().save();
+        mSched.reset();
+    }
+
+
+    @Test
+    public void answerAndGetCard() throws Exception {
+        mSched.setUseReviewJournal(false);
+        answerAndGetCard(false);
+    }
+
+
+    @Test
+    public void answerAndGetCardWithReviewJournal() throws Exception {
+        mSched.setUseReviewJournal(true);
+        answerAndGetCard(true);
+    }
+
+
+    /** Time from answering a card to getting the next one, as in the reviewer. */
+    private void answerAndGetCard(boolean reviewJournal) throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put("reviewJournal", Boolean.toString(reviewJournal));
+        Card[] card = {mSched.getCard()};
+        measure("answerAndGetCard", params, REVIEWS, null, () -> {
+            for (int i = 0; i < REVIEWS; i++) {
+                if (card[0] == null) {
+                    throw new IllegalStateException("Not enough cards to review, increase benchmark.cards");
+                }
+                mSched.answerCard(card[0], Consts.BUTTON_THREE);
+                card[0] = mSched.getCard();
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.DeckConfig;
+import com.ichi2.libanki.sched.SchedV2;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * The due counts of the deck list are measured on a collection of many decks with, e.g.:
+ * <pre>./gradlew :AnkiDroid:testDebugUnitTest -Pbenchmark -Pbenchmark.cards=500000 -Pbenchmark.decks=2000</pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SchedulerBenchmark extends LibAnkiBenchmark {
+
+    /** Number of cards reviewed in each iteration. */
+    private static final int REVIEWS = 100;
+
+    private SchedV2 mSched;
+
+
+    @Before
+    public void generateCollection() throws Exception {
+        mSched = upgradeToSchedV2();
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount(), getDeckCount());
+        // Don't let the limits end the reviews during the benchmark
+        DeckConfig conf = getCol().getDecks().getConf(1);
+        conf.getJSONObject("new").put("perDay", 9999);
+        conf.getJSONObject("rev").put("perDay", 9999);
+        getCol().getDecks().save(conf);
+        getCol().getDecks().select(getCol().getDecks().id_safe(CollectionGenerator.ROOT_DECK));
+        mSched.reset();
+    }
+
+
+    @Test
+    public void getCardAndAnswerCard() throws Exception {
+        measure("getCardAndAnswerCard", REVIEWS, () -> {
+            for (int i = 0; i < REVIEWS; i++) {
+                Card card = mSched.getCard();
+                if (card == null) {
+                    throw new IllegalStateException("Not enough cards to review, increase benchmark.cards");
+                }
+                mSched.answerCard(card, Consts.BUTTON_THREE);
+            }
+        });
+    }
+
+
+    @Test
+    public void deckDueList() throws Exception {
+        measure("deckDueList", withDueCountIndex(false), 1, null, () -> mSched.deckDueList());
+    }
+
+
+    @Test
+    public void deckDueTree() throws Exception {
+        measure("deckDueTree", withDueCountIndex(false), 1, null, () -> mSched.deckDueTree());
+    }
+
+
+    @Test
+    public void deckDueListWithDueCountIndex() throws Exception {
+        mSched.setUseDueCountIndex(true);
+        measure("deckDueList", withDueCountIndex(true), 1, null, () -> mSched.deckDueList());
+    }
+
+
+    @Test
+    public void deckDueTreeWithDueCountIndex() throws Exception {
+        mSched.setUseDueCountIndex(true);
+        measure("deckDueTree", withDueCountIndex(true), 1, null, () -> mSched.deckDueTree());
+    }
+
+
+    private Map<String, String> withDueCountIndex(boolean dueCountIndex) {
+        Map<String, String> params = new HashMap<>();
+        params.put("decks", Integer.toString(getDeckCount()));
+        params.put("dueCountIndex", Boolean.toString(dueCountIndex));
+        return params;
+    }
+}
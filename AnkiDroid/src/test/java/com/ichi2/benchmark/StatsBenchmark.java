@@ -0,0 +1,59 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.anki.stats.OverviewStatsBuilder;
+import com.ichi2.libanki.stats.Stats;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Time to compute the revlog based statistics of the statistics screen, for the whole collection, from daily reviews
+ * which were not read yet.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatsBenchmark extends LibAnkiBenchmark {
+
+    @Before
+    public void generateCollection() {
+        new CollectionGenerator(getCol()).addBasicNotes(getCardCount());
+        getCol().getReviewRollup().ensureExists();
+    }
+
+
+    @Test
+    public void month() throws Exception {
+        openStatistics(Stats.AxisType.TYPE_MONTH);
+    }
+
+
+    @Test
+    public void life() throws Exception {
+        openStatistics(Stats.AxisType.TYPE_LIFE);
+    }
+
+
+    private void openStatistics(Stats.AxisType type) throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put("axis", type.name());
+        measure("openStatistics", params, 1, () -> {
+            // a modified collection is read again
+            getCol().setMod();
+            getCol().save();
+        }, () -> {
+            Stats stats = new Stats(getCol(), Stats.ALL_DECKS_ID);
+            stats.calculateTodayStats(type);
+            stats.calculateOverviewStatistics(type, new OverviewStatsBuilder.OverviewStats());
+            stats.calculateReviewCount(type);
+            stats.calculateReviewTime(type);
+            stats.calculateBreakdown(type);
+            stats.calculateWeeklyBreakdown(type);
+            stats.calculateAnswerButtons(type);
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package com.ichi2.benchmark;
+
+import android.util.Pair;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Storage;
+import com.ichi2.libanki.sync.LocalServer;
+import com.ichi2.libanki.sync.Syncer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static com.ichi2.libanki.sync.Syncer.ConnectionResultType.SUCCESS;
+
+/**
+ * Peak heap of a normal sync of the whole collection with a {@link LocalServer}, in each direction. The peak of a
+ * sync should not grow with the size of the collection; run with -Pbenchmark.cards=200000 to check it on a large one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncBenchmark extends LibAnkiBenchmark {
+    private File mDir;
+    /** Generated collection, copied as the client of each upload */
+    private File mSource;
+    private Collection mClient;
+    private Collection mServer;
+    private int mCollections = 0;
+
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    @Before
+    public void generateCollection() throws Exception {
+        mDir = Files.createTempDirectory("AnkiDroid-SyncBenchmark").toFile();
+        mSource = new File(mDir, "source.anki2");
+        Collection source = Storage.Collection(getTargetContext(), mSource.getAbsolutePath());
+        new CollectionGenerator(source).addBasicNotes(getCardCount());
+        source.close();
+    }
+
+
+    @After
+    public void closeCollections() {
+        if (mClient != null) {
+            mClient.close();
+            mClient = null;
+        }
+        if (mServer != null) {
+            mServer.close();
+            mServer = null;
+        }
+    }
+
+
+    /** Send all the cards of the client to an empty server. */
+    @Test
+    public void upload() throws Exception {
+        measurePeakHeap("upload", new HashMap<>(), () -> {
+            closeCollections();
+            File client = newFile();
+            Files.copy(mSource.toPath(), client.toPath());
+            mClient = Storage.Collection(getTargetContext(), client.getAbsolutePath());
+            mServer = emptyCollection(true, mClient.getScm());
+        }, this::sync);
+    }
+
+
+    /** Receive all the cards of the server in an empty client. */
+    @Test
+    public void download() throws Exception {
+        mClient = Storage.Collection(getTargetContext(), mSource.getAbsolutePath());
+        mServer = emptyCollection(true, mClient.getScm());
+        sync();
+        measurePeakHeap("download", new HashMap<>(), () -> {
+            mClient.close();
+            mClient = emptyCollection(false, mServer.getScm());
+        }, this::sync);
+    }
+
+
+    private void sync() {
+        Pair<Syncer.ConnectionResultType, Object> result = new Syncer(mClient, new LocalServer(mServer, new File(mDir, "chunk")), null).sync(null);
+        if (result.first != SUCCESS) {
+            throw new IllegalStateException("Sync failed: " + result.first);
+        }
+    }
+
+
+    /** @return An empty collection with the schema scm, so that it can be synced normally. */
+    private @NonNull Collection emptyCollection(boolean server, long scm) {
+        Collection col = Storage.Collection(getTargetContext(), newFile().getAbsolutePath(), server, false);
+        col.save();
+        col.getDb().execute("UPDATE col SET scm = ?", scm);
+        col.load();
+        return col;
+    }
+
+
+    private @NonNull File newFile() {
+        return new File(mDir, "collection" + mCollections++ + ".anki2");
+    }
+}
@@ -0,0 +1,47 @@
+package com.ichi2.benchmark;
+
+import com.ichi2.libanki.Utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+public class UtilsBenchmark extends LibAnkiBenchmark {
+
+    /** Number of fields each iteration works on. */
+    private static final int FIELDS = 10000;
+
+
+    @Test
+    public void splitFields() throws Exception {
+        String[] flds = new String[FIELDS];
+        Random random = new Random(42);
+        for (int i = 0; i < FIELDS; i++) {
+            flds[i] = Utils.joinFields(new String[] {CollectionGenerator.words(random, 3), CollectionGenerator.words(random, 10), ""});
+        }
+        measure("splitFields", FIELDS, () -> {
+            for (String f : flds) {
+                Utils.splitFields(f);
+            }
+        });
+    }
+
+
+    @Test
+    public void fieldChecksum() throws Exception {
+        String[] fields = new String[FIELDS];
+        Random random = new Random(42);
+        for (int i = 0; i < FIELDS; i++) {
+            fields[i] = "<b>" + CollectionGenerator.words(random, 3) + "</b>";
+        }
+        measure("fieldChecksum", FIELDS, () -> {
+            for (String f : fields) {
+                Utils.fieldChecksum(f);
+            }
+        });
+    }
+}
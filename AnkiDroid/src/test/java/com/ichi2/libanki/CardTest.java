@@ -12,13 +12,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static com.ichi2.utils.JSONObject.NULL;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasItemInArray;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 
 @RunWith(AndroidJUnit4.class)
 public class CardTest extends RobolectricTest {
@@ -237,5 +241,48 @@ public class CardTest extends RobolectricTest {
             assumeThat(ords, hasItemInArray(ord));
         }
     }
-    
+
+
+    @Test
+    public void loadWithNotesLoadsCardsAndNotes() {
+        Collection col = getCol();
+        Note note = addNoteUsingBasicAndReversedModel("<b>front</b>", "back");
+        List<Card> cards = note.cards();
+        Card reviewed = cards.get(1);
+        reviewed.setIvl(12);
+        reviewed.flush();
+        long missingId = 42;
+
+        Map<Long, Card> loaded = Card.loadWithNotes(col, Arrays.asList(cards.get(0).getId(), reviewed.getId(), missingId));
+
+        assertThat(loaded.size(), is(2));
+        Card first = loaded.get(cards.get(0).getId());
+        Card second = loaded.get(reviewed.getId());
+        assertThat(second.getIvl(), is(12));
+        assertThat(second.getOrd(), is(1));
+        assertThat(first.note(), sameInstance(second.note()));
+        assertThat(first.note().getFields(), is(note.getFields()));
+        assertThat(first.note().getSFld(), is("front"));
+        assertThat(first.q(), is(col.getCard(first.getId()).q()));
+
+        // the sort field follows the flushes and the loads of the note
+        first.note().setField(0, "<b>new front</b>");
+        first.note().flush();
+        assertThat(first.note().getSFld(), is("new front"));
+        assertThat(col.getNote(note.getId()).getSFld(), is("new front"));
+    }
+
+
+    @Test
+    public void cacheLoadCardsSkipsMissingCards() {
+        Collection col = getCol();
+        Note note = addNoteUsingBasicModel("front", "back");
+        long cid = note.cards().get(0).getId();
+        List<Card.Cache> caches = Arrays.asList(new Card.Cache(col, cid), new Card.Cache(col, 42));
+
+        Card.Cache.loadCards(col, caches);
+
+        assertThat(caches.get(0).getCard().getNid(), is(note.getId()));
+        assertThrows(WrongId.class, () -> caches.get(1).getCard());
+    }
 }
@@ -18,18 +18,25 @@ package com.ichi2.libanki;
 
 import com.ichi2.anki.RobolectricTest;
 import com.ichi2.async.CollectionTask;
+import com.ichi2.async.ProgressSenderAndCancelListener;
 import com.ichi2.async.TaskManager;
 import com.ichi2.utils.PairWithBoolean;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 @RunWith(AndroidJUnit4.class)
@@ -48,10 +55,104 @@ public class CheckMediaTest extends RobolectricTest {
 
         assertThat(getCol().getMedia().getDb().queryScalar("SELECT count(*) FROM sqlite_master WHERE type='table' AND name='meta';"), is(0));
 
-        CollectionTask<Void, Void, PairWithBoolean<List<List<String>>>, PairWithBoolean<List<List<String>>>> task = TaskManager.launchCollectionTask(new CollectionTask.CheckMedia());
+        CollectionTask<Integer, Integer, PairWithBoolean<List<List<String>>>, PairWithBoolean<List<List<String>>>> task = TaskManager.launchCollectionTask(new CollectionTask.CheckMedia());
 
         task.get();
 
         assertThat(getCol().getMedia().getDb().queryScalar("SELECT count(*) FROM sqlite_master WHERE type='table' AND name='meta';"), is(1));
     }
+
+
+    @Test
+    public void addedFileKeepsMediaDbUpToDate() throws Exception {
+        Media media = getCol().getMedia();
+        // the folder is not modified in the current second anymore
+        getCollectionTime().addMs(System.currentTimeMillis() + 60000 - getCollectionTime().intTimeMS());
+        media.findChanges(true);
+        File file = File.createTempFile("image", ".png");
+        Files.write(file.toPath(), "image".getBytes(StandardCharsets.UTF_8));
+
+        String fname = media.addFile(file);
+
+        assertThat(media.syncInfo(fname).first, is(Utils.fileChecksum(file)));
+        assertThat("adding a file does not require a scan of the folder", media._changed(), is(nullValue()));
+    }
+
+
+    @Test
+    public void scanOnlyUpdatesTheMtimeOfUnchangedFiles() throws Exception {
+        Media media = getCol().getMedia();
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            File file = new File(media.dir(), "file" + i + ".txt");
+            Files.write(file.toPath(), file.getName().getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        media.findChanges(true);
+        for (File file : files) {
+            assertThat(media.syncInfo(file.getName()).first, is(Utils.fileChecksum(file)));
+        }
+        media.markClean(Collections.singletonList("file0.txt"));
+        File touched = files.get(0);
+        assertThat(touched.setLastModified(touched.lastModified() - 10000), is(true));
+
+        media.findChanges(true);
+
+        assertThat(media.syncInfo("file0.txt").second, is(0));
+        assertThat(media.getDb().queryLongScalar("select mtime from media where fname = 'file0.txt'"), is(touched.lastModified() / 1000));
+    }
+
+
+    @Test
+    public void checkGathersTheReferencesOfAllBatches() throws Exception {
+        Media media = getCol().getMedia();
+        // more notes than a batch, so that several threads gather them
+        for (int i = 0; i < 2500; i++) {
+            addNoteUsingBasicModel("<img src='image" + i + ".png'>", "[sound:sound" + (i % 10) + ".mp3]");
+        }
+        for (int i = 1; i < 2500; i++) {
+            Files.write(new File(media.dir(), "image" + i + ".png").toPath(), new byte[] {1});
+        }
+        Files.write(new File(media.dir(), "unused.png").toPath(), new byte[] {1});
+        List<Integer> progress = new ArrayList<>();
+
+        List<List<String>> result = media.check(new ProgressSenderAndCancelListener<Integer>() {
+            @Override
+            public void doProgress(Integer value) {
+                progress.add(value);
+            }
+
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+
+        List<String> missing = new ArrayList<>(result.get(0));
+        Collections.sort(missing);
+        assertThat(missing.subList(0, 1), is(Collections.singletonList("image0.png")));
+        assertThat(missing.size(), is(11));
+        assertThat(result.get(1), is(Collections.singletonList("unused.png")));
+        assertThat(progress.get(progress.size() - 1), is(2500));
+    }
+
+
+    @Test
+    public void fileAddedInTheSecondOfTheScanIsFound() throws Exception {
+        Media media = getCol().getMedia();
+        File dir = new File(media.dir());
+        long second = 1600000000;
+        Files.write(new File(dir, "before.txt").toPath(), "before".getBytes(StandardCharsets.UTF_8));
+        assertThat(dir.setLastModified(second * 1000), is(true));
+        getCollectionTime().addMs(second * 1000 - getCollectionTime().intTimeMS());
+        media.findChanges(true);
+
+        // added in the same second, so the mtime of the folder is unchanged
+        Files.write(new File(dir, "after.txt").toPath(), "after".getBytes(StandardCharsets.UTF_8));
+        assertThat(dir.setLastModified(second * 1000), is(true));
+        media.findChanges();
+
+        assertThat(media.syncInfo("after.txt").second, is(1));
+    }
 }
@@ -8,13 +8,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -203,6 +207,37 @@ public class CollectionTest extends RobolectricTest {
         c.q(true);
     }
 
+    @Test
+    public void addNotesAsAddNote() {
+        Collection col = getCol();
+        Model model = col.getModels().byName("Basic (optional reversed card)");
+        long did = addDeck("Bulk");
+        Note single = col.newNote(model);
+        single.setField(0, "single");
+        single.setField(1, "back");
+        single.setField(2, "y");
+        single.setTagsFromStr("Tag");
+        col.addNote(single);
+
+        List<String[]> fields = Arrays.asList(new String[] {"one", "back", ""}, new String[] {"", "", ""}, new String[] {"<b>two</b>", "back", "y"});
+        int[] cards = col.addNotes(model, fields, Arrays.asList("tag other", null, "TAG"), did);
+
+        assertArrayEquals(new int[] {1, 0, 2}, cards);
+        assertEquals(3, col.noteCount());
+        Note two = col.getNote(col.findNotes("two").get(0));
+        assertEquals("two", two.getSFld());
+        assertEquals(" Tag ", two.stringTags());
+        assertEquals(2, two.numberOfCards());
+        for (Card card : two.cards()) {
+            assertEquals(did, card.getDid());
+            assertEquals(single.firstCard().getDue() + 2, card.getDue());
+        }
+        Note one = col.getNote(col.findNotes("one").get(0));
+        assertEquals(" other Tag ", one.stringTags());
+        assertEquals(single.firstCard().getDue() + 1, one.firstCard().getDue());
+        assertThat(col.getTags().all(), containsInAnyOrder("Tag", "other"));
+    }
+
     @Test
     public void test_filterToValidCards() {
         Collection col = getCol();
@@ -0,0 +1,75 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import com.ichi2.anki.RobolectricTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DBTest extends RobolectricTest {
+
+    @Test
+    public void executeManyBindsEachType() {
+        DB db = getCol().getDb();
+        db.execute("CREATE TABLE t (i INTEGER, r REAL, s TEXT, b BLOB, n INTEGER)");
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] {1L, 1.5, "one", new byte[] {1, 2}, null});
+        rows.add(new Object[] {2, 2.5f, "two", new byte[] {3}, true});
+        db.executeMany("INSERT INTO t VALUES (?,?,?,?,?)", rows);
+
+        try (Cursor cur = db.query("SELECT i, r, s, b, n FROM t ORDER BY i")) {
+            assertTrue(cur.moveToNext());
+            assertEquals(1, cur.getLong(0));
+            assertEquals(1.5, cur.getDouble(1), 0);
+            assertEquals("one", cur.getString(2));
+            assertArrayEquals(new byte[] {1, 2}, cur.getBlob(3));
+            assertTrue(cur.isNull(4));
+            assertTrue(cur.moveToNext());
+            assertEquals(2, cur.getLong(0));
+            assertEquals(2.5, cur.getDouble(1), 0);
+            assertEquals("two", cur.getString(2));
+            assertArrayEquals(new byte[] {3}, cur.getBlob(3));
+            assertEquals(1, cur.getLong(4));
+        }
+    }
+
+
+    @Test
+    public void idTablesAreReusedEmpty() {
+        DB db = getCol().getDb();
+        db.execute("CREATE TABLE t (i INTEGER)");
+        for (int i = 0; i < 10; i++) {
+            db.execute("INSERT INTO t VALUES (?)", i);
+        }
+
+        String name;
+        try (DB.IdTable evens = db.idTable(new long[] {0, 2, 4, 4});
+             DB.IdTable odds = db.idTable(Arrays.asList(1L, 3L))) {
+            name = evens.getName();
+            assertNotEquals(name, odds.getName());
+            assertEquals(6, db.queryScalar("SELECT sum(i) FROM t WHERE i IN " + evens.getName()));
+            assertEquals(4, db.queryScalar("SELECT sum(i) FROM t WHERE i IN " + odds.getName()));
+        }
+        try (DB.IdTable table = db.idTable(new long[] {9})) {
+            // a closed table is used again, without its previous ids
+            assertTrue(table.getName().equals(name) || db.queryScalar("SELECT count() FROM " + name) == 0);
+            assertEquals(1, db.queryScalar("SELECT count() FROM t WHERE i IN " + table.getName()));
+        }
+        try (DB.IdTable empty = db.idTable(new long[0])) {
+            assertEquals(0, db.queryScalar("SELECT count() FROM t WHERE i IN " + empty.getName()));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.ichi2.libanki;
 
+import com.ichi2.anki.AnkiDroidApp;
 import com.ichi2.anki.RobolectricTest;
 import com.ichi2.anki.exception.DeckRenameException;
 import com.ichi2.anki.exception.FilteredAncestor;
@@ -9,7 +10,13 @@ import org.apache.http.util.Asserts;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
@@ -70,6 +77,30 @@ public class DecksTest extends RobolectricTest {
         }
     }
 
+    @Test
+    public void treeFollowsNames() throws DeckRenameException {
+        Decks decks = getCol().getDecks();
+        long a = addDeck("A");
+        long b = addDeck("A::B");
+        long c = addDeck("A::B::C");
+        long d = addDeck("A::D");
+        long ab = addDeck("Ab");
+        assertEquals(Arrays.asList(b, c, d), decks.childIds(a));
+        assertEquals(Arrays.asList(a, b, c, d), decks.deckAndChildIds(a));
+        assertEquals(new HashSet<>(Arrays.asList(b, d)), decks.childMap().get(a).keySet());
+        assertEquals(Arrays.asList(decks.get(a), decks.get(b)), decks.parents(c));
+        assertTrue(decks.childIds(ab).isEmpty());
+
+        decks.rename(decks.get(b), "E::B");
+        long e = decks.id_dont_create("E");
+        assertEquals(Collections.singletonList(d), decks.childIds(a));
+        assertEquals(Arrays.asList(b, c), decks.childIds(e));
+        assertEquals(Arrays.asList(decks.get(e), decks.get(b)), decks.parents(c));
+
+        decks.rem(d);
+        assertTrue(decks.childIds(a).isEmpty());
+    }
+
     @Test
     public void trim() {
         assertThat(Decks.strip("A\nB C\t D"), is("A\nB C\t D"));
@@ -319,4 +350,90 @@ public class DecksTest extends RobolectricTest {
         assertNull(decks.byName("filtered::sub"));
     }
 
+
+    @Test
+    public void changedDecksAreStoredSeparately() {
+        AnkiDroidApp.getSharedPrefs(getTargetContext()).edit().putBoolean("decksStoredSeparately", true).apply();
+        Collection col = getCol();
+        Decks decks = col.getDecks();
+        long did = addDeck("separate");
+        col.save();
+        String colDecks = col.getDb().queryString("SELECT decks FROM col");
+        String colDconf = col.getDb().queryString("SELECT dconf FROM col");
+
+        Deck deck = decks.get(did);
+        deck.put("desc", "changed");
+        decks.save(deck);
+        col.save();
+
+        // only the changed deck is written
+        assertEquals(colDecks, col.getDb().queryString("SELECT decks FROM col"));
+        assertEquals(1, col.getDb().queryScalar("SELECT count() FROM " + Decks.DECK_ROWS + " WHERE id = ?", did));
+        decks.load(colDecks, colDconf);
+        assertEquals("changed", decks.get(did).getString("desc"));
+
+        // writing all decks moves them back into the col table
+        decks.flushAll();
+        assertEquals(0, col.getDb().queryScalar("SELECT count() FROM " + Decks.DECK_ROWS));
+        decks.load(col.getDb().queryString("SELECT decks FROM col"), col.getDb().queryString("SELECT dconf FROM col"));
+        assertEquals("changed", decks.get(did).getString("desc"));
+    }
+
+
+    /** Readers on other threads see each deck with a consistent name while the decks are renamed. */
+    @Test
+    public void namesReadWhileRenaming() throws Exception {
+        Collection col = getCol();
+        Decks decks = col.getDecks();
+        addDeck("A");
+        addDeck("B");
+        List<Deck> renamed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            renamed.add(decks.get(addDeck("A::" + i)));
+        }
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        for (Deck deck : renamed) {
+                            DeckName name = deck.getDeckName();
+                            String[] path = name.getPath();
+                            if (path.length != 2 || !name.getName().equals(path[0] + "::" + path[1])
+                                    || !name.getParent().getName().equals(path[0])
+                                    || !name.getNormalized().equals(Decks.normalizeName(name.getName()))) {
+                                errors.add(name.getName());
+                            }
+                            // the functions of the names are computed in parallel
+                            if (!Arrays.equals(path, Decks.path(name.getName())) || !path[0].equals(Decks.parent(name.getName()))) {
+                                errors.add(name.getName());
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e.toString());
+                }
+            });
+            readers[t].start();
+        }
+        for (int round = 0; round < 100; round++) {
+            String parent = round % 2 == 0 ? "B" : "A";
+            for (int i = 0; i < renamed.size(); i++) {
+                decks.rename(renamed.get(i), parent + "::" + i);
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(Collections.emptyList(), new ArrayList<>(errors));
+        for (int i = 0; i < renamed.size(); i++) {
+            assertEquals(renamed.get(i), decks.byName("a::" + i));
+            assertEquals("A", decks.parents(renamed.get(i).getLong("id")).get(0).getString("name"));
+        }
+    }
 }
@@ -19,9 +19,11 @@ package com.ichi2.libanki;
 import android.content.Intent;
 import android.util.Pair;
 
+import com.ichi2.anki.AnkiDroidApp;
 import com.ichi2.anki.CardBrowser;
 import com.ichi2.anki.RobolectricTest;
 import com.ichi2.anki.exception.ConfirmModSchemaException;
+import com.ichi2.async.TaskManager;
 import com.ichi2.libanki.sched.SchedV2;
 import com.ichi2.libanki.utils.Time;
 import com.ichi2.utils.JSONObject;
@@ -30,8 +32,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -49,7 +53,9 @@ import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -428,4 +434,191 @@ public class FinderTest extends RobolectricTest {
         assertEquals(0, col.findDupes("Front").size());
     }
 
+
+    @Test
+    public void searchIndexKeepsSearchResults() {
+        AnkiDroidApp.getSharedPrefs(getTargetContext()).edit().putBoolean("searchIndex", true).commit();
+        Collection col = getCol();
+        Note hotdog = addNoteUsingBasicModel("hotdog", "sausage");
+        addNoteUsingBasicModel("Dog<b>house</b>", "kennel");
+        addNoteUsingBasicModel("cat", "Ünïcode");
+        // may be false if FTS5 is not available, searches must work anyway
+        boolean indexed = col.getSearchIndex().rebuild();
+
+        assertEquals(2, col.findNotes("dog").size());
+        // found in the sort field, which has no HTML
+        assertEquals(1, col.findNotes("DOGHOUSE").size());
+        assertEquals(1, col.findNotes("-dog").size());
+        assertEquals(1, col.findNotes("front:hotdog").size());
+        assertEquals(1, col.findNotes("back:sau*").size());
+        assertEquals(1, col.findNotes("Ünïcode").size());
+        assertSameResultsWithoutIndex(col);
+
+        hotdog.setField(0, "hamburger");
+        hotdog.flush();
+        assertEquals(1, col.findNotes("dog").size());
+        assertEquals(1, col.findNotes("burger").size());
+        if (indexed) {
+            assertEquals(1, indexedNotes(col, hotdog.getId(), "%hamburger%"));
+            assertEquals(0, indexedNotes(col, hotdog.getId(), "%hotdog%"));
+        }
+        assertSameResultsWithoutIndex(col);
+
+        col.remNotes(new long[] {hotdog.getId()});
+        assertEquals(0, col.findNotes("burger").size());
+        if (indexed) {
+            assertEquals(0, indexedNotes(col, hotdog.getId(), "%"));
+        }
+        assertSameResultsWithoutIndex(col);
+
+        // the index left out of an upload is created again
+        col.getSearchIndex().drop();
+        col.getSearchIndex().restore();
+        if (indexed) {
+            assertEquals(col.getDb().queryScalar("SELECT count() FROM notes"), col.getDb().queryScalar("SELECT count() FROM " + SearchIndex.TABLE));
+        }
+        assertEquals(1, col.findNotes("kennel").size());
+    }
+
+
+    /** Number of rows of the search index for the note nid, whose text is like pattern */
+    private static int indexedNotes(Collection col, long nid, String pattern) {
+        return col.getDb().queryScalar("SELECT count() FROM " + SearchIndex.TABLE + " WHERE rowid = ? AND flds LIKE ?", nid, pattern);
+    }
+
+
+    /** The searches find the same notes with the index, if it exists, and without it */
+    private static void assertSameResultsWithoutIndex(Collection col) {
+        String[] queries = {"dog", "DOGHOUSE", "-dog", "front:hotdog", "back:sau*", "Ünïcode", "burger", "kennel", "ham"};
+        List<List<Long>> withIndex = new ArrayList<>();
+        for (String query : queries) {
+            withIndex.add(col.findNotes(query));
+        }
+        col.getSearchIndex().drop();
+        try {
+            for (int i = 0; i < queries.length; i++) {
+                assertEquals(queries[i], new HashSet<>(withIndex.get(i)), new HashSet<>(col.findNotes(queries[i])));
+            }
+        } finally {
+            col.getSearchIndex().restore();
+        }
+    }
+
+
+    @Test
+    public void tagIndexFollowsNotes() {
+        Collection col = getCol();
+        Note rome = addNoteUsingBasicModel("Rome", "Italy");
+        rome.addTag("geo::europe::italy");
+        rome.addTag("capital");
+        rome.flush();
+        Note paris = addNoteUsingBasicModel("Paris", "France");
+        paris.addTag("geo::europe::france");
+        paris.addTag("capital");
+        paris.flush();
+        Note lima = addNoteUsingBasicModel("Lima", "Peru");
+        lima.addTag("geo::america");
+        lima.addTag("Capital");
+        lima.flush();
+        addNoteUsingBasicModel("Lyon", "France");
+
+        // the tags are read from the notes until the index is created, with the same results
+        assertFalse(col.getTagIndex().isReady());
+        assertTagSearches(col);
+        List<String> tags = col.getTagIndex().all();
+        List<String> tagsInDeck = col.getTags().byDeck(1, true);
+        col.getTagIndex().ensureExists();
+        assertEquals(tags, col.getTagIndex().all());
+        assertEquals(new HashSet<>(tagsInDeck), new HashSet<>(col.getTags().byDeck(1, true)));
+        assertTagSearches(col);
+
+        // the index is updated when the tags change
+        paris.delTag("capital");
+        paris.flush();
+        assertEquals(2, col.findNotes("tag:capital").size());
+        col.getTags().bulkAdd(Arrays.asList(paris.getId(), lima.getId()), "visited");
+        assertEquals(2, col.findNotes("tag:visited").size());
+        col.remNotes(new long[] {lima.getId()});
+        assertEquals(1, col.findNotes("tag:visited").size());
+        assertFalse(col.getTagIndex().all().contains("geo::america"));
+
+        tags = col.getTagIndex().all();
+        col.getTagIndex().rebuild();
+        assertEquals(col.getTagIndex().all(), tags);
+        assertEquals(new HashSet<>(tags), new HashSet<>(col.getTags().byDeck(1, true)));
+    }
+
+
+    private static void assertTagSearches(Collection col) {
+        assertEquals(3, col.findNotes("tag:capital").size());
+        assertEquals(3, col.findNotes("tag:geo::*").size());
+        assertEquals(2, col.findNotes("tag:geo::europe::*").size());
+        assertEquals(0, col.findNotes("tag:geo").size());
+        assertEquals(0, col.findNotes("tag:europe").size());
+        assertEquals(1, col.findNotes("tag:*::france").size());
+        assertEquals(1, col.findNotes("tag:none").size());
+    }
+
+
+    @Test
+    public void checkDatabasePrunesUnusedTags() {
+        Collection col = getCol();
+        col.getTagIndex().ensureExists();
+        Note note = addNoteUsingBasicModel("Rome", "Italy");
+        note.addTag("old");
+        note.flush();
+        note.delTag("old");
+        note.addTag("new");
+        note.flush();
+        assertEquals(1, col.getDb().queryScalar("SELECT count() FROM " + TagIndex.TAGS_TABLE + " WHERE name = 'old'"));
+
+        col.fixIntegrity(new TaskManager.ProgressCallback<String>(null, getTargetContext().getResources()) { });
+
+        assertEquals(0, col.getDb().queryScalar("SELECT count() FROM " + TagIndex.TAGS_TABLE + " WHERE name = 'old'"));
+        assertEquals(Arrays.asList("new"), col.getTagIndex().all());
+        assertEquals(1, col.findNotes("tag:new").size());
+    }
+
+
+    @Test
+    public void cardIdsAreTheCardsFound() {
+        Collection col = getCol();
+        for (int i = 0; i < 25; i++) {
+            addNoteUsingBasicAndReversedModel("word" + (i % 4), "back" + i);
+        }
+        for (String query : new String[] {"", "word1", "card:1"}) {
+            for (String sortType : new String[] {"noteCrt", "noteFld", "cardDue", "cardEase", "cardIvl"}) {
+                for (boolean backwards : new boolean[] {false, true}) {
+                    col.getConf().put("sortType", sortType);
+                    col.getConf().put("sortBackwards", backwards);
+                    List<Long> ids = new ArrayList<>();
+                    for (long id : new Finder(col).findCardIds(query, true, null)) {
+                        ids.add(id);
+                    }
+                    assertEquals(query + " sorted by " + sortType, col.findCards(query, true).size(), ids.size());
+                    assertEquals(query + " sorted by " + sortType, new HashSet<>(col.findCards(query, true)), new HashSet<>(ids));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void firstCardIdsAreGivenBeforeTheSearchEnds() {
+        Collection col = getCol();
+        for (int i = 0; i < 10; i++) {
+            addNoteUsingBasicModel("word" + i, "back");
+        }
+        Finder finder = new Finder(col);
+        List<long[]> firstIds = new ArrayList<>();
+        long[] ids = finder.findCardIds("", true, 4, firstIds::add, null);
+        assertEquals(10, ids.length);
+        assertEquals(1, firstIds.size());
+        assertArrayEquals(Arrays.copyOf(ids, 4), firstIds.get(0));
+
+        // not given when the search finds fewer cards
+        firstIds.clear();
+        assertEquals(10, finder.findCardIds("", true, 11, firstIds::add, null).length);
+        assertEquals(0, firstIds.size());
+    }
 }
@@ -42,6 +42,12 @@ public class MathJaxClozeTest extends RobolectricTest {
         assertEquals(escaped_s2, TemplateFilters.removeFormattingFromMathjax(original_s2, "1"));
     }
 
+    @Test
+    public void removeFormattingFromMathjaxWithoutMathJax() {
+        final String s = "{{c1::a}} (b) [c] {{c1::d}}";
+        assertEquals(s, TemplateFilters.removeFormattingFromMathjax(s, "1"));
+    }
+
     @Test
     public void verifyMathJaxClozeCards() {
         final Context context = ApplicationProvider.getApplicationContext();
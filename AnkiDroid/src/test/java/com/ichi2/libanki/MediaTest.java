@@ -5,6 +5,11 @@ import com.ichi2.anki.RobolectricTest;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static com.ichi2.testutils.AnkiAssert.assertEqualsArrayList;
@@ -56,6 +61,38 @@ public class MediaTest extends RobolectricTest {
         assertEquals("<img src=\"foo%20bar.jpg\">", col.getMedia().escapeImages("<img src=\"foo bar.jpg\">"));
     }
 
+
+    @Test
+    public void filesInHtmlFindsWhatTheRegexpsFind() {
+        String[] htmls = {
+                "<img src=one><img src='two'>[sound:three.mp3]",
+                "[SOUND:a.mp3][sound:][sound:b]]<IMG SRC=\"c.png\">",
+                "[sound:<img src=inside.png>]",
+                "<img alt=\" src='a'\" src='b'>",
+                "<img src=''x' src= y src=z>",
+                "<img src=\"unclosed>",
+                "<img class=latex src=\"a b.png\" style='x'><img src=c.png alt=d",
+                "<imgsrc=x> <img  src=y > <img src=\"\"> [sound:no end",
+        };
+        for (String html : htmls) {
+            assertEquals(html, filesInHtmlByRegexps(html), Media._filesInHtml(html));
+        }
+    }
+
+
+    /** What filesInStr returned before _filesInHtml */
+    private static List<String> filesInHtmlByRegexps(String html) {
+        List<String> files = new ArrayList<>();
+        for (Pattern p : Media.mRegexps) {
+            int fnameIdx = Media.indexOfFname(p);
+            Matcher m = p.matcher(html);
+            while (m.find()) {
+                files.add(m.group(fnameIdx));
+            }
+        }
+        return files;
+    }
+
     /* TODO: file
      @Test public void test_deckIntegration(){
      Collection col = getCol();
@@ -0,0 +1,152 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import com.ichi2.anki.RobolectricTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static com.ichi2.libanki.stats.Stats.SECONDS_PER_DAY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ReviewRollupTest extends RobolectricTest {
+
+    @Test
+    public void updatedByReviewsAndUndo() {
+        Collection col = getCol();
+        for (int i = 0; i < 5; i++) {
+            addNoteUsingBasicModel("front" + i, "back");
+        }
+        col.reset();
+        col.getReviewRollup().ensureExists();
+
+        for (int i = 0; i < 5; i++) {
+            Card card = col.getSched().getCard();
+            col.getSched().answerCard(card, 1 + i % 4);
+        }
+        col.undo();
+        col.getReviewJournal().flush();
+
+        List<String> rows = rows();
+        assertEquals(4, count(rows));
+        col.getReviewRollup().rebuild();
+        assertEquals(rows(), rows);
+    }
+
+
+    @Test
+    public void derivedTablesAreBuiltFromAnotherThread() throws Exception {
+        Collection col = getCol();
+        addNoteUsingBasicModel("front", "back");
+        col.reset();
+        col.getSched().answerCard(col.getSched().getCard(), Consts.BUTTON_THREE);
+        col.getReviewJournal().flush();
+        assertFalse(col.getReviewRollup().isReady());
+        assertFalse(col.getTagIndex().isReady());
+
+        Thread builder = new Thread(col::ensureDerivedTables);
+        builder.start();
+        builder.join();
+
+        assertTrue(col.getReviewRollup().isReady());
+        assertTrue(col.getTagIndex().isReady());
+        assertEquals(1, count(rows()));
+    }
+
+
+    @Test
+    public void updatedBySync() {
+        Collection col = getCol();
+        long cid = addNoteUsingBasicModel("front", "back").firstCard().getId();
+        col.getReviewRollup().ensureExists();
+        long cutoff = col.getSched().getDayCutoff();
+        List<Object[]> revlog = new ArrayList<>();
+        for (int day = 0; day < 3; day++) {
+            revlog.add(new Object[] {(cutoff - day * SECONDS_PER_DAY - 60) * 1000L, cid, 1L, 3L, 1L, 0L, 2500L, 6000L, 0L});
+        }
+        col.getDb().executeMany("INSERT OR IGNORE INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", revlog);
+
+        col.getReviewRollup().refresh(revlog);
+
+        List<String> rows = rows();
+        assertEquals(3, count(rows));
+        col.getReviewRollup().rebuild();
+        assertEquals(rows(), rows);
+    }
+
+
+    /** The rates are the same as the ones of the estimator's query of the revlog */
+    @Test
+    public void answerRatesAsRevlog() {
+        Collection col = getCol();
+        long cid = addNoteUsingBasicModel("front", "back").firstCard().getId();
+        long cutoff = col.getSched().getDayCutoff();
+        Random random = new Random(42);
+        List<Object[]> revlog = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long seconds = cutoff - random.nextInt(20 * (int) SECONDS_PER_DAY) - 1;
+            if ((cutoff - seconds) % SECONDS_PER_DAY == 0) {
+                // the rollup counts the reviews during the second of the limit before it
+                continue;
+            }
+            long id = seconds * 1000L + i;
+            revlog.add(new Object[] {id, cid, 1L, (long) random.nextInt(5), 1L, 0L, 2500L, (long) random.nextInt(60000), (long) random.nextInt(5)});
+        }
+        col.getDb().executeMany("INSERT OR IGNORE INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", revlog);
+
+        long since = cutoff - 10 * SECONDS_PER_DAY;
+        double[] expected = new double[6];
+        try (Cursor cur = col.getDb().query("SELECT "
+                + "avg(CASE WHEN type = 0 THEN CASE WHEN ease > 1 THEN 1.0 ELSE 0.0 END END), avg(CASE WHEN type = 0 THEN time END), "
+                + "avg(CASE WHEN type IN (1, 3) THEN CASE WHEN ease > 1 THEN 1.0 ELSE 0.0 END END), avg(CASE WHEN type IN (1, 3) THEN time END), "
+                + "avg(CASE WHEN type = 2 THEN CASE WHEN ease > 1 THEN 1.0 ELSE 0.0 END END), avg(CASE WHEN type = 2 THEN time END) "
+                + "FROM revlog WHERE id > ?", since * 1000)) {
+            cur.moveToFirst();
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = cur.getDouble(i);
+            }
+        }
+        // read from the revlog until the rollup is computed in the background
+        assertFalse(col.getReviewRollup().isReady());
+        assertArrayEquals(expected, col.getReviewRollup().answerRates(since), 1e-9);
+        col.getReviewRollup().ensureExists();
+        assertTrue(col.getReviewRollup().isReady());
+        assertArrayEquals(expected, col.getReviewRollup().answerRates(since), 1e-9);
+    }
+
+
+    private List<String> rows() {
+        List<String> rows = new ArrayList<>();
+        try (Cursor cur = getCol().getDb().query("SELECT day, type, ease, mature, hour, cnt, time FROM " + ReviewRollup.TABLE + " ORDER BY day, type, ease, mature, hour")) {
+            while (cur.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cur.getColumnCount(); i++) {
+                    row.append(cur.getLong(i)).append(' ');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+
+    /** The total count of the rows */
+    private static int count(List<String> rows) {
+        int count = 0;
+        for (String row : rows) {
+            count += Integer.parseInt(row.split(" ")[5]);
+        }
+        return count;
+    }
+}
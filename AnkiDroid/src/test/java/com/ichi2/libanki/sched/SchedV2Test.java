@@ -29,6 +29,7 @@ import com.ichi2.libanki.Decks;
 import com.ichi2.libanki.Model;
 import com.ichi2.libanki.Models;
 import com.ichi2.libanki.Note;
+import com.ichi2.libanki.ReviewJournal;
 import com.ichi2.libanki.backend.exception.BackendNotSupportedException;
 import com.ichi2.testutils.MockTime;
 import com.ichi2.testutils.libanki.FilteredDeckUtil;
@@ -1426,6 +1427,235 @@ public class SchedV2Test extends RobolectricTest {
     }
 
 
+    @Test
+    public void deckDueListCountsEachQueueAndAppliesLimits() throws Exception {
+        Collection col = getColV2();
+        long parent = addDeck("parent");
+        long child = addDeck("parent::child");
+        DeckConfig conf = col.getDecks().getConf(col.getDecks().confId("limited"));
+        conf.getJSONObject("new").put("perDay", 2);
+        conf.getJSONObject("rev").put("perDay", 3);
+        col.getDecks().updateConf(conf);
+        col.getDecks().setConf(col.getDecks().get(child), conf.getLong("id"));
+        for (int i = 0; i < 4; i++) {
+            addNoteInDeck(col, parent);
+            addNoteInDeck(col, child);
+            Card rev = addNoteInDeck(col, child);
+            rev.setQueue(QUEUE_TYPE_REV);
+            rev.setType(CARD_TYPE_REV);
+            rev.setDue(0);
+            rev.flush();
+        }
+        Card lrn = addNoteInDeck(col, child);
+        lrn.setQueue(QUEUE_TYPE_LRN);
+        lrn.setType(CARD_TYPE_LRN);
+        lrn.setDue(0);
+        lrn.flush();
+        Card dayLrn = addNoteInDeck(col, child);
+        dayLrn.setQueue(QUEUE_TYPE_DAY_LEARN_RELEARN);
+        dayLrn.setType(CARD_TYPE_LRN);
+        dayLrn.setDue(0);
+        dayLrn.flush();
+        // neither due today nor counted
+        Card futureRev = addNoteInDeck(col, child);
+        futureRev.setQueue(QUEUE_TYPE_REV);
+        futureRev.setType(CARD_TYPE_REV);
+        futureRev.setDue(col.getSched().getToday() + 10);
+        futureRev.flush();
+
+        List<DeckDueTreeNode> list = col.getSched().deckDueList();
+        DeckDueTreeNode parentNode = null;
+        DeckDueTreeNode childNode = null;
+        for (DeckDueTreeNode node : list) {
+            if (node.getDid() == parent) {
+                parentNode = node;
+            } else if (node.getDid() == child) {
+                childNode = node;
+            }
+        }
+        assertNotNull(parentNode);
+        assertNotNull(childNode);
+        // parent only counts its own new cards, but counts reviews of its descendants
+        assertEquals(4, parentNode.getNewCount());
+        assertEquals(0, parentNode.getLrnCount());
+        assertEquals(4, parentNode.getRevCount());
+        // child is limited by its own options
+        assertEquals(2, childNode.getNewCount());
+        assertEquals(2, childNode.getLrnCount());
+        assertEquals(3, childNode.getRevCount());
+    }
+
+
+    @Test
+    public void dueCountIndexIsKeptUpToDate() throws Exception {
+        Collection col = getColV2();
+        SchedV2 sched = (SchedV2) col.getSched();
+        long child = addDeck("Default::child");
+        List<Card> cards = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            cards.add(addNoteInDeck(col, i % 2 == 0 ? 1 : child));
+        }
+        for (int i = 0; i < 3; i++) {
+            Card rev = cards.get(i);
+            rev.setQueue(QUEUE_TYPE_REV);
+            rev.setType(CARD_TYPE_REV);
+            rev.setDue(0);
+            rev.flush();
+        }
+        col.getDecks().select(1);
+        sched.setUseDueCountIndex(true);
+        col.reset();
+        assertIndexedCountsMatchDatabase(sched);
+
+        sched.answerCard(getCard(), Consts.BUTTON_THREE);
+        assertIndexedCountsMatchDatabase(sched);
+
+        sched.buryCards(new long[] {cards.get(1).getId()});
+        sched.suspendCards(new long[] {cards.get(3).getId()});
+        assertIndexedCountsMatchDatabase(sched);
+
+        sched.unsuspendCards(new long[] {cards.get(3).getId()});
+        sched.forgetCards(Collections.singletonList(cards.get(2).getId()));
+        sched.reschedCards(Collections.singletonList(cards.get(4).getId()), 0, 0);
+        assertIndexedCountsMatchDatabase(sched);
+
+        // resetting keeps the index, and a change made without the scheduler invalidates it once declared
+        col.reset();
+        col.getDb().execute("UPDATE cards SET did = ? WHERE id = ?", child, cards.get(0).getId());
+        col.cardsModified();
+        assertIndexedCountsMatchDatabase(sched);
+
+        col.getDecks().setDeck(new long[] {cards.get(5).getId()}, 1);
+        assertIndexedCountsMatchDatabase(sched);
+
+        Card flushed = col.getCard(cards.get(4).getId());
+        flushed.setDid(child);
+        flushed.flush();
+        assertIndexedCountsMatchDatabase(sched);
+    }
+
+
+    @Test
+    public void dueCountIndexIsKeptUpToDateByConcurrentAnswers() throws Exception {
+        Collection col = getColV2();
+        SchedV2 sched = (SchedV2) col.getSched();
+        List<Card> cards = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            cards.add(addNoteInDeck(col, 1));
+        }
+        sched.setUseDueCountIndex(true);
+        sched.resetCounts();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < cards.size(); i += threads.length) {
+                    sched.suspendCards(new long[] {cards.get(i).getId()});
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertIndexedCountsMatchDatabase(sched);
+    }
+
+
+    private void assertIndexedCountsMatchDatabase(SchedV2 sched) {
+        sched.resetCounts();
+        Counts indexed = sched.counts();
+        List<DeckDueTreeNode> indexedTree = sched.deckDueTree();
+        sched.setUseDueCountIndex(false);
+        sched.resetCounts();
+        Counts fromDatabase = sched.counts();
+        List<DeckDueTreeNode> treeFromDatabase = sched.deckDueTree();
+        sched.setUseDueCountIndex(true);
+        assertEquals(fromDatabase, indexed);
+        assertEquals(treeFromDatabase, indexedTree);
+        // build the new index, so that the next changes are applied to it incrementally
+        sched.resetCounts();
+    }
+
+
+    private Card addNoteInDeck(Collection col, long did) {
+        Note note = col.newNote();
+        note.setItem("Front", "front");
+        note.model().put("did", did);
+        col.addNote(note);
+        return note.cards().get(0);
+    }
+
+
+    @Test
+    public void reviewJournalKeepsAnswersUntilSaved() throws Exception {
+        Collection col = getColV2();
+        SchedV2 sched = (SchedV2) col.getSched();
+        sched.setUseReviewJournal(true);
+        addNoteUsingBasicModel("foo", "bar");
+        addNoteUsingBasicModel("baz", "qux");
+        col.reset();
+        Card card = sched.getCard();
+        sched.answerCard(card, Consts.BUTTON_ONE);
+        // the database is not changed yet, but the card is loaded with its new state
+        assertEquals(QUEUE_TYPE_NEW, col.getDb().queryScalar("SELECT queue FROM cards WHERE id = ?", card.getId()));
+        assertEquals(0, col.getDb().queryScalar("SELECT count() FROM revlog"));
+        assertEquals(QUEUE_TYPE_LRN, col.getCard(card.getId()).getQueue());
+
+        // as if the collection was opened again after the process was killed
+        new ReviewJournal(col).replay();
+        assertEquals(QUEUE_TYPE_LRN, col.getDb().queryScalar("SELECT queue FROM cards WHERE id = ?", card.getId()));
+        assertEquals(1, col.getDb().queryScalar("SELECT count() FROM revlog"));
+
+        Card other = sched.getCard();
+        assertNotEquals(card.getId(), other.getId());
+        sched.answerCard(other, Consts.BUTTON_THREE);
+        col.save();
+        // the replayed review is not logged twice
+        assertEquals(2, col.getDb().queryScalar("SELECT count() FROM revlog"));
+
+        col.undo();
+        assertEquals(QUEUE_TYPE_NEW, col.getDb().queryScalar("SELECT queue FROM cards WHERE id = ?", other.getId()));
+        assertEquals(1, col.getDb().queryScalar("SELECT count() FROM revlog"));
+    }
+
+
+    @Test
+    public void reviewJournalIsFlushedForTheQueuesOfItsCards() throws Exception {
+        Collection col = getColV2();
+        SchedV2 sched = (SchedV2) col.getSched();
+        sched.setUseReviewJournal(true);
+        addNoteUsingBasicModel("foo", "bar");
+        col.reset();
+        Card card = sched.getCard();
+        sched.answerCard(card, Consts.BUTTON_ONE);
+
+        // the card went from the new queue to the learning queue
+        col.getReviewJournal().flushQueues(QUEUE_TYPE_REV, QUEUE_TYPE_DAY_LEARN_RELEARN);
+        assertEquals(0, col.getDb().queryScalar("SELECT count() FROM revlog"));
+        col.getReviewJournal().flushQueues(QUEUE_TYPE_NEW);
+        assertEquals(1, col.getDb().queryScalar("SELECT count() FROM revlog"));
+        assertEquals(QUEUE_TYPE_LRN, col.getDb().queryScalar("SELECT queue FROM cards WHERE id = ?", card.getId()));
+    }
+
+
+    @Test
+    public void reviewJournalIsKeptWhenClosingWithoutSaving() throws Exception {
+        Collection col = getColV2();
+        SchedV2 sched = (SchedV2) col.getSched();
+        sched.setUseReviewJournal(true);
+        addNoteUsingBasicModel("foo", "bar");
+        col.reset();
+        Card card = sched.getCard();
+        sched.answerCard(card, Consts.BUTTON_ONE);
+
+        col.close(false);
+        col.reopen();
+        assertEquals(QUEUE_TYPE_LRN, col.getDb().queryScalar("SELECT queue FROM cards WHERE id = ?", card.getId()));
+        assertEquals(1, col.getDb().queryScalar("SELECT count() FROM revlog"));
+    }
+
+
     @Test
     public void test_deckTree() throws Exception {
         Collection col = getColV2();
@@ -0,0 +1,40 @@
+package com.ichi2.libanki.stats;
+
+import com.ichi2.anki.AnkiDroidApp;
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.anki.stats.StatsMetaInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AdvancedStatisticsTest extends RobolectricTest {
+
+    @Test
+    public void forecastIsReproducibleWithASeed() {
+        AnkiDroidApp.getSharedPrefs(getTargetContext()).edit()
+                .putBoolean("advanced_statistics_enabled", true)
+                .putInt("advanced_forecast_stats_mc_n_iterations", 13)
+                .apply();
+        for (int i = 0; i < 50; i++) {
+            addNoteUsingBasicModel("front" + i, "back" + i);
+        }
+
+        StatsMetaInfo first = forecast(42);
+        StatsMetaInfo second = forecast(42);
+
+        assertTrue(first.isStatsCalculated());
+        assertArrayEquals(first.getmSeriesList(), second.getmSeriesList());
+        assertArrayEquals(first.getmCumulative(), second.getmCumulative());
+    }
+
+
+    private StatsMetaInfo forecast(long seed) {
+        return new AdvancedStatistics(seed).calculateDueAsMetaInfo(new StatsMetaInfo(), Stats.AxisType.TYPE_MONTH, getTargetContext(), "(1)");
+    }
+}
@@ -0,0 +1,205 @@
+package com.ichi2.libanki.stats;
+
+import android.database.Cursor;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.stats.Stats.AxisType;
+import com.ichi2.libanki.utils.Time;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static com.ichi2.libanki.stats.Stats.SECONDS_PER_DAY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/** Checks that the aggregates are the same as the results of the queries of each chart that they replace */
+@RunWith(AndroidJUnit4.class)
+public class RevlogStatsTest extends RobolectricTest {
+    private long mDid;
+
+
+    @Before
+    public void addReviews() {
+        Collection col = getCol();
+        col.getRevlogStatsCache().clear();
+        mDid = addDeck("Other");
+        List<Long> cids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Card card = addNoteUsingBasicModel("front" + i, "back").firstCard();
+            if (i % 2 == 0) {
+                card.setDid(mDid);
+                card.flush();
+            }
+            cids.add(card.getId());
+        }
+        Random random = new Random(42);
+        long cutoff = col.getSched().getDayCutoff();
+        Set<Long> ids = new HashSet<>();
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            long id;
+            if (i < 100) {
+                // on the limits of the periods
+                int[] days = {1, 28, 30, 32, 364, 365, 371};
+                id = (cutoff - days[i % days.length] * SECONDS_PER_DAY) * 1000 + random.nextInt(2);
+            } else {
+                id = (cutoff - random.nextInt(800 * (int) SECONDS_PER_DAY)) * 1000 + random.nextInt(1000);
+            }
+            if (!ids.add(id)) {
+                continue;
+            }
+            int type = random.nextInt(5);
+            int ease = type == 4 ? 0 : 1 + random.nextInt(4);
+            rows.add(new Object[] {id, cids.get(random.nextInt(cids.size())), -1, ease, 1, random.nextInt(40), 2500, random.nextInt(60000), type});
+        }
+        col.getDb().executeMany("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", rows);
+    }
+
+
+    @Test
+    public void sameAsQueries() {
+        for (AxisType type : AxisType.values()) {
+            assertSameAsQueries(type, "cid IN (SELECT id FROM cards WHERE did IN (" + mDid + "))");
+        }
+    }
+
+
+    /**
+     * All decks are read from the revlog until the daily reviews are computed, then from them, which are the same except
+     * for the reviews during a limit second
+     */
+    @Test
+    public void sameAsQueriesForAllDecks() {
+        Collection col = getCol();
+        col.getDb().execute("DELETE FROM revlog WHERE (id / 1000 - ?) % 3600 = 0", col.getSched().getDayCutoff());
+        for (AxisType type : AxisType.values()) {
+            assertSameAsQueries(type, "");
+        }
+        col.getReviewRollup().ensureExists();
+        col.getRevlogStatsCache().clear();
+        for (AxisType type : AxisType.values()) {
+            assertSameAsQueries(type, "");
+        }
+    }
+
+
+    @Test
+    public void keptUntilNextReview() {
+        Collection col = getCol();
+        RevlogStats stats = RevlogStats.get(col, "", AxisType.TYPE_MONTH);
+        assertSame(stats, RevlogStats.get(col, "", AxisType.TYPE_MONTH));
+
+        Card card = col.getSched().getCard();
+        col.getSched().answerCard(card, 3);
+        col.getReviewJournal().flush();
+
+        assertNotSame(stats, RevlogStats.get(col, "", AxisType.TYPE_MONTH));
+    }
+
+
+    private void assertSameAsQueries(AxisType type, String deckFilter) {
+        Collection col = getCol();
+        RevlogStats stats = RevlogStats.get(col, deckFilter, type);
+        long cutoff = col.getSched().getDayCutoff();
+        String and = deckFilter.isEmpty() ? "" : " AND " + deckFilter;
+        String period = type.days > 0 ? " AND id > " + (cutoff - type.days * SECONDS_PER_DAY) * 1000 : "";
+        String message = type + " " + deckFilter;
+
+        int num = Stats.getNum(type);
+        int chunk = Stats.getChunk(type);
+        String done = num == -1 ? "" : " AND id > " + (cutoff - (num + 1) * chunk * SECONDS_PER_DAY) * 1000;
+        for (String ti : new String[] {"1", "time/1000.0"}) {
+            String tf = ti.equals("1") ? "" : type == AxisType.TYPE_MONTH ? "/60.0" : "/3600.0";
+            List<double[]> expected = new ArrayList<>();
+            for (double[] row : query("SELECT (cast((id/1000 - " + cutoff + ") / " + SECONDS_PER_DAY + " AS INT))/" + chunk + " AS day, "
+                    + "sum(CASE WHEN type = 0 THEN " + ti + " ELSE 0 END)" + tf + ", "
+                    + "sum(CASE WHEN type = 1 AND lastIvl < 21 THEN " + ti + " ELSE 0 END)" + tf + ", "
+                    + "sum(CASE WHEN type = 1 AND lastIvl >= 21 THEN " + ti + " ELSE 0 END)" + tf + ", "
+                    + "sum(CASE WHEN type = 2 THEN " + ti + " ELSE 0 END)" + tf + ", "
+                    + "sum(CASE WHEN type = 3 THEN " + ti + " ELSE 0 END)" + tf
+                    + " FROM revlog WHERE 1" + done + and + " GROUP BY day ORDER BY day")) {
+                expected.add(new double[] {row[0], row[5], row[1], row[4], row[2], row[3]});
+            }
+            assertRows(message, expected, stats.done(chunk, ti.equals("1") ? 0 : type == AxisType.TYPE_MONTH ? 60 : 3600));
+        }
+
+        String ease4 = col.schedVer() == 1 ? "3" : "ease";
+        assertRows(message, query("SELECT (CASE WHEN type IN (0, 2) THEN 0 WHEN lastIvl < 21 THEN 1 ELSE 2 END) AS thetype, "
+                + "(CASE WHEN type IN (0, 2) AND ease = 4 THEN " + ease4 + " ELSE ease END), count() FROM revlog "
+                + "WHERE ease > 0" + period + and + " GROUP BY thetype, ease ORDER BY thetype, ease"), stats.eases());
+
+        double[] overview = query("SELECT count(), min(day), sum(time_per_day) FROM (SELECT (cast((id/1000 - " + cutoff + ") / "
+                + SECONDS_PER_DAY + " AS INT)) AS day, sum(time/1000.0/60.0) AS time_per_day FROM revlog WHERE ease > 0"
+                + period + and + " GROUP BY day)").get(0);
+        assertEquals(message, (int) overview[0], stats.daysStudied());
+        assertEquals(message, (int) overview[1], stats.firstDayStudied());
+        assertEquals(message, overview[2], stats.minutesStudied(), 1e-6);
+        assertEquals(message, (int) query("SELECT count() FROM revlog WHERE ease > 0" + period + and).get(0)[0], stats.answered());
+
+        int rolloverHour = col.schedVer() == 1 ? col.crtGregorianCalendar().get(Calendar.HOUR_OF_DAY) : col.getConf().optInt("rollover", 4);
+        long cut = cutoff - rolloverHour * 3600;
+        assertRows(message, query("SELECT 23 - ((cast((" + cut + " - id/1000) / 3600.0 AS int)) % 24) AS hour, "
+                + "sum(CASE WHEN ease = 1 THEN 0 ELSE 1 END) / cast(count() AS float) * 100, count() FROM revlog "
+                + "WHERE type IN (0, 1, 2)" + period + and + " GROUP BY hour HAVING count() > 30 ORDER BY hour"), stats.hours());
+
+        int weekDays = type.days > 0 ? Math.round(type.days / 7) * 7 : -1;
+        String weekPeriod = weekDays > 0 ? " AND id > " + (cutoff - weekDays * SECONDS_PER_DAY) * 1000 : "";
+        int hour = Time.gregorianCalendar(cutoff * 1000).get(Calendar.HOUR_OF_DAY);
+        assertRows(message, query("SELECT strftime('%w', datetime(cast(id/1000 - " + hour * 3600 + " AS int), 'unixepoch')) AS wd, "
+                + "sum(CASE WHEN ease = 1 THEN 0 ELSE 1 END) / cast(count() AS float) * 100, count() FROM revlog "
+                + "WHERE type IN (0, 1, 2)" + weekPeriod + and + " GROUP BY wd ORDER BY wd"), stats.weekdays());
+
+        String today = " AND id > " + (cutoff - SECONDS_PER_DAY) * 1000;
+        double[] todayRow = query("SELECT count(), sum(time)/1000, sum(CASE WHEN ease = 1 THEN 1 ELSE 0 END), "
+                + "sum(CASE WHEN type = 0 THEN 1 ELSE 0 END), sum(CASE WHEN type = 1 THEN 1 ELSE 0 END), "
+                + "sum(CASE WHEN type = 2 THEN 1 ELSE 0 END), sum(CASE WHEN type = 3 THEN 1 ELSE 0 END) FROM revlog "
+                + "WHERE ease > 0" + today + and).get(0);
+        double[] matureRow = query("SELECT count(), sum(CASE WHEN ease = 1 THEN 0 ELSE 1 END) FROM revlog "
+                + "WHERE ease > 0 AND lastIvl >= 21" + today + and).get(0);
+        int[] expectedToday = new int[9];
+        for (int i = 0; i < 7; i++) {
+            expectedToday[i] = (int) todayRow[i];
+        }
+        expectedToday[7] = (int) matureRow[0];
+        expectedToday[8] = (int) matureRow[1];
+        assertArrayEquals(message, expectedToday, stats.today());
+    }
+
+
+    private List<double[]> query(String query) {
+        List<double[]> rows = new ArrayList<>();
+        try (Cursor cur = getCol().getDb().query(query)) {
+            while (cur.moveToNext()) {
+                double[] row = new double[cur.getColumnCount()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = cur.getDouble(i);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+
+    private static void assertRows(String message, List<double[]> expected, List<double[]> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(message + " row " + i, expected.get(i), actual.get(i), 1e-6);
+        }
+    }
+}
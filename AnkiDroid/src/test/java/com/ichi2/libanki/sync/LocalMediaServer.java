@@ -0,0 +1,110 @@
+package com.ichi2.libanki.sync;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.Utils;
+import com.ichi2.utils.JSONArray;
+import com.ichi2.utils.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Stand-in for the media sync server, serving the files of a directory. As AnkiWeb, it sends the changes by pages,
+ * and zips of at most {@link Consts#SYNC_ZIP_SIZE} bytes, so that the client may receive fewer files than asked.
+ *
+ * Uploads are not supported.
+ */
+public class LocalMediaServer extends RemoteMediaServer {
+    /** Number of changes returned by each call to mediaChanges */
+    private static final int CHANGES_PAGE = 250;
+
+    private final File mDir;
+    /** Files of the server, the usn of each is its position plus one */
+    private final List<String> mFiles;
+
+
+    public LocalMediaServer(@NonNull Collection col, @NonNull File dir) {
+        super(col, "hkey", null, new HostNum(null));
+        mDir = dir;
+        String[] files = dir.list();
+        Arrays.sort(files);
+        mFiles = Arrays.asList(files);
+    }
+
+
+    @Override
+    public JSONObject begin() {
+        return new JSONObject().put("usn", mFiles.size()).put("sk", "sk");
+    }
+
+
+    @Override
+    public JSONArray mediaChanges(int lastUsn) {
+        JSONArray changes = new JSONArray();
+        for (int usn = lastUsn + 1; usn <= Math.min(mFiles.size(), lastUsn + CHANGES_PAGE); usn++) {
+            String fname = mFiles.get(usn - 1);
+            JSONArray change = new JSONArray();
+            change.put(fname);
+            change.put(usn);
+            change.put(Utils.fileChecksum(new File(mDir, fname)));
+            changes.put(change);
+        }
+        return changes;
+    }
+
+
+    @Override
+    public ZipFile downloadFiles(List<String> top) {
+        try {
+            File zip = File.createTempFile("LocalMediaServer", ".zip");
+            JSONObject meta = new JSONObject();
+            try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+                long size = 0;
+                for (int i = 0; i < top.size() && size < Consts.SYNC_ZIP_SIZE; i++) {
+                    byte[] content = Files.readAllBytes(new File(mDir, top.get(i)).toPath());
+                    out.putNextEntry(new ZipEntry(Integer.toString(i)));
+                    out.write(content);
+                    out.closeEntry();
+                    meta.put(Integer.toString(i), top.get(i));
+                    size += content.length;
+                }
+                out.putNextEntry(new ZipEntry("_meta"));
+                out.write(meta.toString().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            return new ZipFile(zip, ZipFile.OPEN_READ | ZipFile.OPEN_DELETE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    @Override
+    public JSONArray uploadChanges(File zip) {
+        throw new UnsupportedOperationException("LocalMediaServer only serves its files");
+    }
+
+
+    @Override
+    public String mediaSanity(int lcnt) {
+        return lcnt == mFiles.size() ? "OK" : "FAILED";
+    }
+
+
+    /** Files of the server, sorted by name */
+    public @NonNull List<String> getFiles() {
+        return new ArrayList<>(mFiles);
+    }
+}
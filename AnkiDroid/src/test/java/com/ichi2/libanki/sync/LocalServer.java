@@ -0,0 +1,129 @@
+package com.ichi2.libanki.sync;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.ichi2.libanki.Collection;
+import com.ichi2.utils.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import androidx.annotation.NonNull;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Stand-in for the sync server, answering the requests of a client Syncer with a Syncer on a server collection, as
+ * the LocalServer of libanki does.
+ *
+ * Chunks go through a file, in both directions, so that neither side keeps a whole chunk in memory.
+ */
+public class LocalServer extends RemoteServer {
+    private final Syncer mServer;
+    private final File mChunkFile;
+
+
+    public LocalServer(@NonNull Collection serverCol, @NonNull File chunkFile) {
+        super(null, "hkey", null);
+        mServer = new Syncer(serverCol, null, null);
+        mChunkFile = chunkFile;
+    }
+
+
+    @Override
+    public Response meta() {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/sync/meta").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.get("application/json"), mServer.meta().toString()))
+                .build();
+    }
+
+
+    @Override
+    public JSONObject start(JSONObject kw) {
+        return mServer.start(kw.getInt("minUsn"), kw.getBoolean("lnewer"), kw.getJSONObject("graves"));
+    }
+
+
+    @Override
+    public JSONObject applyChanges(JSONObject kw) {
+        try {
+            return mServer.applyChanges(kw.getJSONObject("changes"));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    @Override
+    public boolean chunk(@NonNull Syncer client) throws IOException {
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mChunkFile), StandardCharsets.UTF_8)))) {
+            mServer.chunk(writer);
+        }
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(mChunkFile), StandardCharsets.UTF_8)))) {
+            return client.applyChunk(reader);
+        }
+    }
+
+
+    @Override
+    public boolean applyChunk(@NonNull Syncer client) {
+        try {
+            boolean done;
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mChunkFile), StandardCharsets.UTF_8)))) {
+                writer.beginObject().name("chunk");
+                done = client.chunk(writer);
+                writer.endObject();
+            }
+            try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(mChunkFile), StandardCharsets.UTF_8)))) {
+                reader.beginObject();
+                reader.nextName();
+                mServer.applyChunk(reader);
+                reader.endObject();
+            }
+            return done;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    @Override
+    public JSONObject sanityCheck2(JSONObject client) {
+        JSONObject server = mServer.sanityCheck();
+        JSONObject result = new JSONObject();
+        if (client.get("client").toString().equals(server.get("client").toString())) {
+            result.put("status", "ok");
+        } else {
+            result.put("status", "bad");
+            result.put("c", client.get("client"));
+            result.put("s", server.get("client"));
+        }
+        return result;
+    }
+
+
+    @Override
+    public long finish() {
+        return mServer.finish();
+    }
+
+
+    @Override
+    public void abort() {
+        // the server collection is only inspected by the test
+    }
+}
@@ -0,0 +1,89 @@
+package com.ichi2.libanki.sync;
+
+import android.util.Pair;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.async.Connection;
+import com.ichi2.libanki.Media;
+import com.ichi2.libanki.Utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipFile;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static com.ichi2.libanki.sync.Syncer.ConnectionResultType.OK;
+import static com.ichi2.libanki.sync.Syncer.ConnectionResultType.USER_ABORTED_SYNC;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaSyncerTest extends RobolectricTest {
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    @Test
+    public void downloadedFilesHaveTheirChecksum() throws Exception {
+        File serverDir = Files.createTempDirectory("AnkiDroid-MediaSyncerTest").toFile();
+        // Several pages of changes, and zips of fewer files than asked for, as the large files fill them
+        for (int i = 0; i < 600; i++) {
+            byte[] content = new byte[i % 50 == 0 ? 1024 * 1024 : 10];
+            content[0] = (byte) i;
+            content[1] = (byte) (i >> 8);
+            Files.write(new File(serverDir, String.format(Locale.US, "file%d.txt", i)).toPath(), content);
+        }
+        LocalMediaServer server = new LocalMediaServer(getCol(), serverDir);
+
+        Pair<Syncer.ConnectionResultType, String> result = new MediaSyncer(getCol(), server, mock(Connection.class)).sync();
+
+        assertEquals(OK, result.first);
+        Media media = getCol().getMedia();
+        assertEquals(600, media.mediacount());
+        for (String fname : server.getFiles()) {
+            String csum = Utils.fileChecksum(new File(serverDir, fname));
+            assertEquals(csum, Utils.fileChecksum(new File(media.dir(), fname)));
+            assertEquals(csum, media.syncInfo(fname).first);
+        }
+        assertEquals(0, media.dirtyCount());
+    }
+
+
+    @Test
+    public void downloadErrorsAreRethrownAsIs() throws Exception {
+        File serverDir = Files.createTempDirectory("AnkiDroid-MediaSyncerTest").toFile();
+        for (int i = 0; i < 100; i++) {
+            Files.write(new File(serverDir, String.format(Locale.US, "file%d.txt", i)).toPath(), new byte[] {(byte) i});
+        }
+        LocalMediaServer server = new LocalMediaServer(getCol(), serverDir) {
+            private int mDownloads = 0;
+
+
+            @Override
+            public ZipFile downloadFiles(List<String> top) {
+                if (++mDownloads == 2) {
+                    throw new RuntimeException(USER_ABORTED_SYNC.toString());
+                }
+                return super.downloadFiles(top);
+            }
+        };
+
+        try {
+            new MediaSyncer(getCol(), server, mock(Connection.class)).sync();
+            fail("The sync should be aborted");
+        } catch (RuntimeException e) {
+            // as expected by Connection
+            assertEquals(USER_ABORTED_SYNC.toString(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ichi2.libanki.sync;
+
+import android.util.Pair;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Storage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static com.ichi2.libanki.sync.Syncer.ConnectionResultType.SUCCESS;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class SyncerTest extends RobolectricTest {
+
+    /** More rows than a chunk, so that each direction takes several chunks. */
+    private static final int NOTES = 300;
+
+
+    @Test
+    public void normalSyncStreamsChunksBothWays() throws Exception {
+        Collection client = getCol();
+        for (int i = 0; i < NOTES; i++) {
+            addNoteUsingBasicModel("client " + i, "back");
+        }
+        long cid = client.getDb().queryLongScalar("SELECT min(id) FROM cards");
+        client.getDb().execute("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", 1L, cid, -1, 3, 1, 0, 2500, 1000, 0);
+        client.save();
+
+        File dir = Files.createTempDirectory("AnkiDroid-SyncerTest").toFile();
+        Collection server = Storage.Collection(getTargetContext(), new File(dir, "server.anki2").getAbsolutePath(), true, false);
+        try {
+            for (int i = 0; i < NOTES; i++) {
+                Note note = server.newNote();
+                note.setItem("Front", "server " + i);
+                server.addNote(note);
+            }
+            server.save();
+            // a normal sync requires both sides to have the same schema
+            server.getDb().execute("UPDATE col SET scm = ?", client.getScm());
+            server.load();
+
+            Pair<Syncer.ConnectionResultType, Object> result = new Syncer(client, new LocalServer(server, new File(dir, "chunk")), null).sync(null);
+
+            assertEquals(SUCCESS, result.first);
+            assertEquals(2 * NOTES, client.getDb().queryScalar("SELECT count() FROM notes"));
+            assertEquals(2 * NOTES, server.getDb().queryScalar("SELECT count() FROM notes"));
+            assertEquals(2 * NOTES, server.getDb().queryScalar("SELECT count() FROM cards"));
+            assertEquals(1, server.getDb().queryScalar("SELECT count() FROM revlog WHERE cid = ?", cid));
+            assertEquals(0, client.getDb().queryScalar("SELECT count() FROM cards WHERE usn = -1"));
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -220,4 +220,33 @@ public class ParserTest extends RobolectricTest {
         assertThat(ParsedNode.parse_inner(switchField).template_is_empty("Useless1", "Field0", "Field2"),
                 is(false));
     }
+
+
+    @Test
+    public void parsedTemplatesAreCached() {
+        String template = "{{Front}} cached " + System.nanoTime();
+        int misses = ParsedNode.getParseCacheMissCount();
+        int hits = ParsedNode.getParseCacheHitCount();
+
+        ParsedNode first = ParsedNode.parse_inner(template);
+        assertThat(ParsedNode.getParseCacheMissCount(), is(misses + 1));
+
+        ParsedNode second = ParsedNode.parse_inner(template);
+        assertThat(ParsedNode.getParseCacheHitCount(), is(hits + 1));
+        assertThat(second == first, is(true));
+    }
+
+
+    @Test
+    public void invalidTemplateErrorIsCached() {
+        String template = "{{#Front}} " + System.nanoTime();
+        for (int i = 0; i < 2; i++) {
+            try {
+                ParsedNode.parse_inner(template);
+                fail("The conditional is not closed");
+            } catch (TemplateError.ConditionalNotClosed e) {
+                // expected
+            }
+        }
+    }
 }
@@ -0,0 +1,75 @@
+package com.ichi2.libanki.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ZipCompressionTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+
+    @Test
+    public void compressedFilesAreStored() throws Exception {
+        byte[] random = new byte[10000];
+        new Random(42).nextBytes(random);
+        byte[] text = new byte[10000];
+        Arrays.fill(text, (byte) 'a');
+
+        assertEquals(ZipEntry.STORED, method(file("image.JPG", text)));
+        assertEquals(ZipEntry.STORED, method(file("sound", random)));
+        assertEquals(ZipEntry.DEFLATED, method(file("style.css", text)));
+        assertEquals(ZipEntry.DEFLATED, method(file("small", "hello".getBytes(StandardCharsets.UTF_8))));
+    }
+
+
+    @Test
+    public void storedEntriesCanBeRead() throws Exception {
+        byte[] random = new byte[10000];
+        new Random(42).nextBytes(random);
+        File file = file("image.png", random);
+        File zip = mFolder.newFile("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            ZipEntry entry = new ZipEntry("0");
+            ZipCompression.setMethod(entry, file);
+            out.putNextEntry(entry);
+            out.write(random);
+            out.closeEntry();
+        }
+        try (ZipFile z = new ZipFile(zip)) {
+            ZipEntry entry = z.getEntry("0");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            byte[] content = new byte[random.length];
+            new DataInputStream(z.getInputStream(entry)).readFully(content);
+            assertArrayEquals(random, content);
+        }
+    }
+
+
+    private File file(String name, byte[] content) throws Exception {
+        File file = new File(mFolder.getRoot(), name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+
+    private static int method(File file) throws Exception {
+        ZipEntry entry = new ZipEntry(file.getName());
+        ZipCompression.setMethod(entry, file);
+        return entry.getMethod();
+    }
+}